@@ -10,33 +10,67 @@ package org.intermine.bio.dataconversion;
  *
  */
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
 import org.intermine.bio.util.BioConverterUtil;
 import org.intermine.dataconversion.DirectoryConverter;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.xml.full.Item;
+import org.intermine.xml.full.ItemFactory;
+import org.intermine.xml.full.Reference;
+import org.intermine.xml.full.ReferenceList;
 
 /**
  * A DirectoryConverter that automatically sets the dataSets collection of
- * objects as they are stored.
+ * objects as they are stored. Sub-classes can parse their files concurrently with processFiles().
  *
  * @author Julie Sullivan
  */
 
 public abstract class BioDirectoryConverter extends DirectoryConverter
 {
+    private static final Logger LOG = Logger.getLogger(BioDirectoryConverter.class);
+    private static final int DEFAULT_PARSER_THREADS = Math.min(4,
+            Runtime.getRuntime().availableProcessors());
+    private static final String PARSED_PREFIX = "parsed_";
+
     private final Map<String, String> dataSets = new HashMap<String, String>();
     private final Map<String, String> dataSources = new HashMap<String, String>();
     private Set<String> synonyms = new HashSet<String>();
     private Set<String> crossReferences = new HashSet<String>();
-    private Map<String, String> organisms = new HashMap<String, String>();
+    // Items shared between files, eg. organisms, from class name, key field and value to refId
+    private final ConcurrentMap<MultiKey, String> referenceItems =
+        new ConcurrentHashMap<MultiKey, String>();
+    // Items made by parsers have a temporary identifier until their batch is stored
+    private final ItemFactory parsedItemFactory = new ItemFactory(getModel());
+    private final AtomicInteger parsedItemCount = new AtomicInteger();
+    private final ConcurrentMap<String, String> parsedClassNames =
+        new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, String> storedIdentifiers =
+        new ConcurrentHashMap<String, String>();
+    private int parserThreads = DEFAULT_PARSER_THREADS;
     private BioStoreHook hook = null;
     private String sequenceOntologyRefId;
 
@@ -149,18 +183,189 @@ public abstract class BioDirectoryConverter extends DirectoryConverter
      * @return the refId representing the Organism Item
      */
     public String getOrganism(String taxonId) {
-        String refId = organisms.get(taxonId);
+        return getReferenceItem("Organism", "taxonId", taxonId, null, null);
+    }
+
+    /**
+     * Set the number of threads processFiles() parses files with, from the parser.threads
+     * property of the source. 1 parses the files one after another on the calling thread.
+     *
+     * @param parserThreads the number of threads
+     */
+    public void setParserThreads(String parserThreads) {
+        this.parserThreads = Math.max(1, Integer.parseInt(parserThreads.trim()));
+    }
+
+    /**
+     * Creates an Item. This may be called from several threads at once while processFiles() is
+     * running.
+     *
+     * @param className unqualified classname to create item for
+     * @return a new item with an identifier but not fields
+     */
+    @Override
+    public synchronized Item createItem(String className) {
+        return super.createItem(className);
+    }
+
+    /**
+     * Makes an Item for an ItemBatch, with a temporary identifier that is replaced when the batch
+     * is stored.
+     *
+     * @param className unqualified classname to create item for
+     * @return a new item with a temporary identifier
+     */
+    Item createParsedItem(String className) {
+        String identifier = PARSED_PREFIX + parsedItemCount.incrementAndGet();
+        parsedClassNames.put(identifier, className);
+        return parsedItemFactory.makeItem(identifier, className, "");
+    }
+
+    /**
+     * Returns a new identifier for an Item of the given class, as createItem() would give it.
+     */
+    private synchronized String newIdentifier(String className) {
+        return alias(className) + "_" + newId(className);
+    }
+
+    /**
+     * Returns the identifier that an Item made by a parser was stored with, or the identifier
+     * given if it is not a temporary one or the Item has not been stored yet.
+     */
+    private String getStoredIdentifier(String identifier) {
+        String stored = storedIdentifiers.get(identifier);
+        return (stored == null ? identifier : stored);
+    }
+
+    /**
+     * Parses files concurrently and stores the Items made from each file. Up to parser.threads
+     * files are parsed at once, each into its own ItemBatch, and the batches are stored on the
+     * calling thread in the order of the files. The Items made by parsers are given their
+     * identifiers as they are stored, in the order each file first used them, so that the output
+     * is the same whichever parser finishes first and however many threads there are. Parsers must
+     * make Items through their ItemBatch rather than the non-thread-safe methods of this converter,
+     * such as createSynonym().
+     *
+     * @param files the files to parse
+     * @param parser the parser to run on each file
+     * @throws Exception if a parser fails or the Items cannot be stored
+     */
+    protected void processFiles(List<File> files, final FileParser parser) throws Exception {
+        if (parserThreads <= 1 || files.size() <= 1) {
+            for (File file : files) {
+                ItemBatch batch = new ItemBatch(this, file);
+                parser.parse(file, batch);
+                storeBatch(batch);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(parserThreads, new ThreadFactory() {
+            private int threadNo = 0;
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, BioDirectoryConverter.this.getClass().getSimpleName()
+                        + " parser " + (threadNo++));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // Keep a few files parsed ahead of the writer, but not so many that memory runs out
+        LinkedList<Future<ItemBatch>> pending = new LinkedList<Future<ItemBatch>>();
+        try {
+            Iterator<File> fileIter = files.iterator();
+            while (fileIter.hasNext() || !pending.isEmpty()) {
+                while (fileIter.hasNext() && pending.size() < parserThreads * 2) {
+                    final File file = fileIter.next();
+                    pending.add(pool.submit(new Callable<ItemBatch>() {
+                        public ItemBatch call() throws Exception {
+                            ItemBatch batch = new ItemBatch(BioDirectoryConverter.this, file);
+                            parser.parse(file, batch);
+                            return batch;
+                        }
+                    }));
+                }
+                ItemBatch batch;
+                try {
+                    batch = pending.removeFirst().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+                storeBatch(batch);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void storeBatch(ItemBatch batch) throws ObjectStoreException {
+        for (String identifier : batch.getIdentifiers()) {
+            String className = parsedClassNames.remove(identifier);
+            if (className != null) {
+                storedIdentifiers.put(identifier, newIdentifier(className));
+            }
+        }
+        for (Item item : batch.getItems()) {
+            item.setIdentifier(getStoredIdentifier(item.getIdentifier()));
+            for (Reference reference : item.getReferences()) {
+                reference.setRefId(getStoredIdentifier(reference.getRefId()));
+            }
+            for (ReferenceList collection : item.getCollections()) {
+                List<String> refIds = new ArrayList<String>();
+                for (String refId : collection.getRefIds()) {
+                    refIds.add(getStoredIdentifier(refId));
+                }
+                collection.setRefIds(refIds);
+            }
+        }
+        store(batch.getItems());
+        LOG.info("Stored " + batch.getItems().size() + " items from " + batch.getFile().getName());
+    }
+
+    /**
+     * Returns the identifier of the Item of a class that has a given value of a key attribute,
+     * creating it if it has not been made before. If several threads ask for the same Item at once
+     * only one Item is kept.
+     *
+     * @param className the class of the Item
+     * @param keyField the attribute that identifies it
+     * @param keyValue the value of the attribute
+     * @param ontologyRefId the Ontology to reference from a new Item, or null
+     * @param batch the batch to add a new Item to, or null to store it straight away
+     * @return the identifier of the Item
+     */
+    String getReferenceItem(String className, String keyField, String keyValue,
+            String ontologyRefId, ItemBatch batch) {
+        MultiKey key = new MultiKey(className, keyField, keyValue);
+        String refId = referenceItems.get(key);
         if (refId == null) {
-            Item organism = createItem("Organism");
-            organism.setAttribute("taxonId", taxonId);
-            try {
-                store(organism);
-            } catch (ObjectStoreException e) {
-                throw new RuntimeException("failed to store organism with taxonId: " + taxonId, e);
+            Item item = (batch == null ? createItem(className) : createParsedItem(className));
+            item.setAttribute(keyField, keyValue);
+            if (ontologyRefId != null) {
+                item.setReference("ontology", ontologyRefId);
             }
-            refId = organism.getIdentifier();
-            organisms.put(taxonId, refId);
+            refId = referenceItems.putIfAbsent(key, item.getIdentifier());
+            if (refId != null) {
+                // another thread made the same Item first, so this one is thrown away
+                parsedClassNames.remove(item.getIdentifier());
+            } else if (batch == null) {
+                try {
+                    store(item);
+                } catch (ObjectStoreException e) {
+                    throw new RuntimeException("failed to store " + className + " with "
+                            + keyField + ": " + keyValue, e);
+                }
+                refId = item.getIdentifier();
+            } else {
+                batch.addItem(item);
+                refId = item.getIdentifier();
+            }
+        }
+        if (batch == null) {
+            return getStoredIdentifier(refId);
         }
+        batch.useIdentifier(refId);
         return refId;
     }
 
@@ -233,4 +438,19 @@ public abstract class BioDirectoryConverter extends DirectoryConverter
         }
         return sequenceOntologyRefId;
     }
+
+    /**
+     * Parses one file for processFiles(), on a thread of its own.
+     */
+    protected interface FileParser
+    {
+        /**
+         * Parse a file, adding the Items made from it to the batch.
+         *
+         * @param file the file to parse
+         * @param batch the batch to make Items in and add them to
+         * @throws Exception if the file cannot be parsed
+         */
+        void parse(File file, ItemBatch batch) throws Exception;
+    }
 }
@@ -78,7 +78,7 @@ public class EnsemblIdResolverFactory extends IdResolverFactory
                 File f = new File(resolverFileName);
                 if (f.exists()) {
                     createFromFile(f);
-                    resolver.writeToFile(new File(idResolverCachedFileName));
+                    writeToCache();
                 } else {
                     LOG.warn("Resolver file does not exist: " + resolverFileName);
                 }
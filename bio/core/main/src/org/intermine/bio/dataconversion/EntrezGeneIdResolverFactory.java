@@ -183,7 +183,7 @@ public class EntrezGeneIdResolverFactory extends IdResolverFactory
                 File f = new File(resolverFileName);
                 if (f.exists()) {
                     createFromFile(f, taxonIds);
-                    resolver.writeToFile(new File(idResolverCachedFileName));
+                    writeToCache();
                 } else {
                     LOG.warn("Resolver file does not exist: " + resolverFileName);
                 }
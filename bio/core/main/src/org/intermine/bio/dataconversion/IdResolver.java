@@ -56,6 +56,8 @@ public class IdResolver
     protected Map<MultiKey, Map<String, Set<String>>> orgIdMainMaps = new MultiKeyMap();
     @SuppressWarnings("unchecked")
     protected Map<MultiKey, Map<String, Set<String>>> orgIdSynMaps = new MultiKeyMap();
+    // entries read from a memory-mapped dictionary, in addition to those in the maps above
+    protected IdResolverDictionary dictionary = null;
 
     /**
      * Construct and empty IdResolver
@@ -79,7 +81,7 @@ public class IdResolver
      * @param className which class to resolve
      */
     protected void checkTaxonId(String taxonId, String className) {
-        if (!orgIdMaps.containsKey(new MultiKey(taxonId, className))) {
+        if (!hasKey(new MultiKey(taxonId, className))) {
             throw new IllegalArgumentException(className + " IdResolver has no data for taxonId: '"
                                                + taxonId + "'.");
         }
@@ -94,7 +96,12 @@ public class IdResolver
      */
     public boolean isPrimaryIdentifier(String taxonId, String className, String id) {
         checkTaxonId(taxonId, className);
-        return orgIdMaps.get(new MultiKey(taxonId, className)).containsKey(id);
+        Map<String, Set<String>> idMap = orgIdMaps.get(new MultiKey(taxonId, className));
+        if (idMap != null && idMap.containsKey(id)) {
+            return true;
+        }
+        return dictionary != null
+            && dictionary.containsKey(taxonId, className, IdResolverDictionary.IDS, id);
     }
 
     /**
@@ -122,13 +129,14 @@ public class IdResolver
         if (isPrimaryIdentifier(taxonId, className, id)) {
             return Collections.singleton(id);
         }
-        if (orgMainMaps.containsKey(new MultiKey(taxonId, className))
-            && orgMainMaps.get(new MultiKey(taxonId, className)).containsKey(id)) {
-            return orgMainMaps.get(new MultiKey(taxonId, className)).get(id);
+        Set<String> primaryIds = lookup(orgMainMaps, IdResolverDictionary.MAIN, taxonId,
+                className, id);
+        if (primaryIds != null) {
+            return primaryIds;
         }
-        if (orgSynMaps.containsKey(new MultiKey(taxonId, className))
-            && orgSynMaps.get(new MultiKey(taxonId, className)).containsKey(id)) {
-            return orgSynMaps.get(new MultiKey(taxonId, className)).get(id);
+        primaryIds = lookup(orgSynMaps, IdResolverDictionary.SYN, taxonId, className, id);
+        if (primaryIds != null) {
+            return primaryIds;
         }
         return Collections.emptySet();
     }
@@ -195,7 +203,7 @@ public class IdResolver
         if (!isPrimaryIdentifier(taxonId, className, primaryIdentifier)) {
             return null;
         }
-        return orgIdMaps.get(new MultiKey(taxonId, className)).get(primaryIdentifier);
+        return lookup(orgIdMaps, IdResolverDictionary.IDS, taxonId, className, primaryIdentifier);
     }
 
     /**
@@ -248,7 +256,7 @@ public class IdResolver
      */
     public boolean hasTaxons(Set<String> taxonIds) {
         Set<String> taxonIdSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             taxonIdSet.add((String) key.getKey(0));
         }
         return taxonIdSet.containsAll(taxonIds);
@@ -260,7 +268,7 @@ public class IdResolver
      */
     public Set<String> getTaxons() {
         Set<String> taxonIdSet = new LinkedHashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             taxonIdSet.add((String) key.getKey(0));
         }
         return taxonIdSet;
@@ -273,7 +281,7 @@ public class IdResolver
      */
     public boolean hasClassName(String className) {
         Set<String> clsNameSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             clsNameSet.add((String) key.getKey(1));
         }
         return clsNameSet.contains(className);
@@ -285,7 +293,7 @@ public class IdResolver
      */
     public Set<String> getClassNames() {
         Set<String> clsNameSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             clsNameSet.add((String) key.getKey(1));
         }
         return clsNameSet;
@@ -298,7 +306,7 @@ public class IdResolver
      * @return true if the resolver has data for this taxon ID and data type
      */
     public boolean hasTaxonAndClassName(String taxonId, String className) {
-        return orgIdMaps.keySet().contains(new MultiKey(taxonId, className));
+        return hasKey(new MultiKey(taxonId, className));
     }
 
     /**
@@ -344,7 +352,7 @@ public class IdResolver
             }
         }
 
-        return orgIdMaps.keySet().containsAll(keySet);
+        return getKeys().containsAll(keySet);
     }
 
     /**
@@ -353,7 +361,7 @@ public class IdResolver
      */
     public Map<String, Set<String>> getTaxonsAndClassNames() {
         Map<String, Set<String>> taxonIdAndClsNameMap = new HashMap<String, Set<String>>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             String taxonId = (String) key.getKey(0);
             String className = (String) key.getKey(1);
             if (taxonIdAndClsNameMap.get(taxonId) == null) {
@@ -499,14 +507,20 @@ public class IdResolver
      */
     public void writeToFile(File f) throws IOException {
         LOG.info("Writing id resolver to file: " + f.getName());
+        Map<MultiKey, Map<String, Set<String>>> idMaps = merge(orgIdMaps,
+                IdResolverDictionary.IDS);
+        Map<MultiKey, Map<String, Set<String>>> idMainMaps = merge(orgIdMainMaps,
+                IdResolverDictionary.ID_MAIN);
+        Map<MultiKey, Map<String, Set<String>>> idSynMaps = merge(orgIdSynMaps,
+                IdResolverDictionary.ID_SYN);
         FileWriter fw = new FileWriter(f, true); // append if true
 //        FileWriter fw = new FileWriter(f);
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : idMaps.keySet()) {
 
             // get maps for this organism
-            Map<String, Set<String>> idMap = orgIdMaps.get(key);
-            Map<String, Set<String>> mainIdsMap = orgIdMainMaps.get(key);
-            Map<String, Set<String>> synonymMap = orgIdSynMaps.get(key);
+            Map<String, Set<String>> idMap = idMaps.get(key);
+            Map<String, Set<String>> mainIdsMap = idMainMaps.get(key);
+            Map<String, Set<String>> synonymMap = idSynMaps.get(key);
 
             for (Map.Entry<String, Set<String>> idMapEntry : idMap.entrySet()) {
                 StringBuffer sb = new StringBuffer();
@@ -551,11 +565,47 @@ public class IdResolver
 
 
     /**
-     * Read contents of an IdResolver from file, allows for caching during a build.
+     * Write IdResolver contents to a memory-mapped dictionary, replacing the file if it exists.
+     * The IdResolver then reads from the new dictionary and frees its in-memory maps.
+     * @param f the file to write to
+     * @throws IOException if fail to write
+     */
+    public void writeToDictionary(File f) throws IOException {
+        LOG.info("Writing id resolver to dictionary: " + f.getName());
+        IdResolverDictionary.write(f, merge(orgIdMaps, IdResolverDictionary.IDS),
+                merge(orgIdMainMaps, IdResolverDictionary.ID_MAIN),
+                merge(orgIdSynMaps, IdResolverDictionary.ID_SYN));
+        openDictionary(f);
+        orgIdMaps.clear();
+        orgSynMaps.clear();
+        orgMainMaps.clear();
+        orgIdMainMaps.clear();
+        orgIdSynMaps.clear();
+    }
+
+    /**
+     * Read from a dictionary written by writeToDictionary, in addition to any entries already
+     * added. Any dictionary opened before is replaced.
+     * @param f the file to read from
+     * @throws IOException if problem reading from file
+     */
+    public void openDictionary(File f) throws IOException {
+        dictionary = new IdResolverDictionary(f);
+        LOG.info("Opened id resolver dictionary " + f.getName() + " with "
+                + dictionary.getStringCount() + " identifiers for " + dictionary.getKeys());
+    }
+
+    /**
+     * Read contents of an IdResolver from file, allows for caching during a build. The file may
+     * be a flat file written by writeToFile or a dictionary written by writeToDictionary.
      * @param f the file to read from
      * @throws IOException if problem reading from file
      */
     public void populateFromFile(File f) throws IOException {
+        if (IdResolverDictionary.isDictionary(f)) {
+            openDictionary(f);
+            return;
+        }
         BufferedReader reader = new BufferedReader(new FileReader(f));
         String line = null;
         while ((line = reader.readLine()) != null) {
@@ -585,6 +635,59 @@ public class IdResolver
     // TODO populate part from file with given taxons and classes, what if there
     // are some data nonexists? Maybe not a good idea...
 
+    private boolean hasKey(MultiKey key) {
+        return orgIdMaps.containsKey(key)
+            || (dictionary != null && dictionary.getKeys().contains(key));
+    }
+
+    // the taxon id and class name pairs held in the maps or the dictionary
+    private Set<MultiKey> getKeys() {
+        if (dictionary == null) {
+            return orgIdMaps.keySet();
+        }
+        Set<MultiKey> keys = new LinkedHashSet<MultiKey>(dictionary.getKeys());
+        keys.addAll(orgIdMaps.keySet());
+        return keys;
+    }
+
+    // look an id up in one of the maps and the matching dictionary table, null if in neither
+    private Set<String> lookup(Map<MultiKey, Map<String, Set<String>>> maps, int table,
+            String taxonId, String className, String id) {
+        Map<String, Set<String>> map = maps.get(new MultiKey(taxonId, className));
+        Set<String> fromMap = (map == null ? null : map.get(id));
+        Set<String> fromDictionary = (dictionary == null ? null
+                : dictionary.get(taxonId, className, table, id));
+        if (fromDictionary == null) {
+            return fromMap;
+        }
+        if (fromMap != null) {
+            fromDictionary.addAll(fromMap);
+        }
+        return fromDictionary;
+    }
+
+    // the contents of one of the maps together with the matching dictionary table
+    private Map<MultiKey, Map<String, Set<String>>> merge(
+            Map<MultiKey, Map<String, Set<String>>> maps, int table) {
+        if (dictionary == null) {
+            return maps;
+        }
+        Map<MultiKey, Map<String, Set<String>>> retval =
+            new LinkedHashMap<MultiKey, Map<String, Set<String>>>();
+        for (MultiKey key : getKeys()) {
+            Map<String, Set<String>> merged = dictionary.getTable((String) key.getKey(0),
+                    (String) key.getKey(1), table);
+            Map<String, Set<String>> map = maps.get(key);
+            if (map != null) {
+                for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+                    addToMapList(merged, entry.getKey(), entry.getValue());
+                }
+            }
+            retval.put(key, merged);
+        }
+        return retval;
+    }
+
     // add a new list to a map or add elements of set to existing map entry
     private static void addToMapList(Map<String, Set<String>> map, String key,
             Collection<String> values) {
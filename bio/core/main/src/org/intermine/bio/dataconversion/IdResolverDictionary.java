@@ -0,0 +1,446 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+
+/**
+ * A read-only, memory-mapped copy of the contents of an IdResolver. Every identifier is stored
+ * once in a table of strings sorted by their UTF-8 bytes, and each of the maps held by an
+ * IdResolver is stored per taxon id and class name as a sorted array of string numbers with a
+ * postings list of string numbers for each. Looking up an identifier is a binary search of the
+ * string table followed by a binary search of the table for the map, without reading the rest of
+ * the file, so a dictionary opens in milliseconds and the operating system shares its pages
+ * between all the converters reading it.
+ *
+ * The file is laid out as: the magic number and version; the number of strings, their offsets and
+ * their bytes; the tables; a directory giving the taxon id, class name and table positions for
+ * each key; and finally the position of the directory.
+ */
+public class IdResolverDictionary
+{
+    private static final int MAGIC = 0x49445244;
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The table from primary identifier to all of its main identifiers and synonyms */
+    public static final int IDS = 0;
+    /** The table from primary identifier to its main identifiers */
+    public static final int ID_MAIN = 1;
+    /** The table from primary identifier to its synonyms */
+    public static final int ID_SYN = 2;
+    /** The table from main identifier to primary identifiers */
+    public static final int MAIN = 3;
+    /** The table from synonym to primary identifiers */
+    public static final int SYN = 4;
+    private static final int TABLE_COUNT = 5;
+
+    private final ByteBuffer buffer;
+    private final int stringCount;
+    private final int stringData;
+    private final Map<MultiKey, int[]> tables = new LinkedHashMap<MultiKey, int[]>();
+
+    /**
+     * Returns true if the given file starts with the magic number of a dictionary.
+     *
+     * @param f a file
+     * @return a boolean
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isDictionary(File f) throws IOException {
+        if (!f.exists() || f.length() < 8) {
+            return false;
+        }
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            return raf.readInt() == MAGIC;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps a dictionary file into memory.
+     *
+     * @param f the file written by write()
+     * @throws IOException if the file cannot be read or is not a dictionary
+     */
+    public IdResolverDictionary(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            if (raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("Id resolver dictionary " + f + " is too large to map");
+            }
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+            buffer = mapped;
+        } finally {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+        if (buffer.capacity() < 16 || buffer.getInt(0) != MAGIC) {
+            throw new IOException(f + " is not an id resolver dictionary");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Id resolver dictionary " + f + " has version "
+                    + buffer.getInt(4) + ", expected " + VERSION);
+        }
+        stringCount = buffer.getInt(8);
+        stringData = 12 + (stringCount + 1) * 4;
+        int directory = buffer.getInt(buffer.capacity() - 4);
+        int keyCount = buffer.getInt(directory);
+        int pos = directory + 4;
+        for (int i = 0; i < keyCount; i++) {
+            String taxonId = getString(buffer.getInt(pos));
+            String className = getString(buffer.getInt(pos + 4));
+            int[] positions = new int[TABLE_COUNT];
+            for (int t = 0; t < TABLE_COUNT; t++) {
+                positions[t] = buffer.getInt(pos + 8 + t * 4);
+            }
+            tables.put(new MultiKey(taxonId, className), positions);
+            pos += 8 + TABLE_COUNT * 4;
+        }
+    }
+
+    /**
+     * Returns the taxon id and class name pairs held in this dictionary.
+     *
+     * @return an unmodifiable Set of MultiKey
+     */
+    public Set<MultiKey> getKeys() {
+        return Collections.unmodifiableSet(tables.keySet());
+    }
+
+    /**
+     * Returns the number of distinct identifiers held in this dictionary.
+     *
+     * @return an int
+     */
+    public int getStringCount() {
+        return stringCount;
+    }
+
+    /**
+     * Returns true if the given identifier is a key of the given table.
+     *
+     * @param taxonId the organism
+     * @param className the class name
+     * @param table one of IDS, ID_MAIN, ID_SYN, MAIN or SYN
+     * @param id the identifier
+     * @return a boolean
+     */
+    public boolean containsKey(String taxonId, String className, int table, String id) {
+        return findEntry(taxonId, className, table, id) >= 0;
+    }
+
+    /**
+     * Returns the identifiers that the given identifier maps to in the given table.
+     *
+     * @param taxonId the organism
+     * @param className the class name
+     * @param table one of IDS, ID_MAIN, ID_SYN, MAIN or SYN
+     * @param id the identifier
+     * @return a new Set of identifiers in the order they were added, or null if the identifier is
+     * not a key of the table
+     */
+    public Set<String> get(String taxonId, String className, int table, String id) {
+        int[] positions = tables.get(new MultiKey(taxonId, className));
+        if (positions == null) {
+            return null;
+        }
+        int entry = findEntry(positions[table], id);
+        if (entry < 0) {
+            return null;
+        }
+        return getPostings(positions[table], entry);
+    }
+
+    /**
+     * Returns the whole of one table for a taxon id and class name, for rewriting a dictionary.
+     *
+     * @param taxonId the organism
+     * @param className the class name
+     * @param table one of IDS, ID_MAIN, ID_SYN, MAIN or SYN
+     * @return a new Map from identifier to identifiers
+     */
+    public Map<String, Set<String>> getTable(String taxonId, String className, int table) {
+        Map<String, Set<String>> retval = new LinkedHashMap<String, Set<String>>();
+        int[] positions = tables.get(new MultiKey(taxonId, className));
+        if (positions != null) {
+            int pos = positions[table];
+            int entryCount = buffer.getInt(pos);
+            for (int i = 0; i < entryCount; i++) {
+                retval.put(getString(buffer.getInt(pos + 4 + i * 4)), getPostings(pos, i));
+            }
+        }
+        return retval;
+    }
+
+    private int findEntry(String taxonId, String className, int table, String id) {
+        int[] positions = tables.get(new MultiKey(taxonId, className));
+        return positions == null ? -1 : findEntry(positions[table], id);
+    }
+
+    private int findEntry(int tablePos, String id) {
+        int stringNo = findString(id);
+        if (stringNo < 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = buffer.getInt(tablePos) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int key = buffer.getInt(tablePos + 4 + mid * 4);
+            if (key < stringNo) {
+                low = mid + 1;
+            } else if (key > stringNo) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private Set<String> getPostings(int tablePos, int entry) {
+        int entryCount = buffer.getInt(tablePos);
+        int offsets = tablePos + 4 + entryCount * 4;
+        int postings = offsets + (entryCount + 1) * 4;
+        int start = buffer.getInt(offsets + entry * 4);
+        int end = buffer.getInt(offsets + entry * 4 + 4);
+        Set<String> retval = new LinkedHashSet<String>();
+        for (int i = start; i < end; i++) {
+            retval.add(getString(buffer.getInt(postings + i * 4)));
+        }
+        return retval;
+    }
+
+    private int findString(String s) {
+        byte[] bytes = s.getBytes(UTF8);
+        int low = 0;
+        int high = stringCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareString(mid, bytes);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareString(int stringNo, byte[] bytes) {
+        int start = stringData + buffer.getInt(12 + stringNo * 4);
+        int length = stringData + buffer.getInt(16 + stringNo * 4) - start;
+        int common = Math.min(length, bytes.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (buffer.get(start + i) & 0xff) - (bytes[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - bytes.length;
+    }
+
+    private String getString(int stringNo) {
+        int start = stringData + buffer.getInt(12 + stringNo * 4);
+        byte[] bytes = new byte[stringData + buffer.getInt(16 + stringNo * 4) - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Writes a dictionary file. The file is written under a temporary name and renamed into place,
+     * so that processes that have the old file mapped keep reading it unharmed.
+     *
+     * @param f the file to write
+     * @param idMaps for each taxon id and class name, a map from primary identifier to all of its
+     * main identifiers and synonyms
+     * @param idMainMaps for each taxon id and class name, a map from primary identifier to its main
+     * identifiers
+     * @param idSynMaps for each taxon id and class name, a map from primary identifier to its
+     * synonyms
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File f, Map<MultiKey, Map<String, Set<String>>> idMaps,
+            Map<MultiKey, Map<String, Set<String>>> idMainMaps,
+            Map<MultiKey, Map<String, Set<String>>> idSynMaps) throws IOException {
+        // Number every string in the order of its UTF-8 bytes
+        TreeSet<byte[]> sorted = new TreeSet<byte[]>(new ByteComparator());
+        for (MultiKey key : idMaps.keySet()) {
+            addStrings(sorted, Collections.singleton((String) key.getKey(0)));
+            addStrings(sorted, Collections.singleton((String) key.getKey(1)));
+            for (Map.Entry<String, Set<String>> entry : idMaps.get(key).entrySet()) {
+                addStrings(sorted, Collections.singleton(entry.getKey()));
+                addStrings(sorted, entry.getValue());
+            }
+        }
+        Map<String, Integer> numbers = new HashMap<String, Integer>();
+        int stringNo = 0;
+        for (byte[] bytes : sorted) {
+            numbers.put(new String(bytes, UTF8), new Integer(stringNo));
+            stringNo++;
+        }
+
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] bytes : sorted) {
+                offset += bytes.length;
+                out.writeInt(offset);
+            }
+            for (byte[] bytes : sorted) {
+                out.write(bytes);
+            }
+
+            Map<MultiKey, int[]> positions = new LinkedHashMap<MultiKey, int[]>();
+            for (MultiKey key : idMaps.keySet()) {
+                Map<String, Set<String>> idMainMap = notNull(idMainMaps.get(key));
+                Map<String, Set<String>> idSynMap = notNull(idSynMaps.get(key));
+                int[] keyPositions = new int[TABLE_COUNT];
+                keyPositions[IDS] = writeTable(out, numbers, idMaps.get(key));
+                keyPositions[ID_MAIN] = writeTable(out, numbers, idMainMap);
+                keyPositions[ID_SYN] = writeTable(out, numbers, idSynMap);
+                keyPositions[MAIN] = writeTable(out, numbers, invert(idMainMap));
+                keyPositions[SYN] = writeTable(out, numbers, invert(idSynMap));
+                positions.put(key, keyPositions);
+            }
+
+            int directory = checkSize(out);
+            out.writeInt(positions.size());
+            for (Map.Entry<MultiKey, int[]> entry : positions.entrySet()) {
+                out.writeInt(numbers.get(entry.getKey().getKey(0)).intValue());
+                out.writeInt(numbers.get(entry.getKey().getKey(1)).intValue());
+                for (int pos : entry.getValue()) {
+                    out.writeInt(pos);
+                }
+            }
+            out.writeInt(directory);
+            checkSize(out);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(f)) {
+            throw new IOException("Failed to rename " + tmp + " to " + f);
+        }
+    }
+
+    private static int writeTable(DataOutputStream out, Map<String, Integer> numbers,
+            Map<String, Set<String>> map) throws IOException {
+        int pos = checkSize(out);
+        TreeMap<Integer, Collection<String>> byNumber = new TreeMap<Integer, Collection<String>>();
+        for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+            byNumber.put(numbers.get(entry.getKey()), entry.getValue());
+        }
+        out.writeInt(byNumber.size());
+        for (Integer key : byNumber.keySet()) {
+            out.writeInt(key.intValue());
+        }
+        int offset = 0;
+        out.writeInt(offset);
+        for (Collection<String> values : byNumber.values()) {
+            offset += values.size();
+            out.writeInt(offset);
+        }
+        for (Collection<String> values : byNumber.values()) {
+            for (String value : values) {
+                out.writeInt(numbers.get(value).intValue());
+            }
+        }
+        return pos;
+    }
+
+    private static Map<String, Set<String>> invert(Map<String, Set<String>> map) {
+        Map<String, Set<String>> retval = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+            for (String id : entry.getValue()) {
+                Set<String> primaryIds = retval.get(id);
+                if (primaryIds == null) {
+                    primaryIds = new LinkedHashSet<String>();
+                    retval.put(id, primaryIds);
+                }
+                primaryIds.add(entry.getKey());
+            }
+        }
+        return retval;
+    }
+
+    private static void addStrings(Set<byte[]> sorted, Collection<String> strings) {
+        for (String s : strings) {
+            sorted.add(s.getBytes(UTF8));
+        }
+    }
+
+    private static Map<String, Set<String>> notNull(Map<String, Set<String>> map) {
+        if (map == null) {
+            return Collections.emptyMap();
+        }
+        return map;
+    }
+
+    private static int checkSize(DataOutputStream out) throws IOException {
+        // DataOutputStream.size() wraps to Integer.MAX_VALUE once 2GB have been written
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("Id resolver dictionary would be larger than 2GB");
+        }
+        return out.size();
+    }
+
+    /**
+     * Orders byte arrays as unsigned bytes, which is the order of the strings they encode.
+     */
+    private static class ByteComparator implements Comparator<byte[]>
+    {
+        public int compare(byte[] a, byte[] b) {
+            int common = Math.min(a.length, b.length);
+            for (int i = 0; i < common; i++) {
+                int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return a.length - b.length;
+        }
+    }
+}
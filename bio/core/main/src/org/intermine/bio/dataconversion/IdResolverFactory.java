@@ -93,12 +93,27 @@ public abstract class IdResolverFactory
         throws IOException {
         File f = new File(idResolverCachedFileName);
         if (f.exists()) {
+            boolean isDictionary = IdResolverDictionary.isDictionary(f);
             resolver.populateFromFile(f);
+            if (!isDictionary) {
+                // convert a flat file cache from an older build so later runs can map it
+                writeToCache();
+            }
             return true;
         }
         return false;
     }
 
+    /**
+     * Write IdResolver contents to the cache file as a memory-mapped dictionary, which later runs
+     * open without parsing it. The resolver reads from the dictionary from then on.
+     *
+     * @throws IOException if problem writing to file
+     */
+    protected void writeToCache() throws IOException {
+        resolver.writeToDictionary(new File(idResolverCachedFileName));
+    }
+
     /**
      * Read IdResolver contents from a database.
      *
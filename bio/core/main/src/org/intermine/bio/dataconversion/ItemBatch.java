@@ -0,0 +1,150 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.intermine.xml.full.Item;
+
+/**
+ * The Items made from one file by a BioDirectoryConverter.FileParser. Parsers run on several
+ * threads at once, so rather than storing Items they add them to their batch, and the batches are
+ * stored by a single thread in the order of the files. Items that several files share, such as
+ * organisms and publications, are looked up here so that only one of them is made.
+ */
+public class ItemBatch
+{
+    private final BioDirectoryConverter converter;
+    private final File file;
+    private final List<Item> items = new ArrayList<Item>();
+    // Identifiers of the Items this file has made or referred to, in the order first used
+    private final Set<String> identifiers = new LinkedHashSet<String>();
+
+    /**
+     * Constructor.
+     *
+     * @param converter the converter the Items are made for
+     * @param file the file being parsed
+     */
+    ItemBatch(BioDirectoryConverter converter, File file) {
+        this.converter = converter;
+        this.file = file;
+    }
+
+    /**
+     * Returns the file being parsed.
+     *
+     * @return a File
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Creates an Item, which must be added to this batch to be stored. Its identifier is a
+     * temporary one, which is replaced in the Item and the references to it when the batch is
+     * stored.
+     *
+     * @param className the class of the Item
+     * @return a new Item
+     */
+    public Item createItem(String className) {
+        Item item = converter.createParsedItem(className);
+        identifiers.add(item.getIdentifier());
+        return item;
+    }
+
+    /**
+     * Adds an Item to be stored once the file has been parsed.
+     *
+     * @param item the Item
+     */
+    public void addItem(Item item) {
+        items.add(item);
+    }
+
+    /**
+     * Records that an Item made by a parser is used by this file.
+     *
+     * @param identifier the temporary identifier of the Item
+     */
+    void useIdentifier(String identifier) {
+        identifiers.add(identifier);
+    }
+
+    /**
+     * Returns the identifiers of the Items this file has made or referred to.
+     *
+     * @return a Set of identifiers in the order they were first used
+     */
+    Set<String> getIdentifiers() {
+        return identifiers;
+    }
+
+    /**
+     * Returns the Items to store.
+     *
+     * @return a List of Items in the order they were added
+     */
+    public List<Item> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns the identifier of the Item of the given class with the given value of a key
+     * attribute, creating it in this batch if no file has made it yet.
+     *
+     * @param className the class of the Item, eg. Publication
+     * @param keyField the attribute that identifies it, eg. pubMedId
+     * @param keyValue the value of the attribute
+     * @return the identifier of the Item
+     */
+    public String getReferenceItem(String className, String keyField, String keyValue) {
+        return converter.getReferenceItem(className, keyField, keyValue, null, this);
+    }
+
+    /**
+     * Returns the identifier of the Organism with the given taxon id.
+     *
+     * @param taxonId the NCBI taxonomy id
+     * @return the identifier of the Organism Item
+     */
+    public String getOrganism(String taxonId) {
+        return getReferenceItem("Organism", "taxonId", taxonId);
+    }
+
+    /**
+     * Returns the identifier of the Publication with the given PubMed id.
+     *
+     * @param pubMedId the PubMed id
+     * @return the identifier of the Publication Item
+     */
+    public String getPublication(String pubMedId) {
+        return getReferenceItem("Publication", "pubMedId", pubMedId);
+    }
+
+    /**
+     * Returns the identifier of the ontology term with the given identifier.
+     *
+     * @param className the class of the term, eg. GOTerm
+     * @param identifier the identifier of the term, eg. GO:0008150
+     * @param ontologyRefId the identifier of the Ontology Item the term belongs to, or null
+     * @return the identifier of the term Item
+     */
+    public String getOntologyTerm(String className, String identifier, String ontologyRefId) {
+        return converter.getReferenceItem(className, "identifier", identifier, ontologyRefId,
+                this);
+    }
+}
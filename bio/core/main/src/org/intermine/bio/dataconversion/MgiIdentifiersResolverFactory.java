@@ -90,7 +90,7 @@ public class MgiIdentifiersResolverFactory extends IdResolverFactory
                 File f = new File(resolverFileName);
                 if (f.exists()) {
                     createFromFile(f);
-                    resolver.writeToFile(new File(idResolverCachedFileName));
+                    writeToCache();
                 } else {
                     LOG.warn("Resolver file does not exist: " + resolverFileName);
                 }
@@ -0,0 +1,131 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.xml.full.Item;
+
+public class BioDirectoryConverterTest extends TestCase
+{
+    private static final int FILES = 12;
+    private File dir;
+
+    public BioDirectoryConverterTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("BioDirectoryConverterTest", "");
+        dir.delete();
+        dir.mkdir();
+        // Each structure refers to a protein of its own and to some that other files share
+        for (int i = 0; i < FILES; i++) {
+            Writer out = new FileWriter(new File(dir, "structure" + (i < 10 ? "0" : "") + i));
+            out.write("P" + i + "\nSHARED1\n");
+            if (i % 3 == 0) {
+                out.write("SHARED2\n");
+            }
+            out.close();
+        }
+    }
+
+    public void tearDown() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    public void testParallel() throws Exception {
+        Set<Item> sequential = process("1");
+        assertEquals(FILES * 2 + 2, sequential.size());
+        for (int run = 0; run < 5; run++) {
+            Set<Item> parallel = process("3");
+            // Shared proteins are only made once, and the identifiers do not depend on the threads
+            assertEquals(sequential, parallel);
+        }
+
+        Set<String> accessions = new HashSet<String>();
+        Set<String> proteins = new HashSet<String>();
+        List<String> structureProteins = new ArrayList<String>();
+        for (Item item : sequential) {
+            if ("Protein".equals(item.getClassName())) {
+                assertTrue(accessions.add(item.getAttribute("primaryAccession").getValue()));
+                proteins.add(item.getIdentifier());
+            } else {
+                structureProteins.addAll(item.getCollection("proteins").getRefIds());
+            }
+        }
+        assertEquals(FILES + 2, proteins.size());
+        assertEquals(FILES * 2 + FILES / 3, structureProteins.size());
+        assertTrue(proteins.containsAll(structureProteins));
+    }
+
+    private Set<Item> process(String threads) throws Exception {
+        MockItemWriter itemWriter = new MockItemWriter(new HashMap());
+        TestConverter converter = new TestConverter(itemWriter);
+        converter.setParserThreads(threads);
+        converter.process(dir);
+        converter.close();
+        return itemWriter.getItems();
+    }
+
+    private static class TestConverter extends BioDirectoryConverter
+    {
+        private final Random random = new Random();
+
+        TestConverter(ItemWriter writer) {
+            super(writer, Model.getInstanceByName("genomic"), null, null, null);
+        }
+
+        @Override
+        public void process(File dataDir) throws Exception {
+            List<File> files = new ArrayList<File>();
+            for (File file : dataDir.listFiles()) {
+                files.add(file);
+            }
+            Collections.sort(files);
+            processFiles(files, new FileParser() {
+                public void parse(File file, ItemBatch batch) throws Exception {
+                    Item structure = batch.createItem("ProteinStructure");
+                    structure.setAttribute("identifier", file.getName());
+                    // Finish in a different order each time
+                    Thread.sleep(random.nextInt(20));
+                    BufferedReader in = new BufferedReader(new FileReader(file));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        structure.addToCollection("proteins",
+                                batch.getReferenceItem("Protein", "primaryAccession", line));
+                    }
+                    in.close();
+                    batch.addItem(structure);
+                }
+            });
+        }
+    }
+}
@@ -224,4 +224,42 @@ public class IdResolverTest extends TestCase
         assertEquals(resolver.orgMainMaps, readFromFile.orgMainMaps);
         assertEquals(resolver.orgSynMaps, readFromFile.orgSynMaps);
     }
+
+    public void testDictionaryRoundTrip() throws Exception {
+        File f = getResolverCache();
+        IdResolver expected = new IdResolver();
+        expected.populateFromFile(new File(getClass().getClassLoader().
+                getResource("resolver.cache.test").toURI()));
+        resolver.writeToDictionary(f);
+        assertTrue(resolver.orgIdMaps.isEmpty());
+
+        IdResolver readFromFile = new IdResolver();
+        readFromFile.populateFromFile(f);
+        for (IdResolver r : Arrays.asList(resolver, readFromFile)) {
+            assertEquals(expected.getTaxonsAndClassNames(), r.getTaxonsAndClassNames());
+            assertTrue(r.isPrimaryIdentifier(taxId1, clsName1, primaryId1));
+            assertFalse(r.isPrimaryIdentifier(taxId1, clsName1, synonym1));
+            assertEquals(Collections.singleton(primaryId1), r.resolveId(taxId1, clsName1, mainId1));
+            assertEquals(new LinkedHashSet<String>(Arrays.asList(new String[] {primaryId1,
+                primaryId2})), r.resolveId(taxId1, clsName1, synonym1));
+            assertEquals(Collections.singleton(primaryId3), r.resolveId(taxId1, clsName2, mainId2));
+            assertEquals(Collections.emptySet(), r.resolveId(taxId2, clsName1, synonym1));
+            assertEquals(expected.getSynonyms(taxId2, clsName1, primaryId1),
+                    r.getSynonyms(taxId2, clsName1, primaryId1));
+        }
+
+        // entries added after opening a dictionary are looked up with it and written with it
+        readFromFile.addSynonyms(taxId1, clsName1, primaryId1, Collections.singleton(synonym4));
+        assertEquals(Collections.singleton(primaryId1),
+                readFromFile.resolveId(taxId1, clsName1, synonym4));
+        File text = getResolverCache();
+        text.delete();
+        readFromFile.writeToFile(text);
+        IdResolver fromText = new IdResolver();
+        fromText.populateFromFile(text);
+        expected.addSynonyms(taxId1, clsName1, primaryId1, Collections.singleton(synonym4));
+        assertEquals(expected.orgIdMaps, fromText.orgIdMaps);
+        assertEquals(expected.orgMainMaps, fromText.orgMainMaps);
+        assertEquals(expected.orgSynMaps, fromText.orgSynMaps);
+    }
 }
@@ -12,12 +12,15 @@ package org.intermine.bio.postprocess;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.apache.tools.ant.BuildException;
 import org.intermine.modelproduction.MetadataManager;
@@ -198,6 +201,17 @@ public class PostProcessOperationsTask extends DynamicAttributeTask
                     MetadataManager.storeBinary(db, MetadataManager.AUTOCOMPLETE_INDEX,
                                         ac.getBinaryIndexMap());
                 }
+                if (ac.getPrefixIndexFile().exists()) {
+                    OutputStream out = MetadataManager.storeLargeBinary(db,
+                            MetadataManager.AUTOCOMPLETE_PREFIX_INDEX);
+                    InputStream in = new FileInputStream(ac.getPrefixIndexFile());
+                    try {
+                        IOUtils.copy(in, out);
+                    } finally {
+                        in.close();
+                        out.close();
+                    }
+                }
             } else if ("create-search-index".equals(operation)) {
                 // Delegate to a sub-task.
                 CreateSearchIndexTask subtask = new CreateSearchIndexTask();
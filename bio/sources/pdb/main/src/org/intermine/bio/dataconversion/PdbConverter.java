@@ -14,10 +14,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
@@ -31,9 +29,7 @@ import org.biojava.nbio.structure.io.PDBFileReader;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.metadata.StringUtil;
-import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.xml.full.Item;
-import org.xml.sax.SAXException;
 
 
 /**
@@ -46,7 +42,6 @@ public class PdbConverter extends BioDirectoryConverter
     private static final Logger LOG = Logger.getLogger(PdbConverter.class);
     protected static final String ENDL = System.getProperty("line.separator");
     private Set<String> taxonIds = null;
-    private Map<String, String> proteins = new HashMap<String, String>();
 
     /**
      * Create a new PdbConverter object.
@@ -96,14 +91,19 @@ public class PdbConverter extends BioDirectoryConverter
 
         // one dir per org
         for (File dir : directoriesToProcess) {
-            String taxonId = dir.getName();
-            File[] filesToProcess = dir.listFiles();
-            proteins = new HashMap<String, String>();
-            for (File f : filesToProcess) {
+            final String taxonId = dir.getName();
+            List<File> filesToProcess = new ArrayList<File>();
+            for (File f : dir.listFiles()) {
                 if (f.getName().endsWith(".pdb")) {
-                    processPDBFile(f, taxonId);
+                    filesToProcess.add(f);
                 }
             }
+            // parsing a structure is slow, so parse several files at once
+            processFiles(filesToProcess, new FileParser() {
+                public void parse(File file, ItemBatch batch) throws Exception {
+                    processPDBFile(file, taxonId, batch);
+                }
+            });
         }
     }
 
@@ -117,7 +117,7 @@ public class PdbConverter extends BioDirectoryConverter
         LOG.info("Setting list of organisms to " + this.taxonIds);
     }
 
-    private void processPDBFile(File file, String taxonId)
+    private void processPDBFile(File file, String taxonId, ItemBatch batch)
         throws Exception {
         PDBFileReader reader = new PDBFileReader();
         Structure structure = null;
@@ -128,7 +128,7 @@ public class PdbConverter extends BioDirectoryConverter
             // see #1179
             throw new BuildException("Couldn't open file for: " + taxonId);
         }
-        Item proteinStructure = createItem("ProteinStructure");
+        Item proteinStructure = batch.createItem("ProteinStructure");
 
         PDBHeader header =  structure.getPDBHeader();
 
@@ -141,7 +141,9 @@ public class PdbConverter extends BioDirectoryConverter
 
         List<DBRef> dbrefs = structure.getDBRefs();
         for (DBRef dbref: dbrefs) {
-            String proteinRefId = getProtein(dbref.getDbAccession(), taxonId);
+            // TODO is there some way we can be certain of this taxonId for this protein?
+            String proteinRefId = batch.getReferenceItem("Protein", "primaryAccession",
+                    dbref.getDbAccession());
             proteinStructure.addToCollection("proteins", proteinRefId);
         }
 
@@ -174,25 +176,6 @@ public class PdbConverter extends BioDirectoryConverter
         } catch (ArrayIndexOutOfBoundsException e) {
             LOG.error("Failed to process structure " + idCode);
         }
-        store(proteinStructure);
-    }
-
-    private String getProtein(String accession, String taxonId)
-        throws SAXException {
-        String refId = proteins.get(accession);
-        if (refId == null) {
-            Item item = createItem("Protein");
-            item.setAttribute("primaryAccession", accession);
-            // TODO is there some way we can be certain of this taxonId for this protein?
-            // item.setReference("organism", getOrganism(taxonId));
-            refId = item.getIdentifier();
-            proteins.put(accession, refId);
-            try {
-                store(item);
-            } catch (ObjectStoreException e) {
-                throw new SAXException(e);
-            }
-        }
-        return refId;
+        batch.addItem(proteinStructure);
     }
 }
@@ -0,0 +1,71 @@
+package org.intermine.webservice.server.jbrowse.genomic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DensityPyramidTest {
+
+    private DensityPyramid pyramid;
+
+    @Before
+    public void setup() {
+        // Features in base co-ordinates on a 10kb chromosome, which is cut into 100 bins of 100
+        int[] starts = new int[] {1, 51, 150, 1001, 2500, 9901};
+        int[] ends = new int[] {100, 250, 120, 3000, 2600, 10000};
+        pyramid = new DensityPyramid(10000, starts, ends, starts.length);
+    }
+
+    @Test
+    public void testSizes() {
+        assertEquals(10000, pyramid.getLength());
+        assertEquals(DensityPyramid.MIN_BIN_WIDTH, pyramid.getBinWidth());
+        assertEquals(6, pyramid.getFeatureCount());
+    }
+
+    @Test
+    public void testCount() {
+        assertEquals(6, pyramid.count(0, 10000));
+        assertEquals(3, pyramid.count(0, 1000));
+        // The feature ending at 100 is not in the range, and the one from 150 to 120 is
+        assertEquals(2, pyramid.count(100, 200));
+        assertEquals(1, pyramid.count(1000, 2000));
+        assertEquals(2, pyramid.count(2000, 3000));
+        assertEquals(0, pyramid.count(3000, 9900));
+        assertEquals(1, pyramid.count(9900, 10000));
+        assertEquals(0, pyramid.count(5000, 5000));
+    }
+
+    @Test
+    public void testCountRoundsToBins() {
+        // Ranges are rounded to the nearest bin boundary
+        assertEquals(pyramid.count(1000, 2000), pyramid.count(1040, 2049));
+    }
+
+    @Test
+    public void testMaximum() {
+        assertEquals(3, pyramid.getMaximum(1000));
+        assertEquals(5, pyramid.getMaximum(5000));
+        assertEquals(6, pyramid.getMaximum(10000));
+    }
+
+    @Test
+    public void testCanResolve() {
+        int minWidth = DensityPyramid.MIN_BINS_PER_RANGE * DensityPyramid.MIN_BIN_WIDTH;
+        assertTrue(pyramid.canResolve(minWidth));
+        assertFalse(pyramid.canResolve(minWidth - 1));
+        assertTrue(DensityPyramid.canResolve(10000, minWidth));
+        assertFalse(DensityPyramid.canResolve(10000, minWidth - 1));
+
+        // A long chromosome has wider bins
+        int length = DensityPyramid.MAX_BINS * 1000;
+        assertFalse(DensityPyramid.canResolve(length, minWidth));
+        assertTrue(DensityPyramid.canResolve(length, DensityPyramid.MIN_BINS_PER_RANGE * 1000));
+        DensityPyramid wide = new DensityPyramid(length, new int[] {1}, new int[] {10}, 1);
+        assertEquals(1000, wide.getBinWidth());
+        assertFalse(wide.canResolve(minWidth));
+    }
+}
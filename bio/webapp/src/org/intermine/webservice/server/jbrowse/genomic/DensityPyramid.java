@@ -0,0 +1,171 @@
+package org.intermine.webservice.server.jbrowse.genomic;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Binned counts of the features of one type on one chromosome, from which the number of features
+ * overlapping any range can be read without querying the database.
+ *
+ * <p>
+ * The chromosome is cut into at most MAX_BINS bins of equal width, and for every bin boundary
+ * the number of features starting before it and the number ending at or before it are kept. The
+ * number of features overlapping a range is the number starting before its end less the number
+ * ending before its start, so the counts at every coarser resolution follow from the finest one
+ * exactly. Ranges whose ends do not fall on a boundary are rounded to the nearest one, so callers
+ * should only use the pyramid for ranges several bins wide (see canResolve).
+ * </p>
+ * <p>
+ * The largest count of a bin at each resolution asked for is worked out over the whole
+ * chromosome once and kept, so that histograms are drawn to the same scale wherever the user is
+ * looking.
+ * </p>
+ */
+final class DensityPyramid
+{
+    /** The largest number of bins a chromosome is cut into */
+    static final int MAX_BINS = 1 << 16;
+    /** The narrowest bin */
+    static final int MIN_BIN_WIDTH = 100;
+    /** The number of bins a range must cover for its count to be read from the pyramid */
+    static final int MIN_BINS_PER_RANGE = 10;
+
+    private final int length;
+    private final int binWidth;
+    private final int featureCount;
+    // startsBefore[i] is the number of features starting before i * binWidth, and endsBy[i] the
+    // number ending at or before it, in interbase co-ordinates
+    private final int[] startsBefore;
+    private final int[] endsBy;
+    private final ConcurrentMap<Integer, Integer> maxima =
+            new ConcurrentHashMap<Integer, Integer>();
+
+    /**
+     * Constructor.
+     *
+     * @param length the length of the chromosome, or 0 if it is not known
+     * @param starts the start of each feature, in base co-ordinates
+     * @param ends the end of each feature, in base co-ordinates
+     * @param featureCount the number of features in starts and ends
+     */
+    DensityPyramid(int length, int[] starts, int[] ends, int featureCount) {
+        int maxEnd = length;
+        for (int i = 0; i < featureCount; i++) {
+            maxEnd = Math.max(maxEnd, Math.max(starts[i], ends[i]));
+        }
+        this.length = maxEnd;
+        this.featureCount = featureCount;
+        this.binWidth = getBinWidth(maxEnd);
+        int bins = (maxEnd + binWidth - 1) / binWidth;
+        startsBefore = new int[bins + 1];
+        endsBy = new int[bins + 1];
+        for (int i = 0; i < featureCount; i++) {
+            // Convert Base -> Interbase Co-ords: start - 1
+            int start = Math.min(starts[i], ends[i]) - 1;
+            int end = Math.max(starts[i], ends[i]);
+            startsBefore[Math.min(bins, Math.max(0, start) / binWidth + 1)]++;
+            endsBy[Math.min(bins, (end + binWidth - 1) / binWidth)]++;
+        }
+        for (int i = 1; i <= bins; i++) {
+            startsBefore[i] += startsBefore[i - 1];
+            endsBy[i] += endsBy[i - 1];
+        }
+    }
+
+    /**
+     * @return the length of the chromosome
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the width of the narrowest bins
+     */
+    int getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * @return the number of features on the chromosome
+     */
+    int getFeatureCount() {
+        return featureCount;
+    }
+
+    /**
+     * @param width the width of a range
+     * @return whether the number of features in ranges this wide can be read from the pyramid
+     */
+    boolean canResolve(int width) {
+        return width >= MIN_BINS_PER_RANGE * binWidth;
+    }
+
+    /**
+     * Returns whether the pyramid for a chromosome could count the features in ranges of a given
+     * width, so that a pyramid is not built for nothing. The pyramid may still not be able to if
+     * there are features beyond the end of the chromosome.
+     *
+     * @param length the length of the chromosome
+     * @param width the width of a range
+     * @return whether the number of features in ranges this wide can be read from the pyramid
+     */
+    static boolean canResolve(int length, int width) {
+        return width >= MIN_BINS_PER_RANGE * getBinWidth(length);
+    }
+
+    private static int getBinWidth(int length) {
+        return Math.max(MIN_BIN_WIDTH, (length + MAX_BINS - 1) / MAX_BINS);
+    }
+
+    /**
+     * Returns the number of features overlapping a range.
+     *
+     * @param start the start of the range, in interbase co-ordinates
+     * @param end the end of the range, in interbase co-ordinates
+     * @return the number of features
+     */
+    int count(int start, int end) {
+        int from = boundary(start);
+        int to = boundary(end);
+        if (to <= from) {
+            return 0;
+        }
+        return startsBefore[to] - endsBy[from];
+    }
+
+    /**
+     * Returns the largest number of features in one bin when the whole chromosome is cut into
+     * bins of the given width.
+     *
+     * @param basesPerBin the width of the bins
+     * @return the largest count
+     */
+    int getMaximum(int basesPerBin) {
+        Integer max = maxima.get(basesPerBin);
+        if (max == null) {
+            int m = 0;
+            for (int i = 0; i < length; i += basesPerBin) {
+                m = Math.max(m, count(i, Math.min(length, i + basesPerBin)));
+            }
+            max = Integer.valueOf(m);
+            maxima.put(basesPerBin, max);
+        }
+        return max.intValue();
+    }
+
+    private int boundary(int position) {
+        int i = (position + binWidth / 2) / binWidth;
+        return Math.max(0, Math.min(startsBefore.length - 1, i));
+    }
+}
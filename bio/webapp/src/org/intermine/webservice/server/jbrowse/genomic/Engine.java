@@ -16,6 +16,7 @@ import static org.intermine.pathquery.Constraints.eq;
 import static org.intermine.webservice.server.jbrowse.Queries.pathQueryToOSQ;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,6 +26,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -74,7 +76,14 @@ import org.intermine.webservice.server.jbrowse.Segment;
  *  <li>SequenceFeatures have an organism reference which has a <code>taxonId :: integer</code>
  *  field.</li>
  *  <li>SequenceFeatures have name, symbol, primaryIdentifer, and score fields.</li>
+ *  <li>Locations have a <code>locatedOn</code> reference to the Chromosome, and Chromosomes have
+ *  a <code>length</code> field.</li>
  * </ul>
+ * <p>
+ * Densities and stats over wide ranges of a chromosome are read from a DensityPyramid of the
+ * features of the requested type on that chromosome, which is built with one query the first
+ * time it is needed and kept in memory, rather than counting each slice in the database.
+ * </p>
  * @author Alex Kalderimis
  *
  */
@@ -86,6 +95,11 @@ public class Engine extends CommandRunner
     private final Model model;
     private static final Map<Command, Map<String, Object>> STATS_CACHE =
             new CacheMap<Command, Map<String, Object>>("jbrowse.genomic.engine.STATS_CACHE");
+    private static final Map<MultiKey, DensityPyramid> PYRAMIDS =
+            new CacheMap<MultiKey, DensityPyramid>("jbrowse.genomic.engine.PYRAMIDS");
+    // Held while a pyramid is built, so that requests for other pyramids are not held up
+    private static final ConcurrentMap<MultiKey, Object> PYRAMID_LOCKS =
+            new ConcurrentHashMap<MultiKey, Object>();
 
     /**
      * constructor
@@ -98,7 +112,11 @@ public class Engine extends CommandRunner
 
     @Override
     public void stats(Command command) {
-        Map<String, Object> stats;
+        Map<String, Object> stats = getStatsFromPyramid(command);
+        if (stats != null) {
+            sendMap(stats);
+            return;
+        }
         Query q = getStatsQuery(command);
         // Stats can be expensive to calculate, so they are independently cached.
         synchronized (STATS_CACHE) {
@@ -121,6 +139,35 @@ public class Engine extends CommandRunner
         sendMap(stats);
     }
 
+    // The stats for a whole chromosome or a wide range of one, or null if the pyramid cannot
+    // answer for this segment.
+    private Map<String, Object> getStatsFromPyramid(Command command) {
+        Segment seg = command.getSegment();
+        if (seg == null) {
+            return null;
+        }
+        boolean whole = (seg.getStart() == null && seg.getEnd() == null);
+        if (!whole && seg.getWidth() == null) {
+            return null;
+        }
+        DensityPyramid pyramid = getPyramid(command, whole ? null : seg.getWidth());
+        if (pyramid == null) {
+            return null;
+        }
+        int count, width;
+        if (whole) {
+            count = pyramid.getFeatureCount();
+            width = pyramid.getLength();
+        } else {
+            count = pyramid.count(seg.getStart(), seg.getEnd());
+            width = seg.getWidth();
+        }
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("featureDensity", (width == 0) ? 0.0 : Double.valueOf(count) / width);
+        stats.put("featureCount", count);
+        return stats;
+    }
+
     private void sendMap(Map<String, Object> map) {
         Iterator<Entry<String, Object>> it = map.entrySet().iterator();
         while (it.hasNext()) {
@@ -198,31 +245,46 @@ public class Engine extends CommandRunner
     @Override
     public void densities(Command command) {
         final int nSlices = getNumberOfSlices(command);
-        List<PathQuery> segmentQueries = getSliceQueries(command, nSlices);
-        List<Future<Integer>> pending = countInParallel(segmentQueries);
+        DensityPyramid pyramid = null;
+        if (command.getSegment() != Segment.NEGATIVE_SEGMENT && nSlices > 0
+                && command.getSegment().getWidth() != null) {
+            pyramid = getPyramid(command, command.getSegment().getWidth() / nSlices);
+        }
         List<Integer> results = new ArrayList<Integer>();
+        if (pyramid != null) {
+            for (Segment slice: sliceUp(nSlices, command.getSegment())) {
+                results.add(pyramid.count(slice.getStart(), slice.getEnd()));
+            }
+        } else {
+            List<PathQuery> segmentQueries = getSliceQueries(command, nSlices);
+            for (Future<Integer> future: countInParallel(segmentQueries)) {
+                try {
+                    results.add(future.get());
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
 
         int max = 0, sum = 0;
-        for (Future<Integer> future: pending) {
-            try {
-                Integer r = future.get();
-                if (r != null && r > max) {
-                    max = r;
-                }
-                sum += r;
-                results.add(r);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            } catch (ExecutionException e) {
-                throw new RuntimeException(e);
+        for (Integer r: results) {
+            if (r != null && r > max) {
+                max = r;
             }
+            sum += r;
         }
         double mean = Double.valueOf(sum) / results.size();
 
         Map<String, Object> result = new HashMap<String, Object>();
         Map<String, Number> binStats = new HashMap<String, Number>();
         Integer currentMax = 0;
-        if (command.getSegment() != Segment.NEGATIVE_SEGMENT) {
+        if (pyramid != null) {
+            Integer bpb = command.getSegment().getWidth() / nSlices;
+            binStats.put("basesPerBin", bpb);
+            currentMax = pyramid.getMaximum(bpb);
+        } else if (command.getSegment() != Segment.NEGATIVE_SEGMENT) {
             Integer bpb = command.getSegment().getWidth() / nSlices;
             binStats.put("basesPerBin", bpb);
             MultiKey maxKey = new MultiKey(// Key by domain, type, ref-seq and band size
@@ -245,6 +307,139 @@ public class Engine extends CommandRunner
 
     //------------ PRIVATE METHODS --------------------//
 
+    // The pyramid for the chromosome and feature type of a command, or null if the command is
+    // not about a single chromosome or the pyramid cannot count ranges of the given width. A null
+    // width is for the whole chromosome.
+    private DensityPyramid getPyramid(Command command, Integer width) {
+        Segment seg = command.getSegment();
+        if (seg == null || seg == Segment.GLOBAL_SEGMENT || seg == Segment.NEGATIVE_SEGMENT
+                || seg.getSection() == null) {
+            return null;
+        }
+        MultiKey key = new MultiKey(command.getDomain(), command.getType("SequenceFeature"),
+                seg.getSection());
+        DensityPyramid pyramid;
+        synchronized (PYRAMIDS) {
+            pyramid = PYRAMIDS.get(key);
+        }
+        if (pyramid == null) {
+            // Pyramids take a scan of the chromosome to build, so do not build one that cannot
+            // answer, and build each one once.
+            if (width != null && !DensityPyramid.canResolve(getChromosomeLength(command), width)) {
+                return null;
+            }
+            PYRAMID_LOCKS.putIfAbsent(key, new Object());
+            synchronized (PYRAMID_LOCKS.get(key)) {
+                synchronized (PYRAMIDS) {
+                    pyramid = PYRAMIDS.get(key);
+                }
+                if (pyramid == null) {
+                    pyramid = buildPyramid(command);
+                    LOG.info("Built density pyramid for " + key + " with "
+                            + pyramid.getFeatureCount() + " features in bins of "
+                            + pyramid.getBinWidth());
+                    synchronized (PYRAMIDS) {
+                        PYRAMIDS.put(key, pyramid);
+                    }
+                }
+            }
+        }
+        if (width != null && !pyramid.canResolve(width)) {
+            return null;
+        }
+        return pyramid;
+    }
+
+    // The type of feature a command is about, which must be a kind of SequenceFeature.
+    private ClassDescriptor getFeatureClass(Command command) {
+        String featureType = command.getType("SequenceFeature");
+        ClassDescriptor seqf = model.getClassDescriptorByName("SequenceFeature");
+        ClassDescriptor fcd = model.getClassDescriptorByName(featureType);
+        // Check type conditions.
+        if (fcd == null) {
+            throw new RuntimeException(featureType + " is not in the model.");
+        }
+        if (fcd != seqf && !fcd.getAllSuperDescriptors().contains(seqf)) {
+            throw new RuntimeException(featureType + " is not a sequence feature");
+        }
+        return fcd;
+    }
+
+    // The length of the chromosome of a command, or 0 if it is not known.
+    private int getChromosomeLength(Command command) {
+        QueryClass organisms = new QueryClass(model.getClassDescriptorByName("Organism").getType());
+        QueryClass chromosomes = new QueryClass(
+                model.getClassDescriptorByName("Chromosome").getType());
+        Query lengthQ = new Query();
+        lengthQ.addFrom(chromosomes);
+        lengthQ.addFrom(organisms);
+        lengthQ.addToSelect(new QueryField(chromosomes, "length"));
+        ConstraintSet lengthCs = constrainToOrganism(chromosomes, organisms, command.getDomain());
+        lengthCs.addConstraint(new SimpleConstraint(
+                new QueryField(chromosomes, "primaryIdentifier"),
+                ConstraintOp.EQUALS,
+                new QueryValue(command.getSegment().getSection())));
+        lengthQ.setConstraint(lengthCs);
+        int length = 0;
+        for (Object l: getAPI().getObjectStore().executeSingleton(lengthQ)) {
+            if (l != null) {
+                length = Math.max(length, ((Integer) l).intValue());
+            }
+        }
+        return length;
+    }
+
+    private DensityPyramid buildPyramid(Command command) {
+        ClassDescriptor fcd = getFeatureClass(command);
+        String section = command.getSegment().getSection();
+        ObjectStore os = getAPI().getObjectStore();
+        int length = getChromosomeLength(command);
+
+        QueryClass organisms = new QueryClass(model.getClassDescriptorByName("Organism").getType());
+        QueryClass chromosomes = new QueryClass(
+                model.getClassDescriptorByName("Chromosome").getType());
+        QueryClass features = new QueryClass(fcd.getType());
+        QueryClass locations = new QueryClass(model.getClassDescriptorByName("Location").getType());
+        Query q = new Query();
+        q.setDistinct(false);
+        q.addFrom(features);
+        q.addFrom(organisms);
+        q.addFrom(locations);
+        q.addFrom(chromosomes);
+        q.addToSelect(new QueryField(locations, "start"));
+        q.addToSelect(new QueryField(locations, "end"));
+        ConstraintSet cs = constrainToOrganism(features, organisms, command.getDomain());
+        cs.addConstraint(new ContainsConstraint(
+                new QueryObjectReference(features, "chromosomeLocation"),
+                ConstraintOp.CONTAINS, locations));
+        cs.addConstraint(new ContainsConstraint(
+                new QueryObjectReference(locations, "locatedOn"),
+                ConstraintOp.CONTAINS, chromosomes));
+        cs.addConstraint(new SimpleConstraint(
+                new QueryField(chromosomes, "primaryIdentifier"),
+                ConstraintOp.EQUALS,
+                new QueryValue(section)));
+        q.setConstraint(cs);
+
+        int[] starts = new int[1024];
+        int[] ends = new int[1024];
+        int n = 0;
+        for (Object o: os.execute(q, 10000, true, false, false)) {
+            List<?> row = (List<?>) o;
+            if (row.get(0) == null || row.get(1) == null) {
+                continue;
+            }
+            if (n == starts.length) {
+                starts = Arrays.copyOf(starts, n * 2);
+                ends = Arrays.copyOf(ends, n * 2);
+            }
+            starts[n] = ((Integer) row.get(0)).intValue();
+            ends[n] = ((Integer) row.get(1)).intValue();
+            n++;
+        }
+        return new DensityPyramid(length, starts, ends, n);
+    }
+
     private static int getNumberOfSlices(Command command) {
         int defaultNum = 10;
         String bpb = command.getParameter("basesPerBin");
@@ -316,16 +511,8 @@ public class Engine extends CommandRunner
     // A Query that produces a single row: (featureDensity :: double, featureCount :: integer)
     private Query getStatsQuery(Command command) {
 
-        String featureType = command.getType("SequenceFeature");
-        ClassDescriptor seqf = model.getClassDescriptorByName("SequenceFeature");
-        ClassDescriptor fcd = model.getClassDescriptorByName(featureType);
         // Check type conditions.
-        if (fcd == null) {
-            throw new RuntimeException(featureType + " is not in the model.");
-        }
-        if (fcd != seqf && !fcd.getAllSuperDescriptors().contains(seqf)) {
-            throw new RuntimeException(featureType + " is not a sequence feature");
-        }
+        getFeatureClass(command);
 
         QueryClass organisms = new QueryClass(model.getClassDescriptorByName("Organism").getType());
 
@@ -65,6 +65,7 @@ public class InterMineObjectFetcher extends Thread
     final ObjectPipe<Document> indexingQueue;
     final Set<Class<? extends InterMineObject>> ignoredClasses;
     final Map<Class<? extends InterMineObject>, Set<String>> ignoredFields;
+    final Map<Class<? extends InterMineObject>, Set<String>> ngramFields;
     final Map<Class<? extends InterMineObject>, String[]> specialReferences;
     final Map<ClassDescriptor, Float> classBoost;
     final Vector<KeywordSearchFacetData> facets;
@@ -104,6 +105,8 @@ public class InterMineObjectFetcher extends Thread
      *            fields used for faceting - will be indexed untokenized in
      *            addition to the normal indexing
      * @param attributePrefixes prefixes to be ignored
+     * @param ngramFields fields to index as n-grams as well, for searches with a leading
+     *            wildcard
      */
     public InterMineObjectFetcher(ObjectStore os, Map<String, List<FieldDescriptor>> classKeys,
             ObjectPipe<Document> indexingQueue,
@@ -111,7 +114,8 @@ public class InterMineObjectFetcher extends Thread
             Map<Class<? extends InterMineObject>, Set<String>> ignoredFields,
             Map<Class<? extends InterMineObject>, String[]> specialReferences,
             Map<ClassDescriptor, Float> classBoost, Vector<KeywordSearchFacetData> facets,
-            Map<String, String> attributePrefixes) {
+            Map<String, String> attributePrefixes,
+            Map<Class<? extends InterMineObject>, Set<String>> ngramFields) {
         super();
 
         this.os = os;
@@ -119,6 +123,7 @@ public class InterMineObjectFetcher extends Thread
         this.indexingQueue = indexingQueue;
         this.ignoredClasses = ignoredClasses;
         this.ignoredFields = ignoredFields;
+        this.ngramFields = ngramFields;
         this.specialReferences = specialReferences;
         this.classBoost = classBoost;
         this.facets = facets;
@@ -454,9 +459,15 @@ public class InterMineObjectFetcher extends Thread
         }
 
         Set<ObjectValueContainer> attributes = getAttributeMapForObject(os.getModel(), object);
+        Set<String> fieldsToGram = getConfiguredFields(object, ngramFields);
         for (ObjectValueContainer attribute : attributes) {
             addToDocument(doc, attribute.getLuceneName(), attribute.getValue(), 1F, false);
 
+            // n-grams of the words, for searches with a leading wildcard
+            if (fieldsToGram.contains(attribute.getName())) {
+                addNgramsToDocument(doc, attribute.getLuceneName(), attribute.getValue());
+            }
+
             // index all key fields as raw data with a higher boost, favors
             // "exact matches"
             if (keyFields.contains(attribute.getName())) {
@@ -466,10 +477,18 @@ public class InterMineObjectFetcher extends Thread
     }
 
     private Set<String> getIgnorableFields(FastPathObject obj) {
+        return getConfiguredFields(obj, ignoredFields);
+    }
+
+    private static Set<String> getConfiguredFields(FastPathObject obj,
+            Map<Class<? extends InterMineObject>, Set<String>> configuredFields) {
         Set<String> ret = new HashSet<String>();
+        if (configuredFields == null || configuredFields.isEmpty()) {
+            return ret;
+        }
         for (Class<?> clazz: Util.decomposeClass(obj.getClass())) {
-            if (ignoredFields.containsKey(clazz)) {
-                ret.addAll(ignoredFields.get(clazz));
+            if (configuredFields.containsKey(clazz)) {
+                ret.addAll(configuredFields.get(clazz));
             }
         }
         return ret;
@@ -580,6 +599,21 @@ public class InterMineObjectFetcher extends Thread
         return null;
     }
 
+    private void addNgramsToDocument(Document doc, String fieldName, String value) {
+        if (StringUtils.isBlank(fieldName) || StringUtils.isBlank(value)) {
+            return;
+        }
+        String grams = WildcardNgrams.toGrams(value);
+        if (grams.length() > 0) {
+            // the positions are needed to match the n-grams of a pattern as a phrase, but not
+            // the norms. The field is left out of fieldNames so ordinary terms are not looked
+            // for in it.
+            Field f = new Field(fieldName + WildcardNgrams.FIELD_SUFFIX, grams, Field.Store.NO,
+                    Field.Index.ANALYZED_NO_NORMS);
+            doc.add(f);
+        }
+    }
+
     // simple caching of attributes
     private Vector<ClassAttributes> getClassAttributes(Model model, Class<?> baseClass) {
         Vector<ClassAttributes> attributes = decomposedClassesCache.get(baseClass);
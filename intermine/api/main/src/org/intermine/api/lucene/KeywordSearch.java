@@ -20,10 +20,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -39,6 +43,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
@@ -59,10 +64,13 @@ import org.apache.lucene.search.TermsFilter;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Constants;
 import org.apache.lucene.util.Version;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.data.Objects;
+import org.intermine.api.tracker.TrackerDelegate;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.model.InterMineObject;
@@ -103,6 +111,7 @@ import com.browseengine.bobo.facets.impl.SimpleFacetHandler;
 public final class KeywordSearch
 {
     private static final String LUCENE_INDEX_DIR = "keyword_search_index";
+    private static final String LUCENE_INDEX_SERIAL = LUCENE_INDEX_DIR + ".serial";
 
     /**
      * maximum number of hits returned
@@ -114,10 +123,21 @@ public final class KeywordSearch
      */
     public static final int PER_PAGE = 100;
 
+    /**
+     * default number of rewritten queries and of pages of results to cache
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * default number of the most popular searches to run when the index is opened
+     */
+    public static final int DEFAULT_PREWARM_SEARCHES = 20;
+
     private static final Logger LOG = Logger.getLogger(KeywordSearch.class);
 
     private static IndexReader reader = null;
     private static BoboIndexReader boboIndexReader = null;
+    private static volatile KeywordSearchCache cache = null;
     private static ObjectPipe<Document> indexingQueue = new ObjectPipe<Document>(100000);
     private static LuceneIndexContainer index = null;
 
@@ -126,6 +146,8 @@ public final class KeywordSearch
     private static Map<Class<? extends InterMineObject>, String[]> specialReferences;
     private static Set<Class<? extends InterMineObject>> ignoredClasses;
     private static Map<Class<? extends InterMineObject>, Set<String>> ignoredFields;
+    private static Map<Class<? extends InterMineObject>, Set<String>> ngramFields;
+    private static Set<String> ngramIndexedFields = Collections.emptySet();
     private static Map<ClassDescriptor, Float> classBoost;
     private static Vector<KeywordSearchFacetData> facets;
     private static boolean debugOutput;
@@ -145,6 +167,7 @@ public final class KeywordSearch
         ignoredClasses = new HashSet<Class<? extends InterMineObject>>();
         classBoost = new HashMap<ClassDescriptor, Float>();
         ignoredFields = new HashMap<Class<? extends InterMineObject>, Set<String>>();
+        ngramFields = new HashMap<Class<? extends InterMineObject>, Set<String>>();
         facets = new Vector<KeywordSearchFacetData>();
         debugOutput = true;
 
@@ -174,33 +197,9 @@ public final class KeywordSearch
                             }
                         }
                     } else  if ("index.ignore.fields".equals(key) && !StringUtils.isBlank(value)) {
-                        String[] ignoredPaths = value.split("\\s+");
-
-                        for (String ignoredPath : ignoredPaths) {
-                            if (StringUtils.countMatches(ignoredPath, ".") != 1) {
-                                LOG.error("Fields to ignore specified by 'index.ignore.fields'"
-                                        + " should contain Class.field, e.g. Company.name");
-                            } else {
-                                String clsName = ignoredPath.split("\\.")[0];
-                                String fieldName = ignoredPath.split("\\.")[1];
-
-                                ClassDescriptor cld =
-                                    os.getModel().getClassDescriptorByName(clsName);
-                                if (cld != null) {
-                                    FieldDescriptor fld = cld.getFieldDescriptorByName(fieldName);
-                                    if (fld != null) {
-                                        addToIgnoredFields(ignoredFields, cld, fieldName);
-                                    } else {
-                                        LOG.error("Field name '" + fieldName + "' not found for"
-                                                + " class '" + clsName + "' specified in"
-                                                + "'index.ignore.fields'");
-                                    }
-                                } else {
-                                    LOG.error("Class name specified in 'index.ignore.fields'"
-                                            + " not found: " + clsName);
-                                }
-                            }
-                        }
+                        addFieldPaths(os, key, value, ignoredFields);
+                    } else  if ("index.ngram.fields".equals(key) && !StringUtils.isBlank(value)) {
+                        addFieldPaths(os, key, value, ngramFields);
                     } else if (key.startsWith("index.references.")) {
                         String classToIndex = key.substring("index.references.".length());
                         ClassDescriptor cld = os.getModel().getClassDescriptorByName(classToIndex);
@@ -296,6 +295,34 @@ public final class KeywordSearch
         LOG.info("Indexing - Temp Dir: " + tempDirectory);
     }
 
+    private static void addFieldPaths(ObjectStore os, String key, String value,
+            Map<Class<? extends InterMineObject>, Set<String>> fieldMap) {
+        String[] paths = value.split("\\s+");
+
+        for (String path : paths) {
+            if (StringUtils.countMatches(path, ".") != 1) {
+                LOG.error("Fields specified by '" + key + "' should contain Class.field,"
+                        + " e.g. Company.name");
+            } else {
+                String clsName = path.split("\\.")[0];
+                String fieldName = path.split("\\.")[1];
+
+                ClassDescriptor cld = os.getModel().getClassDescriptorByName(clsName);
+                if (cld != null) {
+                    FieldDescriptor fld = cld.getFieldDescriptorByName(fieldName);
+                    if (fld != null) {
+                        addToFieldMap(fieldMap, cld, fieldName);
+                    } else {
+                        LOG.error("Field name '" + fieldName + "' not found for"
+                                + " class '" + clsName + "' specified in '" + key + "'");
+                    }
+                } else {
+                    LOG.error("Class name specified in '" + key + "' not found: " + clsName);
+                }
+            }
+        }
+    }
+
     private static void addAttributePrefix(String classAndAttribute, String prefix) {
         if (StringUtils.isBlank(classAndAttribute) || classAndAttribute.indexOf(".") == -1
                 || StringUtils.isBlank(prefix)) {
@@ -333,6 +360,7 @@ public final class KeywordSearch
 
             if (reader == null) {
                 reader = IndexReader.open(index.getDirectory(), true);
+                ngramIndexedFields = getNgramIndexedFields(reader);
             }
 
             if (boboIndexReader == null) {
@@ -358,6 +386,15 @@ public final class KeywordSearch
                 LOG.debug("Indexed fields:"
                         + Arrays.toString(boboIndexReader.getFieldNames(FieldOption.INDEXED)
                                 .toArray()));
+
+                // anything cached was browsed from the previous index
+                int cacheSize = getIntProperty("search.cache.size", DEFAULT_CACHE_SIZE);
+                if (cacheSize > 0) {
+                    cache = new KeywordSearchCache(cacheSize);
+                    prewarmCache(im, cache);
+                } else {
+                    cache = null;
+                }
             }
         } catch (CorruptIndexException e) {
             LOG.error(e);
@@ -366,6 +403,91 @@ public final class KeywordSearch
         }
     }
 
+    /**
+     * Returns the fields that have been indexed as n-grams as well.
+     */
+    private static Set<String> getNgramIndexedFields(IndexReader indexReader) {
+        Set<String> fields = new HashSet<String>();
+        for (String field : indexReader.getFieldNames(FieldOption.INDEXED)) {
+            if (field.endsWith(WildcardNgrams.FIELD_SUFFIX)) {
+                fields.add(field.substring(0,
+                            field.length() - WildcardNgrams.FIELD_SUFFIX.length()));
+            }
+        }
+        if (!fields.isEmpty()) {
+            LOG.info("Searching with leading wildcards on n-grams of: " + fields);
+        }
+        return fields;
+    }
+
+    private static int getIntProperty(String key, int defaultValue) {
+        String value = (properties == null) ? null : properties.getProperty(key);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("keyword_search.properties: " + key + " should be a number, not '" + value
+                    + "'");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Runs the most popular searches recorded by the search tracker in the background, so that
+     * their first pages are in the cache before anyone asks for them.
+     */
+    private static void prewarmCache(InterMineAPI im, final KeywordSearchCache newCache) {
+        final int count = getIntProperty("search.cache.prewarm", DEFAULT_PREWARM_SEARCHES);
+        if (count <= 0 || im.getTrackerDelegate() == null) {
+            return;
+        }
+        final TrackerDelegate trackerDelegate = im.getTrackerDelegate();
+        Thread prewarm = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, Integer> searches = trackerDelegate.getKeywordSearches();
+                if (searches == null) {
+                    return;
+                }
+                List<Entry<String, Integer>> popular =
+                        new ArrayList<Entry<String, Integer>>(searches.entrySet());
+                Collections.sort(popular, new Comparator<Entry<String, Integer>>() {
+                    @Override
+                    public int compare(Entry<String, Integer> a, Entry<String, Integer> b) {
+                        return b.getValue().compareTo(a.getValue());
+                    }
+                });
+                long time = System.currentTimeMillis();
+                int run = 0;
+                Map<String, String> noFacets = Collections.emptyMap();
+                for (Entry<String, Integer> search : popular) {
+                    // stop if the index has been closed or reloaded since
+                    if (run >= count || cache != newCache) {
+                        break;
+                    }
+                    try {
+                        BrowseResult result = runBrowseSearch(search.getKey(), 0, noFacets,
+                                null, 0);
+                        if (result != null) {
+                            result.close();
+                        }
+                    } catch (RuntimeException e) {
+                        LOG.warn("Failed to prewarm keyword search cache with '"
+                                + search.getKey() + "'", e);
+                        break;
+                    }
+                    run++;
+                }
+                LOG.info("Prewarmed keyword search cache with " + run + " searches in "
+                        + (System.currentTimeMillis() - time) + " ms");
+            }
+        }, "KeywordSearch prewarm");
+        prewarm.setDaemon(true);
+        prewarm.start();
+    }
+
     private static void writeObjectToDB(ObjectStore os, String key, Object object)
         throws IOException, SQLException {
         LOG.debug("Saving stream to database...");
@@ -432,6 +554,7 @@ public final class KeywordSearch
             if ("FSDirectory".equals(index.getDirectoryType())) {
                 ZipOutputStream zipOut = null;
                 final int bufferSize = 2048;
+                String serial = null;
 
                 try {
                     LOG.debug("Zipping up FSDirectory...");
@@ -446,11 +569,14 @@ public final class KeywordSearch
                     } else {
                         LOG.debug("No previous search index directory blob found in db");
                     }
+                    // Webapps must not keep using a cached copy of the old directory
+                    MetadataManager.store(db, MetadataManager.SEARCH_INDEX_SERIAL, null);
                     LargeObjectOutputStream streamOut =
                             MetadataManager.storeLargeBinary(db,
                                     MetadataManager.SEARCH_INDEX_DIRECTORY);
 
                     zipOut = new ZipOutputStream(streamOut);
+                    MessageDigest digest = MessageDigest.getInstance("MD5");
 
                     byte[] data = new byte[bufferSize];
 
@@ -471,6 +597,7 @@ public final class KeywordSearch
                         try {
                             ZipEntry entry = new ZipEntry(files[i]);
                             zipOut.putNextEntry(entry);
+                            digest.update(files[i].getBytes("UTF-8"));
 
                             long total = fileLength / bufferSize;
                             long progress = 0;
@@ -478,6 +605,7 @@ public final class KeywordSearch
                             int count;
                             while ((count = fileInput.read(data, 0, bufferSize)) != -1) {
                                 zipOut.write(data, 0, count);
+                                digest.update(data, 0, count);
                                 progress++;
                                 if (progress % 1000 == 0) {
                                     LOG.debug("Written " + progress + " of " + total
@@ -490,13 +618,26 @@ public final class KeywordSearch
                         }
                         LOG.debug("Finished storing file: " + file.getName());
                     }
+                    StringBuilder hex = new StringBuilder();
+                    for (byte b : digest.digest()) {
+                        hex.append(Integer.toHexString((b & 0xF0) >> 4))
+                            .append(Integer.toHexString(b & 0x0F));
+                    }
+                    serial = hex.toString();
                 } catch (IOException e) {
                     LOG.error("Error storing index", e);
+                } catch (NoSuchAlgorithmException e) {
+                    LOG.error("Error storing index", e);
                 } finally {
                     if (zipOut != null) {
                         zipOut.close();
                     }
                 }
+                if (serial != null) {
+                    // Stored once the directory has been committed, so webapps can key a local
+                    // copy of the directory on it
+                    MetadataManager.store(db, MetadataManager.SEARCH_INDEX_SERIAL, serial);
+                }
             } else if ("RAMDirectory".equals(index.getDirectoryType())) {
                 LOG.debug("Saving RAM directory to database...");
                 writeObjectToDB(os, MetadataManager.SEARCH_INDEX_DIRECTORY, index.getDirectory());
@@ -722,22 +863,42 @@ public final class KeywordSearch
         long time = System.currentTimeMillis();
         String queryString = parseQueryString(searchString);
 
-        try {
-            Analyzer analyzer = new WhitespaceAnalyzer();
-
-            // pass entire list of field names to the multi-field parser
-            // => search through all fields
-            String[] fieldNamesArray = new String[index.getFieldNames().size()];
-
-            index.getFieldNames().toArray(fieldNamesArray);
-            QueryParser queryParser =
-                    new MultiFieldQueryParser(Version.LUCENE_30, fieldNamesArray, analyzer);
-            queryParser.setDefaultOperator(Operator.AND);
-            queryParser.setAllowLeadingWildcard(true);
-            org.apache.lucene.search.Query query = queryParser.parse(queryString);
+        // searches within a list are not cached, as the ids would be part of the key
+        KeywordSearchCache searchCache = (ids == null || ids.isEmpty()) ? cache : null;
+        int count = pagination ? PER_PAGE : (listSize == 0 ? 10000 : listSize);
+        if (searchCache != null) {
+            result = searchCache.getResult(queryString, facetValues, offset, count);
+            if (result != null) {
+                LOG.debug("Found cached results for " + queryString + " in "
+                        + (System.currentTimeMillis() - time) + " ms");
+                return result;
+            }
+        }
 
-            // required to expand search terms
-            query = query.rewrite(reader);
+        try {
+            org.apache.lucene.search.Query query =
+                    (searchCache == null) ? null : searchCache.getQuery(queryString);
+            if (query == null) {
+                Analyzer analyzer = new WhitespaceAnalyzer();
+
+                // pass entire list of field names to the multi-field parser
+                // => search through all fields
+                String[] fieldNamesArray = new String[index.getFieldNames().size()];
+
+                index.getFieldNames().toArray(fieldNamesArray);
+                QueryParser queryParser = new NgramQueryParser(fieldNamesArray, analyzer,
+                        ngramIndexedFields);
+                queryParser.setDefaultOperator(Operator.AND);
+                queryParser.setAllowLeadingWildcard(true);
+                query = queryParser.parse(queryString);
+
+                // required to expand search terms
+                query = query.rewrite(reader);
+
+                if (searchCache != null) {
+                    searchCache.putQuery(queryString, query);
+                }
+            }
 
             if (debugOutput) {
                 LOG.debug("Rewritten query: " + query);
@@ -762,18 +923,9 @@ public final class KeywordSearch
             }
 
             // pagination
+            // PER_PAGE on the keywordsearch results page, or the size of the list being created
             browseRequest.setOffset(offset);
-            if (pagination) {
-                // used on keywordsearch results page
-                browseRequest.setCount(PER_PAGE);
-            } else {
-                // when creating lists from results
-                // this check should be not necessary and reproduces previous behaviour
-                if (listSize == 0) {
-                    listSize = 10000;
-                }
-                browseRequest.setCount(listSize);
-            }
+            browseRequest.setCount(count);
 
             // add faceting selections
             for (Entry<String, String> facetValue : facetValues.entrySet()) {
@@ -815,6 +967,11 @@ public final class KeywordSearch
                     }
                 }
             }
+
+            // the lists made from all results are too big to be worth keeping
+            if (searchCache != null && pagination) {
+                searchCache.putResult(queryString, facetValues, offset, count, result);
+            }
         } catch (ParseException e) {
             // just return an empty list
             LOG.info("Exception caught, returning no results", e);
@@ -900,6 +1057,19 @@ public final class KeywordSearch
     private static Directory restoreSearchDirectory(String dirType, String path, Database db)
         throws SQLException, IOException, FileNotFoundException, ClassNotFoundException {
         InputStream is;
+        String serial = null;
+        if ("FSDirectory".equals(dirType)) {
+            // If the directory was extracted by a previous startup, use it as it is
+            serial = MetadataManager.retrieve(db, MetadataManager.SEARCH_INDEX_SERIAL);
+            File directoryPath = new File(path + File.separator + LUCENE_INDEX_DIR);
+            File serialFile = new File(path + File.separator + LUCENE_INDEX_SERIAL);
+            if ((serial != null) && directoryPath.isDirectory() && serialFile.exists()
+                    && serial.equals(FileUtils.readFileToString(serialFile, "UTF-8").trim())) {
+                LOG.info("Using search directory cached in " + directoryPath + " (serial "
+                        + serial + ")");
+                return openFSDirectory(directoryPath);
+            }
+        }
         LOG.debug("Attempting to restore search directory from database...");
         is = MetadataManager.readLargeBinary(db, MetadataManager.SEARCH_INDEX_DIRECTORY);
 
@@ -907,7 +1077,7 @@ public final class KeywordSearch
         if (is != null) {
             try {
                 if ("FSDirectory".equals(dirType)) {
-                    return readFSDirectory(path, is);
+                    return readFSDirectory(path, is, serial);
                 } else if ("RAMDirectory".equals(dirType)) {
                     return readRAMDirectory(is);
                 } else {
@@ -923,13 +1093,17 @@ public final class KeywordSearch
         return null;
     }
 
-    private static FSDirectory readFSDirectory(String path, InputStream is)
+    private static FSDirectory readFSDirectory(String path, InputStream is, String serial)
         throws IOException, FileNotFoundException {
         long time = System.currentTimeMillis();
-        final int bufferSize = 2048;
+        final int bufferSize = 65536;
         File directoryPath = new File(path + File.separator + LUCENE_INDEX_DIR);
+        File serialFile = new File(path + File.separator + LUCENE_INDEX_SERIAL);
         LOG.debug("Directory path: " + directoryPath);
 
+        // the cached copy is invalid until the new directory is completely extracted
+        serialFile.delete();
+
         // make sure we start with a new index
         if (directoryPath.exists()) {
             String[] files = directoryPath.list();
@@ -971,13 +1145,27 @@ public final class KeywordSearch
             zis.close();
         }
 
-        FSDirectory directory = FSDirectory.open(directoryPath);
+        if (serial != null) {
+            FileUtils.writeStringToFile(serialFile, serial, "UTF-8");
+        }
+
+        FSDirectory directory = openFSDirectory(directoryPath);
 
         LOG.info("Successfully restored FS directory from database in "
                 + (System.currentTimeMillis() - time) + " ms");
         return directory;
     }
 
+    /**
+     * Open an extracted index directory, memory-mapping the files where the address space allows.
+     */
+    private static FSDirectory openFSDirectory(File directoryPath) throws IOException {
+        if (Constants.JRE_IS_64BIT) {
+            return new MMapDirectory(directoryPath);
+        }
+        return FSDirectory.open(directoryPath);
+    }
+
     private static RAMDirectory readRAMDirectory(InputStream is)
         throws IOException, ClassNotFoundException {
         long time = System.currentTimeMillis();
@@ -1049,7 +1237,8 @@ public final class KeywordSearch
         LOG.info("Starting fetcher thread...");
         InterMineObjectFetcher fetchThread =
                 new InterMineObjectFetcher(os, classKeys, indexingQueue, ignoredClasses,
-                        ignoredFields, specialReferences, classBoost, facets, attributePrefixes);
+                        ignoredFields, specialReferences, classBoost, facets, attributePrefixes,
+                        ngramFields);
         fetchThread.start();
 
         // index the docs queued by the fetchers
@@ -1175,11 +1364,11 @@ public final class KeywordSearch
         }
     }
 
-    private static void addToIgnoredFields(
-            Map<Class<? extends InterMineObject>, Set<String>> ignoredFieldMap, ClassDescriptor cld,
+    private static void addToFieldMap(
+            Map<Class<? extends InterMineObject>, Set<String>> fieldMap, ClassDescriptor cld,
             String fieldName) {
         if (cld == null) {
-            LOG.error("ClassDesriptor was null when attempting to add an ignored field.");
+            LOG.error("ClassDesriptor was null when attempting to add a configured field.");
         } else if (InterMineObject.class.isAssignableFrom(cld.getType())) {
             Set<ClassDescriptor> clds = new HashSet<ClassDescriptor>();
             clds.add(cld);
@@ -1187,14 +1376,14 @@ public final class KeywordSearch
                 clds.add(subCld);
             }
 
-            for (ClassDescriptor ignoreCld : clds) {
-                Set<String> fields = ignoredFieldMap.get(ignoreCld.getType());
+            for (ClassDescriptor fieldCld : clds) {
+                Set<String> fields = fieldMap.get(fieldCld.getType());
                 @SuppressWarnings("unchecked")
                 Class<? extends InterMineObject> cls =
-                    (Class<? extends InterMineObject>) ignoreCld.getType();
+                    (Class<? extends InterMineObject>) fieldCld.getType();
                 if (fields == null) {
                     fields = new HashSet<String>();
-                    ignoredFieldMap.put(cls, fields);
+                    fieldMap.put(cls, fields);
                 }
                 fields.add(fieldName);
             }
@@ -1235,10 +1424,24 @@ public final class KeywordSearch
         }
     }
 
+    /**
+     * Returns the number of entries, hits, misses and evictions of the caches of rewritten
+     * queries and of pages of results.
+     * @return a description of the caches
+     */
+    public static String getCacheStatistics() {
+        KeywordSearchCache searchCache = cache;
+        return (searchCache == null) ? "Keyword search cache disabled" : searchCache.toString();
+    }
+
     /**
      * set all the variables to NULL
      */
     public static void close() {
+        if (cache != null) {
+            LOG.info(getCacheStatistics());
+        }
+        cache = null;
         if (reader != null) {
             try {
                 reader.close();
@@ -1264,6 +1467,8 @@ public final class KeywordSearch
         specialReferences = null;
         ignoredClasses = null;
         ignoredFields = null;
+        ngramFields = null;
+        ngramIndexedFields = Collections.emptySet();
         classBoost = null;
         facets = null;
         attributePrefixes = null;
@@ -0,0 +1,132 @@
+package org.intermine.api.lucene;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.lucene.search.Query;
+import org.intermine.util.ConcurrentCache;
+
+import com.browseengine.bobo.api.BrowseFacet;
+import com.browseengine.bobo.api.BrowseResult;
+import com.browseengine.bobo.api.FacetAccessible;
+import com.browseengine.bobo.api.MappedFacetAccessible;
+
+/**
+ * Keeps the rewritten queries and the pages of results (with their facet counts) of recent
+ * keyword searches against one open index, so that paging through results and repeating popular
+ * searches does not parse, expand and browse the index again. A new cache is made whenever the
+ * index is opened, so nothing survives a reload of the index.
+ */
+final class KeywordSearchCache
+{
+    private final ConcurrentCache<String, Query> queries;
+    private final ConcurrentCache<MultiKey, BrowseResult> results;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize the number of queries and of pages of results to keep
+     */
+    KeywordSearchCache(int maxSize) {
+        queries = new ConcurrentCache<String, Query>("Keyword search query cache", maxSize);
+        results = new ConcurrentCache<MultiKey, BrowseResult>("Keyword search results cache",
+                maxSize);
+    }
+
+    /**
+     * @param queryString a parsed search string
+     * @return the query rewritten against the index, or null if it is not cached
+     */
+    Query getQuery(String queryString) {
+        return queries.get(queryString);
+    }
+
+    /**
+     * @param queryString a parsed search string
+     * @param query the query rewritten against the index
+     */
+    void putQuery(String queryString, Query query) {
+        queries.put(queryString, query);
+    }
+
+    /**
+     * Returns a page of results browsed earlier. The caller gets its own BrowseResult, which it
+     * may close.
+     *
+     * @param queryString a parsed search string
+     * @param facetValues the facet values selected
+     * @param offset the offset of the page
+     * @param count the size of the page
+     * @return a BrowseResult, or null if the page is not cached
+     */
+    BrowseResult getResult(String queryString, Map<String, String> facetValues, int offset,
+            int count) {
+        BrowseResult snapshot = results.get(key(queryString, facetValues, offset, count));
+        if (snapshot == null) {
+            return null;
+        }
+        return copy(snapshot);
+    }
+
+    /**
+     * Keeps a copy of a page of results. The facets are read out of the result, so it can be
+     * closed afterwards.
+     *
+     * @param queryString a parsed search string
+     * @param facetValues the facet values selected
+     * @param offset the offset of the page
+     * @param count the size of the page
+     * @param result the result of browsing the index
+     */
+    void putResult(String queryString, Map<String, String> facetValues, int offset, int count,
+            BrowseResult result) {
+        BrowseResult snapshot = new BrowseResult();
+        snapshot.setHits(result.getHits());
+        snapshot.setNumHits(result.getNumHits());
+        snapshot.setTotalDocs(result.getTotalDocs());
+        snapshot.setTime(result.getTime());
+        for (Map.Entry<String, FacetAccessible> facet : result.getFacetMap().entrySet()) {
+            List<BrowseFacet> values = facet.getValue().getFacets();
+            snapshot.addFacets(facet.getKey(), new MappedFacetAccessible(
+                        values.toArray(new BrowseFacet[values.size()])));
+        }
+        results.put(key(queryString, facetValues, offset, count), snapshot);
+    }
+
+    private static BrowseResult copy(BrowseResult snapshot) {
+        BrowseResult result = new BrowseResult();
+        result.setHits(snapshot.getHits());
+        result.setNumHits(snapshot.getNumHits());
+        result.setTotalDocs(snapshot.getTotalDocs());
+        result.setTime(snapshot.getTime());
+        result.addAll(snapshot.getFacetMap());
+        return result;
+    }
+
+    private static MultiKey key(String queryString, Map<String, String> facetValues, int offset,
+            int count) {
+        // the selection is part of the key in a canonical order
+        String selection = new TreeMap<String, String>(facetValues).toString();
+        return new MultiKey(queryString, selection, new Integer(offset), new Integer(count));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return queries + ", " + results;
+    }
+}
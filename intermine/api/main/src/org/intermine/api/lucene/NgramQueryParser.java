@@ -0,0 +1,61 @@
+package org.intermine.api.lucene;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryParser.MultiFieldQueryParser;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Version;
+
+/**
+ * A parser for keyword searches over all fields, which runs terms with a leading wildcard as
+ * phrases of n-grams on the fields that have been indexed as n-grams (see WildcardNgrams), so
+ * that they do not have to be expanded against every term of those fields.
+ * <p>
+ * Only those fields are helped: on every other field searched the term is still expanded
+ * against the whole term dictionary, as MultiFieldQueryParser does, and as a search covers every
+ * field of the index that usually takes most of the time. A search is only much faster once all
+ * of the fields searched (every indexed attribute of every class) have n-grams.
+ */
+class NgramQueryParser extends MultiFieldQueryParser
+{
+    private final Set<String> ngramFields;
+
+    /**
+     * Constructor.
+     *
+     * @param fields the fields to search
+     * @param analyzer the analyzer for the search string
+     * @param ngramFields the fields that have been indexed as n-grams as well
+     */
+    NgramQueryParser(String[] fields, Analyzer analyzer, Set<String> ngramFields) {
+        super(Version.LUCENE_30, fields, analyzer);
+        this.ngramFields = ngramFields;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Query getWildcardQuery(String field, String termStr) throws ParseException {
+        // MultiFieldQueryParser calls this again for each field when field is null
+        if (field != null && ngramFields.contains(field)) {
+            Query query = WildcardNgrams.toQuery(field, termStr);
+            if (query != null) {
+                return query;
+            }
+        }
+        return super.getWildcardQuery(field, termStr);
+    }
+}
@@ -0,0 +1,96 @@
+package org.intermine.api.lucene;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+
+/**
+ * Indexes the words of configured attributes as overlapping n-grams, so that searches with a
+ * leading wildcard (*kinase or *kinase*) can be run as a phrase of n-grams rather than by
+ * enumerating every term of the field.
+ *
+ * <p>
+ * Each word of a value is cut into the n-grams of the word followed by END, and the n-grams are
+ * indexed one after another in a field named after the attribute's field plus FIELD_SUFFIX. The
+ * n-grams of a pattern can only appear at consecutive positions within one word, as every word
+ * of two or more letters ends with an n-gram containing END, so (as long as values do not contain
+ * END themselves) the phrase matches exactly the documents the wildcard would. Patterns too
+ * short to make an n-gram, or with wildcards anywhere but the ends, are left to the query parser.
+ * </p>
+ */
+final class WildcardNgrams
+{
+    /** The length of the n-grams */
+    static final int GRAM_SIZE = 3;
+    /** Appended to the name of a field to name the field holding its n-grams */
+    static final String FIELD_SUFFIX = "_ngram";
+    /** Marks the end of a word */
+    static final char END = '$';
+
+    private WildcardNgrams() {
+        // don't
+    }
+
+    /**
+     * Returns the n-grams of every word in a value, separated by spaces so that a
+     * WhitespaceAnalyzer indexes them in order.
+     *
+     * @param value a value of an attribute
+     * @return the n-grams, or an empty String if the value has no words long enough
+     */
+    static String toGrams(String value) {
+        StringBuilder grams = new StringBuilder();
+        for (String word : value.toLowerCase().split("\\s+")) {
+            String padded = word + END;
+            for (int i = 0; i + GRAM_SIZE <= padded.length(); i++) {
+                if (grams.length() > 0) {
+                    grams.append(' ');
+                }
+                grams.append(padded, i, i + GRAM_SIZE);
+            }
+        }
+        return grams.toString();
+    }
+
+    /**
+     * Translates a pattern with a leading wildcard into a query on the n-grams of a field.
+     *
+     * @param field the name of the field the pattern is for
+     * @param pattern the pattern, for example *kinase or *kinase*
+     * @return a query with a constant score like a wildcard's, or null if the pattern cannot be
+     * run on the n-grams
+     */
+    static Query toQuery(String field, String pattern) {
+        String core = pattern.toLowerCase();
+        if (!core.startsWith("*") || core.indexOf('?') != -1 || core.indexOf(END) != -1) {
+            return null;
+        }
+        core = core.substring(1);
+        if (core.endsWith("*")) {
+            core = core.substring(0, core.length() - 1);
+        } else {
+            core = core + END;
+        }
+        if (core.length() < GRAM_SIZE || core.indexOf('*') != -1 || core.indexOf(' ') != -1) {
+            return null;
+        }
+        PhraseQuery phrase = new PhraseQuery();
+        String gramField = field + FIELD_SUFFIX;
+        for (int i = 0; i + GRAM_SIZE <= core.length(); i++) {
+            phrase.add(new Term(gramField, core.substring(i, i + GRAM_SIZE)));
+        }
+        return new ConstantScoreQuery(new QueryWrapperFilter(phrase));
+    }
+}
@@ -19,6 +19,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -31,6 +32,8 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -86,16 +89,31 @@ public class ProfileManager
 
     protected ObjectStore os;
     protected ObjectStoreWriter uosw;
+    // Guarded by itself, as looking up a soft reference may also expunge cleared ones
     protected CacheMap<String, Profile> profileCache = new CacheMap<String, Profile>();
     private String superuser = null;
     /** Number determining format of queries in the database */
     protected int pathQueryFormat;
 
-    private final Map<String, LimitedAccessToken> limitedAccessTokens
-        = new HashMap<String, LimitedAccessToken>();
+    private final ConcurrentMap<String, LimitedAccessToken> limitedAccessTokens
+        = new ConcurrentHashMap<String, LimitedAccessToken>();
 
-    private final Map<UUID, PermanentToken> permanentTokens
-        = new HashMap<UUID, PermanentToken>();
+    private final ConcurrentMap<UUID, PermanentToken> permanentTokens
+        = new ConcurrentHashMap<UUID, PermanentToken>();
+
+    // Secondary keys for cached profiles, so that lookups by id or API key need not touch the
+    // userprofile database. The profile cache drops profiles silently when memory is short, so
+    // entries for profiles that have left it are removed when they are next looked up, and swept
+    // out whenever a profile is loaded. Found profiles are checked before they are used.
+    private final ConcurrentMap<Integer, String> userIdCache
+        = new ConcurrentHashMap<Integer, String>();
+    private final ConcurrentMap<String, String> apiKeyCache
+        = new ConcurrentHashMap<String, String>();
+
+    // Locks held while a user's profile is loaded or modified, shared between the users whose
+    // names hash alike so that there is a fixed number of them
+    private static final int USER_LOCKS = 64;
+    private final Object[] userLocks = createUserLocks();
 
     /**
      * Construct a ProfileManager for the webapp
@@ -262,13 +280,15 @@ public class ProfileManager
      * @param username the username
      * @param password the password
      */
-    public synchronized void setPassword(String username, String password) {
-        UserProfile userProfile = getUserProfile(username);
-        userProfile.setPassword(PasswordHasher.hashPassword(password));
-        try {
-            uosw.store(userProfile);
-        } catch (ObjectStoreException e) {
-            throw new RuntimeException(e);
+    public void setPassword(String username, String password) {
+        synchronized (getUserLock(username)) {
+            UserProfile userProfile = getUserProfile(username);
+            userProfile.setPassword(PasswordHasher.hashPassword(password));
+            try {
+                uosw.store(userProfile);
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
@@ -290,7 +310,7 @@ public class ProfileManager
      * @param classKeys the classkeys
      * @return the Profile, or null if one doesn't exist
      */
-    public synchronized Profile getProfile(String username, String password,
+    public Profile getProfile(String username, String password,
                         Map<String, List<FieldDescriptor>> classKeys) {
         if (hasProfile(username) && validPassword(username, password)) {
             return getProfile(username, classKeys);
@@ -303,7 +323,7 @@ public class ProfileManager
      * @param password the password
      * @return the Profile, or null if one doesn't exist
      */
-    public synchronized Profile getProfile(String username, String password) {
+    public Profile getProfile(String username, String password) {
         if (hasProfile(username)) {
             if (getUserProfile(username).getLocalAccount()) {
                 if (validPassword(username, password)) {
@@ -321,7 +341,7 @@ public class ProfileManager
      * @param username the username
      * @return the Profile, or null if one doesn't exist
      */
-    public synchronized Profile getProfile(String username) {
+    public Profile getProfile(String username) {
         Map<String, List<FieldDescriptor>> classKeys = getClassKeys(os.getModel());
         return getProfile(username, classKeys);
     }
@@ -332,6 +352,14 @@ public class ProfileManager
      * @return user's profile
      */
     public Profile getProfile(int id) {
+        String username = userIdCache.get(id);
+        if (username != null) {
+            Profile profile = getCachedProfile(username);
+            if (profile != null && Integer.valueOf(id).equals(profile.getUserId())) {
+                return profile;
+            }
+            userIdCache.remove(id, username);
+        }
         Map<String, List<FieldDescriptor>> classKeys = getClassKeys(os.getModel());
         UserProfile up;
         try {
@@ -339,10 +367,7 @@ public class ProfileManager
         } catch (ObjectStoreException e) {
             throw new RuntimeException("Error retrieving profile", e);
         }
-        if (up != null && profileCache.containsKey(up.getUsername())) {
-            return profileCache.get(up.getUsername());
-        }
-        return wrapUserProfile(up, classKeys);
+        return loadProfile(up, classKeys);
     }
 
     /**
@@ -422,12 +447,12 @@ public class ProfileManager
      * @param classKeys the classkeys
      * @return the Profile, or null if one doesn't exist
      */
-    public synchronized Profile getProfile(String username, Map<String,
+    public Profile getProfile(String username, Map<String,
                         List<FieldDescriptor>> classKeys) {
         if (username == null) {
             return null;
         }
-        Profile profile = profileCache.get(username);
+        Profile profile = getCachedProfile(username);
         if (profile != null) {
             return profile;
         }
@@ -453,14 +478,35 @@ public class ProfileManager
             return null;
         }
 
-        return wrapUserProfile(userProfile, classKeys);
+        return loadProfile(userProfile, classKeys);
     }
 
-    private synchronized Profile wrapUserProfile(UserProfile userProfile,
+    /**
+     * Return the cached profile for a UserProfile, creating it if no other thread has done so.
+     */
+    private Profile loadProfile(UserProfile userProfile,
             Map<String, List<FieldDescriptor>> classKeys) {
         if (userProfile == null) {
             return null;
         }
+        Profile profile;
+        synchronized (getUserLock(userProfile.getUsername())) {
+            profile = getCachedProfile(userProfile.getUsername());
+            if (profile != null) {
+                return profile;
+            }
+            profile = wrapUserProfile(userProfile, classKeys);
+        }
+        //only after saving the profile in the cache,
+        //we can update the user repository with shared bags
+        //if we do in the constructor we could generate loops
+        //This loads the profiles of other users, so must not hold this user's lock
+        profile.updateUserRepositoryWithSharedBags();
+        return profile;
+    }
+
+    private Profile wrapUserProfile(UserProfile userProfile,
+            Map<String, List<FieldDescriptor>> classKeys) {
         Map<String, InterMineBag> savedBags = new HashMap<String, InterMineBag>();
         Map<String, InvalidBag> savedInvalidBags = new HashMap<String, InvalidBag>();
         Query q = new Query();
@@ -565,14 +611,57 @@ public class ProfileManager
                 userProfile.getPassword(),
                 savedQueries, bags, savedTemplates, userProfile.getApiKey(),
                 userProfile.getLocalAccount(), userProfile.getSuperuser());
-        profileCache.put(userProfile.getUsername(), profile);
-        //only after saving the profile in the cache,
-        //we can update the user repository with shared bags
-        //if we do in the constructor we could generate loops
-        profile.updateUserRepositoryWithSharedBags();
+        synchronized (profileCache) {
+            profileCache.put(userProfile.getUsername(), profile);
+        }
+        removeStaleKeys();
+        userIdCache.put(userProfile.getId(), userProfile.getUsername());
+        if (userProfile.getApiKey() != null) {
+            apiKeyCache.put(userProfile.getApiKey(), userProfile.getUsername());
+        }
         return profile;
     }
 
+    private Profile getCachedProfile(String username) {
+        synchronized (profileCache) {
+            return profileCache.get(username);
+        }
+    }
+
+    private static Object[] createUserLocks() {
+        Object[] locks = new Object[USER_LOCKS];
+        for (int i = 0; i < USER_LOCKS; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    private Object getUserLock(String username) {
+        return userLocks[(username.hashCode() & Integer.MAX_VALUE) % USER_LOCKS];
+    }
+
+    /**
+     * Remove the secondary keys of profiles that the profile cache has dropped. This is cheap
+     * next to loading a profile, which is when it is called.
+     */
+    private void removeStaleKeys() {
+        Set<String> cached = new HashSet<String>();
+        synchronized (profileCache) {
+            for (String username : new HashSet<String>(userIdCache.values())) {
+                if (profileCache.containsKey(username)) {
+                    cached.add(username);
+                }
+            }
+            for (String username : new HashSet<String>(apiKeyCache.values())) {
+                if (profileCache.containsKey(username)) {
+                    cached.add(username);
+                }
+            }
+        }
+        userIdCache.values().retainAll(cached);
+        apiKeyCache.values().retainAll(cached);
+    }
+
 
     /**
      * Return the TagManager for adding, removing and fetching Tags assigned to templates, bags
@@ -587,24 +676,30 @@ public class ProfileManager
      * Synchronise a user's Profile with the backing store
      * @param profile the Profile
      */
-    public synchronized void saveProfile(Profile profile) {
+    public void saveProfile(Profile profile) {
         Integer userId = profile.getUserId();
-        try {
-            UserProfile userProfile = getUserProfile(userId);
+        synchronized (getUserLock(profile.getUsername())) {
+            try {
+                UserProfile userProfile = getUserProfile(userId);
 
-            if (userProfile == null) {
-                throw new RuntimeException("Cannot save this profile: The UserProfile is null");
-            }
+                if (userProfile == null) {
+                    throw new RuntimeException("Cannot save this profile: The UserProfile is null");
+                }
 
-            userProfile.setApiKey(profile.getApiKey());
+                String oldApiKey = userProfile.getApiKey();
+                userProfile.setApiKey(profile.getApiKey());
 
-            syncSavedQueries(profile, userProfile);
-            syncTemplates(profile, userProfile);
+                syncSavedQueries(profile, userProfile);
+                syncTemplates(profile, userProfile);
 
-            uosw.store(userProfile);
-            profile.setUserId(userProfile.getId());
-        } catch (ObjectStoreException e) {
-            throw new RuntimeException(e);
+                uosw.store(userProfile);
+                profile.setUserId(userProfile.getId());
+                if (oldApiKey != null && !oldApiKey.equals(profile.getApiKey())) {
+                    apiKeyCache.remove(oldApiKey);
+                }
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
@@ -666,7 +761,7 @@ public class ProfileManager
      * @param password the password
      * @return new profile
      */
-    public synchronized Profile createNewProfile(String username, String password) {
+    public Profile createNewProfile(String username, String password) {
         return createBasicLocalProfile(username, password, null);
     }
 
@@ -697,21 +792,23 @@ public class ProfileManager
      * @param apiKey The API key for this user.
      * @return The profile.
      */
-    public synchronized Profile createBasicLocalProfile(
+    public Profile createBasicLocalProfile(
             String username,
             String password,
             String apiKey) {
-        if (this.hasProfile(username)) {
-            throw new RuntimeException("Cannot create account: there already exists a user"
-                    + " with that name");
-        }
+        synchronized (getUserLock(username)) {
+            if (this.hasProfile(username)) {
+                throw new RuntimeException("Cannot create account: there already exists a user"
+                        + " with that name");
+            }
 
-        Profile p = new Profile(
-                this, username, null, password,
-                Profile.NO_QUERIES, Profile.NO_BAGS, Profile.NO_TEMPLATES,
-                apiKey, true, false);
-        createProfile(p);
-        return p;
+            Profile p = new Profile(
+                    this, username, null, password,
+                    Profile.NO_QUERIES, Profile.NO_BAGS, Profile.NO_TEMPLATES,
+                    apiKey, true, false);
+            createProfile(p);
+            return p;
+        }
     }
 
     /**
@@ -722,7 +819,7 @@ public class ProfileManager
      * @param apiKey The API key for this user.
      * @return The profile.
      */
-    public synchronized Profile createSuperUser(
+    public Profile createSuperUser(
             String username,
             String password,
             String apiKey) {
@@ -739,7 +836,7 @@ public class ProfileManager
      *
      * @param profile a Profile object
      */
-    public synchronized void createProfile(Profile profile) {
+    public void createProfile(Profile profile) {
         UserProfile userProfile = new UserProfile();
         userProfile.setUsername(profile.getUsername());
         userProfile.setLocalAccount(profile.isLocal());
@@ -766,7 +863,7 @@ public class ProfileManager
      * @param profile The profile to generate the new API key for.
      * @return A new API access key
      */
-    public synchronized String generateApiKey(Profile profile) {
+    public String generateApiKey(Profile profile) {
         String newApiKey = TextUtil.generateRandomUniqueString();
         profile.setApiKey(newApiKey);
         return newApiKey;
@@ -777,7 +874,7 @@ public class ProfileManager
      * @param profile the user profile
      * @return the generated key
      */
-    public synchronized String generateSingleUseKey(Profile profile) {
+    public String generateSingleUseKey(Profile profile) {
         String key = TextUtil.generateRandomUniqueString();
         LimitedAccessToken token = new SingleAccessToken(profile);
         limitedAccessTokens.put(key, token);
@@ -789,7 +886,7 @@ public class ProfileManager
      * @param profile the profile which token is valid
      * @return the token
      */
-    public synchronized String generate24hrKey(Profile profile) {
+    public String generate24hrKey(Profile profile) {
         String key = TextUtil.generateRandomUniqueString();
         LimitedAccessToken token = new DayToken(profile);
         limitedAccessTokens.put(key, token);
@@ -805,15 +902,11 @@ public class ProfileManager
         if (profile == null) {
             throw new NullPointerException("profile should not be null.");
         }
-        synchronized (limitedAccessTokens) {
-            Set<String> tokens = limitedAccessTokens.keySet();
-            Iterator<String> itr = tokens.iterator();
-            while (itr.hasNext()) {
-                String key = itr.next();
-                LimitedAccessToken token = limitedAccessTokens.get(key);
-                if (profile.equals(token.getProfile())) {
-                    itr.remove();
-                }
+        Iterator<LimitedAccessToken> itr = limitedAccessTokens.values().iterator();
+        while (itr.hasNext()) {
+            LimitedAccessToken token = itr.next();
+            if (profile.equals(token.getProfile())) {
+                itr.remove();
             }
         }
     }
@@ -823,14 +916,14 @@ public class ProfileManager
      * @param token the token to verify
      * @return true if is suitable for using in the future.
      */
-    public synchronized boolean tokenHasMoreUses(String token) {
+    public boolean tokenHasMoreUses(String token) {
         if (token != null) {
-            if (limitedAccessTokens.containsKey(token)) {
-                LimitedAccessToken lat = limitedAccessTokens.get(token);
+            LimitedAccessToken lat = limitedAccessTokens.get(token);
+            if (lat != null) {
                 if (lat.isValid()) {
                     return lat.hasMoreUses();
                 } else {
-                    limitedAccessTokens.remove(token);
+                    limitedAccessTokens.remove(token, lat);
                 }
             }
             try {
@@ -881,7 +974,7 @@ public class ProfileManager
      *
      * @param profile a Profile object
      */
-    public synchronized void createProfileWithoutBags(Profile profile) {
+    public void createProfileWithoutBags(Profile profile) {
         UserProfile userProfile = new UserProfile();
         userProfile.setUsername(profile.getUsername());
         if (profile.getPassword() != null) {
@@ -902,7 +995,7 @@ public class ProfileManager
      * @param username the username
      * @return the relevant UserProfile
      */
-    public synchronized UserProfile getUserProfile(String username) {
+    public UserProfile getUserProfile(String username) {
         UserProfile profile = new UserProfile();
         profile.setUsername(username);
         Set<String> fieldNames = new HashSet<String>();
@@ -921,7 +1014,7 @@ public class ProfileManager
      * @param userId the id of the user
      * @return the relevant UserProfile
      */
-    public synchronized UserProfile getUserProfile(Integer userId) {
+    public UserProfile getUserProfile(Integer userId) {
         if (userId == null) {
             return null;
         }
@@ -937,7 +1030,7 @@ public class ProfileManager
      *
      * @return the usernames
      */
-    public synchronized List<String> getProfileUserNames() {
+    public List<String> getProfileUserNames() {
         Query q = new Query();
         QueryClass qcUserProfile = new QueryClass(UserProfile.class);
         QueryField qfUserName = new QueryField(qcUserProfile, "username");
@@ -962,7 +1055,7 @@ public class ProfileManager
      * @param profileId the id of the profile.
      * @return the name of the user, or null.
      */
-    public synchronized String getProfileUserName(int profileId) {
+    public String getProfileUserName(int profileId) {
         try {
             UserProfile profile = (UserProfile) uosw.getObjectById(profileId, UserProfile.class);
             return profile.getUsername();
@@ -1025,8 +1118,8 @@ public class ProfileManager
         return profile;
     }
 
-    private final Map<String, PasswordChangeToken> passwordChangeTokens
-        = new HashMap<String, PasswordChangeToken>();
+    private final ConcurrentMap<String, PasswordChangeToken> passwordChangeTokens
+        = new ConcurrentHashMap<String, PasswordChangeToken>();
 
     /**
      * Creates a password change token assigned to the given username that will expire after a day.
@@ -1035,7 +1128,7 @@ public class ProfileManager
      * @return a String containing the token
      * @throws IllegalArgumentException if the username does not match a profile
      */
-    public synchronized String createPasswordChangeToken(String username) {
+    public String createPasswordChangeToken(String username) {
         if (hasProfile(username)) {
             Date expiry = new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000);
             String token = TextUtil.generateRandomUniqueString();
@@ -1053,7 +1146,7 @@ public class ProfileManager
      * @return the username associated with the token
      * @throws IllegalArgumentException if the token is invalid
      */
-    public synchronized String getUsernameForToken(String token) {
+    public String getUsernameForToken(String token) {
         PasswordChangeToken retval = passwordChangeTokens.get(token);
         if (retval != null) {
             if (retval.isValid()) {
@@ -1074,12 +1167,12 @@ public class ProfileManager
      * @return the username hat has the new password
      * @throws IllegalArgumentException if the token is invalid
      */
-    public synchronized String changePasswordWithToken(String token, String password) {
-        PasswordChangeToken pct = passwordChangeTokens.get(token);
+    public String changePasswordWithToken(String token, String password) {
+        // Removing the token first means that it can only ever be used once
+        PasswordChangeToken pct = passwordChangeTokens.remove(token);
         if (pct != null) {
             if (pct.isValid()) {
                 setPassword(pct.getUsername(), password);
-                passwordChangeTokens.remove(token);
                 return pct.getUsername();
             }
         }
@@ -1115,7 +1208,12 @@ public class ProfileManager
      * @param profile the profile to remove
      */
     public void evictFromCache(Profile profile) {
-        profileCache.remove(profile.getUsername());
+        synchronized (profileCache) {
+            profileCache.remove(profile.getUsername());
+        }
+        Set<String> username = Collections.singleton(profile.getUsername());
+        userIdCache.values().removeAll(username);
+        apiKeyCache.values().removeAll(username);
     }
 
     /**
@@ -1145,8 +1243,12 @@ public class ProfileManager
             return isValid();
         }
 
-        public void use() {
-            // No op stub.
+        /**
+         * Record a use of this token.
+         * @return false if the token could not be used because it is no longer valid.
+         */
+        public boolean use() {
+            return isValid();
         }
     }
 
@@ -1172,13 +1274,17 @@ public class ProfileManager
         }
 
         @Override
-        public boolean isValid() {
+        public synchronized boolean isValid() {
             return uses < maxUses;
         }
 
         @Override
-        public void use() {
-            uses++;
+        public synchronized boolean use() {
+            if (uses < maxUses) {
+                uses++;
+                return true;
+            }
+            return false;
         }
     }
 
@@ -1351,15 +1457,17 @@ public class ProfileManager
      */
     public ApiPermission getPermission(String token, Map<String, List<FieldDescriptor>> classKeys) {
         ApiPermission permission;
-        if (limitedAccessTokens.containsKey(token)) {
-            LimitedAccessToken t = limitedAccessTokens.get(token);
-            if (!t.isValid()) {
+        LimitedAccessToken t = limitedAccessTokens.get(token);
+        if (t != null) {
+            // Checking and using the token in one step stops concurrent requests from both
+            // using a single use token
+            if (!t.use()) {
+                limitedAccessTokens.remove(token, t);
                 throw new AuthenticationException("This token (" + token + ")is invalid.");
             }
             Profile p = t.getProfile();
-            t.use();
             if (!t.isValid()) {
-                limitedAccessTokens.remove(token);
+                limitedAccessTokens.remove(token, t);
             }
             permission = new ApiPermission(p, t.getAuthenticationLevel());
         } else {
@@ -1458,6 +1566,15 @@ public class ProfileManager
 
     private Profile getProfileByApiKey(String token, Map<String,
             List<FieldDescriptor>> classKeys) {
+        String cachedName = apiKeyCache.get(token);
+        if (cachedName != null) {
+            Profile cached = getCachedProfile(cachedName);
+            // The key may have been changed or revoked since it was cached
+            if (cached != null && token.equals(cached.getApiKey())) {
+                return cached;
+            }
+            apiKeyCache.remove(token, cachedName);
+        }
         UserProfile profile = new UserProfile();
         profile.setApiKey(token);
         Set<String> fieldNames = new HashSet<String>();
@@ -1471,7 +1588,15 @@ public class ProfileManager
             throw new AuthenticationException(
                 "'" + token + "' is not a valid API access key");
         }
-        return getProfile(profile.getUsername(), classKeys);
+        String username = profile.getUsername();
+        synchronized (getUserLock(username)) {
+            // The key may have been replaced since it was looked up
+            UserProfile current = getUserProfile(profile.getId());
+            if (current != null && token.equals(current.getApiKey())) {
+                apiKeyCache.put(token, username);
+            }
+        }
+        return getProfile(username, classKeys);
     }
 
     /**
@@ -1480,7 +1605,9 @@ public class ProfileManager
      * @return true if the profile is in the cache
      */
     public boolean isProfileCached(String username) {
-        return profileCache.containsKey(username);
+        synchronized (profileCache) {
+            return profileCache.containsKey(username);
+        }
     }
 
     /**
@@ -1572,7 +1699,7 @@ public class ProfileManager
 
     private PreferencesManager preferencesManager = null;
 
-    private PreferencesManager getPreferencesManager() {
+    private synchronized PreferencesManager getPreferencesManager() {
         if (preferencesManager == null) {
             preferencesManager = new PreferencesManager(uosw);
         }
@@ -19,6 +19,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,7 +50,6 @@ import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
-import org.intermine.util.CacheMap;
 import org.intermine.util.DynamicUtil;
 
 /**
@@ -61,7 +63,26 @@ public class TagManager
 {
     private static final Logger LOG = Logger.getLogger(TagManager.class);
     protected ObjectStoreWriter osWriter;
-    private CacheMap<MultiKey, List<Tag>> tagCache = null;
+
+    /** The maximum number of getTags() results to keep. */
+    private static final int MAX_CACHED_QUERIES = 10000;
+
+    // Results of getTags(), keyed by its arguments. Adding or deleting a tag updates every
+    // entry it matches rather than clearing the cache, and the cached lists are never modified,
+    // only replaced, so they can be handed out to readers.
+    private final ConcurrentMap<MultiKey, List<Tag>> tagCache =
+        new ConcurrentHashMap<MultiKey, List<Tag>>();
+    // Every tag of users loaded by preloadTags(), so any query about them can be answered
+    // without the database
+    private final ConcurrentMap<String, List<Tag>> userTags =
+        new ConcurrentHashMap<String, List<Tag>>();
+    // Serialises changes to tags. Readers do not take it, except to check the generation before
+    // caching results, so that results read before a change are never cached after it.
+    private final Object mutationLock = new Object();
+    private long generation = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
 
     /** What we tell users when they give us an invalid tag name **/
     public static final String INVALID_NAME_MSG = "Invalid name. "
@@ -80,13 +101,16 @@ public class TagManager
      * Delete a tag object from the database.
      * @param tag Tag object
      */
-    public synchronized void deleteTag(Tag tag) {
-        try {
-            tagCache = null;
-            osWriter.delete(tag);
-        } catch (ObjectStoreException e) {
-            LOG.error("delete tag failed" + e);
-            throw new RuntimeException("Delete tag failed", e);
+    public void deleteTag(Tag tag) {
+        String userName = getUserName(tag);
+        synchronized (mutationLock) {
+            try {
+                osWriter.delete(tag);
+            } catch (ObjectStoreException e) {
+                LOG.error("delete tag failed" + e);
+                throw new RuntimeException("Delete tag failed", e);
+            }
+            updateCache(tag, userName, false);
         }
     }
 
@@ -331,7 +355,7 @@ public class TagManager
      * @param id intermine object id
      * @return Tag
      */
-    public synchronized Tag getTagById(int id) {
+    public Tag getTagById(int id) {
         try {
             return (Tag) osWriter.getObjectById(new Integer(id), Tag.class);
         } catch (ObjectStoreException e) {
@@ -392,21 +416,48 @@ public class TagManager
      * @return the matching Tags
      * @deprecated There are typed methods that are more suitable. Use them instead.
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     @Deprecated
-    public synchronized List<Tag> getTags(String tagName, String taggedObjectId, String type,
+    public List<Tag> getTags(String tagName, String taggedObjectId, String type,
                         String userName) {
         if (type != null) {
             checkTagType(type);
         }
 
-        Map<MultiKey, List<Tag>> cache = getTagCache();
         MultiKey key = makeKey(tagName, taggedObjectId, type, userName);
-
-        if (cache.containsKey(key)) {
-            return cache.get(key);
+        List<Tag> cached = tagCache.get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        long generationWas;
+        synchronized (mutationLock) {
+            generationWas = generation;
+        }
+
+        List<Tag> results;
+        List<Tag> allUserTags = (userName == null) ? null : userTags.get(userName);
+        if (allUserTags != null) {
+            results = new ArrayList<Tag>();
+            for (Tag tag : allUserTags) {
+                if (matches(key, tag, userName)) {
+                    results.add(tag);
+                }
+            }
+        } else {
+            results = queryTags(tagName, taggedObjectId, type, userName);
+        }
+        synchronized (mutationLock) {
+            if (generation == generationWas) {
+                addToCache(key, results);
+            }
         }
+        return results;
+    }
 
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private List<Tag> queryTags(String tagName, String taggedObjectId, String type,
+            String userName) {
         // if there isn't a cache for user, than check if user exists
         // for performance reasons don't put this check at the method beginning
         if (userName != null) {
@@ -447,8 +498,7 @@ public class TagManager
 
         ObjectStore userprofileOS = osWriter.getObjectStore();
         SingletonResults results = userprofileOS.executeSingleton(q);
-        addToCache(cache, key, ((List) results));
-        return ((List) results);
+        return new ArrayList<Tag>((List) results);
     }
 
     private static MultiKey makeKey(String tagName, String objectIdentifier, String type,
@@ -456,30 +506,119 @@ public class TagManager
         return new MultiKey(tagName, objectIdentifier, type, userName);
     }
 
-    private static void addToCache(Map<MultiKey, List<Tag>> cache, MultiKey key,
-            List<Tag> results) {
+    /**
+     * Caches the results of a query. Must be called while holding the mutationLock.
+     */
+    private void addToCache(MultiKey key, List<Tag> results) {
+        if (tagCache.size() >= MAX_CACHED_QUERIES) {
+            // Make room by dropping an arbitrary tenth of the cache
+            Iterator<MultiKey> iter = tagCache.keySet().iterator();
+            for (int i = 0; i < MAX_CACHED_QUERIES / 10 && iter.hasNext(); i++) {
+                iter.next();
+                iter.remove();
+            }
+        }
+        tagCache.put(key, results);
+    }
 
-        cache.put(key, new ArrayList<Tag>(results));
+    /**
+     * Brings the cached results up to date after a tag has been added or deleted. Must be called
+     * while holding the mutationLock.
+     */
+    private void updateCache(Tag tag, String userName, boolean added) {
+        for (Map.Entry<MultiKey, List<Tag>> entry : tagCache.entrySet()) {
+            if (matches(entry.getKey(), tag, userName)) {
+                tagCache.put(entry.getKey(), added ? withTag(entry.getValue(), tag)
+                        : withoutTag(entry.getValue(), tag));
+            }
+        }
+        List<Tag> allUserTags = (userName == null) ? null : userTags.get(userName);
+        if (allUserTags != null) {
+            userTags.put(userName, added ? withTag(allUserTags, tag)
+                    : withoutTag(allUserTags, tag));
+        }
+        generation++;
+        updates.incrementAndGet();
+    }
 
-        Iterator<?> resIter = results.iterator();
+    private static boolean matches(MultiKey key, Tag tag, String userName) {
+        return matches(key.getKey(0), tag.getTagName())
+            && matches(key.getKey(1), tag.getObjectIdentifier())
+            && matches(key.getKey(2), tag.getType())
+            && matches(key.getKey(3), userName);
+    }
 
-        while (resIter.hasNext()) {
-            Tag tag = (Tag) resIter.next();
+    private static boolean matches(Object wanted, String value) {
+        return (wanted == null) || wanted.equals(value);
+    }
 
-            Object[] tagKeys = new Object[4];
-            tagKeys[0] = tag.getTagName();
-            tagKeys[1] = tag.getObjectIdentifier();
-            tagKeys[2] = tag.getType();
-            tagKeys[3] = tag.getUserProfile().getUsername();
+    /**
+     * Returns a copy of a list of tags with a new tag added, keeping the list in tag name order.
+     */
+    private static List<Tag> withTag(List<Tag> tags, Tag tag) {
+        List<Tag> retval = new ArrayList<Tag>(tags.size() + 1);
+        boolean inserted = false;
+        for (Tag existing : tags) {
+            if (!inserted && existing.getTagName().compareTo(tag.getTagName()) > 0) {
+                retval.add(tag);
+                inserted = true;
+            }
+            retval.add(existing);
+        }
+        if (!inserted) {
+            retval.add(tag);
         }
+        return retval;
+    }
+
+    private static List<Tag> withoutTag(List<Tag> tags, Tag tag) {
+        List<Tag> retval = new ArrayList<Tag>(tags.size());
+        for (Tag existing : tags) {
+            if (!existing.getId().equals(tag.getId())) {
+                retval.add(existing);
+            }
+        }
+        return retval;
+    }
 
+    private static String getUserName(Tag tag) {
+        UserProfile userProfile = tag.getUserProfile();
+        return (userProfile == null) ? null : userProfile.getUsername();
     }
 
-    private Map<MultiKey, List<Tag>> getTagCache() {
-        if (tagCache == null) {
-            tagCache  = new CacheMap<MultiKey, List<Tag>>();
+    /**
+     * Loads all the tags of a user into memory, so that any later request for that user's tags
+     * is answered without querying the database. This is meant for the superuser, whose tags
+     * (public lists and templates, aspects and so on) are read on almost every page.
+     *
+     * @param userName the name of the user
+     */
+    public void preloadTags(String userName) {
+        long start = System.currentTimeMillis();
+        long generationWas;
+        synchronized (mutationLock) {
+            generationWas = generation;
+        }
+        List<Tag> tags = queryTags(null, null, null, userName);
+        synchronized (mutationLock) {
+            if (generation == generationWas) {
+                userTags.put(userName, tags);
+                addToCache(makeKey(null, null, null, userName), tags);
+            }
         }
-        return tagCache;
+        LOG.info("Preloaded " + tags.size() + " tags for " + userName + " in "
+                + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Returns statistics about the use of the tag cache, for logging.
+     *
+     * @return a String
+     */
+    public String getCacheStatistics() {
+        return "tag cache: " + tagCache.size() + " queries, " + userTags.size()
+            + " preloaded users, " + hits.get() + " hits, " + misses.get() + " misses, "
+            + updates.get() + " updates";
     }
 
     /**
@@ -499,7 +638,7 @@ public class TagManager
      * @throws TagNamePermissionException If the user does not have the required
      *         permissions to add this tag.
      */
-    public synchronized Tag addTag(
+    public Tag addTag(
             String tagName,
             String objectIdentifier,
             String type,
@@ -547,7 +686,7 @@ public class TagManager
      * @throws TagNameException If the name is invalid (contains illegal characters)
      * @throws TagNamePermissionException If this tag name is restricted.
      */
-    public synchronized Tag addTag(String tagName, WebSearchable ws, Profile profile)
+    public Tag addTag(String tagName, WebSearchable ws, Profile profile)
         throws TagNameException, TagNamePermissionException {
         Tag ret = addTag(tagName, ws.getName(), ws.getTagType(), profile);
         ws.fireEvent(new TaggingEvent(ws, tagName, TagChange.ADDED));
@@ -563,7 +702,7 @@ public class TagManager
      * @throws TagNameException If the name is invalid (contains illegal characters)
      * @throws TagNamePermissionException If this tag name is restricted.
      */
-    public synchronized Tag addTag(String tagName, ClassDescriptor cld, Profile profile)
+    public Tag addTag(String tagName, ClassDescriptor cld, Profile profile)
         throws TagNameException, TagNamePermissionException {
         return addTag(tagName, cld.getName(), TagTypes.CLASS, profile);
     }
@@ -577,7 +716,7 @@ public class TagManager
      * @throws TagNameException If the name is invalid (contains illegal characters)
      * @throws TagNamePermissionException If this tag name is restricted.
      */
-    public synchronized Tag addTag(String tagName, ReferenceDescriptor ref, Profile profile)
+    public Tag addTag(String tagName, ReferenceDescriptor ref, Profile profile)
         throws TagNameException, TagNamePermissionException {
         String objIdentifier = ref.getClassDescriptor().getSimpleName() + "." + ref.getName();
         if (ref instanceof CollectionDescriptor) {
@@ -600,7 +739,7 @@ public class TagManager
      * @param username The username of the user to associate this tag with.
      * @return the new Tag
      */
-    synchronized Tag addTag(String tagName, String objectIdentifier,
+    Tag addTag(String tagName, String objectIdentifier,
             String type, String username) {
 
         checkUserExists(username);
@@ -623,15 +762,15 @@ public class TagManager
         tag.setType(type);
         tag.setUserProfile(userProfile);
 
-        CacheMap<MultiKey, List<Tag>> cacheWas = tagCache;
-        try {
-            tagCache = null;
-            osWriter.store(tag);
-            return tag;
-        } catch (ObjectStoreException e) {
-            tagCache = cacheWas;
-            throw new RuntimeException("cannot set tag", e);
+        synchronized (mutationLock) {
+            try {
+                osWriter.store(tag);
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException("cannot set tag", e);
+            }
+            updateCache(tag, username, true);
         }
+        return tag;
     }
 
     private static void checkTagType(String type) {
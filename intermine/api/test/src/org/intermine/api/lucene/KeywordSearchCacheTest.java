@@ -0,0 +1,74 @@
+package org.intermine.api.lucene;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import com.browseengine.bobo.api.BrowseFacet;
+import com.browseengine.bobo.api.BrowseHit;
+import com.browseengine.bobo.api.BrowseResult;
+import com.browseengine.bobo.api.MappedFacetAccessible;
+
+public class KeywordSearchCacheTest extends TestCase
+{
+    public KeywordSearchCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void testQuery() throws Exception {
+        KeywordSearchCache cache = new KeywordSearchCache(10);
+        Query query = new TermQuery(new Term("symbol", "zen"));
+        assertNull(cache.getQuery("zen"));
+        cache.putQuery("zen", query);
+        assertSame(query, cache.getQuery("zen"));
+    }
+
+    public void testResult() throws Exception {
+        KeywordSearchCache cache = new KeywordSearchCache(10);
+        Map<String, String> facets = new LinkedHashMap<String, String>();
+        facets.put("Category", "Gene");
+        facets.put("organism.shortName", "D. melanogaster");
+
+        BrowseResult result = new BrowseResult();
+        result.setHits(new BrowseHit[] {new BrowseHit()});
+        result.setNumHits(150);
+        result.addFacets("Category", new MappedFacetAccessible(new BrowseFacet[] {
+            new BrowseFacet("Gene", 120), new BrowseFacet("Protein", 30)}));
+        cache.putResult("zen", facets, 100, KeywordSearch.PER_PAGE, result);
+        result.close();
+
+        // the same selection in a different order
+        Map<String, String> reordered = new HashMap<String, String>();
+        reordered.put("organism.shortName", "D. melanogaster");
+        reordered.put("Category", "Gene");
+        BrowseResult cached = cache.getResult("zen", reordered, 100, KeywordSearch.PER_PAGE);
+        assertNotNull(cached);
+        assertEquals(150, cached.getNumHits());
+        assertEquals(1, cached.getHits().length);
+        assertEquals(2, cached.getFacetMap().get("Category").getFacets().size());
+        assertEquals("Gene", cached.getFacetMap().get("Category").getFacets().get(0).getValue());
+        cached.close();
+        assertNotNull(cache.getResult("zen", facets, 100, KeywordSearch.PER_PAGE));
+
+        assertNull(cache.getResult("zen", facets, 0, KeywordSearch.PER_PAGE));
+        assertNull(cache.getResult("eve", facets, 100, KeywordSearch.PER_PAGE));
+        facets.remove("Category");
+        assertNull(cache.getResult("zen", facets, 100, KeywordSearch.PER_PAGE));
+    }
+}
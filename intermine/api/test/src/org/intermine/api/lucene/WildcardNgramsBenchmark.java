@@ -0,0 +1,161 @@
+package org.intermine.api.lucene;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.queryParser.QueryParser.Operator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * Compares the size of a keyword search index of made-up genes and proteins with and without
+ * n-grams, and the time taken to parse, rewrite and run searches with a leading wildcard over
+ * every field, as KeywordSearch does. The searches are run with no fields searched by n-grams,
+ * with the fields of the example index.ngram.fields setting (Protein.name Gene.name), and with
+ * every field. A field without n-grams is still searched by expanding the wildcard against
+ * every one of its terms, so the gain depends on how many of the fields searched have n-grams.
+ * This is not part of the test suite - run it by hand.
+ */
+public class WildcardNgramsBenchmark extends TestCase
+{
+    private static final int DOCS = 200000;
+    private static final int RUNS = 20;
+    private static final String[] GENE_FIELDS = new String[] {"gene_name", "gene_symbol",
+        "gene_primaryidentifier", "gene_description"};
+    private static final String[] PROTEIN_FIELDS = new String[] {"protein_name",
+        "protein_primaryidentifier", "protein_primaryaccession"};
+    private static final Set<String> EXAMPLE_NGRAM_FIELDS
+        = new HashSet<String>(Arrays.asList("gene_name", "protein_name"));
+    private static final String[] SYLLABLES = new String[] {"ki", "na", "se", "pro", "te", "in",
+        "phos", "pha", "ty", "ro", "sine", "ox", "re", "duc", "ta", "hy", "dro", "lase", "trans",
+        "fe", "ra", "gly", "co", "syn", "the", "tase", "li", "gase", "mu", "tase"};
+    private static final String[] PATTERNS = new String[] {"*kinase", "*tase*", "*prose",
+        "*ducta*"};
+
+    public WildcardNgramsBenchmark(String arg) {
+        super(arg);
+    }
+
+    public void testLeadingWildcards() throws Exception {
+        RAMDirectory plain = buildIndex(false);
+        RAMDirectory ngrams = buildIndex(true);
+        System.out.printf("%d documents: index %.1f MB without n-grams, %.1f MB with n-grams of"
+                + " every field\n", DOCS, plain.sizeInBytes() / 1048576.0,
+                ngrams.sizeInBytes() / 1048576.0);
+
+        Set<String> allFields = new HashSet<String>();
+        allFields.addAll(Arrays.asList(GENE_FIELDS));
+        allFields.addAll(Arrays.asList(PROTEIN_FIELDS));
+        for (String pattern : PATTERNS) {
+            Set<String> none = Collections.emptySet();
+            int[] hits = new int[3];
+            double plainTime = time(plain, none, pattern, hits, 0);
+            double exampleTime = time(ngrams, EXAMPLE_NGRAM_FIELDS, pattern, hits, 1);
+            double allTime = time(ngrams, allFields, pattern, hits, 2);
+            assertEquals(pattern, hits[0], hits[1]);
+            assertEquals(pattern, hits[0], hits[2]);
+            System.out.printf("%-10s %6d hits: %8.3f ms by wildcard, %8.3f ms with n-grams of the"
+                    + " example fields, %8.3f ms with n-grams of every field\n", pattern, hits[0],
+                    plainTime, exampleTime, allTime);
+        }
+    }
+
+    private static double time(RAMDirectory directory, Set<String> ngramFields, String pattern,
+            int[] hits, int i) throws Exception {
+        IndexReader reader = IndexReader.open(directory, true);
+        IndexSearcher searcher = new IndexSearcher(reader);
+        // like KeywordSearch, search every field but the n-grams
+        Set<String> fields = new HashSet<String>();
+        for (String field : reader.getFieldNames(IndexReader.FieldOption.INDEXED)) {
+            if (!field.endsWith(WildcardNgrams.FIELD_SUFFIX)) {
+                fields.add(field);
+            }
+        }
+        String[] fieldNames = fields.toArray(new String[fields.size()]);
+        long start = System.nanoTime();
+        for (int run = 0; run < RUNS; run++) {
+            QueryParser parser = new NgramQueryParser(fieldNames, new WhitespaceAnalyzer(),
+                    ngramFields);
+            parser.setDefaultOperator(Operator.AND);
+            parser.setAllowLeadingWildcard(true);
+            Query query = parser.parse(pattern).rewrite(reader);
+            hits[i] = searcher.search(query, null, 100).totalHits;
+        }
+        long time = System.nanoTime() - start;
+        searcher.close();
+        reader.close();
+        return time / 1000000.0 / RUNS;
+    }
+
+    private static RAMDirectory buildIndex(boolean withNgrams) throws Exception {
+        Random random = new Random(42);
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), true,
+                IndexWriter.MaxFieldLength.UNLIMITED);
+        for (int i = 0; i < DOCS; i++) {
+            boolean gene = random.nextBoolean();
+            Document doc = new Document();
+            doc.add(new Field("classname", gene ? "Gene" : "Protein", Field.Store.NO,
+                        Field.Index.ANALYZED));
+            for (String field : (gene ? GENE_FIELDS : PROTEIN_FIELDS)) {
+                String value = makeValue(field, random);
+                doc.add(new Field(field, value, Field.Store.NO, Field.Index.ANALYZED));
+                if (withNgrams) {
+                    doc.add(new Field(field + WildcardNgrams.FIELD_SUFFIX,
+                                WildcardNgrams.toGrams(value), Field.Store.NO,
+                                Field.Index.ANALYZED_NO_NORMS));
+                }
+            }
+            writer.addDocument(doc);
+        }
+        writer.optimize();
+        writer.close();
+        return directory;
+    }
+
+    /**
+     * Makes a lower case value for a field: words of syllables for names, symbols and
+     * descriptions, and numbered identifiers.
+     */
+    private static String makeValue(String field, Random random) {
+        if (field.endsWith("identifier") || field.endsWith("accession")) {
+            return String.format("%s%07d", field.startsWith("gene") ? "fbgn" : "p",
+                    random.nextInt(10000000));
+        }
+        int words = field.endsWith("symbol") ? 1 : (field.endsWith("description")
+                ? 5 + random.nextInt(6) : 1 + random.nextInt(3));
+        StringBuilder value = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                value.append(' ');
+            }
+            int syllables = 2 + random.nextInt(4);
+            for (int s = 0; s < syllables; s++) {
+                value.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+        }
+        return value.toString();
+    }
+}
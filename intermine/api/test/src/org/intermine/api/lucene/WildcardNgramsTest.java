@@ -0,0 +1,87 @@
+package org.intermine.api.lucene;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.RAMDirectory;
+
+public class WildcardNgramsTest extends TestCase
+{
+    private static final String FIELD = "gene_name";
+    private static final String[] VALUES = new String[] {"protein kinase C", "kinase inhibitor",
+        "skin aseptic", "Tyrosine-protein kinase", "phosphatase", "ase", "kinases", "a kin"};
+
+    public WildcardNgramsTest(String arg) {
+        super(arg);
+    }
+
+    public void testToGrams() throws Exception {
+        assertEquals("kin ina nas ase se$ ab$", WildcardNgrams.toGrams("Kinase ab"));
+        assertEquals("", WildcardNgrams.toGrams("a"));
+    }
+
+    public void testToQuery() throws Exception {
+        assertNotNull(WildcardNgrams.toQuery(FIELD, "*kinase"));
+        assertNotNull(WildcardNgrams.toQuery(FIELD, "*ab"));
+        assertNotNull(WildcardNgrams.toQuery(FIELD, "*kin*"));
+        assertNull(WildcardNgrams.toQuery(FIELD, "kinase*"));
+        assertNull(WildcardNgrams.toQuery(FIELD, "*ki*"));
+        assertNull(WildcardNgrams.toQuery(FIELD, "*ki*ase"));
+        assertNull(WildcardNgrams.toQuery(FIELD, "*ki?ase"));
+    }
+
+    public void testSameHitsAsWildcard() throws Exception {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), true,
+                IndexWriter.MaxFieldLength.UNLIMITED);
+        for (String value : VALUES) {
+            Document doc = new Document();
+            doc.add(new Field(FIELD, value.toLowerCase(), Field.Store.NO, Field.Index.ANALYZED));
+            doc.add(new Field(FIELD + WildcardNgrams.FIELD_SUFFIX, WildcardNgrams.toGrams(value),
+                        Field.Store.NO, Field.Index.ANALYZED_NO_NORMS));
+            writer.addDocument(doc);
+        }
+        writer.close();
+
+        IndexSearcher searcher = new IndexSearcher(directory, true);
+        for (String pattern : Arrays.asList("*kinase", "*kinase*", "*ase", "*ase*", "*kin*",
+                    "*in", "*tein", "*c")) {
+            Set<Integer> expected = hits(searcher, new WildcardQuery(new Term(FIELD, pattern)));
+            Query query = WildcardNgrams.toQuery(FIELD, pattern);
+            if (query != null) {
+                assertEquals(pattern, expected, hits(searcher, query));
+            }
+        }
+        searcher.close();
+    }
+
+    private static Set<Integer> hits(IndexSearcher searcher, Query query) throws Exception {
+        Set<Integer> docs = new HashSet<Integer>();
+        for (ScoreDoc doc : searcher.search(query, null, VALUES.length).scoreDocs) {
+            docs.add(doc.doc);
+        }
+        return docs;
+    }
+}
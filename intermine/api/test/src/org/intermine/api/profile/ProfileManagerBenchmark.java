@@ -0,0 +1,86 @@
+package org.intermine.api.profile;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.intermine.api.InterMineAPITestCase;
+import org.intermine.metadata.FieldDescriptor;
+
+/**
+ * Measures how many web service requests per second ProfileManager can authenticate by API key
+ * with 1, 2, 4 and 8 threads, each thread authenticating as one of a handful of users in turn.
+ * The throughput should grow with the number of threads up to the number of cores, as requests
+ * for cached profiles do not wait for each other. This is not part of the test suite - run it
+ * by hand.
+ */
+public class ProfileManagerBenchmark extends InterMineAPITestCase
+{
+    private static final int USERS = 8;
+    private static final int WARMUP = 2000;
+    private static final int REQUESTS = 20000;
+
+    private ProfileManager pm;
+    private Map<String, List<FieldDescriptor>> classKeys;
+    private String[] apiKeys = new String[USERS];
+
+    public ProfileManagerBenchmark(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        pm = im.getProfileManager();
+        classKeys = im.getClassKeys();
+        for (int i = 0; i < USERS; i++) {
+            apiKeys[i] = "BENCHMARKKEY" + i;
+            pm.createBasicLocalProfile("benchmark" + i, "pass" + i, apiKeys[i]);
+        }
+    }
+
+    public void testAuthenticationThroughput() throws Exception {
+        authenticate(1, WARMUP);
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            long start = System.nanoTime();
+            authenticate(threads, REQUESTS);
+            double seconds = (System.nanoTime() - start) / 1000000000.0;
+            System.out.printf("%d threads: %10.0f requests per second\n", threads,
+                    REQUESTS / seconds);
+        }
+    }
+
+    private void authenticate(int threads, int requests) throws Exception {
+        final int perThread = requests / threads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        for (int i = 0; i < threads; i++) {
+            final int offset = i;
+            results.add(pool.submit(new Callable<Object>() {
+                public Object call() {
+                    for (int j = 0; j < perThread; j++) {
+                        pm.getPermission(apiKeys[(offset + j) % USERS], classKeys);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Object> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+    }
+}
@@ -12,6 +12,7 @@ package org.intermine.api.profile;
 
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -19,6 +20,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -252,6 +257,27 @@ public class ProfileManagerTest extends InterMineAPITestCase
 
     }
 
+    public void testChangedApiKey() throws Exception {
+        Profile bob = pm.getPermission(bobKey, classKeys).getProfile();
+        bob.setApiKey("CHANGED-KEY");
+        try {
+            pm.getPermission(bobKey, classKeys);
+            fail("Expected the replaced key to be refused");
+        } catch (AuthenticationException e) {
+            // expected
+        }
+        assertEquals(bob, pm.getPermission("CHANGED-KEY", classKeys).getProfile());
+
+        // revoking the key must also stop it working
+        bob.setApiKey(null);
+        try {
+            pm.getPermission("CHANGED-KEY", classKeys);
+            fail("Expected the revoked key to be refused");
+        } catch (AuthenticationException e) {
+            // expected
+        }
+    }
+
     public void testGetROPermission() throws Exception {
         ApiPermission permission = null;
 
@@ -293,4 +319,52 @@ public class ProfileManagerTest extends InterMineAPITestCase
         }
 
     }
+
+    public void testConcurrentPermissions() throws Exception {
+        final Profile bob = pm.getPermission(bobKey, classKeys).getProfile();
+        final int requests = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 8; i++) {
+            results.add(pool.submit(new Callable<Integer>() {
+                public Integer call() {
+                    int sameProfile = 0;
+                    for (int j = 0; j < requests; j++) {
+                        if (pm.getPermission(bobKey, classKeys).getProfile() == bob) {
+                            sameProfile++;
+                        }
+                    }
+                    return sameProfile;
+                }
+            }));
+        }
+        for (Future<Integer> result : results) {
+            // Every request must see the one cached profile
+            assertEquals(requests, result.get().intValue());
+        }
+
+        // A single use key can only be used once, however many threads try
+        final String key = pm.generateSingleUseKey(bob);
+        List<Future<Boolean>> attempts = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 8; i++) {
+            attempts.add(pool.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    try {
+                        pm.getPermission(key, classKeys);
+                        return Boolean.TRUE;
+                    } catch (AuthenticationException e) {
+                        return Boolean.FALSE;
+                    }
+                }
+            }));
+        }
+        int successes = 0;
+        for (Future<Boolean> attempt : attempts) {
+            if (attempt.get().booleanValue()) {
+                successes++;
+            }
+        }
+        pool.shutdown();
+        assertEquals(1, successes);
+    }
 }
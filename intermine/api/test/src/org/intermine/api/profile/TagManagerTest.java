@@ -79,6 +79,36 @@ public class TagManagerTest extends InterMineAPITestCase
         assertEquals(1, manager.getTags(null, "list_", "bag", "bob").size());
     }
 
+    public void testCacheUpdatedOnChange() throws Exception {
+        pm.createBasicLocalProfile("sally", "sally_pass", null);
+        manager.addTag("list1Tag", "list1", "bag", "bob");
+        List<Tag> bobTags = manager.getTags(null, null, "bag", "bob");
+        List<Tag> allTags = manager.getTags(null, "list1", "bag", null);
+        assertEquals(1, bobTags.size());
+        assertEquals(1, allTags.size());
+
+        // Another user's tag updates the queries it matches, and leaves the others alone
+        Tag sallyTag = manager.addTag("aTag", "list1", "bag", "sally");
+        assertSame(bobTags, manager.getTags(null, null, "bag", "bob"));
+        allTags = manager.getTags(null, "list1", "bag", null);
+        assertEquals(2, allTags.size());
+        // Still in tag name order
+        assertEquals("aTag", allTags.get(0).getTagName());
+
+        manager.deleteTag(sallyTag);
+        assertSame(bobTags, manager.getTags(null, null, "bag", "bob"));
+        assertEquals(1, manager.getTags(null, "list1", "bag", null).size());
+    }
+
+    public void testPreloadTags() throws Exception {
+        manager.addTag("list1Tag", "list1", "bag", "bob");
+        manager.preloadTags("bob");
+        manager.addTag("list2Tag", "list2", "bag", "bob");
+        assertEquals(2, manager.getUserTags(bobProfile).size());
+        assertEquals(1, manager.getTags("list2Tag", null, null, "bob").size());
+        assertEquals(0, manager.getTags("list2Tag", "list1", null, "bob").size());
+    }
+
     public void testAddTag() {
         Tag createdTag = manager.addTag("wowTag", "list1", "bag", "bob");
         Tag retrievedTag = manager.getTags("wowTag", "list1", "bag", "bob").get(0);
@@ -0,0 +1,169 @@
+package org.intermine.api.template;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.api.query.MainHelper;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.intermine.DatabaseSchema;
+import org.intermine.objectstore.intermine.QueryPlanCache;
+import org.intermine.objectstore.intermine.SqlGenerator;
+import org.intermine.objectstore.intermine.SqlTreeGenerator;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.pathquery.Constraints;
+import org.intermine.pathquery.PathConstraint;
+import org.intermine.pathquery.PathQuery;
+import org.intermine.sql.precompute.BestQueryStorer;
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.PrecomputedTableIndex;
+import org.intermine.sql.precompute.QueryOptimiser;
+import org.intermine.template.SwitchOffAbility;
+import org.intermine.template.TemplateQuery;
+import org.intermine.template.TemplateValue;
+
+/**
+ * Measures the latency of running a template with new values each time, up to the SQL sent to
+ * the database: populating the template, making the Query, generating SQL, and then either
+ * optimising it against the template's precomputed table (a cold plan) or binding the values into
+ * the plan kept by a QueryPlanCache (a warm plan). Running the SQL, and explaining the optimiser's
+ * candidates, which only a cold plan does, need a database and are left out. This is not part of
+ * the test suite - run it by hand.
+ */
+public class TemplateLatencyBenchmark extends TestCase
+{
+    private static final int WARMUP = 500;
+    private static final int RUNS = 2000;
+    private static final int LIMIT = 1000;
+
+    private TemplateQuery template;
+    private PathConstraint companyCon;
+    private PathConstraint ageCon;
+    private DatabaseSchema schema;
+    private Set<PrecomputedTable> precomps;
+    private PrecomputedTableIndex index;
+    private Map<Object, String> bagTableNames = new HashMap<Object, String>();
+
+    public TemplateLatencyBenchmark(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        Model model = Model.getInstanceByName("testmodel");
+        template = new TemplateQuery("employeesOfCompany", "employeesOfCompany", "",
+                new PathQuery(model));
+        template.addViews("Employee.name", "Employee.age", "Employee.department.name",
+                "Employee.department.company.name");
+        companyCon = Constraints.eq("Employee.department.company.name", "CompanyA");
+        template.addConstraint(companyCon);
+        template.setEditable(companyCon, true);
+        ageCon = Constraints.greaterThan("Employee.age", "30");
+        template.addConstraint(ageCon);
+        template.setEditable(ageCon, true);
+
+        schema = new DatabaseSchema(model, Collections.<ClassDescriptor>emptyList(), true,
+                Collections.<String>emptySet(), 1, false, false);
+        Query precomputeQuery = TemplatePrecomputeHelper.getPrecomputeQuery(template,
+                new ArrayList<Object>());
+        String ptSql = SqlGenerator.generate(precomputeQuery, schema, null, null,
+                SqlGenerator.QUERY_FOR_PRECOMP, bagTableNames);
+        // Working out whether a precomputed table can have an order by field needs a database
+        ptSql = ptSql.substring(0, ptSql.indexOf(" ORDER BY "));
+        precomps = Collections.singleton(new PrecomputedTable(
+                    new org.intermine.sql.query.Query(ptSql), ptSql, "precomp_1", "template",
+                    null));
+        index = new PrecomputedTableIndex(precomps);
+    }
+
+    public void testLatency() throws Exception {
+        double cold = time(Boolean.FALSE);
+        double warm = time(Boolean.TRUE);
+        double generate = time(null);
+        System.out.printf("Up to generated SQL %8.1f us, up to optimised SQL with a cold plan"
+                + " %8.1f us, with a warm plan %8.1f us per run\n", generate, cold, warm);
+    }
+
+    /**
+     * Times runs of the template, stopping after generating SQL if warm is null, and otherwise
+     * keeping the plans between runs if warm is true.
+     */
+    private double time(Boolean warm) throws Exception {
+        QueryPlanCache plans = new QueryPlanCache(10);
+        for (int i = 0; i < WARMUP; i++) {
+            run(i, warm, plans);
+        }
+        long start = System.nanoTime();
+        for (int i = WARMUP; i < WARMUP + RUNS; i++) {
+            run(i, warm, plans);
+        }
+        return (System.nanoTime() - start) / 1000.0 / RUNS;
+    }
+
+    private String run(int i, Boolean warm, QueryPlanCache plans) throws Exception {
+        Map<String, List<TemplateValue>> values = new HashMap<String, List<TemplateValue>>();
+        values.put(companyCon.getPath(), Arrays.asList(new TemplateValue(companyCon,
+                        ConstraintOp.EQUALS, "Company" + i, TemplateValue.ValueType.SIMPLE_VALUE,
+                        SwitchOffAbility.LOCKED)));
+        values.put(ageCon.getPath(), Arrays.asList(new TemplateValue(ageCon,
+                        ConstraintOp.GREATER_THAN, Integer.toString(i % 60),
+                        TemplateValue.ValueType.SIMPLE_VALUE, SwitchOffAbility.LOCKED)));
+        TemplateQuery populated = TemplatePopulator.getPopulatedTemplate(template, values);
+        Query q = MainHelper.makeQuery(populated, new HashMap<String, InterMineBag>(),
+                new HashMap<String, QuerySelectable>(), null, null);
+        String sql = SqlGenerator.generate(q, 0, LIMIT, schema, null, bagTableNames);
+        if (warm == null) {
+            return sql;
+        }
+        if (!warm.booleanValue()) {
+            plans = new QueryPlanCache(10);
+        }
+        QueryPlanCache.BoundPlan plan = plans.bind(sql, 0);
+        if (plan != null) {
+            return plan.getSql();
+        }
+        assertTrue("Warm plan was not used", (!warm.booleanValue()) || (i == 0));
+        org.intermine.sql.query.Query tree = SqlTreeGenerator.generate(q, 0, LIMIT, schema,
+                bagTableNames);
+        if (tree == null) {
+            tree = new org.intermine.sql.query.Query(sql);
+        }
+        BestQueryStorer bestQuery = new BestQueryStorer();
+        QueryOptimiser.recursiveOptimiseCheckSubquery(index, tree, bestQuery);
+        String optimised = chooseCandidate(bestQuery);
+        plans.addPlan(sql, optimised, precomps, 0);
+        return optimised;
+    }
+
+    /**
+     * Stands in for the explainer by picking the candidate that reads the fewest tables.
+     */
+    private static String chooseCandidate(BestQueryStorer bestQuery) {
+        org.intermine.sql.query.Query best = null;
+        for (org.intermine.sql.query.Query q : bestQuery.getQueries()) {
+            if ((best == null) || (q.getFrom().size() < best.getFrom().size())) {
+                best = q;
+            }
+        }
+        return best.getSQLString();
+    }
+}
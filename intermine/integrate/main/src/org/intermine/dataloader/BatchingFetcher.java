@@ -69,6 +69,9 @@ public class BatchingFetcher extends HintingFetcher
     protected long timeSpentExecute = 0;
     protected long timeSpentPrefetchEquiv = 0;
     protected long timeSpentPrefetchTracker = 0;
+    protected int queriesAvoided = 0;
+    protected int bloomFilterPassed = 0;
+    protected int bloomFilterFalsePositives = 0;
 
     /**
      * Constructor
@@ -102,7 +105,47 @@ public class BatchingFetcher extends HintingFetcher
     public void close(Source source) {
         LOG.info("Batching equivalent object query summary for source " + source + " :"
                 + getSummary(source).toString() + "\nFetched " + batchQueried
-                + " objects by batch, cache misses: " + cacheMisses);
+                + " objects by batch, cache misses: " + cacheMisses + "\nAvoided "
+                + queriesAvoided + " batch queries where hints ruled out every object. Bloom"
+                + " filters passed " + bloomFilterPassed + " objects, " + bloomFilterFalsePositives
+                + " of which had no equivalent (false positive rate "
+                + (bloomFilterPassed == 0 ? "n/a" : String.format("%.4f",
+                        ((double) bloomFilterFalsePositives) / bloomFilterPassed)) + ")");
+    }
+
+    /**
+     * Tells this fetcher that an object has been stored, so that the hints used to skip primary
+     * key queries take account of its key values.
+     *
+     * @param imo the object, as passed to the IntegrationWriter
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public void objectStored(InterMineObject imo) throws ObjectStoreException {
+        for (ClassDescriptor cld : model.getClassDescriptorsForClass(imo.getClass())) {
+            Set<PrimaryKey> keysForClass;
+            if (source == null) {
+                keysForClass = new HashSet<PrimaryKey>(PrimaryKeyUtil.getPrimaryKeys(cld)
+                        .values());
+            } else {
+                keysForClass = DataLoaderHelper.getPrimaryKeys(cld, source, lookupOs);
+            }
+            for (PrimaryKey pk : keysForClass) {
+                for (String fieldName : pk.getFieldNames()) {
+                    Object value;
+                    try {
+                        value = imo.getFieldProxy(fieldName);
+                    } catch (IllegalAccessException e) {
+                        throw new RuntimeException(e);
+                    }
+                    if (value instanceof InterMineObject) {
+                        value = idMap.get(((InterMineObject) value).getId());
+                    }
+                    if (value != null) {
+                        hints.addValue(cld.getType(), fieldName, value);
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -380,6 +423,8 @@ public class BatchingFetcher extends HintingFetcher
             // Now make a map from the primary key values to source objects
             Map<List<Object>, InterMineObject> keysToSourceObjects =
                 new HashMap<List<Object>, InterMineObject>();
+            // Objects checked against a Bloom filter, removed when an equivalent is found
+            Set<InterMineObject> bloomFiltered = new HashSet<InterMineObject>();
             while (objectsForCldIter.hasNext() && (objCount < 500)) {
                 InterMineObject object = objectsForCldIter.next();
                 origObjCount++;
@@ -388,6 +433,7 @@ public class BatchingFetcher extends HintingFetcher
                                 idMap)) {
                         List<Collection<Object>> values = new ArrayList<Collection<Object>>();
                         boolean skipObject = false;
+                        boolean filtered = false;
                         Map<String, Set<Object>> fieldsValues = new HashMap<String, Set<Object>>();
                         for (String fieldName : pk.getFieldNames()) {
                             try {
@@ -425,16 +471,24 @@ public class BatchingFetcher extends HintingFetcher
                                                     .currentTimeMillis() - time));
                                         savedCounts.put(summaryName, new Integer(0));
                                     }
-                                    if (pkQueryFruitless) {
+                                    if (pkQueryFruitless && (!skipObject)) {
                                         skipObject = true;
+                                        savedCounts.put(summaryName, new Integer(savedCounts
+                                                    .get(summaryName).intValue() + 1));
                                     }
                                 }
+                                if (hints.isBloomFiltered(cld.getType(), fieldName)) {
+                                    filtered = true;
+                                }
                             } catch (IllegalAccessException e) {
                                 throw new RuntimeException(e);
                             }
                         }
                         if (!skipObject) {
                             objCount++;
+                            if (filtered) {
+                                bloomFiltered.add(object);
+                            }
                             for (String fieldName : pk.getFieldNames()) {
                                 fieldNameToValues.get(fieldName).addAll(fieldsValues
                                         .get(fieldName));
@@ -473,6 +527,7 @@ public class BatchingFetcher extends HintingFetcher
                 // Iterate through query, and add objects to results
                 //long time = System.currentTimeMillis();
                 int matches = 0;
+                bloomFilterPassed += bloomFiltered.size();
                 Results res = lookupOs.execute(q, 2000, false, false, false);
                 @SuppressWarnings("unchecked") List<ResultsRow<Object>> tmpRes = (List) res;
                 for (ResultsRow<Object> row : tmpRes) {
@@ -480,16 +535,21 @@ public class BatchingFetcher extends HintingFetcher
                     for (int i = 1; i <= pk.getFieldNames().size(); i++) {
                         values.add(row.get(i));
                     }
-                    Set<InterMineObject> set = results.get(keysToSourceObjects.get(values));
+                    InterMineObject sourceObject = keysToSourceObjects.get(values);
+                    Set<InterMineObject> set = results.get(sourceObject);
                     if (set != null) {
                         set.add((InterMineObject) row.get(0));
                         matches++;
                     }
+                    bloomFiltered.remove(sourceObject);
                     fetchedObjectIds.add(((InterMineObject) row.get(0)).getId());
                 }
+                bloomFilterFalsePositives += bloomFiltered.size();
                 //LOG.info("Fetched " + res.size() + " equivalent objects for " + objCount
                 //        + " objects in " + (System.currentTimeMillis() - time) + " ms for "
                 //        + cld.getName() + "." + pk.getName());
+            } else if (origObjCount > 0) {
+                queriesAvoided++;
             }
         }
     }
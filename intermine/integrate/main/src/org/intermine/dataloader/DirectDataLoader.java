@@ -89,14 +89,17 @@ public class DirectDataLoader extends DataLoader
         Source skelSource = getIntegrationWriter().getSkeletonSource(sourceName, sourceType);
 
         // first get equivalent objects for buffered objects
+        BatchingFetcher fetcher = null;
         if (getIntegrationWriter() instanceof IntegrationWriterDataTrackingImpl) {
             checkForProxiesInPrimaryKeys(source);
 
             HintingFetcher eof =
                     ((IntegrationWriterDataTrackingImpl) getIntegrationWriter()).getEof();
             if (eof instanceof BatchingFetcher) {
-                // run all primary key queries at once for objects in this batch
-                ((BatchingFetcher) eof).getEquivalentsForObjects(buffer);
+                // run all primary key queries at once for objects in this batch, skipping objects
+                // that the hints show cannot have an equivalent
+                fetcher = (BatchingFetcher) eof;
+                fetcher.getEquivalentsForObjects(buffer);
             } else {
                 LOG.warn("Not a batching fetcher, was: " + eof.getClass());
             }
@@ -105,6 +108,10 @@ public class DirectDataLoader extends DataLoader
         // now store, the equivalent objects should be in cache
         for (FastPathObject o : buffer) {
             getIntegrationWriter().store(o, source, skelSource);
+            if ((fetcher != null) && (o instanceof InterMineObject)) {
+                // keep the hints up to date, so later objects with the same key are looked up
+                fetcher.objectStored((InterMineObject) o);
+            }
             storeCount++;
             if (storeCount % LOG_FREQUENCY == 0) {
                 long now = System.currentTimeMillis();
@@ -31,9 +31,11 @@ import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryForeignKey;
 import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SubqueryExistsConstraint;
 import org.intermine.util.AlwaysSet;
+import org.intermine.util.BloomFilterSet;
 import org.intermine.util.PseudoSet;
 
 /**
@@ -45,6 +47,9 @@ public class EquivalentObjectHints
 {
     private static final Logger LOG = Logger.getLogger(EquivalentObjectHints.class);
     private static final int SUMMARY_SIZE = 100;
+    private static final int BLOOM_FILTER_MAX_VALUES = 20000000;
+    private static final double BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
+    private static final int BLOOM_FILTER_BATCH_SIZE = 10000;
 
     private boolean databaseEmptyChecked = false;
     private boolean databaseEmpty = false;
@@ -178,6 +183,11 @@ public class EquivalentObjectHints
                             ObjectStore.SEQUENCE_IGNORE);
                 }
                 if (results.size() >= SUMMARY_SIZE) {
+                    values = getBloomFilter(qc, qs);
+                }
+                if (values != null) {
+                    LOG.info("Built " + values + " for " + summaryName);
+                } else if (results.size() >= SUMMARY_SIZE) {
                     if (Integer.class.equals(qs.getType())) {
                         q = new Query();
                         q.addFrom(qc);
@@ -225,6 +235,66 @@ public class EquivalentObjectHints
         return !values.contains(value);
     }
 
+    /**
+     * Records that an object with the given value in the given field has been stored, so that
+     * pkQueryFruitless() does not return true for that value afterwards. Only values of fields
+     * that have already been summarised are recorded - a summary made later will read the value
+     * from the database.
+     *
+     * @param clazz the class, must be in the model
+     * @param fieldName the name of the field
+     * @param value the value
+     */
+    public void addValue(Class<? extends FastPathObject> clazz, String fieldName, Object value) {
+        Set<Object> values = classAndFieldNameValues.get(new ClassAndFieldName(clazz, fieldName));
+        if ((values instanceof BloomFilterSet<?>) || (values instanceof HashSet<?>)
+                || (values instanceof IntegerRangeSet)) {
+            values.add(value);
+        }
+    }
+
+    /**
+     * Returns true if the values in the database for the given class and field are held in a
+     * Bloom filter, so that pkQueryFruitless() may wrongly return false for that field.
+     *
+     * @param clazz the class, must be in the model
+     * @param fieldName the name of the field
+     * @return a boolean
+     */
+    public boolean isBloomFiltered(Class<? extends FastPathObject> clazz, String fieldName) {
+        return classAndFieldNameValues.get(new ClassAndFieldName(clazz, fieldName))
+            instanceof BloomFilterSet<?>;
+    }
+
+    /**
+     * Reads all the distinct values of a field into a Bloom filter, unless there are too many.
+     *
+     * @param qc the QueryClass of the class
+     * @param qs the field of the class
+     * @return a BloomFilterSet, or null if there are too many values
+     * @throws ObjectStoreException if something goes wrong
+     */
+    private Set<Object> getBloomFilter(QueryClass qc, QueryEvaluable qs)
+        throws ObjectStoreException {
+        Query q = new Query();
+        q.addFrom(qc);
+        q.addToSelect(qs);
+        q.setDistinct(true);
+        int count = os.count(q, ObjectStore.SEQUENCE_IGNORE);
+        if (count > BLOOM_FILTER_MAX_VALUES) {
+            return null;
+        }
+        // Leave room for as many values again to be stored during the load
+        BloomFilterSet<Object> filter = new BloomFilterSet<Object>(count
+                + Math.max(count, SUMMARY_SIZE), BLOOM_FILTER_FALSE_POSITIVE_RATE);
+        Results results = os.execute(q, BLOOM_FILTER_BATCH_SIZE, false, false, false);
+        @SuppressWarnings("unchecked") List<ResultsRow<Object>> rows = (List) results;
+        for (ResultsRow<Object> row : rows) {
+            filter.add(row.get(0));
+        }
+        return filter;
+    }
+
     /**
      * Returns a Set of values that have been tested for a particular class and fieldname.
      *
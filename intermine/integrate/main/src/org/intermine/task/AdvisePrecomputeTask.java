@@ -0,0 +1,152 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.PrecomputeAdvisor;
+
+/**
+ * A Task that reads the execute log table of an ObjectStore, finds the joins that are run often
+ * and slowly, and reports or creates precomputed tables for them within a disk budget.
+ */
+public class AdvisePrecomputeTask extends Task
+{
+    private static final Logger LOG = Logger.getLogger(AdvisePrecomputeTask.class);
+
+    protected String alias;
+    protected String logTable;
+    protected int capacity = 100000;
+    protected long minTime = PrecomputeAdvisor.DEFAULT_MIN_TIME;
+    protected int minCount = 2;
+    protected long budget = -1;
+    protected boolean create = false;
+
+    /**
+     * Set the ObjectStore alias.
+     *
+     * @param alias the ObjectStore alias
+     */
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+
+    /**
+     * Set the name of the execute log table to read. By default the logTable of the ObjectStore
+     * is read.
+     *
+     * @param logTable the table name
+     */
+    public void setLogTable(String logTable) {
+        this.logTable = logTable;
+    }
+
+    /**
+     * Set the number of logged queries to read - the most recent ones are used.
+     *
+     * @param capacity the number of queries
+     */
+    public void setCapacity(Integer capacity) {
+        this.capacity = capacity.intValue();
+    }
+
+    /**
+     * Set the minimum execute time in milliseconds of the logged queries to take into account.
+     *
+     * @param minTime the minimum time
+     */
+    public void setMinTime(Long minTime) {
+        this.minTime = minTime.longValue();
+    }
+
+    /**
+     * Set the number of times a join must have been run to be precomputed.
+     *
+     * @param minCount the minimum count
+     */
+    public void setMinCount(Integer minCount) {
+        this.minCount = minCount.intValue();
+    }
+
+    /**
+     * Set the disk budget, in megabytes, for the new precomputed tables.
+     *
+     * @param budget the budget
+     */
+    public void setBudget(Long budget) {
+        this.budget = budget.longValue();
+    }
+
+    /**
+     * Set whether to create the precomputed tables, rather than just report them.
+     *
+     * @param create true to create the tables
+     */
+    public void setCreate(Boolean create) {
+        this.create = create.booleanValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() {
+        if (alias == null) {
+            throw new BuildException("alias attribute is not set");
+        }
+        if (create && (budget == -1)) {
+            throw new BuildException("budget attribute is not set");
+        }
+
+        ObjectStore os;
+        try {
+            os = ObjectStoreFactory.getObjectStore(alias);
+        } catch (Exception e) {
+            throw new BuildException("Exception while creating ObjectStore", e);
+        }
+        if (!(os instanceof ObjectStoreInterMineImpl)) {
+            throw new BuildException(alias + " isn't an ObjectStoreInterMineImpl");
+        }
+        if (logTable == null) {
+            logTable = ((ObjectStoreInterMineImpl) os).getLogTableName();
+            if (logTable == null) {
+                throw new BuildException("logTable attribute is not set, and " + alias
+                        + " has no logTable property");
+            }
+        }
+
+        PrecomputeAdvisor advisor = new PrecomputeAdvisor((ObjectStoreInterMineImpl) os,
+                capacity, minTime);
+        try {
+            advisor.readLogTable(logTable);
+            if (create) {
+                List<String> names = advisor.createRecommended(minCount, budget * 1024 * 1024);
+                LOG.info("Created precomputed tables: " + names);
+            } else {
+                for (PrecomputeAdvisor.Recommendation rec : advisor.getRecommendations(minCount)) {
+                    LOG.info("Recommended: " + rec);
+                }
+            }
+        } catch (SQLException e) {
+            throw new BuildException("Could not read log table " + logTable, e);
+        } catch (ObjectStoreException e) {
+            throw new BuildException(e);
+        }
+    }
+}
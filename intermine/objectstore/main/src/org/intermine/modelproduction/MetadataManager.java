@@ -71,6 +71,11 @@ public final class MetadataManager
      */
     public static final String AUTOCOMPLETE_INDEX = "autocomplete";
 
+    /**
+     * The name of the key to use to store the autocomplete prefix index file.
+     */
+    public static final String AUTOCOMPLETE_PREFIX_INDEX = "autocomplete_prefix";
+
     /**
      * The name of the key to use to store the search index.
      */
@@ -80,6 +85,11 @@ public final class MetadataManager
      * The name of the key to use to store the search Directory.
      */
     public static final String SEARCH_INDEX_DIRECTORY = "search_directory";
+
+    /**
+     * The name of the key to use to store the checksum of the search Directory.
+     */
+    public static final String SEARCH_INDEX_SERIAL = "search_directory_serial";
     /**
      * Name of the key under which to store the serialized version of the class descriptions
      */
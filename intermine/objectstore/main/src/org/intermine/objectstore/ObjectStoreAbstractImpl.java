@@ -56,6 +56,8 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
     protected long maxTime = Long.MAX_VALUE;
     // Optimiser will use a default query parse time if none is provided from properties
     protected Long maxQueryParseTime = null;
+    // Number of database connections the optimiser may explain candidate queries on at once
+    protected int explainThreads = 4;
     protected CacheMap<Integer, InterMineObject> cache;
 
     protected int getObjectOps = 0;
@@ -97,6 +99,10 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
             maxQueryParseTime = Long.parseLong((String) props.get("max-query-parse-time"));
         }
 
+        if (props.get("explain-threads") != null) {
+            explainThreads = Integer.parseInt((String) props.get("explain-threads"));
+        }
+
         LOG.info("Creating new " + getClass().getName() + " with sequence = " + sequenceNumber
                 + ", model = \"" + model.getName() + "\"");
         cache = new CacheMap<Integer, InterMineObject>(getClass().getName() + " with sequence = "
@@ -493,6 +499,16 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
         return maxQueryParseTime;
     }
 
+    /**
+     * Returns the number of database connections the query optimiser may use at once to explain
+     * candidate queries, set by the os.query.explain-threads property.
+     *
+     * @return an int
+     */
+    public int getExplainThreads() {
+        return explainThreads;
+    }
+
     /**
      * Creates a new empty ObjectStoreBag object that is valid for this ObjectStore.
      *
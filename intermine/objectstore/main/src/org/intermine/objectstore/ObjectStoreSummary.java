@@ -17,11 +17,17 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.AttributeDescriptor;
@@ -39,6 +45,7 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.QueryReference;
 import org.intermine.objectstore.query.QueryValue;
@@ -63,6 +70,7 @@ public class ObjectStoreSummary
     protected final Map<String, Set<String>> emptyAttributesMap =
         new HashMap<String, Set<String>>();
     private final Map<String, Set<String>> nonEmptyFieldsMap = new HashMap<String, Set<String>>();
+    private final Map<String, Long> classTimes = new HashMap<String, Long>();
     // This should be overwritten by MAX_FIELD_VALUES from properties
     protected int maxValues = DEFAULT_MAX_VALUES;
 
@@ -73,6 +81,7 @@ public class ObjectStoreSummary
     static final String NULL_MARKER = "___NULL___";
     static final String FIELD_DELIM = "$_^";
     static final String MAX_FIELD_VALUES = "max.field.values";
+    static final String MAX_CONCURRENT_QUERIES = "max.concurrent.queries";
 
     /**
      * The default number of values to make available for UI dropdowns - attributes with more values
@@ -81,7 +90,13 @@ public class ObjectStoreSummary
     public static final int DEFAULT_MAX_VALUES = 200;
 
     /**
-     * Construct a summary from by running queries in the ObjectStore.
+     * The default number of queries to run at the same time while summarising.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_QUERIES = 4;
+
+    /**
+     * Construct a summary from by running queries in the ObjectStore. The queries are run by a
+     * pool of max.concurrent.queries threads, several classes or fields at a time.
      *
      * @param os the objectstore
      * @param configuration the configuration for summarization
@@ -100,128 +115,275 @@ public class ObjectStoreSummary
 
         Model model = os.getModel();
 
-        // classCounts - number of objects of each type in the database
-        LOG.info("Collecting class counts...");
-        for (ClassDescriptor cld : model.getTopDownLevelTraversal()) {
-            nonEmptyFieldsMap.put(cld.getName(), new HashSet<String>());
-            countAndStore(os, model, cld);
-        }
-
-        // fieldValues - find all attributes with few unique values for populating dropdowns,
-        // also look for any attributes that are empty.
-        LOG.info("Summarising field values...");
         String maxValuesString = (String) configuration.get(MAX_FIELD_VALUES);
         maxValues =
             (maxValuesString == null ? DEFAULT_MAX_VALUES : Integer.parseInt(maxValuesString));
-
-        // always empty references and collections
-        LOG.info("Looking for empty collections and references...");
+        String threadsString = (String) configuration.get(MAX_CONCURRENT_QUERIES);
+        int threads = (threadsString == null ? DEFAULT_MAX_CONCURRENT_QUERIES
+                : Integer.parseInt(threadsString.trim()));
         Set<String> ignoreFields = getIgnoreFields((String) configuration.get("ignore.counts"));
         if (ignoreFields.size() > 0) {
             LOG.warn("Not counting ignored fields: " + ignoreFields);
         }
 
-        Set<String> doneFields = new HashSet<String>();
-        for (ClassDescriptor cld : model.getBottomUpLevelTraversal()) {
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // classCounts - number of objects of each type in the database
+            LOG.info("Collecting class counts...");
+            countClasses(os, model, executor);
+
+            // fieldValues - find all attributes with few unique values for populating dropdowns,
+            // also look for any attributes that are empty.
+            LOG.info("Summarising field values...");
+            summariseAttributes(os, model, ignoreFields, executor);
+
+            // always empty references and collections
+            LOG.info("Looking for empty collections and references...");
+            findEmptyReferences(os, model, ignoreFields, executor);
+        } finally {
+            executor.shutdownNow();
+        }
 
-            int classCount = classCountsMap.get(cld.getName()).intValue();
-            if (classCount == 0) {
-                continue;
+        List<Map.Entry<String, Long>> times =
+            new ArrayList<Map.Entry<String, Long>>(classTimes.entrySet());
+        Collections.sort(times, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> arg0, Map.Entry<String, Long> arg1) {
+                return arg1.getValue().compareTo(arg0.getValue());
             }
+        });
+        for (Map.Entry<String, Long> time : times) {
+            LOG.info("Query time for " + time.getKey() + ": " + time.getValue() + "ms");
+        }
+        LOG.info("Summarised objectstore using " + threads + " threads in "
+                + (System.currentTimeMillis() - startTime) + "ms");
+    }
 
-            for (AttributeDescriptor att : cld.getAllAttributeDescriptors()) {
-                String fieldName = att.getName();
-                if ("id".equals(fieldName)) {
-                    continue;
+    private void countClasses(final ObjectStore os, Model model, ExecutorService executor)
+        throws ObjectStoreException {
+        for (ClassDescriptor cld : model.getTopDownLevelTraversal()) {
+            nonEmptyFieldsMap.put(cld.getName(), new HashSet<String>());
+        }
+        for (List<ClassDescriptor> level : getLevels(model, true)) {
+            Map<ClassDescriptor, Future<Integer>> counts =
+                new LinkedHashMap<ClassDescriptor, Future<Integer>>();
+            for (final ClassDescriptor cld : level) {
+                // if a superclass was empty this class will already have been counted as empty
+                if (!classCountsMap.containsKey(cld.getName())) {
+                    counts.put(cld, executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws ObjectStoreException {
+                            long startTime = System.currentTimeMillis();
+                            int classCount = countClass(os, cld.getType());
+                            addClassTime(cld, startTime);
+                            return new Integer(classCount);
+                        }
+                    }));
                 }
+            }
+            for (Map.Entry<ClassDescriptor, Future<Integer>> entry : counts.entrySet()) {
+                storeCount(model, entry.getKey(), getResult(entry.getValue()).intValue());
+            }
+        }
+    }
 
-                String clsFieldName = cld.getName() + "." + fieldName;
-                if (doneFields.contains(clsFieldName) || ignoreFields.contains(clsFieldName)) {
-                    continue;
+    private void storeCount(Model model, ClassDescriptor cld, int classCount) {
+        LOG.info("Adding class count: " + cld.getUnqualifiedName() + " = " + classCount);
+        classCountsMap.put(cld.getName(), new Integer(classCount));
+
+        // if this class is empty all subclasses MUST be empty as well
+        if (classCount == 0) {
+            for (ClassDescriptor subCld : model.getAllSubs(cld)) {
+                if (!classCountsMap.containsKey(subCld.getName())) {
+                    classCountsMap.put(subCld.getName(), new Integer(classCount));
                 }
+            }
+        }
+    }
 
-                Results results = getFieldSummary(cld, fieldName, os);
-                if (results.size() <= maxValues) {
-                    List<Object> fieldValues = new ArrayList<Object>();
-                    for (Object resRow: results) {
-                        Object fieldValue = ((ResultsRow<?>) resRow).get(0);
-                        fieldValues.add(fieldValue == null ? null : fieldValue.toString());
+    private void summariseAttributes(final ObjectStore os, Model model, Set<String> ignoreFields,
+            ExecutorService executor) throws ObjectStoreException {
+        Set<String> doneFields = new HashSet<String>();
+        for (List<ClassDescriptor> level : getLevels(model, false)) {
+            // Count the distinct values of all the remaining attributes of each class with one
+            // query per class, so each table is only scanned once.
+            Map<ClassDescriptor, List<String>> fieldsToDo =
+                new LinkedHashMap<ClassDescriptor, List<String>>();
+            Map<ClassDescriptor, Future<Map<String, Long>>> countJobs =
+                new HashMap<ClassDescriptor, Future<Map<String, Long>>>();
+            for (final ClassDescriptor cld : level) {
+                int classCount = classCountsMap.get(cld.getName()).intValue();
+                if (classCount == 0) {
+                    continue;
+                }
+                final List<String> fieldNames = new ArrayList<String>();
+                for (AttributeDescriptor att : cld.getAllAttributeDescriptors()) {
+                    String fieldName = att.getName();
+                    String clsFieldName = cld.getName() + "." + fieldName;
+                    if (!"id".equals(fieldName) && !doneFields.contains(clsFieldName)
+                            && !ignoreFields.contains(clsFieldName)) {
+                        fieldNames.add(fieldName);
                     }
-                    if (fieldValues.size() == 1 && fieldValues.get(0) == null) {
-                        Set<String> emptyAttributes = emptyAttributesMap.get(cld.getName());
-                        if (emptyAttributes == null) {
-                            emptyAttributes = new HashSet<String>();
-                            emptyAttributesMap.put(cld.getName(), emptyAttributes);
+                }
+                if (!fieldNames.isEmpty()) {
+                    fieldsToDo.put(cld, fieldNames);
+                    countJobs.put(cld, executor.submit(new Callable<Map<String, Long>>() {
+                        @Override
+                        public Map<String, Long> call() {
+                            long startTime = System.currentTimeMillis();
+                            Map<String, Long> retval = countDistinctValues(cld, fieldNames, os);
+                            addClassTime(cld, startTime);
+                            return retval;
                         }
-                        emptyAttributes.add(fieldName);
+                    }));
+                }
+            }
+
+            // Then fetch the values of those attributes with few enough of them
+            Map<ClassDescriptor, Map<String, Long>> distinctCounts =
+                new HashMap<ClassDescriptor, Map<String, Long>>();
+            Map<String, Future<List<Object>>> valueJobs =
+                new HashMap<String, Future<List<Object>>>();
+            for (Map.Entry<ClassDescriptor, List<String>> entry : fieldsToDo.entrySet()) {
+                final ClassDescriptor cld = entry.getKey();
+                Map<String, Long> counts = getResult(countJobs.get(cld));
+                distinctCounts.put(cld, counts);
+                for (final String fieldName : entry.getValue()) {
+                    Long count = counts.get(fieldName);
+                    if ((count == null)
+                            || ((count.longValue() > 0) && (count.longValue() <= maxValues))) {
+                        valueJobs.put(cld.getName() + "." + fieldName,
+                                executor.submit(new Callable<List<Object>>() {
+                                    @Override
+                                    public List<Object> call() {
+                                        long startTime = System.currentTimeMillis();
+                                        List<Object> retval = getFieldValues(cld, fieldName, os);
+                                        addClassTime(cld, startTime);
+                                        return retval;
+                                    }
+                                }));
                     }
-                    Collections.sort(fieldValues, new Comparator<Object>() {
-                        @Override
-                        public int compare(Object arg0, Object arg1) {
-                            if (arg0 == null) {
-                                return arg1 == null ? 0 : 1;
+                }
+            }
+
+            for (Map.Entry<ClassDescriptor, List<String>> entry : fieldsToDo.entrySet()) {
+                ClassDescriptor cld = entry.getKey();
+                for (String fieldName : entry.getValue()) {
+                    String clsFieldName = cld.getName() + "." + fieldName;
+                    List<Object> fieldValues = null;
+                    Future<List<Object>> valueJob = valueJobs.get(clsFieldName);
+                    if (valueJob != null) {
+                        fieldValues = getResult(valueJob);
+                    } else if (distinctCounts.get(cld).get(fieldName).longValue() == 0) {
+                        // No non-null values, so there is no need to fetch them
+                        fieldValues = new ArrayList<Object>();
+                        fieldValues.add(null);
+                    }
+                    if (fieldValues != null) {
+                        storeFieldValues(cld, fieldName, fieldValues);
+                    } else {
+                        LOG.info("Too many values for " + cld.getUnqualifiedName() + "."
+                                + fieldName);
+                        // all superclasses must also have too many values for this field
+                        for (ClassDescriptor superCld : cld.getAllSuperDescriptors()) {
+                            if (cld.equals(superCld)
+                                    || superCld.getType().equals(InterMineObject.class)) {
+                                continue;
                             }
-                            if (arg1 == null) {
-                                return arg0 == null ? 0 : -1;
+                            String superClsField = superCld.getName() + "." + fieldName;
+                            if (!doneFields.contains(superClsField)
+                                    && (superCld.getAttributeDescriptorByName(fieldName,
+                                            true) != null)) {
+                                LOG.info("Pushing too many values from "
+                                        + cld.getUnqualifiedName() + "." + fieldName + " to "
+                                        + superCld.getUnqualifiedName());
+                                doneFields.add(superClsField);
                             }
-                            return arg0.toString().compareTo(arg1.toString());
-                        }
-                    });
-                    fieldValuesMap.put(clsFieldName, fieldValues);
-                    LOG.info("Adding " + fieldValues.size() + " values for "
-                            + cld.getUnqualifiedName() + "." + fieldName);
-
-                } else {
-                    LOG.info("Too many values for " + cld.getUnqualifiedName() + "." + fieldName);
-                    // all superclasses must also have too many values for this field
-                    for (ClassDescriptor superCld : cld.getAllSuperDescriptors()) {
-                        if (cld.equals(superCld)
-                                || superCld.getType().equals(InterMineObject.class)) {
-                            continue;
-                        }
-                        String superClsField = superCld.getName() + "." + fieldName;
-                        if (!doneFields.contains(superClsField)
-                                && (superCld.getAttributeDescriptorByName(fieldName,
-                                        true) != null)) {
-                            LOG.info("Pushing too many values from " + cld.getUnqualifiedName()
-                                    + "." + fieldName + " to " + superCld.getUnqualifiedName());
-                            doneFields.add(superClsField);
                         }
                     }
                 }
             }
         }
+    }
 
+    private void storeFieldValues(ClassDescriptor cld, String fieldName,
+            List<Object> fieldValues) {
+        if (fieldValues.size() == 1 && fieldValues.get(0) == null) {
+            Set<String> emptyAttributes = emptyAttributesMap.get(cld.getName());
+            if (emptyAttributes == null) {
+                emptyAttributes = new HashSet<String>();
+                emptyAttributesMap.put(cld.getName(), emptyAttributes);
+            }
+            emptyAttributes.add(fieldName);
+        }
+        Collections.sort(fieldValues, new Comparator<Object>() {
+            @Override
+            public int compare(Object arg0, Object arg1) {
+                if (arg0 == null) {
+                    return arg1 == null ? 0 : 1;
+                }
+                if (arg1 == null) {
+                    return arg0 == null ? 0 : -1;
+                }
+                return arg0.toString().compareTo(arg1.toString());
+            }
+        });
+        fieldValuesMap.put(cld.getName() + "." + fieldName, fieldValues);
+        LOG.info("Adding " + fieldValues.size() + " values for "
+                + cld.getUnqualifiedName() + "." + fieldName);
+    }
 
-
+    private void findEmptyReferences(final ObjectStore os, Model model, Set<String> ignoreFields,
+            ExecutorService executor) throws ObjectStoreException {
         // This is faster as a bottom up traversal, though this may save fewer queres the saved
         // queries would take longer. If a ref/col is not empty it must not be empty in all parents.
         Set<String> notEmptyFields = new HashSet<String>();
-        for (ClassDescriptor cld: model.getBottomUpLevelTraversal()) {
-            int classCount = classCountsMap.get(cld.getName()).intValue();
-            if (classCount == 0) {
-                continue;
-            }
-
-            Set<ReferenceDescriptor> refsAndCols = new HashSet<ReferenceDescriptor>();
-            refsAndCols.addAll(cld.getAllReferenceDescriptors());
-            refsAndCols.addAll(cld.getAllCollectionDescriptors());
-            for (ReferenceDescriptor ref : refsAndCols) {
-                String fieldName = ref.getName();
-                String clsFieldName = cld.getName() + "." + fieldName;
-
-                if (ignoreFields.contains(fieldName)) {
+        for (List<ClassDescriptor> level : getLevels(model, false)) {
+            Map<String, Future<Boolean>> jobs = new LinkedHashMap<String, Future<Boolean>>();
+            Map<String, ClassDescriptor> jobClasses = new HashMap<String, ClassDescriptor>();
+            Map<String, String> jobFields = new HashMap<String, String>();
+            for (final ClassDescriptor cld : level) {
+                int classCount = classCountsMap.get(cld.getName()).intValue();
+                if (classCount == 0) {
                     continue;
                 }
 
-                if (notEmptyFields.contains(clsFieldName)) {
-                    LOG.info("Skipping " + clsFieldName + " - already know it's not empty");
-                    continue;
+                Set<ReferenceDescriptor> refsAndCols = new HashSet<ReferenceDescriptor>();
+                refsAndCols.addAll(cld.getAllReferenceDescriptors());
+                refsAndCols.addAll(cld.getAllCollectionDescriptors());
+                for (final ReferenceDescriptor ref : refsAndCols) {
+                    String fieldName = ref.getName();
+                    String clsFieldName = cld.getName() + "." + fieldName;
+
+                    if (ignoreFields.contains(fieldName)) {
+                        continue;
+                    }
+
+                    if (notEmptyFields.contains(clsFieldName)) {
+                        LOG.info("Skipping " + clsFieldName + " - already know it's not empty");
+                        continue;
+                    }
+
+                    jobClasses.put(clsFieldName, cld);
+                    jobFields.put(clsFieldName, fieldName);
+                    jobs.put(clsFieldName, executor.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            long startTime = System.currentTimeMillis();
+                            boolean empty = isReferenceEmpty(cld, ref, os);
+                            addClassTime(cld, startTime);
+                            return Boolean.valueOf(empty);
+                        }
+                    }));
                 }
+            }
 
-                boolean refIsEmpty = isReferenceEmpty(cld, ref, os);
-                if (refIsEmpty) {
-                    addToEmptyFields(cld.getName(), ref.getName());
+            for (Map.Entry<String, Future<Boolean>> entry : jobs.entrySet()) {
+                ClassDescriptor cld = jobClasses.get(entry.getKey());
+                String fieldName = jobFields.get(entry.getKey());
+                if (getResult(entry.getValue()).booleanValue()) {
+                    addToEmptyFields(cld.getName(), fieldName);
                     LOG.info("Adding empty field " + cld.getUnqualifiedName() + "." + fieldName);
                 } else {
                     // this isn't empty, so CAN'T be empty for any super classes
@@ -248,25 +410,61 @@ public class ObjectStoreSummary
         }
     }
 
-
-    private void countAndStore(ObjectStore os, Model model, ClassDescriptor cld)
-        throws ObjectStoreException {
-        if (!classCountsMap.containsKey(cld.getName())) {
-            int classCount = countClass(os, cld.getType());
-            LOG.info("Adding class count: " + cld.getUnqualifiedName() + " = " + classCount);
-            classCountsMap.put(cld.getName(), new Integer(classCount));
-
-            // if this class is empty all subclasses MUST be empty as well
-            if (classCount == 0) {
-                for (ClassDescriptor subCld : model.getAllSubs(cld)) {
-                    if (!classCountsMap.containsKey(subCld.getName())) {
-                        classCountsMap.put(subCld.getName(), new Integer(classCount));
-                    }
+    /**
+     * Splits the classes of the model into levels that can be summarised concurrently. Working
+     * top down, every class comes in a later level than its superclasses. Working bottom up,
+     * every class comes in a later level than its subclasses.
+     *
+     * @param model the Model
+     * @param topDown true to put superclasses first, false to put subclasses first
+     * @return a List of levels, each a List of ClassDescriptors
+     */
+    private static List<List<ClassDescriptor>> getLevels(Model model, boolean topDown) {
+        List<ClassDescriptor> traversal = (topDown ? model.getTopDownLevelTraversal()
+                : model.getBottomUpLevelTraversal());
+        Map<ClassDescriptor, Integer> levelNumbers = new HashMap<ClassDescriptor, Integer>();
+        List<List<ClassDescriptor>> retval = new ArrayList<List<ClassDescriptor>>();
+        for (ClassDescriptor cld : traversal) {
+            Set<ClassDescriptor> before = (topDown ? cld.getSuperDescriptors()
+                    : model.getDirectSubs(cld));
+            int levelNumber = 0;
+            for (ClassDescriptor other : before) {
+                Integer otherLevel = levelNumbers.get(other);
+                if ((otherLevel != null) && (otherLevel.intValue() >= levelNumber)) {
+                    levelNumber = otherLevel.intValue() + 1;
                 }
             }
+            levelNumbers.put(cld, new Integer(levelNumber));
+            while (retval.size() <= levelNumber) {
+                retval.add(new ArrayList<ClassDescriptor>());
+            }
+            retval.get(levelNumber).add(cld);
         }
+        return retval;
+    }
+
+    private synchronized void addClassTime(ClassDescriptor cld, long startTime) {
+        long time = System.currentTimeMillis() - startTime;
+        Long soFar = classTimes.get(cld.getUnqualifiedName());
+        classTimes.put(cld.getUnqualifiedName(),
+                new Long(time + (soFar == null ? 0 : soFar.longValue())));
     }
 
+    private static <T> T getResult(Future<T> job) throws ObjectStoreException {
+        try {
+            return job.get();
+        } catch (InterruptedException e) {
+            throw new ObjectStoreException("Interrupted while summarising objectstore", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ObjectStoreException) {
+                throw (ObjectStoreException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ObjectStoreException("Error while summarising objectstore", cause);
+        }
+    }
 
     /**
      * Construct a summary from a properties object.
@@ -446,6 +644,62 @@ public class ObjectStoreSummary
         }
     }
 
+    /**
+     * Fetch the distinct values of a field, as Strings.
+     *
+     * @param cld the class of objects to be examined
+     * @param fieldName the name of an attribute of the class
+     * @param os the objectstore
+     * @return a List of values, or null if there are more than maxValues of them
+     */
+    private List<Object> getFieldValues(ClassDescriptor cld, String fieldName, ObjectStore os) {
+        Results results = getFieldSummary(cld, fieldName, os);
+        if (results.size() > maxValues) {
+            return null;
+        }
+        List<Object> fieldValues = new ArrayList<Object>();
+        for (Object resRow: results) {
+            Object fieldValue = ((ResultsRow<?>) resRow).get(0);
+            fieldValues.add(fieldValue == null ? null : fieldValue.toString());
+        }
+        return fieldValues;
+    }
+
+    /**
+     * Count the distinct non-null values of several attributes of a class in one query.
+     *
+     * @param cld the class of objects to be examined
+     * @param fieldNames the names of attributes of the class
+     * @param os the objectstore
+     * @return a Map from field name to number of distinct values, which is empty if the counts
+     * could not be made
+     */
+    private Map<String, Long> countDistinctValues(ClassDescriptor cld, List<String> fieldNames,
+            ObjectStore os) {
+        Map<String, Long> retval = new HashMap<String, Long>();
+        Query q = new Query();
+        q.setDistinct(false);
+        QueryClass qc = new QueryClass(cld.getType());
+        q.addFrom(qc);
+        for (String fieldName : fieldNames) {
+            q.addToSelect(new QueryFunction(new QueryField(qc, fieldName),
+                        QueryFunction.COUNT_DISTINCT));
+        }
+        try {
+            // There are no precomputed tables worth matching for this query
+            Results results = os.execute(q, 1, false, false, false);
+            ResultsRow<?> row = (ResultsRow<?>) results.get(0);
+            for (int i = 0; i < fieldNames.size(); i++) {
+                retval.put(fieldNames.get(i), new Long(((Number) row.get(i)).longValue()));
+            }
+        } catch (RuntimeException e) {
+            // Fall back to fetching the values of each field separately
+            LOG.warn("Could not count distinct values for " + cld.getUnqualifiedName() + ": "
+                    + e);
+        }
+        return retval;
+    }
+
     private Results getFieldSummary(ClassDescriptor cld, String fieldName, ObjectStore os) {
         Query q = new Query();
         q.setDistinct(true);
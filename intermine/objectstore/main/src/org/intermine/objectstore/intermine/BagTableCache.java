@@ -0,0 +1,257 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.proxy.ProxyReference;
+
+/**
+ * A registry of temporary bag tables keyed by the contents and type of the bag, so that a table
+ * created for one BagConstraint can be reused by any other query (from any session) that
+ * constrains against an identical bag.
+ * <p>
+ * Each table has a reference count of the constraints currently using it. Once that count
+ * reaches zero the table is kept around in case another query wants it, but idle tables are
+ * evicted in least-recently-used order once there are more than maxIdleTables of them. This
+ * class does not talk to the database - the ObjectStore drops the tables returned by the
+ * eviction methods.
+ */
+public class BagTableCache
+{
+    private final int maxIdleTables;
+    // Access-ordered, so iteration visits the least recently used table first
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75F, true);
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param maxIdleTables the maximum number of unused tables to keep for later reuse
+     */
+    public BagTableCache(int maxIdleTables) {
+        this.maxIdleTables = maxIdleTables;
+    }
+
+    /**
+     * Generates a key identifying the contents of a bag, as they would be written into a bag
+     * table by DatabaseUtil.createBagTable(). Two bags with the same elements (in any order) and
+     * the same type produce the same key.
+     *
+     * @param type the type of the bag table
+     * @param bag the contents of the bag
+     * @return a String key, or null if the bag cannot be keyed (for example because its contents
+     * are not Comparable)
+     */
+    public static String getKey(Class<?> type, Collection<?> bag) {
+        List<Comparable<Object>> values = new ArrayList<Comparable<Object>>();
+        for (Object o : bag) {
+            if (type.isInstance(o) || (InterMineObject.class.isAssignableFrom(type)
+                    && ProxyReference.class.isInstance(o))) {
+                if (o instanceof InterMineObject) {
+                    o = ((InterMineObject) o).getId();
+                } else if (o instanceof Date) {
+                    o = new Long(((Date) o).getTime());
+                }
+                if (!(o instanceof Comparable<?>)) {
+                    return null;
+                }
+                @SuppressWarnings("unchecked") Comparable<Object> value = (Comparable<Object>) o;
+                values.add(value);
+            }
+        }
+        try {
+            Collections.sort(values);
+        } catch (ClassCastException e) {
+            return null;
+        }
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        for (Comparable<Object> value : values) {
+            String valueString = value.toString();
+            // Prefix with the length, so that element boundaries cannot be confused
+            md.update((valueString.length() + ":" + valueString).getBytes());
+        }
+        byte[] digest = md.digest();
+        StringBuffer retval = new StringBuffer(type.getName()).append(":").append(values.size())
+            .append(":");
+        for (int i = 0; i < digest.length; i++) {
+            retval.append(Integer.toHexString((digest[i] & 0xF0) >> 4))
+                .append(Integer.toHexString(digest[i] & 0x0F));
+        }
+        return retval.toString();
+    }
+
+    /**
+     * Looks for an existing table with the given key, and if one is found increments its
+     * reference count.
+     *
+     * @param key a key generated by getKey()
+     * @return the name of the table, or null if there is no such table
+     */
+    public synchronized String acquire(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.users++;
+        return entry.tableName;
+    }
+
+    /**
+     * Registers a newly-created table, with a reference count of one.
+     *
+     * @param key a key generated by getKey()
+     * @param tableName the name of the table holding the bag contents
+     * @return false if another table was registered with the same key in the meantime, in which
+     * case the new table is not shared and remains the responsibility of the caller
+     */
+    public synchronized boolean register(String key, String tableName) {
+        if (entries.containsKey(key)) {
+            return false;
+        }
+        entries.put(key, new Entry(tableName));
+        return true;
+    }
+
+    /**
+     * Decrements the reference count of a table.
+     *
+     * @param key a key generated by getKey()
+     * @param tableName the name of the table being released
+     * @return false if the table is not held by this cache, in which case it is not shared and
+     * the caller should drop it
+     */
+    public synchronized boolean release(String key, String tableName) {
+        Entry entry = entries.get(key);
+        if ((entry == null) || (!entry.tableName.equals(tableName))) {
+            return false;
+        }
+        if (entry.users > 0) {
+            entry.users--;
+        }
+        return true;
+    }
+
+    /**
+     * Removes idle tables from the cache until no more than maxIdleTables are left, starting
+     * with the least recently used.
+     *
+     * @return a List of the names of tables that should now be dropped
+     */
+    public synchronized List<String> evict() {
+        int idle = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.users == 0) {
+                idle++;
+            }
+        }
+        List<String> retval = new ArrayList<String>();
+        Iterator<Entry> iter = entries.values().iterator();
+        while ((idle > maxIdleTables) && iter.hasNext()) {
+            Entry entry = iter.next();
+            if (entry.users == 0) {
+                retval.add(entry.tableName);
+                iter.remove();
+                idle--;
+                evictions++;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Removes all tables from the cache, whether in use or not.
+     *
+     * @return a List of the names of tables that should now be dropped
+     */
+    public synchronized List<String> clear() {
+        List<String> retval = new ArrayList<String>();
+        for (Entry entry : entries.values()) {
+            retval.add(entry.tableName);
+        }
+        entries.clear();
+        return retval;
+    }
+
+    /**
+     * Returns the number of tables currently held, in use or idle.
+     *
+     * @return an int
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of times an existing table was reused.
+     *
+     * @return a long
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of times no existing table matched a bag.
+     *
+     * @return a long
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of idle tables evicted so far.
+     *
+     * @return a long
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "bag tables: " + entries.size() + ", hits: " + hits + ", misses: " + misses
+            + ", evictions: " + evictions;
+    }
+
+    private static class Entry
+    {
+        private final String tableName;
+        private int users = 1;
+
+        Entry(String tableName) {
+            this.tableName = tableName;
+        }
+    }
+}
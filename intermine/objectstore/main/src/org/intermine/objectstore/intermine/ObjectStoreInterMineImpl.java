@@ -30,11 +30,14 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.ClassDescriptor;
@@ -50,6 +53,7 @@ import org.intermine.objectstore.ObjectStoreAbstractImpl;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreQueryDurationException;
 import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.proxy.ProxyCollectionBatch;
 import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.Constraint;
@@ -65,6 +69,7 @@ import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryClassBag;
 import org.intermine.objectstore.query.QueryCollectionPathExpression;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFingerprint;
 import org.intermine.objectstore.query.QueryNode;
 import org.intermine.objectstore.query.QueryObjectPathExpression;
 import org.intermine.objectstore.query.QueryObjectReference;
@@ -79,6 +84,7 @@ import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseConnectionException;
 import org.intermine.sql.DatabaseFactory;
 import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.PreparedStatementCache;
 import org.intermine.sql.precompute.BestQuery;
 import org.intermine.sql.precompute.BestQueryExplainer;
 import org.intermine.sql.precompute.OptimiserCache;
@@ -90,7 +96,7 @@ import org.intermine.sql.query.ExplainResult;
 import org.intermine.sql.query.PostgresExplainResult;
 import org.intermine.sql.writebatch.Batch;
 import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
-import org.intermine.util.CacheMap;
+import org.intermine.util.ConcurrentCache;
 import org.intermine.util.ShutdownHook;
 import org.intermine.util.Shutdownable;
 
@@ -106,6 +112,8 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     private static final Logger LOG = Logger.getLogger(ObjectStoreInterMineImpl.class);
 
     private static final Logger SQLLOGGER = Logger.getLogger("sqllogger");
+    // the SQLSTATE Postgres gives a statement that has been cancelled
+    private static final String QUERY_CANCELED = "57014";
 
     protected static final int CACHE_LARGEST_OBJECT = 5000000;
     protected static Map<String, ObjectStoreInterMineImpl> instances
@@ -133,9 +141,21 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected static final int SEQUENCE_MULTIPLE = 1000000;
     protected boolean logExplains = false;
     protected boolean disableResultsCache = false;
+    protected PrecomputeAdvisor precomputeAdvisor = null;
 
     // don't use a table to represent bags if the bag is smaller than this value
     protected int minBagTableSize = -1;
+    // write large bags as a single array literal rather than creating a table for them
+    protected boolean useBagArrays = false;
+    // fetch a collection for all the objects in a batch of results when one of them needs it
+    protected boolean batchCollections = true;
+    // the optimised SQL for each shape of SQL, or null to always optimise
+    protected volatile QueryPlanCache planCache = new QueryPlanCache(1000);
+    // the statements plans are run with, on each database connection
+    protected PreparedStatementCache preparedStatements = new PreparedStatementCache(100);
+    protected long statsBagArrays = 0;
+    protected static final int DEFAULT_MAX_IDLE_BAG_TABLES = 20;
+    protected BagTableCache bagTableCache = new BagTableCache(DEFAULT_MAX_IDLE_BAG_TABLES);
     protected Map<Object, String> bagConstraintTables = Collections.synchronizedMap(
             new WeakHashMap<Object, String>());
     protected Set<BagTableToRemove> bagTablesInDatabase = Collections.synchronizedSet(
@@ -147,11 +167,15 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected Map<Query, Integer> goFasterCountMap = new IdentityHashMap<Query, Integer>();
     protected ReferenceQueue<String> bagTablesToRemove = new ReferenceQueue<String>();
     protected String description;
-    protected Map<String, Results> resultsCache = new CacheMap<String, Results>();
-    protected Map<String, SingletonResults> singletonResultsCache
-        = new CacheMap<String, SingletonResults>();
-    protected Map<String, Map<Integer, ResultsBatches>> batchesCache
-        = new CacheMap<String, Map<Integer, ResultsBatches>>();
+    protected static final int DEFAULT_RESULTS_CACHE_SIZE = 1000;
+    protected ConcurrentCache<ResultsKey, Results> resultsCache
+        = new ConcurrentCache<ResultsKey, Results>("Results cache", DEFAULT_RESULTS_CACHE_SIZE);
+    protected ConcurrentCache<ResultsKey, SingletonResults> singletonResultsCache
+        = new ConcurrentCache<ResultsKey, SingletonResults>("SingletonResults cache",
+                DEFAULT_RESULTS_CACHE_SIZE);
+    protected ConcurrentCache<QueryFingerprint, ConcurrentMap<Integer, ResultsBatches>>
+        batchesCache = new ConcurrentCache<QueryFingerprint, ConcurrentMap<Integer,
+        ResultsBatches>>("Batches cache", DEFAULT_RESULTS_CACHE_SIZE);
 
     private static final String[] LOG_TABLE_COLUMNS = new String[] {"timestamp", "optimise",
         "estimated", "execute", "permitted", "convert", "iql", "sql"};
@@ -202,6 +226,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         ShutdownHook.registerObject(new WeakReference<Object>(this));
         limitedContext = new QueryOptimiserContext();
         limitedContext.setTimeLimit(getMaxTime() / 10);
+        limitedContext.setExplainThreads(Math.max(1, getExplainThreads()));
         maxQueryParseTime = getMaxQueryParseTime();
         if (maxQueryParseTime != null) {
             limitedContext.setMaxQueryParseTime(maxQueryParseTime.longValue());
@@ -342,11 +367,18 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         String logfile = props.getProperty("logfile");
         String logTable = props.getProperty("logTable");
         String minBagTableSizeString = props.getProperty("minBagTableSize");
+        String maxIdleBagTablesString = props.getProperty("maxIdleBagTables");
+        String resultsCacheSizeString = props.getProperty("resultsCacheSize");
+        String useBagArraysString = props.getProperty("useBagArrays");
         String logEverythingString = props.getProperty("logEverything");
         String verboseQueryLogString = props.getProperty("verboseQueryLog");
         String logExplainsString = props.getProperty("logExplains");
         String logBeforeExecuteString = props.getProperty("logBeforeExecute");
         String disableResultsCacheString = props.getProperty("disableResultsCache");
+        String batchCollectionsString = props.getProperty("batchCollections");
+        String planCacheSizeString = props.getProperty("planCacheSize");
+        String advisorCapacityString = props.getProperty("precomputeAdvisorCapacity");
+        String advisorMinTimeString = props.getProperty("precomputeAdvisorMinTime");
 
         synchronized (instances) {
             ObjectStoreInterMineImpl os = instances.get(osAlias);
@@ -505,6 +537,31 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                         LOG.warn("Error setting minBagTableSize: " + e);
                     }
                 }
+                if (maxIdleBagTablesString != null) {
+                    try {
+                        int maxIdleBagTablesInt = Integer.parseInt(maxIdleBagTablesString);
+                        os.setMaxIdleBagTables(maxIdleBagTablesInt);
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting maxIdleBagTables: " + e);
+                    }
+                }
+                if (resultsCacheSizeString != null) {
+                    try {
+                        os.setResultsCacheSize(Integer.parseInt(resultsCacheSizeString));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting resultsCacheSize: " + e);
+                    }
+                }
+                if (planCacheSizeString != null) {
+                    try {
+                        os.setPlanCacheSize(Integer.parseInt(planCacheSizeString));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting planCacheSize: " + e);
+                    }
+                }
+                if ("true".equals(useBagArraysString)) {
+                    os.setUseBagArrays(true);
+                }
                 if ("true".equals(logEverythingString)) {
                     os.setLogEverything(true);
                 }
@@ -520,6 +577,25 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 if ("true".equals(disableResultsCacheString)) {
                     os.setDisableResultsCache(true);
                 }
+                if ("false".equals(batchCollectionsString)) {
+                    os.setBatchCollections(false);
+                }
+                try {
+                    // The advisor is off unless a capacity is configured
+                    int capacity = 0;
+                    long minTime = PrecomputeAdvisor.DEFAULT_MIN_TIME;
+                    if (advisorCapacityString != null) {
+                        capacity = Integer.parseInt(advisorCapacityString);
+                    }
+                    if (advisorMinTimeString != null) {
+                        minTime = Long.parseLong(advisorMinTimeString);
+                    }
+                    if (capacity > 0) {
+                        os.setPrecomputeAdvisor(new PrecomputeAdvisor(os, capacity, minTime));
+                    }
+                } catch (NumberFormatException e) {
+                    LOG.warn("Error setting up precompute advisor: " + e);
+                }
                 instances.put(osAlias, os);
             }
             return os;
@@ -578,6 +654,15 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Returns the name of the table the execute log is written to.
+     *
+     * @return the table name, or null if the execute log is not written to a table
+     */
+    public synchronized String getLogTableName() {
+        return logTableName;
+    }
+
     /**
      * Sets the logEverything configuration option.
      *
@@ -707,6 +792,24 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Returns the PrecomputeAdvisor that watches the queries run by this ObjectStore.
+     *
+     * @return a PrecomputeAdvisor, or null if queries are not being watched
+     */
+    public PrecomputeAdvisor getPrecomputeAdvisor() {
+        return precomputeAdvisor;
+    }
+
+    /**
+     * Sets the PrecomputeAdvisor that watches the queries run by this ObjectStore.
+     *
+     * @param precomputeAdvisor a PrecomputeAdvisor, or null to stop watching queries
+     */
+    public void setPrecomputeAdvisor(PrecomputeAdvisor precomputeAdvisor) {
+        this.precomputeAdvisor = precomputeAdvisor;
+    }
+
     /**
      * Set the cutoff value used to decide if a bag should be put in a table.
      *
@@ -726,6 +829,85 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return minBagTableSize;
     }
 
+    /**
+     * Set the number of unused temporary bag tables to keep in the database in case another
+     * query constrains on a bag with the same contents. Any tables currently held in excess of
+     * the new limit are dropped when they next become unreachable.
+     *
+     * @param maxIdleBagTables the number of idle bag tables to keep
+     */
+    public void setMaxIdleBagTables(int maxIdleBagTables) {
+        bagTableCache = new BagTableCache(maxIdleBagTables);
+    }
+
+    /**
+     * Set the number of Results objects to keep for reuse when the same query is executed again,
+     * which also limits the number of SingletonResults and of queries whose batches are kept.
+     * Any Results already cached are forgotten.
+     *
+     * @param resultsCacheSize the number of Results to keep
+     */
+    public void setResultsCacheSize(int resultsCacheSize) {
+        resultsCache = new ConcurrentCache<ResultsKey, Results>("Results cache",
+                resultsCacheSize);
+        singletonResultsCache = new ConcurrentCache<ResultsKey, SingletonResults>(
+                "SingletonResults cache", resultsCacheSize);
+        batchesCache = new ConcurrentCache<QueryFingerprint, ConcurrentMap<Integer,
+            ResultsBatches>>("Batches cache", resultsCacheSize);
+    }
+
+    /**
+     * Set the number of shapes of SQL for which to keep a plan made from the optimised SQL, so
+     * that queries differing only in their values (such as runs of the same template) do not go
+     * through the optimiser again. Any plans already made are forgotten.
+     *
+     * @param planCacheSize the number of plans to keep, or 0 to always optimise
+     */
+    public void setPlanCacheSize(int planCacheSize) {
+        planCache = (planCacheSize > 0 ? new QueryPlanCache(planCacheSize) : null);
+    }
+
+    /**
+     * Set whether bags at least minBagTableSize in size should be written into the SQL as a
+     * single array literal (value = ANY(array)) instead of being copied into a temporary table.
+     * Note that the QueryOptimiser cannot parse array constraints, so queries using them will
+     * not be matched against precomputed tables.
+     *
+     * @param useBagArrays true to use array literals for large bags
+     */
+    public void setUseBagArrays(boolean useBagArrays) {
+        this.useBagArrays = useBagArrays;
+    }
+
+    /**
+     * Set whether the collections of objects fetched in the same batch of results should be
+     * fetched together when the first of them is used, rather than with a query per object.
+     *
+     * @param batchCollections false to fetch each collection separately
+     */
+    public void setBatchCollections(boolean batchCollections) {
+        this.batchCollections = batchCollections;
+    }
+
+    /**
+     * Returns a description of how often temporary bag tables have been reused.
+     *
+     * @return a String
+     */
+    public String getBagTableStatistics() {
+        return bagTableCache + ", array bags: " + statsBagArrays;
+    }
+
+    /**
+     * Returns the sizes and hit rates of the caches of Results objects and query plans.
+     *
+     * @return a String
+     */
+    public String getResultsCacheStatistics() {
+        return resultsCache + ", " + singletonResultsCache + ", " + batchesCache
+            + (planCache == null ? "" : ", " + planCache);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -740,46 +922,42 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     @Override
     public Results execute(Query q, int batchSize, boolean optimise, boolean explain,
             boolean prefetch) {
-        String cacheKey = "Batchsize: " + batchSize + ", optimise: " + optimise + ", explain: "
-            + explain + ", prefetch: " + prefetch + ", query: " + q;
-        synchronized (resultsCache) {
-            // if this query has been executed before return a cached copy of the Results
-            Results retval = resultsCache.get(cacheKey);
-            if (retval != null) {
-                try {
-                    checkSequence(retval.getSequence(), null, null);
-                } catch (DataChangedException e) {
-                    retval = null;
-                }
-            }
-            if (retval == null) {
-                String batchesKey = q.toString();
-                synchronized (batchesCache) {
-                    Map<Integer, ResultsBatches> batches = batchesCache.get(batchesKey);
-                    if (batches == null) {
-                        batches = new CacheMap<Integer, ResultsBatches>();
-                        batchesCache.put(batchesKey, batches);
-                    }
-                    ResultsBatches batch = getResultsBatches(batches, batchSize);
-                    if (batch != null) {
-                        // We've executed this query before but with a different batch size, we may
-                        // be able to use the rows from previous batches to seed a new Results. This
-                        // is here because running a query in the webapp and exporting use different
-                        // batch sizes, this way we avoid re-executing queries that have results
-                        // already in cache.
-                        retval = new Results(batch, optimise, explain, prefetch);
-                    } else {
-                        retval = super.execute(q, batchSize, optimise, explain, prefetch);
-                        batches.put(new Integer(batchSize), retval.getResultsBatches());
-                    }
-                    resultsCache.put(cacheKey, retval);
-                }
-                //LOG.error("Results cache miss for " + q);
-            //} else {
-                //LOG.error("Results cache hit for " + q);
+        ResultsKey cacheKey = new ResultsKey(q.getFingerprint(), batchSize, optimise, explain,
+                prefetch);
+        // if this query has been executed before return a cached copy of the Results
+        Results retval = resultsCache.get(cacheKey);
+        boolean stale = false;
+        if (retval != null) {
+            try {
+                checkSequence(retval.getSequence(), null, null);
+                return retval;
+            } catch (DataChangedException e) {
+                stale = true;
             }
-            return retval;
         }
+        Map<Integer, ResultsBatches> batches = getBatches(cacheKey.fingerprint);
+        ResultsBatches batch = getResultsBatches(batches, batchSize);
+        if (batch != null) {
+            // We've executed this query before but with a different batch size, we may
+            // be able to use the rows from previous batches to seed a new Results. This
+            // is here because running a query in the webapp and exporting use different
+            // batch sizes, this way we avoid re-executing queries that have results
+            // already in cache.
+            retval = new Results(batch, optimise, explain, prefetch);
+        } else {
+            retval = super.execute(q, batchSize, optimise, explain, prefetch);
+            batches.put(new Integer(batchSize), retval.getResultsBatches());
+        }
+        if (stale) {
+            resultsCache.put(cacheKey, retval);
+        } else {
+            // if another thread has just made the same Results, share theirs
+            Results existing = resultsCache.putIfAbsent(cacheKey, retval);
+            if (existing != null) {
+                retval = existing;
+            }
+        }
+        return retval;
     }
 
     /**
@@ -796,40 +974,49 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     @Override
     public SingletonResults executeSingleton(Query q, int batchSize, boolean optimise,
             boolean explain, boolean prefetch) {
-        String cacheKey = "Batchsize: " + batchSize + ", optimise: " + optimise + ", explain: "
-            + explain + ", prefetch: " + prefetch + ", query: " + q;
-        synchronized (singletonResultsCache) {
-            SingletonResults retval = singletonResultsCache.get(cacheKey);
-            if (retval != null) {
-                try {
-                    checkSequence(retval.getSequence(), null, null);
-                } catch (DataChangedException e) {
-                    retval = null;
-                }
-            }
-            if (retval == null) {
-                String batchesKey = q.toString();
-                synchronized (batchesCache) {
-                    Map<Integer, ResultsBatches> batches = batchesCache.get(batchesKey);
-                    if (batches == null) {
-                        batches = new CacheMap<Integer, ResultsBatches>();
-                        batchesCache.put(batchesKey, batches);
-                    }
-                    ResultsBatches batch = getResultsBatches(batches, batchSize);
-                    if (batch != null) {
-                        retval = new SingletonResults(batch, optimise, explain, prefetch);
-                    } else {
-                        retval = super.executeSingleton(q, batchSize, optimise, explain, prefetch);
-                        batches.put(new Integer(batchSize), retval.getResultsBatches());
-                    }
-                    singletonResultsCache.put(cacheKey, retval);
-                }
-                //LOG.error("Results cache miss for " + q);
-            //} else {
-                //LOG.error("Results cache hit for " + q);
+        ResultsKey cacheKey = new ResultsKey(q.getFingerprint(), batchSize, optimise, explain,
+                prefetch);
+        SingletonResults retval = singletonResultsCache.get(cacheKey);
+        boolean stale = false;
+        if (retval != null) {
+            try {
+                checkSequence(retval.getSequence(), null, null);
+                return retval;
+            } catch (DataChangedException e) {
+                stale = true;
             }
-            return retval;
         }
+        Map<Integer, ResultsBatches> batches = getBatches(cacheKey.fingerprint);
+        ResultsBatches batch = getResultsBatches(batches, batchSize);
+        if (batch != null) {
+            retval = new SingletonResults(batch, optimise, explain, prefetch);
+        } else {
+            retval = super.executeSingleton(q, batchSize, optimise, explain, prefetch);
+            batches.put(new Integer(batchSize), retval.getResultsBatches());
+        }
+        if (stale) {
+            singletonResultsCache.put(cacheKey, retval);
+        } else {
+            SingletonResults existing = singletonResultsCache.putIfAbsent(cacheKey, retval);
+            if (existing != null) {
+                retval = existing;
+            }
+        }
+        return retval;
+    }
+
+    // the ResultsBatches made for a query so far, by batch size
+    private Map<Integer, ResultsBatches> getBatches(QueryFingerprint fingerprint) {
+        ConcurrentMap<Integer, ResultsBatches> batches = batchesCache.get(fingerprint);
+        if (batches == null) {
+            batches = new ConcurrentHashMap<Integer, ResultsBatches>();
+            ConcurrentMap<Integer, ResultsBatches> existing = batchesCache.putIfAbsent(
+                    fingerprint, batches);
+            if (existing != null) {
+                batches = existing;
+            }
+        }
+        return batches;
     }
 
     private ResultsBatches getResultsBatches(Map<Integer, ResultsBatches> batches, int batchSize) {
@@ -1062,7 +1249,8 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 + ", time spent: Bag Tables: " + statsBagTableTime + ", SQL Gen: " + statsGenTime
                 + ", SQL Optimise: " + statsOptTime + ", Estimate: "
                 + statsEstTime + ", Execute: " + statsExeTime + ", Results Convert: "
-                + statsConTime);
+                + statsConTime + ", " + getBagTableStatistics() + ", "
+                + getResultsCacheStatistics() + ", " + ProxyCollectionBatch.getStatistics());
 
         if (logTableBatch != null) {
             try {
@@ -1076,17 +1264,24 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         try {
             c = getConnection();
             LOG.info("Temporary tables to drop: " + bagTablesInDatabase);
-            Iterator<BagTableToRemove> iter = bagTablesInDatabase.iterator();
-            while (iter.hasNext()) {
-                BagTableToRemove bttr = iter.next();
+            // Shared tables may have several users, so only drop each table once
+            Set<String> dropSqls = new LinkedHashSet<String>();
+            synchronized (bagTablesInDatabase) {
+                for (BagTableToRemove bttr : bagTablesInDatabase) {
+                    dropSqls.add(bttr.getDropSql());
+                }
+                bagTablesInDatabase.clear();
+            }
+            for (String tableName : bagTableCache.clear()) {
+                dropSqls.add("DROP TABLE " + tableName);
+            }
+            for (String dropSql : dropSqls) {
                 try {
-                    c.createStatement().execute(bttr.getDropSql());
-                    LOG.info("Closing objectstore - dropped temporary table: " + bttr.getDropSql());
+                    c.createStatement().execute(dropSql);
+                    LOG.info("Closing objectstore - dropped temporary table: " + dropSql);
                 } catch (SQLException e) {
-                    LOG.warn("Failed to drop temporary bag table: " + bttr.getDropSql()
-                            + ", continuing");
+                    LOG.warn("Failed to drop temporary bag table: " + dropSql + ", continuing");
                 }
-                iter.remove();
             }
             flushOldTempBagTables(c);
         } catch (SQLException e) {
@@ -1131,6 +1326,80 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return executeWithConnection(c, q, start, limit, optimise, explain, sequence, null, null);
     }
 
+    /**
+     * Binds the values of generated SQL into the plan made for SQL of the same shape, if there is
+     * one and no precomputed tables have been added or deleted since.
+     *
+     * @param sql the generated SQL
+     * @return a BoundPlan, or null if the SQL has to be optimised
+     * @throws SQLException if an error occurs
+     */
+    protected QueryPlanCache.BoundPlan bindPlan(String sql) throws SQLException {
+        QueryPlanCache plans = planCache;
+        if (plans == null) {
+            return null;
+        }
+        return plans.bind(sql, PrecomputedTableManager.getInstance(db).getGeneration());
+    }
+
+    /**
+     * Optimises generated SQL, and makes a plan from the result for SQL of the same shape.
+     *
+     * @param sql the generated SQL
+     * @param tree the parsed form of sql, or null to have the optimiser parse it
+     * @param c the Connection to explain candidates with
+     * @param context the QueryOptimiserContext to use
+     * @return a BestQuery
+     * @throws SQLException if an error occurs
+     */
+    protected BestQuery optimiseWithPlan(String sql, org.intermine.sql.query.Query tree,
+            Connection c, QueryOptimiserContext context) throws SQLException {
+        QueryPlanCache plans = planCache;
+        if (plans == null) {
+            return QueryOptimiser.optimise(sql, tree, db, c, context);
+        }
+        PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(db);
+        // Read the generation first, so that a plan made while tables are added is not kept
+        int generation = ptm.getGeneration();
+        Set<PrecomputedTable> available = ptm.getPrecomputedTables();
+        BestQuery bestQuery = QueryOptimiser.optimise(sql, tree, db, c, context);
+        plans.addPlan(sql, bestQuery.getBestQueryString(), available, generation);
+        return bestQuery;
+    }
+
+    /**
+     * Runs a plan as a PreparedStatement with its values as parameters, reusing the statement
+     * prepared for the plan on the same database connection before.
+     *
+     * @param c the Connection
+     * @param plan the BoundPlan
+     * @return a ResultSet, or null if the plan has to be run as literal SQL instead
+     * @throws SQLException if the query is cancelled
+     * @throws ObjectStoreException if the request is black-listed
+     */
+    protected ResultSet executePlan(Connection c, QueryPlanCache.BoundPlan plan)
+        throws SQLException, ObjectStoreException {
+        PreparedStatement ps = preparedStatements.prepare(c, plan.getParameterisedSql());
+        if (ps == null) {
+            return null;
+        }
+        registerStatement(ps);
+        try {
+            plan.setParameters(ps);
+            return ps.executeQuery();
+        } catch (SQLException e) {
+            if (QUERY_CANCELED.equals(e.getSQLState())) {
+                throw e;
+            }
+            LOG.warn("Could not run plan as a prepared statement, running it as literal SQL from"
+                    + " now on: " + plan.getParameterisedSql(), e);
+            plan.notParameterised();
+            return null;
+        } finally {
+            deregisterStatement(ps);
+        }
+    }
+
     /**
      * Performs the actual execute, given a Connection.
      *
@@ -1172,26 +1441,38 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             long estimatedTime = 0;
             long startOptimiseTime = System.currentTimeMillis();
             ExplainResult explainResult = null;
+            QueryPlanCache.BoundPlan boundPlan = null;
             if (optimise && everOptimise()) {
                 if (goFasterTables == null) {
                     goFasterTables = goFasterMap.get(q);
                     goFasterCache = goFasterCacheMap.get(q);
                 }
-                BestQuery bestQuery;
-                if (goFasterTables != null) {
-                    bestQuery = QueryOptimiser.optimiseWith(sql, null, db, c,
-                            QueryOptimiserContext.DEFAULT, goFasterTables, goFasterCache);
-                    if (sql.equals(bestQuery.getBestQueryString())) {
-                        LOG.warn("Query with goFaster failed to optimise: original = "
-                                + sql + ", goFasterTables = " + goFasterTables);
-                    }
-                } else {
-                    bestQuery = QueryOptimiser.optimise(sql, null, db, c,
-                            (explain ? limitedContext : QueryOptimiserContext.DEFAULT));
+                if (goFasterTables == null) {
+                    boundPlan = bindPlan(sql);
                 }
-                sql = bestQuery.getBestQueryString();
-                if (bestQuery instanceof BestQueryExplainer) {
-                    explainResult = ((BestQueryExplainer) bestQuery).getBestExplainResult();
+                if (boundPlan != null) {
+                    sql = boundPlan.getSql();
+                } else {
+                    // Build the tree the optimiser works on from the Query where we can, rather
+                    // than parsing the SQL we have just generated
+                    org.intermine.sql.query.Query tree = SqlTreeGenerator.generate(q, start,
+                            limit, schema, bagConstraintTables);
+                    BestQuery bestQuery;
+                    if (goFasterTables != null) {
+                        bestQuery = QueryOptimiser.optimiseWith(sql, tree, db, c,
+                                QueryOptimiserContext.DEFAULT, goFasterTables, goFasterCache);
+                        if (sql.equals(bestQuery.getBestQueryString())) {
+                            LOG.warn("Query with goFaster failed to optimise: original = "
+                                    + sql + ", goFasterTables = " + goFasterTables);
+                        }
+                    } else {
+                        bestQuery = optimiseWithPlan(sql, tree, c,
+                                (explain ? limitedContext : QueryOptimiserContext.DEFAULT));
+                    }
+                    sql = bestQuery.getBestQueryString();
+                    if (bestQuery instanceof BestQueryExplainer) {
+                        explainResult = ((BestQueryExplainer) bestQuery).getBestExplainResult();
+                    }
                 }
             }
             long endOptimiseTime = System.currentTimeMillis();
@@ -1223,18 +1504,33 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                         + "optimised sql: " + sql);
             }
             long preExecute = System.currentTimeMillis();
-            Statement s = c.createStatement();
-            registerStatement(s);
-            ResultSet sqlResults;
-            try {
-                sqlResults = s.executeQuery(sql);
-            } finally {
-                deregisterStatement(s);
+            ResultSet sqlResults = null;
+            // A failed statement would abort a transaction, so only autocommit reads use them
+            if ((boundPlan != null) && boundPlan.isParameterised() && c.getAutoCommit()) {
+                sqlResults = executePlan(c, boundPlan);
+            }
+            if (sqlResults == null) {
+                Statement s = c.createStatement();
+                registerStatement(s);
+                try {
+                    sqlResults = s.executeQuery(sql);
+                } finally {
+                    deregisterStatement(s);
+                }
             }
             long postExecute = System.currentTimeMillis();
             ExtraQueryTime extra = new ExtraQueryTime();
-            List<ResultsRow<Object>>  objResults = ResultsConverter.convert(sqlResults, q, this, c,
-                    sequence, optimise, extra, goFasterTables, goFasterCache);
+            ProxyCollectionBatch previousBatch = (batchCollections
+                    ? ProxyCollectionBatch.open(this) : null);
+            List<ResultsRow<Object>>  objResults;
+            try {
+                objResults = ResultsConverter.convert(sqlResults, q, this, c, sequence, optimise,
+                        extra, goFasterTables, goFasterCache);
+            } finally {
+                if (batchCollections) {
+                    ProxyCollectionBatch.close(previousBatch);
+                }
+            }
             long postConvert = System.currentTimeMillis();
             long permittedTime = (objResults.size() * 2) + start + (150 * q.getFrom().size())
                     + (sql.length() / 20) - (q.getFrom().size() == 0 ? 0 : 100);
@@ -1270,6 +1566,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 dbLog(endOptimiseTime - startOptimiseTime, estimatedTime, postExecute - preExecute,
                         permittedTime, postConvert - postExecute, q, sql);
             }
+            PrecomputeAdvisor advisor = precomputeAdvisor;
+            if ((advisor != null) && (start == 0)) {
+                advisor.record(q, postExecute - preExecute);
+            }
             long bagTableTime = preGenTime - preBagTableTime;
             statsBagTableTime += bagTableTime;
             long genTime = startOptimiseTime - preGenTime;
@@ -1389,7 +1689,8 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     /**
      * Create temporary tables for use with Query that use bags.  Each BagConstraint in the Query is
      * examined and a temporary table containing values of the appropriate type from the bag is
-     * created. The new table names will be the values of the bagConstraintTables Map and the
+     * created, unless a table with the same contents already exists in which case that is reused.
+     * The table names will be the values of the bagConstraintTables Map and the
      * BagConstraint references will be the keys.
      *
      * @param c a Connection to use
@@ -1423,16 +1724,23 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 c.setAutoCommit(false);
             }
             String queryString = null;
+            Map<String, String> newTables = new HashMap<String, String>();
 
             for (ConstraintWithBag bagConstraint : bagConstraints) {
                 if (!bagConstraintTables.containsKey(bagConstraint)) {
                     Collection<?> bag = bagConstraint.getBag();
 
                     if (bag.size() >= getMinBagTableSize()) {
-                        if (queryString == null) {
-                            queryString = q.getIqlQuery().getQueryString();
+                        Class<?> type = getBagType(bagConstraint);
+                        if (useBagArrays && SqlGenerator.canUseBagArray(type)) {
+                            bagConstraintTables.put(bagConstraint, SqlGenerator.BAG_ARRAY);
+                            statsBagArrays++;
+                        } else {
+                            if (queryString == null) {
+                                queryString = q.getIqlQuery().getQueryString();
+                            }
+                            useTempBagTable(c, bagConstraint, type, bag, queryString, newTables);
                         }
-                        createTempBagTable(c, bagConstraint, true, queryString);
                     }
                 }
             }
@@ -1445,13 +1753,18 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                             if (queryString == null) {
                                 queryString = q.getIqlQuery().getQueryString();
                             }
-                            createTempBagTable(c, qcb, true, queryString);
+                            useTempBagTable(c, qcb, Integer.class, bag, queryString, newTables);
                         }
                     }
                 }
             }
             if (wasNotInTransaction) {
                 c.commit();
+                // Only now are the new tables visible to other connections, so only now can they
+                // be shared. If we are inside someone else's transaction they stay private.
+                for (Map.Entry<String, String> newTable : newTables.entrySet()) {
+                    bagTableCache.register(newTable.getKey(), newTable.getValue());
+                }
             }
         } catch (SQLException e) {
             throw new ObjectStoreException("database error while creating temporary "
@@ -1498,13 +1811,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
      */
     protected BagTableToRemove createTempBagTable(Connection c, ConstraintWithBag bagConstraint,
             boolean log, String text) throws SQLException {
-        Class<?> type;
-        if (bagConstraint instanceof BagConstraint) {
-            type = ((BagConstraint) bagConstraint).getQueryNode().getType();
-        } else {
-            type = ((MultipleInBagConstraint) bagConstraint).getEvaluables().iterator().next()
-                .getType();
-        }
+        Class<?> type = getBagType(bagConstraint);
         String tableName =
             TypeUtil.unqualifiedName(type.getName()) + "_bag_" + getUniqueInteger(c);
         if (log) {
@@ -1545,7 +1852,62 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     }
 
     /**
-     * Removes any temporary bag tables that are no longer reachable.
+     * Returns the type of the values that a bag table for the given constraint should hold.
+     *
+     * @param bagConstraint a BagConstraint or MultipleInBagConstraint
+     * @return a Class
+     */
+    protected static Class<?> getBagType(ConstraintWithBag bagConstraint) {
+        if (bagConstraint instanceof BagConstraint) {
+            return ((BagConstraint) bagConstraint).getQueryNode().getType();
+        } else {
+            return ((MultipleInBagConstraint) bagConstraint).getEvaluables().iterator().next()
+                .getType();
+        }
+    }
+
+    /**
+     * Finds a temporary bag table with the same contents as the given bag, creating one if there
+     * isn't one already, and records it in bagConstraintTables against the given key.
+     *
+     * @param c a Connection
+     * @param key the BagConstraint or QueryClassBag that will use the table
+     * @param type the type of the values in the table
+     * @param bag the contents of the bag
+     * @param text extra data to place in the log
+     * @param newTables a Map to which the content key and name of any newly created table is
+     * added, so that the table can be shared once it has been committed
+     * @throws SQLException if an error occurs
+     */
+    protected void useTempBagTable(Connection c, Object key, Class<?> type, Collection<?> bag,
+            String text, Map<String, String> newTables) throws SQLException {
+        String contentKey = BagTableCache.getKey(type, bag);
+        String tableName = null;
+        if (contentKey != null) {
+            tableName = bagTableCache.acquire(contentKey);
+        }
+        if (tableName != null) {
+            LOG.info("Reusing temporary table " + tableName + " of size " + bag.size() + " for "
+                    + text);
+        } else {
+            tableName = TypeUtil.unqualifiedName(type.getName()) + "_bag_" + getUniqueInteger(c);
+            LOG.info("Creating temporary table " + tableName + " of size " + bag.size() + " for "
+                    + text);
+            DatabaseUtil.createBagTable(db, c, tableName, bag, type);
+            if ((contentKey != null) && (!newTables.containsKey(contentKey))) {
+                newTables.put(contentKey, tableName);
+            }
+        }
+        // Every user of a table gets its own copy of the name, so that the reference queue tells
+        // us separately when each of them has been garbage collected.
+        String usedName = new String(tableName);
+        bagConstraintTables.put(key, usedName);
+        bagTablesInDatabase.add(new BagTableToRemove(usedName, bagTablesToRemove, contentKey));
+    }
+
+    /**
+     * Removes any temporary bag tables that are no longer reachable. Tables that may be shared
+     * are kept for reuse until they are evicted from the BagTableCache.
      *
      * @param c the Connection to use
      */
@@ -1554,25 +1916,37 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         while (bttr != null) {
             if (bagTablesInDatabase.contains(bttr)) {
                 removeTempBagTable(c, bttr);
-                LOG.info("Dropped unreachable temporary table: " + bttr.getDropSql());
             }
             bttr = (BagTableToRemove) bagTablesToRemove.poll();
         }
+        for (String tableName : bagTableCache.evict()) {
+            try {
+                c.createStatement().execute("DROP TABLE " + tableName);
+                LOG.info("Dropped idle shared temporary table: " + tableName);
+            } catch (SQLException e) {
+                LOG.warn("Failed to drop temporary bag table: " + tableName + ", continuing");
+            }
+        }
     }
 
     /**
-     * Removes a temporary bag table, given a BagTableToRemove object.
+     * Removes a temporary bag table, given a BagTableToRemove object. If the table is shared
+     * through the BagTableCache, this only releases this user's hold on it.
      *
      * @param c the Connection to use
      * @param bttr the BagTableToRemove object
      */
     protected synchronized void removeTempBagTable(Connection c, BagTableToRemove bttr) {
         if (bagTablesInDatabase.contains(bttr)) {
-            try {
-                c.createStatement().execute(bttr.getDropSql());
-            } catch (SQLException e) {
-                LOG.warn("Failed to drop temporary bag table: " + bttr.getDropSql()
-                        + ", continuing");
+            if ((bttr.getContentKey() == null)
+                    || (!bagTableCache.release(bttr.getContentKey(), bttr.getTableName()))) {
+                try {
+                    c.createStatement().execute(bttr.getDropSql());
+                    LOG.info("Dropped temporary table: " + bttr.getDropSql());
+                } catch (SQLException e) {
+                    LOG.warn("Failed to drop temporary bag table: " + bttr.getDropSql()
+                            + ", continuing");
+                }
             }
             bagTablesInDatabase.remove(bttr);
         }
@@ -1697,26 +2071,14 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
 
     /**
      * Internal method called by the ObjectStoreWriter, to notify the ObjectStore that some of the
-     * data in the database has changed.
+     * data in the database has changed. Any precomputed tables that use the altered tables are
+     * dropped, as the changes may not be visible to other connections yet.
      *
      * @param tablesAltered a Set of table names that may have been altered
      */
     public void databaseAltered(Set<Object> tablesAltered) {
         if (tablesAltered.size() > 0) {
-            changeSequence(tablesAltered);
-            Set<String> tableNames = new HashSet<String>();
-            for (Object o : tablesAltered) {
-                if (o instanceof String) {
-                    tableNames.add((String) o);
-                }
-            }
-            // We have just removed the ObjectStoreBags from the Set of altered things. This means
-            // that although the DataChangedException stuff is ObjectStoreBag-specific, the dropping
-            // precomputed tables bit is not. Changing any ObjectStoreBag will result in all
-            // Precomputed tables that have an ObjectStoreBag being dropped.
-            if ((tablesAltered.size() > 1) || (!tablesAltered.contains(INT_BAG_TABLE_NAME))) {
-                flushObjectById();
-            }
+            Set<String> tableNames = tablesChanged(tablesAltered);
             try {
                 PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(db);
                 ptm.dropAffected(tableNames);
@@ -1729,6 +2091,52 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Internal method called by the ObjectStoreWriter, to notify the ObjectStore that some of the
+     * data in the database has changed and the changes have been committed. Any precomputed
+     * tables that use the altered tables are brought up to date incrementally if rows have only
+     * been added to their tables, and are dropped otherwise.
+     *
+     * @param tablesAltered a Set of table names that may have been altered
+     * @param idsAdded a Map from table name to the ids of the rows added to it, for the altered
+     * tables whose new rows are known
+     * @param tablesRemovedFrom a Set of the names of the altered tables that have had rows deleted
+     * or updated
+     */
+    public void databaseAltered(Set<Object> tablesAltered, Map<String, Set<Integer>> idsAdded,
+            Set<String> tablesRemovedFrom) {
+        if (tablesAltered.size() > 0) {
+            Set<String> tableNames = tablesChanged(tablesAltered);
+            try {
+                PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(db);
+                ptm.refreshAffected(tableNames, idsAdded, tablesRemovedFrom);
+            } catch (DatabaseConnectionException e) {
+                throw new Error("Failed to get database connection when initiating "
+                        + "PrecomputedTableManager", e);
+            } catch (SQLException e) {
+                throw new Error("Problem with precomputed tables", e);
+            }
+        }
+    }
+
+    private Set<String> tablesChanged(Set<Object> tablesAltered) {
+        changeSequence(tablesAltered);
+        Set<String> tableNames = new HashSet<String>();
+        for (Object o : tablesAltered) {
+            if (o instanceof String) {
+                tableNames.add((String) o);
+            }
+        }
+        // We have just removed the ObjectStoreBags from the Set of altered things. This means
+        // that although the DataChangedException stuff is ObjectStoreBag-specific, the updating
+        // precomputed tables bit is not. Changing any ObjectStoreBag will result in all
+        // Precomputed tables that have an ObjectStoreBag being dropped or refreshed.
+        if ((tablesAltered.size() > 1) || (!tablesAltered.contains(INT_BAG_TABLE_NAME))) {
+            flushObjectById();
+        }
+        return tableNames;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -2284,23 +2692,40 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     /**
      * Class describing a temporary bag table, which can be removed. A bag table can be forcibly
      * dropped by passing one of these objects to the removeTempBagTable method. Alternatively,
-     * the table will be automatically dropped after the table name is garbage collected.
+     * the table will be automatically dropped after the table name is garbage collected. If the
+     * table is shared with other queries, it is instead released back to the BagTableCache.
      *
      * @author Matthew Wakeling
      */
     protected final class BagTableToRemove extends WeakReference<String>
     {
         String dropSql;
+        String contentKey;
 
         private BagTableToRemove(String tableName, ReferenceQueue<String> refQueue) {
+            this(tableName, refQueue, null);
+        }
+
+        private BagTableToRemove(String tableName, ReferenceQueue<String> refQueue,
+                String contentKey) {
             super(tableName, refQueue);
+            this.contentKey = contentKey;
             dropSql = "DROP TABLE " + tableName;
         }
 
+        private String getTableName() {
+            // Not held separately, as a strong reference to the name would keep it reachable
+            return dropSql.substring("DROP TABLE ".length());
+        }
+
         private String getDropSql() {
             return dropSql;
         }
 
+        private String getContentKey() {
+            return contentKey;
+        }
+
         /**
          * Returns the SQL statement that will drop the table.
          *
@@ -2378,4 +2803,41 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     public String toString() {
         return description;
     }
+
+    /**
+     * The key of a cached Results: the structure of the query and the arguments it was executed
+     * with.
+     */
+    protected static final class ResultsKey
+    {
+        private final QueryFingerprint fingerprint;
+        private final int batchSize;
+        private final boolean optimise, explain, prefetch;
+
+        ResultsKey(QueryFingerprint fingerprint, int batchSize, boolean optimise,
+                boolean explain, boolean prefetch) {
+            this.fingerprint = fingerprint;
+            this.batchSize = batchSize;
+            this.optimise = optimise;
+            this.explain = explain;
+            this.prefetch = prefetch;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof ResultsKey) {
+                ResultsKey other = (ResultsKey) o;
+                return (batchSize == other.batchSize) && (optimise == other.optimise)
+                    && (explain == other.explain) && (prefetch == other.prefetch)
+                    && fingerprint.equals(other.fingerprint);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return fingerprint.hashCode() * 31 + batchSize * 8 + (optimise ? 4 : 0)
+                + (explain ? 2 : 0) + (prefetch ? 1 : 0);
+        }
+    }
 }
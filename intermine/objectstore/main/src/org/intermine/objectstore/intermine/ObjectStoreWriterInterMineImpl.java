@@ -19,6 +19,8 @@ import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -38,6 +40,7 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.metadata.Util;
+import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.StringConstructor;
 import org.intermine.objectstore.DataChangedException;
@@ -60,6 +63,7 @@ import org.intermine.sql.DatabaseUtil;
 import org.intermine.sql.precompute.BestQuery;
 import org.intermine.sql.precompute.OptimiserCache;
 import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.PrecomputedTableManager;
 import org.intermine.sql.precompute.QueryOptimiser;
 import org.intermine.sql.precompute.QueryOptimiserContext;
 import org.intermine.sql.writebatch.Batch;
@@ -82,6 +86,8 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
     private static final Logger LOG = Logger.getLogger(ObjectStoreWriterInterMineImpl.class);
     private static final String[] CLOB_COLUMNS = new String[] {CLOBID_COLUMN, CLOBPAGE_COLUMN,
         CLOBVAL_COLUMN};
+    private static final int COLUMN_OBJECT = 1;
+    private static final int COLUMN_FIELD = 2;
     protected Connection conn = null;
     protected boolean connInUse = false;
     protected ObjectStoreInterMineImpl os;
@@ -91,9 +97,14 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
     protected Map<Integer, Boolean> recentSequences;
     protected Map<String, TableInfo> tableToInfo;
     protected Map<String, String[]> tableToColNameArray;
-    protected Map<String, Set<CollectionDescriptor>> tableToCollections;
+    protected Map<Class<?>, StorePlan> classToStorePlan;
     protected String connectionTakenBy = null;
     protected Set<Object> tablesAltered = new HashSet<Object>();
+    // The subset of tablesAltered that have had rows deleted or updated rather than just added
+    protected Set<String> tablesRemovedFrom = new HashSet<String>();
+    // The ids of the objects added to each table, so that precomputed tables can be refreshed with
+    // just the rows that join to them. A table maps to null once too many ids have been added
+    protected Map<String, Set<Integer>> idsAdded = new HashMap<String, Set<Integer>>();
 
     private Long cumulativeWait = new Long(0);    // just for diagnostic, can be removed
     private Integer getConnectionCalls = 0;       // as above
@@ -148,7 +159,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         batch = new Batch(new BatchWriterPostgresCopyImpl());
         tableToInfo = new HashMap<String, TableInfo>();
         tableToColNameArray = new HashMap<String, String[]>();
-        tableToCollections = new HashMap<String, Set<CollectionDescriptor>>();
+        classToStorePlan = new HashMap<Class<?>, StorePlan>();
     }
 
     /**
@@ -601,80 +612,29 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         try {
             boolean doDeletes = (o instanceof InterMineObject ? populateIds(c,
                         (InterMineObject) o) : false);
-            writePendingClobs(c, o);
+            StorePlan plan = getStorePlan(o.getClass());
+            writePendingClobs(c, o, plan);
             StringConstructor xml = null;
-            String objectClass = null;
-            Set<ClassDescriptor> classDescriptors = model.getClassDescriptorsForClass(o.getClass());
 
             if (doDeletes) {
-                for (ClassDescriptor cld : classDescriptors) {
-                    ClassDescriptor tableMaster = schema.getTableMaster(cld);
-                    String tableName = DatabaseUtil.getTableName(tableMaster);
-                    if (!schema.getMissingTables().contains(tableName.toLowerCase())) {
-                        batch.deleteRow(c, tableName, "id", ((InterMineObject) o).getId());
-                        tablesAltered.add(tableName);
+                for (TablePlan table : plan.tables) {
+                    if (!table.missing) {
+                        batch.deleteRow(c, table.tableInfo.tableName, "id",
+                                ((InterMineObject) o).getId());
+                        tablesAltered.add(table.tableInfo.tableName);
+                        tablesRemovedFrom.add(table.tableInfo.tableName);
                     }
                 }
             }
             int tablesWritten = 0;
-            Set<String> validFieldNames = new HashSet<String>();
-            for (Map.Entry<String, TypeUtil.FieldInfo> entry : TypeUtil.getFieldInfos(o.getClass())
-                    .entrySet()) {
-                String fieldName = entry.getKey();
-                TypeUtil.FieldInfo fieldInfo = entry.getValue();
-                if (!Collection.class.isAssignableFrom(fieldInfo.getType())) {
-                    validFieldNames.add(fieldName);
-                }
-            }
-            for (ClassDescriptor cld : classDescriptors) {
-                ClassDescriptor tableMaster = schema.getTableMaster(cld);
-                TableInfo tableInfo = getTableInfo(tableMaster);
-                Set<CollectionDescriptor> collections = tableToCollections.get(cld.getName());
-                if (collections == null) {
-                    LOG.info("Generating cached metadata for ClassDescriptor " + cld.getName());
-                    collections = new HashSet<CollectionDescriptor>();
-                    for (FieldDescriptor field : cld.getAllFieldDescriptors()) {
-                        if (field instanceof CollectionDescriptor) {
-                            collections.add((CollectionDescriptor) field);
-                        }
-                    }
-                    tableToCollections.put(cld.getName(), collections);
-                }
-
-                if (!schema.getMissingTables().contains(tableInfo.tableName.toLowerCase())) {
+            for (TablePlan table : plan.tables) {
+                TableInfo tableInfo = table.tableInfo;
+                if (!table.missing) {
                     tablesWritten++;
-                    if (schema.isFlatMode(cld.getType()) && (!schema.isTruncated(schema
-                                    .getTableMaster(cld)))
-                            && (!(cld.getType().equals(o.getClass())))) {
-                        Set<Class<?>> decomposed = Util.decomposeClass(o.getClass());
-                        if (!((decomposed.size() == 1) && cld.getType().equals(decomposed.iterator()
-                                        .next()))) {
-                            throw new ObjectStoreException("Non-flat model heirarchy used in flat "
-                                    + "mode. Cannot store object with classes = " + decomposed);
-                        }
-                    }
                     Object[] values = new Object[tableInfo.colNames.length];
-                    Set<String> fieldNamesWritten = new HashSet<String>();
                     for (int colNo = 0; colNo < tableInfo.colNames.length; colNo++) {
-                        Object value = null;
-                        if ("tableclass".equals(tableInfo.colNames[colNo])) {
-                            value = cld.getName();
-                        } else if ("class".equals(tableInfo.colNames[colNo])) {
-                            if (objectClass == null) {
-                                StringBuffer sb = new StringBuffer();
-                                boolean needComma = false;
-                                for (Class<?> objectClazz : Util.decomposeClass(o
-                                        .getClass())) {
-                                    if (needComma) {
-                                        sb.append(" ");
-                                    }
-                                    needComma = true;
-                                    sb.append(objectClazz.getName());
-                                }
-                                objectClass = sb.toString();
-                            }
-                            value = objectClass;
-                        } else if ("OBJECT".equals(tableInfo.colNames[colNo])) {
+                        Object value = table.constants[colNo];
+                        if (table.columnTypes[colNo] == COLUMN_OBJECT) {
                             if (xml == null) {
                                 if (o instanceof InterMineObject) {
                                     xml = ((InterMineObject) o).getoBJECT();
@@ -683,13 +643,8 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                                 }
                             }
                             value = xml;
-                        } else if (validFieldNames.contains(tableInfo.fieldNames[colNo])) {
-                            if (o instanceof InterMineObject) {
-                                value = ((InterMineObject) o).getFieldProxy(tableInfo
-                                        .fieldNames[colNo]);
-                            } else {
-                                value = TypeUtil.getFieldProxy(o, tableInfo.fieldNames[colNo]);
-                            }
+                        } else if (table.columnTypes[colNo] == COLUMN_FIELD) {
+                            value = getFieldProxy(o, tableInfo.fieldNames[colNo]);
                             if (value instanceof Date) {
                                 value = new Long(((Date) value).getTime());
                             }
@@ -703,46 +658,19 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                                     || (colNo >= tableInfo.referencesFrom)) {
                                 value = null;
                             }
-                            fieldNamesWritten.add(tableInfo.fieldNames[colNo]);
-                        } else {
-                            FieldDescriptor fieldDescriptor = tableInfo.fields[colNo];
-                            if (fieldDescriptor instanceof AttributeDescriptor) {
-                                String fieldType = ((AttributeDescriptor) fieldDescriptor)
-                                    .getType();
-                                if ("boolean".equals(fieldType)) {
-                                    value = Boolean.FALSE;
-                                } else if ("short".equals(fieldType)) {
-                                    value = new Short((short) 0);
-                                } else if ("int".equals(fieldType)) {
-                                    value = new Integer(0);
-                                } else if ("long".equals(fieldType)) {
-                                    value = new Long(0L);
-                                } else if ("float".equals(fieldType)) {
-                                    value = new Float(0.0F);
-                                } else if ("double".equals(fieldType)) {
-                                    value = new Double(0.0);
-                                }
-                            }
                         }
                         values[colNo] = value;
                     }
-                    if (schema.isFlatMode(cld.getType())) {
-                        for (String validFieldName : validFieldNames) {
-                            if (!fieldNamesWritten.contains(validFieldName)) {
-                                Set<Class<?>> decomposed = Util.decomposeClass(o.getClass());
-                                throw new ObjectStoreException("Cannot store object " + decomposed
-                                        + " - no column for field " + validFieldName + " in table "
-                                        + tableInfo.tableName);
-                            }
-                        }
-                    }
                     batch.addRow(c, tableInfo.tableName, (o instanceof InterMineObject
                                 ? ((InterMineObject) o).getId() : null), tableInfo.colNames,
                             values);
                     tablesAltered.add(tableInfo.tableName);
+                    if ((o instanceof InterMineObject) && !doDeletes) {
+                        addIdAdded(tableInfo.tableName, ((InterMineObject) o).getId());
+                    }
                 }
 
-                writeCollections(c, o, collections);
+                writeCollections(c, o, table.collections);
             }
             if (tablesWritten < 1) {
                 throw new ObjectStoreException("Object " + Util.decomposeClass(o.getClass())
@@ -783,7 +711,21 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         }
     }
 
-    private void writeCollections(Connection c, Object o, Set<CollectionDescriptor> collections)
+    private void addIdAdded(String tableName, Integer id) {
+        if (!idsAdded.containsKey(tableName)) {
+            idsAdded.put(tableName, new HashSet<Integer>());
+        }
+        Set<Integer> ids = idsAdded.get(tableName);
+        if (ids != null) {
+            if (ids.size() < PrecomputedTableManager.MAX_REFRESH_IDS) {
+                ids.add(id);
+            } else {
+                idsAdded.put(tableName, null);
+            }
+        }
+    }
+
+    private void writeCollections(Connection c, Object o, CollectionDescriptor[] collections)
         throws IllegalAccessException, SQLException {
         for (CollectionDescriptor collection : collections) {
             @SuppressWarnings("unchecked") Collection<InterMineObject> coll
@@ -979,6 +921,164 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         return retval;
     }
 
+    /**
+     * Returns the StorePlan for a class, creating it if this is the first object of the class to
+     * be stored.
+     *
+     * @param clazz the class of an object to be stored
+     * @return a StorePlan
+     * @throws ObjectStoreException if objects of the class cannot be stored in this database
+     */
+    private StorePlan getStorePlan(Class<?> clazz) throws ObjectStoreException {
+        StorePlan plan = classToStorePlan.get(clazz);
+        if (plan == null) {
+            LOG.info("Generating store plan for " + Util.decomposeClass(clazz));
+            plan = new StorePlan();
+            List<String> referenceFields = new ArrayList<String>();
+            List<String> collectionFields = new ArrayList<String>();
+            List<String> clobFields = new ArrayList<String>();
+            Set<String> validFieldNames = new HashSet<String>();
+            for (TypeUtil.FieldInfo fieldInfo : TypeUtil.getFieldInfos(clazz).values()) {
+                Class<?> type = fieldInfo.getType();
+                if (Collection.class.isAssignableFrom(type)) {
+                    collectionFields.add(fieldInfo.getName());
+                } else {
+                    validFieldNames.add(fieldInfo.getName());
+                    if (InterMineObject.class.isAssignableFrom(type)) {
+                        referenceFields.add(fieldInfo.getName());
+                    } else if (ClobAccess.class.isAssignableFrom(type)) {
+                        clobFields.add(fieldInfo.getName());
+                    }
+                }
+            }
+            plan.referenceFields = referenceFields.toArray(new String[0]);
+            plan.collectionFields = collectionFields.toArray(new String[0]);
+            plan.clobFields = clobFields.toArray(new String[0]);
+
+            StringBuffer objectClass = new StringBuffer();
+            boolean needComma = false;
+            for (Class<?> objectClazz : Util.decomposeClass(clazz)) {
+                if (needComma) {
+                    objectClass.append(" ");
+                }
+                needComma = true;
+                objectClass.append(objectClazz.getName());
+            }
+
+            Set<ClassDescriptor> classDescriptors = model.getClassDescriptorsForClass(clazz);
+            plan.tables = new TablePlan[classDescriptors.size()];
+            int tableNo = 0;
+            for (ClassDescriptor cld : classDescriptors) {
+                TablePlan table = new TablePlan();
+                TableInfo tableInfo = getTableInfo(schema.getTableMaster(cld));
+                table.tableInfo = tableInfo;
+                table.missing = schema.getMissingTables().contains(tableInfo.tableName
+                        .toLowerCase());
+                List<CollectionDescriptor> collections = new ArrayList<CollectionDescriptor>();
+                for (FieldDescriptor field : cld.getAllFieldDescriptors()) {
+                    if (field instanceof CollectionDescriptor) {
+                        collections.add((CollectionDescriptor) field);
+                    }
+                }
+                table.collections = collections.toArray(new CollectionDescriptor[0]);
+                if (!table.missing) {
+                    checkFlatMode(clazz, cld, tableInfo, validFieldNames);
+                    table.columnTypes = new int[tableInfo.colNames.length];
+                    table.constants = new Object[tableInfo.colNames.length];
+                    for (int colNo = 0; colNo < tableInfo.colNames.length; colNo++) {
+                        if ("tableclass".equals(tableInfo.colNames[colNo])) {
+                            table.constants[colNo] = cld.getName();
+                        } else if ("class".equals(tableInfo.colNames[colNo])) {
+                            table.constants[colNo] = objectClass.toString();
+                        } else if ("OBJECT".equals(tableInfo.colNames[colNo])) {
+                            table.columnTypes[colNo] = COLUMN_OBJECT;
+                        } else if (validFieldNames.contains(tableInfo.fieldNames[colNo])) {
+                            table.columnTypes[colNo] = COLUMN_FIELD;
+                        } else if (tableInfo.fields[colNo] instanceof AttributeDescriptor) {
+                            table.constants[colNo] = getDefaultValue(((AttributeDescriptor)
+                                        tableInfo.fields[colNo]).getType());
+                        }
+                    }
+                }
+                plan.tables[tableNo] = table;
+                tableNo++;
+            }
+            classToStorePlan.put(clazz, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Checks that objects of a class can be stored in a table in flat mode, which requires the
+     * class to be the table's class or a subclass of it, and every field of the object to have a
+     * column.
+     *
+     * @param clazz the class of the objects to be stored
+     * @param cld a ClassDescriptor of the class
+     * @param tableInfo the TableInfo for the table that cld is stored in
+     * @param validFieldNames the names of the fields of clazz that are not collections
+     * @throws ObjectStoreException if the objects cannot be stored
+     */
+    private void checkFlatMode(Class<?> clazz, ClassDescriptor cld, TableInfo tableInfo,
+            Set<String> validFieldNames) throws ObjectStoreException {
+        if (schema.isFlatMode(cld.getType()) && (!schema.isTruncated(schema.getTableMaster(cld)))
+                && (!(cld.getType().equals(clazz)))) {
+            Set<Class<?>> decomposed = Util.decomposeClass(clazz);
+            if (!((decomposed.size() == 1) && cld.getType().equals(decomposed.iterator()
+                            .next()))) {
+                throw new ObjectStoreException("Non-flat model heirarchy used in flat "
+                        + "mode. Cannot store object with classes = " + decomposed);
+            }
+        }
+        if (schema.isFlatMode(cld.getType())) {
+            Set<String> fieldNamesWritten = new HashSet<String>(Arrays.asList(tableInfo
+                        .fieldNames));
+            for (String validFieldName : validFieldNames) {
+                if (!fieldNamesWritten.contains(validFieldName)) {
+                    Set<Class<?>> decomposed = Util.decomposeClass(clazz);
+                    throw new ObjectStoreException("Cannot store object " + decomposed
+                            + " - no column for field " + validFieldName + " in table "
+                            + tableInfo.tableName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the value to store in a column for an attribute that the object does not have.
+     *
+     * @param fieldType the type of the attribute
+     * @return a value, or null
+     */
+    private static Object getDefaultValue(String fieldType) {
+        if ("boolean".equals(fieldType)) {
+            return Boolean.FALSE;
+        } else if ("short".equals(fieldType)) {
+            return new Short((short) 0);
+        } else if ("int".equals(fieldType)) {
+            return new Integer(0);
+        } else if ("long".equals(fieldType)) {
+            return new Long(0L);
+        } else if ("float".equals(fieldType)) {
+            return new Float(0.0F);
+        } else if ("double".equals(fieldType)) {
+            return new Double(0.0);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of a field of an object without dereferencing ProxyReferences, using the
+     * object's own accessor if it has one.
+     */
+    private static Object getFieldProxy(Object o, String fieldName)
+        throws IllegalAccessException {
+        if (o instanceof FastPathObject) {
+            return ((FastPathObject) o).getFieldProxy(fieldName);
+        }
+        return TypeUtil.getFieldProxy(o, fieldName);
+    }
+
     /**
      * Populates the object o with IDs.
      *
@@ -987,9 +1087,10 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
      * @return true if the object will need to be deleted from the DB before a store
      * @throws SQLException if the database cannot produce a new ID
      * @throws IllegalAccessException if the ID field cannot be set
+     * @throws ObjectStoreException if the object cannot be stored in this database
      */
     protected boolean populateIds(Connection c, InterMineObject o) throws SQLException,
-              IllegalAccessException {
+              IllegalAccessException, ObjectStoreException {
         boolean doDeletes = true;
         // Make sure this object has an ID
         if (o.getId() == null) {
@@ -1001,27 +1102,24 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         recentSequences.remove(o.getId());
 
         // Make sure all objects pointed to have IDs
-        for (Map.Entry<String, TypeUtil.FieldInfo> fieldEntry
-                : TypeUtil.getFieldInfos(o.getClass()).entrySet()) {
-            TypeUtil.FieldInfo fieldInfo = fieldEntry.getValue();
-            if (InterMineObject.class.isAssignableFrom(fieldInfo.getType())) {
-                InterMineObject obj = (InterMineObject) TypeUtil.getFieldProxy(o,
-                        fieldInfo.getName());
-                if ((obj != null) && (obj.getId() == null)) {
-                    obj.setId(getSerialWithConnection(c));
-                }
-            } else if (Collection.class.isAssignableFrom(fieldInfo.getType())) {
-                @SuppressWarnings("unchecked") Collection<Object> coll
-                    = (Collection<Object>) o.getFieldValue(fieldInfo.getName());
-
-                if (!(coll instanceof Lazy)) {
-                    for (Object obj : coll) {
-                        // the collection may contain simple objects which don't have ids
-                        if (obj instanceof InterMineObject) {
-                            InterMineObject imo = (InterMineObject) obj;
-                            if (imo.getId() == null) {
-                                imo.setId(getSerialWithConnection(c));
-                            }
+        StorePlan plan = getStorePlan(o.getClass());
+        for (String fieldName : plan.referenceFields) {
+            InterMineObject obj = (InterMineObject) o.getFieldProxy(fieldName);
+            if ((obj != null) && (obj.getId() == null)) {
+                obj.setId(getSerialWithConnection(c));
+            }
+        }
+        for (String fieldName : plan.collectionFields) {
+            @SuppressWarnings("unchecked") Collection<Object> coll
+                = (Collection<Object>) o.getFieldValue(fieldName);
+
+            if (!(coll instanceof Lazy)) {
+                for (Object obj : coll) {
+                    // the collection may contain simple objects which don't have ids
+                    if (obj instanceof InterMineObject) {
+                        InterMineObject imo = (InterMineObject) obj;
+                        if (imo.getId() == null) {
+                            imo.setId(getSerialWithConnection(c));
                         }
                     }
                 }
@@ -1042,19 +1140,22 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
      */
     protected void writePendingClobs(Connection c, Object o) throws ObjectStoreException,
         SQLException, IllegalAccessException {
-        for (Map.Entry<String, TypeUtil.FieldInfo> fieldEntry
-                : TypeUtil.getFieldInfos(o.getClass()).entrySet()) {
-            TypeUtil.FieldInfo fieldInfo = fieldEntry.getValue();
-            if (ClobAccess.class.isAssignableFrom(fieldInfo.getType())) {
-                ClobAccess ca = (ClobAccess) TypeUtil.getFieldValue(o, fieldInfo.getName());
-                if (ca instanceof PendingClob) {
-                    // We can't call createClob here - we already have a connection, and
-                    // we must use that one.
-                    Clob clob = new Clob(getSerialWithConnection(c));
-                    replaceClobWithConnection(c, clob, ((PendingClob) ca)
-                            .toString());
-                    DynamicUtil.setFieldValue(o, fieldInfo.getName(), new ClobAccess(this, clob));
-                }
+        writePendingClobs(c, o, getStorePlan(o.getClass()));
+    }
+
+    private void writePendingClobs(Connection c, Object o, StorePlan plan)
+        throws ObjectStoreException, SQLException, IllegalAccessException {
+        for (String fieldName : plan.clobFields) {
+            ClobAccess ca = (ClobAccess) (o instanceof FastPathObject
+                    ? ((FastPathObject) o).getFieldValue(fieldName)
+                    : TypeUtil.getFieldValue(o, fieldName));
+            if (ca instanceof PendingClob) {
+                // We can't call createClob here - we already have a connection, and
+                // we must use that one.
+                Clob clob = new Clob(getSerialWithConnection(c));
+                replaceClobWithConnection(c, clob, ((PendingClob) ca)
+                        .toString());
+                DynamicUtil.setFieldValue(o, fieldName, new ClobAccess(this, clob));
             }
         }
     }
@@ -1170,6 +1271,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                         element.intValue());
                 tablesAltered.add(osb);
                 tablesAltered.add(INT_BAG_TABLE_NAME);
+                tablesRemovedFrom.add(INT_BAG_TABLE_NAME);
             }
         } catch (SQLException e) {
             throw new ObjectStoreException("Error removing from bag", e);
@@ -1336,6 +1438,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             }
             tablesAltered.add(clob);
             tablesAltered.add(CLOB_TABLE_NAME);
+            tablesRemovedFrom.add(CLOB_TABLE_NAME);
         } catch (SQLException e) {
             throw new ObjectStoreException("Error adding to bag", e);
         } finally {
@@ -1393,6 +1496,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                 if (!schema.getMissingTables().contains(tableName.toLowerCase())) {
                     batch.deleteRow(c, tableName, "id", o.getId());
                     tablesAltered.add(tableName);
+                    tablesRemovedFrom.add(tableName);
                 }
             }
             invalidateObjectById(o.getId());
@@ -1457,6 +1561,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             }
             con.createStatement().execute(sql.toString());
             tablesAltered.add(tableName);
+            tablesRemovedFrom.add(tableName);
         } catch (SQLException e) {
             throw new ObjectStoreException("Error while deleting", e);
         } finally {
@@ -1566,8 +1671,11 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             }
             c.commit();
             c.setAutoCommit(true);
-            os.databaseAltered(tablesAltered);
+            // The changes are committed, so precomputed tables can be refreshed from them
+            os.databaseAltered(tablesAltered, idsAdded, tablesRemovedFrom);
             tablesAltered.clear();
+            tablesRemovedFrom.clear();
+            idsAdded.clear();
         } catch (SQLException e) {
             throw new ObjectStoreException("Error committing transaction", e);
         }
@@ -1605,6 +1713,8 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             c.setAutoCommit(true);
             os.flushObjectById();
             tablesAltered.clear();
+            tablesRemovedFrom.clear();
+            idsAdded.clear();
         } catch (SQLException e) {
             throw new ObjectStoreException("Error aborting transaction", e);
         }
@@ -1636,8 +1746,12 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
     public void batchCommitTransactionWithConnection(Connection c) throws ObjectStoreException {
         try {
             batch.batchCommit(c);
+            // The commit may still be running, so affected precomputed tables are dropped rather
+            // than refreshed from changes that may not be visible yet
             os.databaseAltered(tablesAltered);
             tablesAltered.clear();
+            tablesRemovedFrom.clear();
+            idsAdded.clear();
         } catch (SQLException e) {
             throw new ObjectStoreException("Error batch-committing transaction", e);
         }
@@ -1653,6 +1767,17 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                 + "ObjectStoreWriter");
     }
 
+    /**
+     * {@inheritDoc}
+     * This method should never be called on an ObjectStoreWriter.
+     */
+    @Override
+    public void databaseAltered(Set<Object> tablesChanged, Map<String, Set<Integer>> idsAdded,
+            Set<String> tablesRemovedFrom) {
+        throw new IllegalArgumentException("databaseAltered should never be called on an "
+                + "ObjectStoreWriter");
+    }
+
     /**
      * {@inheritDoc}
      * Delegate to the parent ObjectStore.
@@ -1800,6 +1925,31 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         int referencesFrom;
     }
 
+    /**
+     * Everything that storing an object of a particular class needs to know about the class,
+     * worked out once so that each store does not look at the class's fields again.
+     */
+    private static class StorePlan
+    {
+        String[] referenceFields;
+        String[] collectionFields;
+        String[] clobFields;
+        TablePlan[] tables;
+    }
+
+    /**
+     * How to write an object of a particular class to one of its tables.
+     */
+    private static class TablePlan
+    {
+        TableInfo tableInfo;
+        boolean missing;
+        // For each column, COLUMN_OBJECT, COLUMN_FIELD, or 0 if the value is in constants
+        int[] columnTypes;
+        Object[] constants;
+        CollectionDescriptor[] collections;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,465 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ConstraintWithBag;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCloner;
+import org.intermine.objectstore.query.QueryEvaluable;
+import org.intermine.objectstore.query.QueryExpression;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryNode;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.objectstore.query.SubqueryConstraint;
+import org.intermine.objectstore.query.SubqueryExistsConstraint;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.sql.precompute.PrecomputedTableManager;
+
+/**
+ * Watches the queries run by an ObjectStoreInterMineImpl and suggests precomputed tables that
+ * would speed up the ones that are run often and take a long time.
+ * <p>
+ * Each slow query is reduced to its shape: its join pattern, with the constraints against
+ * constant values and bags taken out and the constrained fields added to the SELECT list instead,
+ * in the same way as TemplatePrecomputeHelper does for templates. Queries that differ only in
+ * the values they look for have the same shape, and a precomputed table of the shape can be used
+ * to answer all of them. Shapes are collected in a ring buffer, either as queries are executed
+ * or by reading the execute log table written by ObjectStoreInterMineImpl.dbLog(). A shape never
+ * holds the contents of a bag, so remembering it does not keep the caller's collections alive.
+ * <p>
+ * Shapes are ranked by the execute time spent on them divided by a rough estimate of the disk
+ * space a precomputed table of the shape would take, and the best of them can be created within
+ * a disk budget.
+ */
+public class PrecomputeAdvisor
+{
+    private static final Logger LOG = Logger.getLogger(PrecomputeAdvisor.class);
+
+    /** The category given to precomputed tables created by the advisor. */
+    public static final String CATEGORY = "PrecomputeAdvisor";
+
+    /** The default minimum execute time in milliseconds of a query worth remembering. */
+    public static final long DEFAULT_MIN_TIME = 1000;
+
+    // Rough sizes used to estimate the disk space taken by a row of a precomputed table
+    private static final long ROW_BYTES = 24;
+    private static final long OBJECT_BYTES = 256;
+    private static final long FIELD_BYTES = 16;
+
+    private final ObjectStoreInterMineImpl os;
+    private final Query[] shapes;
+    private final long[] times;
+    private final long minTime;
+    private int next = 0;
+    private int count = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param os the ObjectStore whose queries are to be watched
+     * @param capacity the number of slow queries to remember - older ones are forgotten
+     * @param minTime the minimum execute time in milliseconds of a query worth remembering
+     */
+    public PrecomputeAdvisor(ObjectStoreInterMineImpl os, int capacity, long minTime) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.os = os;
+        this.shapes = new Query[capacity];
+        this.times = new long[capacity];
+        this.minTime = minTime;
+    }
+
+    /**
+     * Records that a query has been executed. Queries faster than the minimum time, and queries
+     * that cannot be precomputed, are ignored. Each query should be recorded once, rather than
+     * once for each batch of its results.
+     *
+     * @param q the Query that was executed
+     * @param executeTime the time in milliseconds the database spent executing the query
+     * @return true if the query was recorded
+     */
+    public boolean record(Query q, long executeTime) {
+        if (executeTime < minTime) {
+            return false;
+        }
+        Query shape = getShape(q);
+        if (shape == null) {
+            return false;
+        }
+        synchronized (this) {
+            shapes[next] = shape;
+            times[next] = executeTime;
+            next = (next + 1) % shapes.length;
+            count = Math.min(count + 1, shapes.length);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of queries currently remembered.
+     *
+     * @return an int
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Records the slow queries in an execute log table, as written by
+     * ObjectStoreInterMineImpl.dbLog(), oldest first. Queries that were logged with parameters
+     * (for example bags) cannot be read back from the log, and are skipped.
+     *
+     * @param tableName the name of the log table
+     * @return the number of logged queries that were recorded
+     * @throws SQLException if the log table cannot be read
+     */
+    public int readLogTable(String tableName) throws SQLException {
+        String packageName = os.getModel().getPackageName();
+        int recorded = 0;
+        int skipped = 0;
+        Connection c = os.getConnection();
+        try {
+            Statement s = c.createStatement();
+            // Later batches of a query are logged with an OFFSET, and are not counted again
+            ResultSet r = s.executeQuery("SELECT execute, iql FROM " + tableName
+                    + " WHERE execute >= " + minTime + " AND sql NOT LIKE '% OFFSET %'"
+                    + " ORDER BY timestamp");
+            while (r.next()) {
+                Query q;
+                try {
+                    q = new IqlQuery(r.getString(2), packageName).toQuery();
+                } catch (RuntimeException e) {
+                    skipped++;
+                    continue;
+                }
+                if (record(q, r.getLong(1))) {
+                    recorded++;
+                }
+            }
+            s.close();
+        } finally {
+            os.releaseConnection(c);
+        }
+        LOG.info("Read " + recorded + " slow queries from log table " + tableName + ", skipped "
+                + skipped + " that could not be parsed");
+        return recorded;
+    }
+
+    /**
+     * Returns the shapes that have been seen at least minCount times and do not already have a
+     * precomputed table, best first.
+     *
+     * @param minCount the minimum number of times a shape must have been seen
+     * @return a List of Recommendations
+     * @throws ObjectStoreException if the size of a precomputed table cannot be estimated
+     */
+    public List<Recommendation> getRecommendations(int minCount) throws ObjectStoreException {
+        Map<String, Recommendation> byShape = new HashMap<String, Recommendation>();
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                String key = shapes[i].toString();
+                Recommendation rec = byShape.get(key);
+                if (rec == null) {
+                    rec = new Recommendation(shapes[i]);
+                    byShape.put(key, rec);
+                }
+                rec.count++;
+                rec.totalTime += times[i];
+            }
+        }
+        PrecomputedTableManager ptm;
+        try {
+            ptm = PrecomputedTableManager.getInstance(os.getDatabase());
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not read the precomputed tables", e);
+        }
+        Map<Object, String> empty = Collections.emptyMap();
+        List<Recommendation> retval = new ArrayList<Recommendation>();
+        for (Recommendation rec : byShape.values()) {
+            if (rec.count < minCount) {
+                continue;
+            }
+            String sql = SqlGenerator.generate(rec.shape, os.getSchema(), os.getDatabase(), null,
+                    SqlGenerator.QUERY_FOR_GOFASTER, empty);
+            if (ptm.lookupSql(sql) != null) {
+                continue;
+            }
+            long rowBytes = ROW_BYTES;
+            for (QuerySelectable qs : rec.shape.getSelect()) {
+                rowBytes += (qs instanceof QueryClass) ? OBJECT_BYTES : FIELD_BYTES;
+            }
+            rec.rows = os.estimate(rec.shape).getRows();
+            rec.bytes = Math.max(1, rec.rows) * rowBytes;
+            retval.add(rec);
+        }
+        Collections.sort(retval);
+        return retval;
+    }
+
+    /**
+     * Creates precomputed tables for the best recommendations, for as long as their estimated
+     * total size fits in the disk budget.
+     *
+     * @param minCount the minimum number of times a shape must have been seen
+     * @param budget the number of bytes of disk the new precomputed tables may take
+     * @return the names of the precomputed tables created
+     * @throws ObjectStoreException if anything goes wrong
+     */
+    public List<String> createRecommended(int minCount, long budget) throws ObjectStoreException {
+        List<String> retval = new ArrayList<String>();
+        long used = 0;
+        for (Recommendation rec : getRecommendations(minCount)) {
+            if (used + rec.bytes > budget) {
+                LOG.info("Not precomputing (over budget): " + rec);
+                continue;
+            }
+            LOG.info("Precomputing: " + rec);
+            List<QueryNode> indexes = new ArrayList<QueryNode>();
+            for (QuerySelectable qs : rec.shape.getSelect()) {
+                indexes.add((QueryNode) qs);
+            }
+            retval.addAll(os.precompute(rec.shape, indexes, CATEGORY));
+            used += rec.bytes;
+        }
+        LOG.info("Created " + retval.size() + " precomputed tables, with an estimated size of "
+                + used + " bytes");
+        return retval;
+    }
+
+    /**
+     * Returns the shape of a query, or null if a precomputed table of the query's shape would
+     * not be useful. Only joins of at least two classes without grouping are precomputed, and
+     * bags may only be used in constraints that are taken out of the shape.
+     *
+     * @param q a Query
+     * @return a new Query, or null
+     */
+    protected static Query getShape(Query q) {
+        if (!q.getGroupBy().isEmpty()) {
+            return null;
+        }
+        int classes = 0;
+        for (FromElement fe : q.getFrom()) {
+            if (!(fe instanceof QueryClass)) {
+                return null;
+            }
+            classes++;
+        }
+        if (classes < 2) {
+            return null;
+        }
+        for (QuerySelectable qs : q.getSelect()) {
+            if (!((qs instanceof QueryClass) || (qs instanceof QueryField))
+                    && (qs instanceof QueryNode)) {
+                // Aggregates and expressions
+                return null;
+            }
+        }
+        Query shape = QueryCloner.cloneQuery(q);
+        Map<Object, String> aliases = new HashMap<Object, String>(shape.getAliases());
+        Set<QueryNode> select = new LinkedHashSet<QueryNode>();
+        for (QuerySelectable qs : shape.getSelect()) {
+            // Path expressions are fetched by separate queries, and are not part of the shape
+            if (qs instanceof QueryNode) {
+                select.add((QueryNode) qs);
+            }
+        }
+        Constraint c = shape.getConstraint();
+        if ((c instanceof ConstraintSet) && ConstraintOp.AND.equals(c.getOp())) {
+            for (Constraint part : new ArrayList<Constraint>(((ConstraintSet) c)
+                        .getConstraints())) {
+                QueryNode node = getConstrainedNode(part);
+                if (node != null) {
+                    ((ConstraintSet) c).removeConstraint(part);
+                    select.add(node);
+                }
+            }
+            if (((ConstraintSet) c).getConstraints().isEmpty()) {
+                c = null;
+            }
+        } else {
+            QueryNode node = getConstrainedNode(c);
+            if (node != null) {
+                select.add(node);
+                c = null;
+            }
+        }
+        if (containsBag(c)) {
+            // For example, a bag inside an OR, which cannot be taken out of the join pattern
+            return null;
+        }
+        shape.setConstraint(c);
+        shape.clearSelect();
+        shape.clearOrderBy();
+        shape.setLimit(Integer.MAX_VALUE);
+        for (QueryNode node : select) {
+            shape.addToSelect(node, aliases.get(node));
+        }
+        return shape;
+    }
+
+    /**
+     * Returns true if a constraint, or any constraint nested in it or in its subqueries, holds a
+     * collection of values.
+     */
+    private static boolean containsBag(Constraint c) {
+        if (c instanceof ConstraintWithBag) {
+            return ((ConstraintWithBag) c).getBag() != null;
+        } else if (c instanceof ConstraintSet) {
+            for (Constraint part : ((ConstraintSet) c).getConstraints()) {
+                if (containsBag(part)) {
+                    return true;
+                }
+            }
+        } else if (c instanceof SubqueryConstraint) {
+            return containsBag(((SubqueryConstraint) c).getQuery().getConstraint());
+        } else if (c instanceof SubqueryExistsConstraint) {
+            return containsBag(((SubqueryExistsConstraint) c).getQuery().getConstraint());
+        }
+        return false;
+    }
+
+    /**
+     * Returns the field or class that a constraint compares to a value or bag, or null if the
+     * constraint is part of the join pattern.
+     */
+    private static QueryNode getConstrainedNode(Constraint c) {
+        if (c instanceof SimpleConstraint) {
+            SimpleConstraint sc = (SimpleConstraint) c;
+            if (sc.getArg2() instanceof QueryValue) {
+                QueryEvaluable arg1 = sc.getArg1();
+                if ((arg1 instanceof QueryExpression)
+                        && (((QueryExpression) arg1).getArg1() instanceof QueryField)
+                        && (((QueryExpression) arg1).getArg2() == null)) {
+                    // LOWER() or UPPER() of a field
+                    arg1 = ((QueryExpression) arg1).getArg1();
+                }
+                if (arg1 instanceof QueryField) {
+                    return arg1;
+                }
+            }
+        } else if (c instanceof BagConstraint) {
+            QueryNode node = ((BagConstraint) c).getQueryNode();
+            if ((node instanceof QueryField) || (node instanceof QueryClass)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A query shape that could be precomputed, with the time spent on it.
+     */
+    public static class Recommendation implements Comparable<Recommendation>
+    {
+        private final Query shape;
+        private int count = 0;
+        private long totalTime = 0;
+        private long rows = 0;
+        private long bytes = 0;
+
+        Recommendation(Query shape) {
+            this.shape = shape;
+        }
+
+        /**
+         * Returns the query to precompute.
+         *
+         * @return a Query
+         */
+        public Query getQuery() {
+            return shape;
+        }
+
+        /**
+         * Returns the number of times a query of this shape was seen.
+         *
+         * @return an int
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the total execute time in milliseconds of the queries of this shape.
+         *
+         * @return a long
+         */
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        /**
+         * Returns the estimated number of rows in a precomputed table of this shape.
+         *
+         * @return a long
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Returns the estimated size in bytes of a precomputed table of this shape.
+         *
+         * @return a long
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Orders by the time spent per byte of precomputed table, highest first.
+         *
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(Recommendation o) {
+            int retval = Double.compare(((double) o.totalTime) / o.bytes,
+                    ((double) totalTime) / bytes);
+            if (retval == 0) {
+                retval = shape.toString().compareTo(o.shape.toString());
+            }
+            return retval;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "seen " + count + " times, " + totalTime + " ms, estimated " + rows + " rows ("
+                + bytes + " bytes): " + shape;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.query.AbstractTable;
+import org.intermine.sql.query.SqlParseCache;
+import org.intermine.sql.query.Table;
+import org.intermine.util.ConcurrentCache;
+
+import antlr.TokenStreamException;
+
+/**
+ * Keeps a parameterised plan for each shape of generated SQL, so that running the same template
+ * (or any query) again with different constraint values does not go through the optimiser. The
+ * shape of the SQL for a template only changes when the template does, so in effect there is a
+ * plan for each version of each template.
+ * <p>
+ * A plan is the SQL the optimiser chose, using whichever precomputed tables it chose, with a
+ * placeholder for each constant that came from the generated SQL. The constants of later SQL of
+ * the same shape are bound into the placeholders, either as literals or as the parameters of a
+ * PreparedStatement.
+ * <p>
+ * This is only right if the optimiser would have made the same choice for the new values, so no
+ * plan is made if a precomputed table that could fit the query has constants of its own, or if a
+ * constant of the query is missing from the optimised SQL because a precomputed table covers it.
+ * Between the tables that fit, the optimiser chooses by estimated cost, and the plan keeps the
+ * choice made for the first values, as the database does for a prepared statement. A plan is
+ * dropped when precomputed tables are added or deleted.
+ */
+public class QueryPlanCache
+{
+    private static final Logger LOG = Logger.getLogger(QueryPlanCache.class);
+
+    private final ConcurrentCache<String, Plan> plans;
+    private final Map<String, Boolean> sqlHasConstants = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize the number of shapes of SQL to remember plans for
+     */
+    public QueryPlanCache(int maxSize) {
+        plans = new ConcurrentCache<String, Plan>("Query plan cache", maxSize);
+    }
+
+    /**
+     * Binds the constants of some generated SQL into the plan for SQL of the same shape, if there
+     * is one and the set of precomputed tables has not changed since it was made.
+     *
+     * @param sql the generated SQL about to be optimised
+     * @param generation the generation of the available tables, from the PrecomputedTableManager
+     * @return a BoundPlan, or null if the SQL has to go through the optimiser
+     */
+    public BoundPlan bind(String sql, int generation) {
+        List<String> constants = new ArrayList<String>();
+        String shape = getShape(sql, constants, null);
+        if (shape == null) {
+            return null;
+        }
+        Plan plan = plans.get(shape);
+        if (plan == null) {
+            return null;
+        }
+        if (plan.generation != generation) {
+            // Tables have been added or dropped since the plan was made
+            plans.remove(shape);
+            return null;
+        }
+        return plan.bind(constants);
+    }
+
+    /**
+     * Makes a plan from the optimised version of some generated SQL, if the choice the optimiser
+     * made does not depend on the values in the SQL.
+     *
+     * @param sql the generated SQL
+     * @param optimisedSql the SQL the optimiser chose
+     * @param available the precomputed tables the optimiser could choose from
+     * @param generation the generation of the available tables, read before they were listed
+     */
+    public void addPlan(String sql, String optimisedSql, Collection<PrecomputedTable> available,
+            int generation) {
+        List<String> constants = new ArrayList<String>();
+        String shape = getShape(sql, constants, null);
+        List<String> optimisedConstants = new ArrayList<String>();
+        List<Integer> offsets = new ArrayList<Integer>();
+        if ((shape == null) || (getShape(optimisedSql, optimisedConstants, offsets) == null)) {
+            return;
+        }
+        List<String> fragments = new ArrayList<String>();
+        List<int[]> sources = new ArrayList<int[]>();
+        boolean[] used = new boolean[constants.size()];
+        boolean parameterised = true;
+        int selectEnd = optimisedSql.indexOf(" FROM ");
+        int position = 0;
+        for (int i = 0; i < optimisedConstants.size(); i++) {
+            String text = optimisedConstants.get(i);
+            int offset = offsets.get(i).intValue();
+            if ((offset < position) || (!optimisedSql.startsWith(text, offset))) {
+                return;
+            }
+            int[] source = find(constants, text);
+            if (source.length > 0) {
+                fragments.add(optimisedSql.substring(position, offset));
+                sources.add(source);
+                for (int index : source) {
+                    used[index] = true;
+                }
+                position = offset + text.length();
+                // The database can only work out the type of a string parameter from what it is
+                // compared to, and it cannot take floats with a cast or escaped strings at all
+                if ((text.charAt(0) == '\'') ? ((selectEnd == -1) || (offset < selectEnd))
+                        : (!Character.isDigit(text.charAt(0)) || (text.indexOf('.') != -1))) {
+                    parameterised = false;
+                }
+            }
+        }
+        fragments.add(optimisedSql.substring(position));
+        for (int i = 0; i < used.length; i++) {
+            if (!used[i]) {
+                // A precomputed table covers this value, so would not fit another one
+                return;
+            }
+        }
+        String lowerSql = sql.toLowerCase();
+        Set<PrecomputedTable> tables = new HashSet<PrecomputedTable>();
+        for (PrecomputedTable pt : available) {
+            if (containsName(optimisedSql, pt.getName())) {
+                tables.add(pt);
+            }
+            if (mayFit(pt, lowerSql) && hasConstants(pt)) {
+                // Whether this table fits can depend on the values
+                return;
+            }
+        }
+        plans.put(shape, new Plan(fragments, sources, parameterised,
+                    Collections.unmodifiableSet(tables), generation));
+    }
+
+    private static String getShape(String sql, List<String> constants, List<Integer> offsets) {
+        try {
+            return SqlParseCache.getShape(sql, constants, offsets);
+        } catch (TokenStreamException e) {
+            LOG.debug("Could not lex SQL for a query plan: " + sql, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the indexes of the constants with the given text.
+     */
+    private static int[] find(List<String> constants, String text) {
+        int count = 0;
+        for (String constant : constants) {
+            if (constant.equals(text)) {
+                count++;
+            }
+        }
+        int[] retval = new int[count];
+        count = 0;
+        for (int i = 0; i < constants.size(); i++) {
+            if (constants.get(i).equals(text)) {
+                retval[count++] = i;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns whether a precomputed table could fit some SQL, because every table it is made
+     * from is named in the SQL.
+     */
+    private static boolean mayFit(PrecomputedTable pt, String lowerSql) {
+        for (AbstractTable table : pt.getQuery().getFrom()) {
+            if ((table instanceof Table)
+                    && (!containsName(lowerSql, ((Table) table).getName().toLowerCase()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasConstants(PrecomputedTable pt) {
+        String ptSql = pt.getOriginalSql();
+        Boolean retval = sqlHasConstants.get(ptSql);
+        if (retval == null) {
+            List<String> constants = new ArrayList<String>();
+            // SQL that cannot be lexed is treated as if it has constants
+            retval = Boolean.valueOf((getShape(ptSql, constants, null) == null)
+                    || (!constants.isEmpty()));
+            sqlHasConstants.put(ptSql, retval);
+        }
+        return retval.booleanValue();
+    }
+
+    /**
+     * Returns whether the SQL mentions a name as a whole word.
+     */
+    private static boolean containsName(String sql, String name) {
+        int index = sql.indexOf(name);
+        while (index != -1) {
+            int end = index + name.length();
+            if (((index == 0) || (!isNameChar(sql.charAt(index - 1))))
+                    && ((end == sql.length()) || (!isNameChar(sql.charAt(end))))) {
+                return true;
+            }
+            index = sql.indexOf(name, index + 1);
+        }
+        return false;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || (c == '_');
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return plans.toString();
+    }
+
+    /**
+     * The optimised SQL for a shape, cut at the placeholders, with the constants of the generated
+     * SQL that go in each placeholder.
+     */
+    private static class Plan
+    {
+        private final List<String> fragments;
+        private final List<int[]> sources;
+        private final String parameterisedSql;
+        private volatile boolean parameterised;
+        private final Set<PrecomputedTable> tables;
+        private final int generation;
+
+        Plan(List<String> fragments, List<int[]> sources, boolean parameterised,
+                Set<PrecomputedTable> tables, int generation) {
+            this.fragments = fragments;
+            this.sources = sources;
+            this.parameterised = parameterised;
+            this.tables = tables;
+            this.generation = generation;
+            StringBuilder retval = new StringBuilder(fragments.get(0));
+            for (int i = 1; i < fragments.size(); i++) {
+                retval.append("?").append(fragments.get(i));
+            }
+            parameterisedSql = retval.toString();
+        }
+
+        BoundPlan bind(List<String> constants) {
+            StringBuilder sql = new StringBuilder(fragments.get(0));
+            List<Object> parameters = (parameterised ? new ArrayList<Object>() : null);
+            for (int i = 0; i < sources.size(); i++) {
+                int[] source = sources.get(i);
+                String value = constants.get(source[0]);
+                for (int j = 1; j < source.length; j++) {
+                    if (!value.equals(constants.get(source[j]))) {
+                        // The plan was made from SQL in which these values were the same
+                        return null;
+                    }
+                }
+                sql.append(value).append(fragments.get(i + 1));
+                if (parameters == null) {
+                    continue;
+                } else if (value.charAt(0) == '\'') {
+                    parameters.add(value.substring(1, value.length() - 1).replace("''", "'"));
+                } else {
+                    try {
+                        parameters.add(Long.valueOf(value));
+                    } catch (NumberFormatException e) {
+                        parameters = null;
+                    }
+                }
+            }
+            return new BoundPlan(this, sql.toString(), parameters);
+        }
+    }
+
+    /**
+     * A plan with the values of some generated SQL bound into it.
+     */
+    public static class BoundPlan
+    {
+        private final Plan plan;
+        private final String sql;
+        private final List<Object> parameters;
+
+        BoundPlan(Plan plan, String sql, List<Object> parameters) {
+            this.plan = plan;
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+
+        /**
+         * Returns the optimised SQL with the values in place of the placeholders.
+         *
+         * @return a String
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Returns the precomputed tables the plan uses.
+         *
+         * @return a Set of PrecomputedTables
+         */
+        public Set<PrecomputedTable> getTables() {
+            return plan.tables;
+        }
+
+        /**
+         * Returns whether the plan can be run as a PreparedStatement, with the values set as
+         * parameters.
+         *
+         * @return a boolean
+         */
+        public boolean isParameterised() {
+            return (parameters != null) && plan.parameterised;
+        }
+
+        /**
+         * Returns the optimised SQL with a question mark for each placeholder, which is the same
+         * for all values bound into the plan.
+         *
+         * @return a String
+         */
+        public String getParameterisedSql() {
+            return plan.parameterisedSql;
+        }
+
+        /**
+         * Sets the values as the parameters of a PreparedStatement for getParameterisedSql().
+         * Strings are passed with no type, so that the database gives them the type it would give
+         * a string literal in the same place.
+         *
+         * @param ps a PreparedStatement
+         * @throws SQLException if a parameter cannot be set
+         */
+        public void setParameters(PreparedStatement ps) throws SQLException {
+            for (int i = 0; i < parameters.size(); i++) {
+                Object parameter = parameters.get(i);
+                if (parameter instanceof Long) {
+                    ps.setLong(i + 1, ((Long) parameter).longValue());
+                } else {
+                    ps.setObject(i + 1, parameter, Types.OTHER);
+                }
+            }
+        }
+
+        /**
+         * Stops the plan being run as a PreparedStatement, for example because the database could
+         * not work out the type of one of the parameters. It is run as literal SQL from then on.
+         */
+        public void notParameterised() {
+            plan.parameterised = false;
+        }
+    }
+}
@@ -414,6 +414,18 @@ public final class SqlGenerator
         }
     }
 
+    /**
+     * Returns true if SQL for the given Query may be generated from an offset registered with
+     * registerOffset, rather than from the Query alone.
+     *
+     * @param q the Query
+     * @param schema the DatabaseSchema
+     * @return a boolean
+     */
+    protected static boolean hasRegisteredOffset(Query q, DatabaseSchema schema) {
+        return getCacheForSchema(schema).containsKey(q);
+    }
+
     /**
      * Returns a cache specific to a particular DatabaseSchema.
      *
@@ -1742,6 +1754,73 @@ public final class SqlGenerator
      */
     public static final int MAX_BAG_INLINE_SIZE = 2;
 
+    /**
+     * A value that can be placed in the bag table names Map in place of a table name, to request
+     * that the bag be written as a single array literal (lhs = ANY(array)) instead of being read
+     * from a temporary table.
+     */
+    public static final String BAG_ARRAY = "[array]";
+
+    /**
+     * Returns whether a bag of the given type can be written as an array literal.
+     *
+     * @param type the type of the bag contents
+     * @return true if BAG_ARRAY may be used for the bag
+     */
+    public static boolean canUseBagArray(Class<?> type) {
+        return Integer.class.equals(type) || Long.class.equals(type) || Short.class.equals(type)
+            || String.class.equals(type) || InterMineObject.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Writes a constraint of the form lhs = ANY('{...}'::type[]) for a bag. The whole bag becomes
+     * one literal, which is much cheaper for the database to parse than a long IN list and does
+     * not need a temporary table.
+     *
+     * @param buffer the StringBuffer to place text into
+     * @param leftHandSide the SQL for the value being constrained
+     * @param filteredBag the bag contents, with InterMineObjects already converted to ids
+     * @param type the type of the bag contents
+     */
+    protected static void bagArrayToString(StringBuffer buffer, String leftHandSide,
+            Collection<Object> filteredBag, Class<?> type) {
+        StringBuffer array = new StringBuffer("{");
+        boolean needComma = false;
+        for (Object value : filteredBag) {
+            if (needComma) {
+                array.append(",");
+            }
+            needComma = true;
+            if (value instanceof String) {
+                array.append("\"");
+                String s = (String) value;
+                for (int i = 0; i < s.length(); i++) {
+                    char ch = s.charAt(i);
+                    if ((ch == '"') || (ch == '\\')) {
+                        array.append('\\');
+                    }
+                    array.append(ch);
+                }
+                array.append("\"");
+            } else {
+                array.append(value.toString());
+            }
+        }
+        array.append("}");
+        String typeString;
+        if (String.class.equals(type)) {
+            typeString = "text";
+        } else if (Long.class.equals(type)) {
+            typeString = "bigint";
+        } else if (Short.class.equals(type)) {
+            typeString = "smallint";
+        } else {
+            typeString = "integer";
+        }
+        buffer.append(leftHandSide + " = ANY(" + DatabaseUtil.objectToString(array.toString())
+                + "::" + typeString + "[])");
+    }
+
     /**
      * Converts a BagConstraint object into a String suitable for putting on an SQL query.
      *
@@ -1865,6 +1944,12 @@ public final class SqlGenerator
                     if (c.getOp() != ConstraintOp.IN) {
                         buffer.append("))");
                     }
+                } else if (BAG_ARRAY.equals(bagTableName)) {
+                    buffer.append(c.getOp() == ConstraintOp.IN ? "" : "(NOT (");
+                    bagArrayToString(buffer, leftHandSide, filteredBag, type);
+                    if (c.getOp() != ConstraintOp.IN) {
+                        buffer.append("))");
+                    }
                 } else {
                     if (c.getOp() == ConstraintOp.IN) {
                         buffer.append(leftHandSide);
@@ -1969,6 +2054,21 @@ public final class SqlGenerator
                     buffer.append(")");
                 }
                 buffer.append(")");
+            } else if (BAG_ARRAY.equals(bagTableName)) {
+                buffer.append("(");
+                boolean needOrComma = false;
+                for (String lhs : leftHandSide) {
+                    if (needOrComma) {
+                        buffer.append(" OR ");
+                    }
+                    needOrComma = true;
+                    buffer.append(c.getOp() == ConstraintOp.IN ? "" : "(NOT (");
+                    bagArrayToString(buffer, lhs, filteredBag, type);
+                    if (c.getOp() != ConstraintOp.IN) {
+                        buffer.append("))");
+                    }
+                }
+                buffer.append(")");
             } else {
                 if (safeness == SAFENESS_SAFE) {
                     // We can move the temporary bag table to the FROM list.
@@ -2362,6 +2462,11 @@ public final class SqlGenerator
                 case QueryFunction.COUNT:
                     buffer.append("COUNT(*)");
                     break;
+                case QueryFunction.COUNT_DISTINCT:
+                    buffer.append("COUNT(DISTINCT ");
+                    queryEvaluableToString(buffer, nodeF.getParam(), q, state);
+                    buffer.append(")");
+                    break;
                 case QueryFunction.SUM:
                     buffer.append("SUM(");
                     queryEvaluableToString(buffer, nodeF.getParam(), q, state);
@@ -0,0 +1,753 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.Util;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ClassConstraint;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.OrderDescending;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryEvaluable;
+import org.intermine.objectstore.query.QueryExpression;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryForeignKey;
+import org.intermine.objectstore.query.QueryFunction;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryPathExpression;
+import org.intermine.objectstore.query.QueryReference;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.query.AbstractConstraint;
+import org.intermine.sql.query.AbstractValue;
+import org.intermine.sql.query.Constant;
+import org.intermine.sql.query.Field;
+import org.intermine.sql.query.Function;
+import org.intermine.sql.query.InListConstraint;
+import org.intermine.sql.query.NotConstraint;
+import org.intermine.sql.query.SelectValue;
+import org.intermine.sql.query.Table;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Builds the org.intermine.sql.query.Query tree for a Query directly, so that the QueryOptimiser
+ * does not have to parse the SQL that SqlGenerator produced for it. The tree is the one that
+ * parsing that SQL would give, including the rewriting of NOT, OR, and the comparison operators
+ * that the SQL grammar does.
+ *
+ * Only the common queries are covered: classes in the FROM list joined by references and
+ * collections, with simple, class, contains, and small bag constraints, and fields, expressions,
+ * and aggregates in the SELECT list. For any other query, generate returns null, and the SQL
+ * should be parsed instead.
+ */
+public final class SqlTreeGenerator
+{
+    private SqlTreeGenerator() {
+    }
+
+    /**
+     * Builds the SQL tree for a Query, matching SqlGenerator.generate(q, start, limit, schema,
+     * db, bagTableNames).
+     *
+     * @param q the Query
+     * @param start the start row number (inclusive, from zero)
+     * @param limit the maximum number of rows for the query to return
+     * @param schema the DatabaseSchema in which to look up metadata
+     * @param bagTableNames a Map from BagConstraints to table names, as passed to SqlGenerator
+     * @return the tree, or null if the query is not one that can be built directly
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public static org.intermine.sql.query.Query generate(Query q, int start, int limit,
+            DatabaseSchema schema, Map<Object, String> bagTableNames) throws ObjectStoreException {
+        // SQL with an OFFSET and no LIMIT, and SQL for a registered offset, differ from the tree
+        if (((limit == Integer.MAX_VALUE) && (start != 0)) || (!q.getGroupBy().isEmpty())
+                || SqlGenerator.hasRegisteredOffset(q, schema)) {
+            return null;
+        }
+        for (QuerySelectable selectable : q.getSelect()) {
+            if (!((selectable instanceof QueryClass) || (selectable instanceof QueryEvaluable)
+                        || (selectable instanceof QueryPathExpression))) {
+                // Bags and clobs have SQL of their own
+                return null;
+            }
+        }
+        Builder builder = new Builder(q, schema, bagTableNames);
+        try {
+            return builder.build(start, limit);
+        } catch (UnsupportedQueryException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Thrown when a part of the query cannot be built directly.
+     */
+    private static class UnsupportedQueryException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Holds the state of one tree as it is built, mirroring SqlGenerator.State.
+     */
+    private static class Builder
+    {
+        private Query q;
+        private DatabaseSchema schema;
+        private Model model;
+        private Map<Object, String> bagTableNames;
+        private org.intermine.sql.query.Query tree = new org.intermine.sql.query.Query();
+        private Map<String, Table> aliasToTable = new HashMap<String, Table>();
+        private Map<FromElement, Map<String, Field>> fromToFieldToAlias
+            = new HashMap<FromElement, Map<String, Field>>();
+        private Map<AbstractValue, String> orderByFields
+            = new LinkedHashMap<AbstractValue, String>();
+        private int number = 0;
+
+        public Builder(Query q, DatabaseSchema schema, Map<Object, String> bagTableNames) {
+            this.q = q;
+            this.schema = schema;
+            this.model = schema.getModel();
+            this.bagTableNames = (bagTableNames == null ? new HashMap<Object, String>()
+                    : bagTableNames);
+        }
+
+        public org.intermine.sql.query.Query build(int start, int limit)
+            throws ObjectStoreException, UnsupportedQueryException {
+            buildFrom();
+            buildWhere();
+            List<AbstractValue> orderBy = Collections.emptyList();
+            boolean haveOrderBy = true;
+            for (QuerySelectable selectable : q.getSelect()) {
+                if (selectable instanceof QueryFunction) {
+                    haveOrderBy = false;
+                }
+            }
+            if (haveOrderBy) {
+                orderBy = buildOrderBy();
+            }
+            buildSelect();
+            for (AbstractValue value : orderBy) {
+                tree.addOrderBy(value);
+            }
+            tree.setDistinct(SqlGenerator.needsDistinct(q));
+            if (limit != Integer.MAX_VALUE) {
+                tree.setLimitOffset(limit, start);
+            }
+            return tree;
+        }
+
+        private void buildFrom() throws ObjectStoreException, UnsupportedQueryException {
+            for (FromElement fromElement : q.getFrom()) {
+                if (!(fromElement instanceof QueryClass)) {
+                    throw new UnsupportedQueryException();
+                }
+                QueryClass qc = (QueryClass) fromElement;
+                if (schema.isFlatMode(qc.getType())) {
+                    throw new UnsupportedQueryException();
+                }
+                String baseAlias = DatabaseUtil.generateSqlCompatibleName(q.getAliases().get(qc));
+                List<ClassDescriptor> clds = new ArrayList<ClassDescriptor>();
+                List<Table> tables = new ArrayList<Table>();
+                Table lastTable = null;
+                for (Class<?> cls : Util.decomposeClass(qc.getType())) {
+                    ClassDescriptor cld = model.getClassDescriptorByName(cls.getName());
+                    if (cld == null) {
+                        throw new ObjectStoreException(cls.toString() + " is not in the model");
+                    }
+                    ClassDescriptor tableMaster = schema.getTableMaster(cld);
+                    Table table = addTable(DatabaseUtil.getTableName(tableMaster),
+                            tables.isEmpty() ? baseAlias : baseAlias + "_" + tables.size());
+                    if (lastTable != null) {
+                        tree.addWhere(eq(new Field("id", lastTable), new Field("id", table)));
+                    }
+                    if (schema.isTruncated(tableMaster)) {
+                        tree.addWhere(eq(new Field("tableclass", table),
+                                    new Constant("'" + cls.getName() + "'")));
+                    }
+                    clds.add(cld);
+                    tables.add(table);
+                    lastTable = table;
+                }
+                Map<String, Field> fieldToAlias = new HashMap<String, Field>();
+                fromToFieldToAlias.put(qc, fieldToAlias);
+                for (FieldDescriptor field : model.getFieldDescriptorsForClass(qc.getType())
+                        .values()) {
+                    for (int i = 0; i < clds.size(); i++) {
+                        if (clds.get(i).getAllFieldDescriptors().contains(field)) {
+                            String column = DatabaseUtil.getColumnName(field);
+                            if (column != null) {
+                                fieldToAlias.put(field.getName(), new Field(column,
+                                            tables.get(i)));
+                            }
+                            break;
+                        }
+                    }
+                }
+                if (schema.isMissingNotXml()) {
+                    for (int i = 0; i < clds.size(); i++) {
+                        if (InterMineObject.class.equals(schema.getTableMaster(clds.get(i))
+                                    .getType())) {
+                            fieldToAlias.put("OBJECT", new Field("OBJECT", tables.get(i)));
+                            break;
+                        }
+                    }
+                } else {
+                    fieldToAlias.put("OBJECT", new Field("OBJECT", tables.get(0)));
+                }
+                fieldToAlias.put("class", new Field("class", tables.get(0)));
+            }
+        }
+
+        private Table addTable(String name, String alias) {
+            Table table = new Table(name, alias);
+            aliasToTable.put(alias, table);
+            tree.addFrom(table);
+            return table;
+        }
+
+        private void buildWhere() throws ObjectStoreException, UnsupportedQueryException {
+            Constraint c = q.getConstraint();
+            if ((c == null) || SqlGenerator.completelyTrue(c)) {
+                return;
+            }
+            LinkedList<Constraint> constraints = new LinkedList<Constraint>();
+            constraints.add(c);
+            while (!constraints.isEmpty()) {
+                Constraint con = constraints.removeFirst();
+                if ((con instanceof ConstraintSet)
+                        && ((ConstraintSet) con).getOp().equals(ConstraintOp.AND)) {
+                    constraints.addAll(0, ((ConstraintSet) con).getConstraints());
+                } else {
+                    for (AbstractConstraint clause : constraintToClauses(con)) {
+                        tree.addWhere(clause);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Converts a Constraint into the clauses, to be ANDed together, that the SQL parser makes
+         * of it. Each clause is a single constraint, a NotConstraint, or an OR ConstraintSet of
+         * them, in the same way as the parser leaves the WHERE clause.
+         */
+        private List<AbstractConstraint> constraintToClauses(Constraint c)
+            throws ObjectStoreException, UnsupportedQueryException {
+            if (c instanceof ConstraintSet) {
+                return constraintSetToClauses((ConstraintSet) c);
+            } else if (c instanceof SimpleConstraint) {
+                return simpleConstraintToClauses((SimpleConstraint) c);
+            } else if (c instanceof ClassConstraint) {
+                ClassConstraint cc = (ClassConstraint) c;
+                AbstractValue arg1 = classId(cc.getArg1());
+                AbstractValue arg2;
+                if (cc.getArg2QueryClass() != null) {
+                    arg2 = classId(cc.getArg2QueryClass());
+                } else {
+                    arg2 = constant(cc.getArg2Object());
+                }
+                return equality(arg1, arg2, cc.getOp() != ConstraintOp.EQUALS);
+            } else if (c instanceof ContainsConstraint) {
+                return containsConstraintToClauses((ContainsConstraint) c);
+            } else if (c instanceof BagConstraint) {
+                return bagConstraintToClauses((BagConstraint) c);
+            }
+            throw new UnsupportedQueryException();
+        }
+
+        private List<AbstractConstraint> constraintSetToClauses(ConstraintSet c)
+            throws ObjectStoreException, UnsupportedQueryException {
+            ConstraintOp op = c.getOp();
+            boolean negate = (op == ConstraintOp.NAND) || (op == ConstraintOp.NOR);
+            boolean disjunctive = (op == ConstraintOp.OR) || (op == ConstraintOp.NOR);
+            List<List<AbstractConstraint>> subClauses = new ArrayList<List<AbstractConstraint>>();
+            for (Constraint subC : c.getConstraints()) {
+                if ((disjunctive && SqlGenerator.completelyFalse(subC))
+                        || ((!disjunctive) && SqlGenerator.completelyTrue(subC))) {
+                    // This constraint is skipped in the SQL too
+                } else {
+                    subClauses.add(constraintToClauses(subC));
+                }
+            }
+            if (subClauses.isEmpty()) {
+                throw new UnsupportedQueryException();
+            }
+            List<AbstractConstraint> retval;
+            if (disjunctive) {
+                retval = or(subClauses);
+            } else {
+                retval = new ArrayList<AbstractConstraint>();
+                for (List<AbstractConstraint> clauses : subClauses) {
+                    retval.addAll(clauses);
+                }
+            }
+            return negate ? not(retval) : retval;
+        }
+
+        private List<AbstractConstraint> simpleConstraintToClauses(SimpleConstraint c)
+            throws ObjectStoreException, UnsupportedQueryException {
+            AbstractValue arg1 = value(c.getArg1());
+            ConstraintOp op = c.getOp();
+            if (op == ConstraintOp.IS_NULL) {
+                return clause(eq(arg1, new Constant("null")));
+            } else if (op == ConstraintOp.IS_NOT_NULL) {
+                return clause(new NotConstraint(eq(arg1, new Constant("null"))));
+            }
+            AbstractValue arg2 = value(c.getArg2());
+            if (op == ConstraintOp.EQUALS) {
+                return clause(eq(arg1, arg2));
+            } else if (op == ConstraintOp.NOT_EQUALS) {
+                return clause(new NotConstraint(eq(arg1, arg2)));
+            } else if (op == ConstraintOp.LESS_THAN) {
+                return clause(lt(arg1, arg2));
+            } else if (op == ConstraintOp.LESS_THAN_EQUALS) {
+                return clause(new NotConstraint(lt(arg2, arg1)));
+            } else if (op == ConstraintOp.GREATER_THAN) {
+                return clause(lt(arg2, arg1));
+            } else if (op == ConstraintOp.GREATER_THAN_EQUALS) {
+                return clause(new NotConstraint(lt(arg1, arg2)));
+            } else if (op == ConstraintOp.MATCHES) {
+                return clause(like(arg1, arg2));
+            } else if (op == ConstraintOp.DOES_NOT_MATCH) {
+                return clause(new NotConstraint(like(arg1, arg2)));
+            }
+            throw new UnsupportedQueryException();
+        }
+
+        private List<AbstractConstraint> containsConstraintToClauses(ContainsConstraint c)
+            throws ObjectStoreException, UnsupportedQueryException {
+            QueryReference arg1 = c.getReference();
+            QueryClass arg2 = c.getQueryClass();
+            ReferenceDescriptor arg1Desc = (ReferenceDescriptor) model
+                .getFieldDescriptorsForClass(arg1.getQcType()).get(arg1.getFieldName());
+            if (arg1Desc == null) {
+                throw new UnsupportedQueryException();
+            }
+            boolean negate = (c.getOp() == ConstraintOp.DOES_NOT_CONTAIN);
+            if (arg1 instanceof QueryObjectReference) {
+                Field arg1Field = field(arg1.getQueryClass(), arg1Desc.getName());
+                if (c.getOp() == ConstraintOp.IS_NULL) {
+                    return clause(eq(arg1Field, new Constant("null")));
+                } else if (c.getOp() == ConstraintOp.IS_NOT_NULL) {
+                    return clause(new NotConstraint(eq(arg1Field, new Constant("null"))));
+                }
+                return equality(arg1Field, (arg2 == null ? constant(c.getObject())
+                            : classId(arg2)), negate);
+            }
+            QueryCollectionReference collection = (QueryCollectionReference) arg1;
+            if ((collection.getQcb() != null) || (c.getOp() == ConstraintOp.IS_NULL)
+                    || (c.getOp() == ConstraintOp.IS_NOT_NULL)) {
+                throw new UnsupportedQueryException();
+            }
+            AbstractValue arg1Id = (arg1.getQueryClass() != null ? classId(arg1.getQueryClass())
+                    : constant(collection.getQcObject()));
+            if (arg1Desc.relationType() == FieldDescriptor.ONE_N_RELATION) {
+                ReferenceDescriptor reverse = arg1Desc.getReverseReferenceDescriptor();
+                if (arg2 != null) {
+                    return equality(arg1Id, field(arg2, reverse.getName()), negate);
+                }
+                ClassDescriptor tableMaster = schema.getTableMaster(reverse.getClassDescriptor());
+                Table indirect = addTable(DatabaseUtil.getTableName(tableMaster),
+                        "indirect" + (number++));
+                List<AbstractConstraint> retval = new ArrayList<AbstractConstraint>();
+                if (schema.isTruncated(tableMaster)) {
+                    retval.add(eq(new Field("tableclass", indirect), new Constant("'"
+                                    + reverse.getClassDescriptor().getType().getName() + "'")));
+                }
+                retval.addAll(equality(arg1Id, new Field(DatabaseUtil.getColumnName(reverse),
+                                indirect), negate));
+                retval.add(eq(new Field("id", indirect), constant(c.getObject())));
+                return retval;
+            }
+            CollectionDescriptor arg1ColDesc = (CollectionDescriptor) arg1Desc;
+            Table indirect = addTable(DatabaseUtil.getIndirectionTableName(arg1ColDesc),
+                    "indirect" + (number++));
+            List<AbstractConstraint> retval = new ArrayList<AbstractConstraint>();
+            retval.add(eq(arg1Id, new Field(DatabaseUtil.getInwardIndirectionColumnName(
+                                arg1ColDesc, schema.getVersion()), indirect)));
+            retval.add(eq(new Field(DatabaseUtil.getOutwardIndirectionColumnName(arg1ColDesc,
+                                schema.getVersion()), indirect), (arg2 == null
+                            ? constant(c.getObject()) : classId(arg2))));
+            return retval;
+        }
+
+        private List<AbstractConstraint> bagConstraintToClauses(BagConstraint c)
+            throws ObjectStoreException, UnsupportedQueryException {
+            Collection<?> bag = c.getBag();
+            if (bag == null) {
+                throw new UnsupportedQueryException();
+            }
+            AbstractValue leftHandSide;
+            if (c.getQueryNode() instanceof QueryEvaluable) {
+                leftHandSide = value((QueryEvaluable) c.getQueryNode());
+            } else {
+                leftHandSide = classId((QueryClass) c.getQueryNode());
+            }
+            Class<?> type = c.getQueryNode().getType();
+            SortedSet<Object> filteredBag = new TreeSet<Object>();
+            for (Object bagItem : bag) {
+                if ((bagItem == null) || !(ProxyReference.class.equals(bagItem.getClass())
+                            || DynamicUtil.isInstance(bagItem, type))) {
+                    throw new UnsupportedQueryException();
+                } else if (bagItem instanceof InterMineObject) {
+                    filteredBag.add(((InterMineObject) bagItem).getId());
+                } else if (bagItem instanceof Class<?>) {
+                    filteredBag.add(((Class<?>) bagItem).getName());
+                } else {
+                    filteredBag.add(bagItem);
+                }
+            }
+            if (filteredBag.isEmpty() || (filteredBag.size() > 9000)
+                    || ((filteredBag.size() >= SqlGenerator.MAX_BAG_INLINE_SIZE)
+                        && (bagTableNames.get(c) != null))) {
+                throw new UnsupportedQueryException();
+            }
+            InListConstraint inList = new InListConstraint(leftHandSide);
+            for (Object value : filteredBag) {
+                inList.add(constant(value));
+            }
+            return clause(c.getOp() == ConstraintOp.IN ? inList : new NotConstraint(inList));
+        }
+
+        private List<AbstractValue> buildOrderBy()
+            throws ObjectStoreException, UnsupportedQueryException {
+            List<AbstractValue> retval = new ArrayList<AbstractValue>();
+            Set<AbstractValue> seen = new HashSet<AbstractValue>();
+            for (Object node : q.getEffectiveOrderBy()) {
+                boolean desc = false;
+                if (node instanceof OrderDescending) {
+                    desc = true;
+                    node = ((OrderDescending) node).getQueryOrderable();
+                }
+                if ((node instanceof QueryValue) || (node instanceof QueryPathExpression)) {
+                    continue;
+                }
+                AbstractValue value;
+                boolean addToSelect = false;
+                if (node instanceof QueryClass) {
+                    QueryClass qc = (QueryClass) node;
+                    if (TypeUtil.getFieldInfo(qc.getType(), "id") == null) {
+                        throw new UnsupportedQueryException();
+                    }
+                    value = classId(qc);
+                } else if (node instanceof QueryObjectReference) {
+                    QueryObjectReference ref = (QueryObjectReference) node;
+                    value = field(ref.getQueryClass(), ref.getFieldName());
+                    if (q.isDistinct() && (!q.getSelect().contains(ref))) {
+                        if (!q.getSelect().contains(ref.getQueryClass())) {
+                            throw new UnsupportedQueryException();
+                        }
+                        addToSelect = true;
+                    }
+                } else if (q.getSelect().contains(node) && (node instanceof QueryFunction)) {
+                    if (((QueryFunction) node).getOperation() == QueryFunction.AVERAGE) {
+                        continue;
+                    }
+                    // The SQL orders by the alias, which the parser resolves to the function
+                    String alias = q.getAliases().get(node);
+                    if (!alias.equals(alias.toLowerCase())) {
+                        throw new UnsupportedQueryException();
+                    }
+                    value = value((QueryEvaluable) node);
+                } else if (node instanceof QueryEvaluable) {
+                    value = value((QueryEvaluable) node);
+                    if ((!q.getSelect().contains(node)) && q.isDistinct()) {
+                        if (!((node instanceof QueryField)
+                                    && q.getSelect().contains(((QueryField) node)
+                                        .getFromElement()))) {
+                            throw new UnsupportedQueryException();
+                        }
+                        addToSelect = !schema.isFlatMode(InterMineObject.class);
+                    }
+                } else {
+                    throw new UnsupportedQueryException();
+                }
+                if (seen.add(value)) {
+                    retval.add(desc ? new org.intermine.sql.query.OrderDescending(value) : value);
+                    if (addToSelect) {
+                        orderByFields.put(value, "orderbyfield" + (number++));
+                    }
+                } else if (desc) {
+                    // The SQL puts DESC after the previous element instead
+                    throw new UnsupportedQueryException();
+                }
+            }
+            return retval;
+        }
+
+        private void buildSelect() throws ObjectStoreException, UnsupportedQueryException {
+            for (QuerySelectable node : q.getSelect()) {
+                String alias = q.getAliases().get(node);
+                if (node instanceof QueryClass) {
+                    QueryClass qc = (QueryClass) node;
+                    String sqlAlias = DatabaseUtil.generateSqlCompatibleName(alias);
+                    boolean lowerCase = alias.equals(alias.toLowerCase());
+                    Field object = fieldToAlias(qc).get("OBJECT");
+                    if (object != null) {
+                        tree.addSelect(new SelectValue(object, lowerCase ? sqlAlias
+                                    : "\"" + sqlAlias + "\""));
+                    }
+                    tree.addSelect(new SelectValue(classId(qc), lowerCase ? sqlAlias + "id"
+                                : "\"" + sqlAlias + "id\""));
+                } else if (node instanceof QueryEvaluable) {
+                    tree.addSelect(new SelectValue(value((QueryEvaluable) node),
+                                alias.equals(alias.toLowerCase())
+                                ? DatabaseUtil.generateSqlCompatibleName(alias)
+                                : "\"" + DatabaseUtil.generateSqlCompatibleName(alias) + "\""));
+                }
+            }
+            for (Map.Entry<AbstractValue, String> entry : orderByFields.entrySet()) {
+                tree.addSelect(new SelectValue(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        private AbstractValue value(QueryEvaluable node)
+            throws ObjectStoreException, UnsupportedQueryException {
+            if (node instanceof QueryField) {
+                QueryField nodeF = (QueryField) node;
+                if (nodeF.getSecondFieldName() != null) {
+                    throw new UnsupportedQueryException();
+                }
+                return field(nodeF.getFromElement(), nodeF.getFieldName());
+            } else if (node instanceof QueryValue) {
+                return constant(((QueryValue) node).getValue());
+            } else if (node instanceof QueryForeignKey) {
+                QueryForeignKey qfk = (QueryForeignKey) node;
+                return field(qfk.getQueryClass(), qfk.getFieldName());
+            } else if (node instanceof QueryExpression) {
+                QueryExpression nodeE = (QueryExpression) node;
+                Function retval;
+                switch (nodeE.getOperation()) {
+                    case QueryExpression.SUBSTRING:
+                        retval = new Function(Function.SUBSTR);
+                        break;
+                    case QueryExpression.INDEX_OF:
+                        retval = new Function(Function.STRPOS);
+                        break;
+                    case QueryExpression.LOWER:
+                        retval = new Function(Function.LOWER);
+                        break;
+                    case QueryExpression.UPPER:
+                        retval = new Function(Function.UPPER);
+                        break;
+                    case QueryExpression.ADD:
+                        retval = new Function(Function.PLUS);
+                        break;
+                    case QueryExpression.SUBTRACT:
+                        retval = new Function(Function.MINUS);
+                        break;
+                    case QueryExpression.MULTIPLY:
+                        retval = new Function(Function.MULTIPLY);
+                        break;
+                    case QueryExpression.DIVIDE:
+                        retval = new Function(Function.DIVIDE);
+                        break;
+                    case QueryExpression.MODULO:
+                        retval = new Function(Function.MODULO);
+                        break;
+                    default:
+                        throw new UnsupportedQueryException();
+                }
+                retval.add(value(nodeE.getArg1()));
+                if (nodeE.getArg2() != null) {
+                    retval.add(value(nodeE.getArg2()));
+                }
+                if (nodeE.getArg3() != null) {
+                    retval.add(value(nodeE.getArg3()));
+                }
+                return retval;
+            } else if (node instanceof QueryFunction) {
+                QueryFunction nodeF = (QueryFunction) node;
+                Function retval;
+                switch (nodeF.getOperation()) {
+                    case QueryFunction.COUNT:
+                        return new Function(Function.COUNT);
+                    case QueryFunction.COUNT_DISTINCT:
+                        retval = new Function(Function.COUNT_DISTINCT);
+                        break;
+                    case QueryFunction.SUM:
+                        retval = new Function(Function.SUM);
+                        break;
+                    case QueryFunction.AVERAGE:
+                        retval = new Function(Function.AVG);
+                        break;
+                    case QueryFunction.MIN:
+                        retval = new Function(Function.MIN);
+                        break;
+                    case QueryFunction.MAX:
+                        retval = new Function(Function.MAX);
+                        break;
+                    case QueryFunction.STDDEV:
+                        retval = new Function(Function.STDDEV);
+                        break;
+                    default:
+                        throw new UnsupportedQueryException();
+                }
+                retval.add(value(nodeF.getParam()));
+                return retval;
+            }
+            throw new UnsupportedQueryException();
+        }
+
+        private Constant constant(Object value) throws ObjectStoreException {
+            StringBuffer buffer = new StringBuffer();
+            SqlGenerator.objectToString(buffer, value);
+            return new Constant(buffer.toString());
+        }
+
+        private Map<String, Field> fieldToAlias(FromElement fromElement)
+            throws UnsupportedQueryException {
+            Map<String, Field> retval = fromToFieldToAlias.get(fromElement);
+            if (retval == null) {
+                throw new UnsupportedQueryException();
+            }
+            return retval;
+        }
+
+        private Field field(FromElement fromElement, String fieldName)
+            throws UnsupportedQueryException {
+            Field retval = fieldToAlias(fromElement).get(fieldName);
+            if (retval == null) {
+                throw new UnsupportedQueryException();
+            }
+            return retval;
+        }
+
+        private Field classId(QueryClass qc) throws UnsupportedQueryException {
+            String alias = q.getAliases().get(qc);
+            Table table = (alias == null ? null
+                    : aliasToTable.get(DatabaseUtil.generateSqlCompatibleName(alias)));
+            if ((table == null) || (!InterMineObject.class.isAssignableFrom(qc.getType()))) {
+                throw new UnsupportedQueryException();
+            }
+            return new Field("id", table);
+        }
+    }
+
+    private static org.intermine.sql.query.Constraint eq(AbstractValue left,
+            AbstractValue right) {
+        return new org.intermine.sql.query.Constraint(left, org.intermine.sql.query.Constraint.EQ,
+                right);
+    }
+
+    private static org.intermine.sql.query.Constraint lt(AbstractValue left,
+            AbstractValue right) {
+        return new org.intermine.sql.query.Constraint(left, org.intermine.sql.query.Constraint.LT,
+                right);
+    }
+
+    private static org.intermine.sql.query.Constraint like(AbstractValue left,
+            AbstractValue right) {
+        return new org.intermine.sql.query.Constraint(left,
+                org.intermine.sql.query.Constraint.LIKE, right);
+    }
+
+    private static List<AbstractConstraint> clause(AbstractConstraint c) {
+        List<AbstractConstraint> retval = new ArrayList<AbstractConstraint>();
+        retval.add(c);
+        return retval;
+    }
+
+    private static List<AbstractConstraint> equality(AbstractValue left, AbstractValue right,
+            boolean negate) {
+        return clause(negate ? new NotConstraint(eq(left, right)) : eq(left, right));
+    }
+
+    private static Collection<AbstractConstraint> disjuncts(AbstractConstraint clause) {
+        if (clause instanceof org.intermine.sql.query.ConstraintSet) {
+            return ((org.intermine.sql.query.ConstraintSet) clause).getConstraints();
+        }
+        return Collections.singleton(clause);
+    }
+
+    /**
+     * ORs together lists of clauses, distributing OR over AND as the SQL parser does, so that
+     * (a AND b) OR c becomes (a OR c) AND (b OR c).
+     */
+    private static List<AbstractConstraint> or(List<List<AbstractConstraint>> alternatives) {
+        List<List<AbstractConstraint>> products = new ArrayList<List<AbstractConstraint>>();
+        products.add(new ArrayList<AbstractConstraint>());
+        for (List<AbstractConstraint> clauses : alternatives) {
+            List<List<AbstractConstraint>> newProducts = new ArrayList<List<AbstractConstraint>>();
+            for (List<AbstractConstraint> product : products) {
+                for (AbstractConstraint clause : clauses) {
+                    List<AbstractConstraint> newProduct = new ArrayList<AbstractConstraint>(
+                            product);
+                    newProduct.addAll(disjuncts(clause));
+                    newProducts.add(newProduct);
+                }
+            }
+            products = newProducts;
+        }
+        List<AbstractConstraint> retval = new ArrayList<AbstractConstraint>();
+        for (List<AbstractConstraint> product : products) {
+            if (product.size() == 1) {
+                retval.add(product.get(0));
+            } else {
+                org.intermine.sql.query.ConstraintSet set
+                    = new org.intermine.sql.query.ConstraintSet();
+                for (AbstractConstraint disjunct : product) {
+                    set.add(disjunct);
+                }
+                retval.add(set);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Negates a list of clauses, pushing the NOT down to the single constraints as the SQL parser
+     * does, so that NOT (a AND (b OR c)) becomes (NOT a OR NOT b) AND (NOT a OR NOT c).
+     */
+    private static List<AbstractConstraint> not(List<AbstractConstraint> clauses) {
+        List<List<AbstractConstraint>> alternatives = new ArrayList<List<AbstractConstraint>>();
+        for (AbstractConstraint clause : clauses) {
+            List<AbstractConstraint> negated = new ArrayList<AbstractConstraint>();
+            for (AbstractConstraint disjunct : disjuncts(clause)) {
+                negated.add(disjunct instanceof NotConstraint
+                        ? ((NotConstraint) disjunct).getConstraint()
+                        : new NotConstraint(disjunct));
+            }
+            alternatives.add(negated);
+        }
+        return or(alternatives);
+    }
+}
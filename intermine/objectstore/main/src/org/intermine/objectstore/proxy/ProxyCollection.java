@@ -48,6 +48,9 @@ public class ProxyCollection<E> extends AbstractSet<E> implements LazyCollection
     private boolean noExplain;
     private SoftReference<Collection<E>> collectionRef = null;
     private int batchSize = ResultsBatches.DEFAULT_BATCH_SIZE;
+    private volatile ProxyCollectionBatch batch;
+    private boolean used = false;
+    private boolean prefetched = false;
 
     private static int createdCount = 0;
     private static int usedCount = 0;
@@ -69,6 +72,7 @@ public class ProxyCollection<E> extends AbstractSet<E> implements LazyCollection
         this.clazz = clazz;
         noOptimise = true;
         noExplain = true;
+        batch = ProxyCollectionBatch.join(this);
         createdCount++;
         maybeLog();
     }
@@ -82,6 +86,33 @@ public class ProxyCollection<E> extends AbstractSet<E> implements LazyCollection
         return os;
     }
 
+    /**
+     * Returns the object that this collection belongs to.
+     *
+     * @return an InterMineObject
+     */
+    public InterMineObject getOwner() {
+        return o;
+    }
+
+    /**
+     * Returns the name of the collection.
+     *
+     * @return a String
+     */
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * Returns the Class of the objects in the collection.
+     *
+     * @return a Class
+     */
+    public Class<?> getElementType() {
+        return clazz;
+    }
+
     /**
      * Gets the number of elements in this collection
      *
@@ -158,15 +189,31 @@ public class ProxyCollection<E> extends AbstractSet<E> implements LazyCollection
     }
 
     /**
-     * Gets (or creates) a SingletonResults object to which requests are delegated.
+     * Gets (or creates) a SingletonResults object to which requests are delegated. If this
+     * collection has never been evaluated and was made with a batch of results, the collections
+     * of the rest of the batch are fetched at the same time.
      *
      * @return a SingletonResults object
      */
-    private synchronized Collection<E> getCollection() {
+    private Collection<E> getCollection() {
+        ProxyCollectionBatch b = batch;
+        if ((b != null) && isUnevaluated()) {
+            batch = null;
+            b.load(this);
+        }
+        return getOrEvaluateCollection();
+    }
+
+    private synchronized Collection<E> getOrEvaluateCollection() {
         Collection<E> collection = null;
-        if (collectionRef == null) {
+        if (!used) {
+            used = true;
+            batch = null;
             usedCount++;
             maybeLog();
+            if (prefetched) {
+                ProxyCollectionBatch.prefetchedCollectionUsed();
+            }
         }
         if (collectionRef != null) {
             collection = collectionRef.get();
@@ -226,6 +273,29 @@ public class ProxyCollection<E> extends AbstractSet<E> implements LazyCollection
         collectionRef = new SoftReference<Collection<E>>(coll);
     }
 
+    /**
+     * Returns whether this collection has not been used or fetched yet.
+     *
+     * @return a boolean
+     */
+    synchronized boolean isUnevaluated() {
+        return (!used) && (collectionRef == null);
+    }
+
+    /**
+     * Sets the collection fetched for this object by a ProxyCollectionBatch, unless it has been
+     * evaluated in the meantime.
+     *
+     * @param coll the Collection
+     */
+    synchronized void setPrefetchedCollection(Collection<E> coll) {
+        if (collectionRef == null) {
+            collectionRef = new SoftReference<Collection<E>>(coll);
+            prefetched = true;
+        }
+        batch = null;
+    }
+
     private Query internalGetQuery() {
         Query q = new Query();
         QueryClass qc1 = new QueryClass(clazz);
@@ -0,0 +1,289 @@
+package org.intermine.objectstore.proxy;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * The ProxyCollections made while converting one batch of results. When one of them is first
+ * evaluated, the same collection is fetched for the other objects of the same class in the batch
+ * with a single query, like ObjectStoreFastCollectionsImpl does for the dataloader, instead of
+ * one query for each object.
+ * <br>
+ * The collections fetched this way are held in memory in full, so a query fetches at most MAX_ROWS
+ * elements. If there are more, the objects whose collections were returned in full keep them, the
+ * object the results were cut short at pages through its own elements as before, and the rest
+ * are fetched again in a smaller batch.
+ */
+public class ProxyCollectionBatch
+{
+    private static final Logger LOG = Logger.getLogger(ProxyCollectionBatch.class);
+
+    /** The largest number of objects whose collections are fetched with one query */
+    public static final int MAX_OBJECTS = 1000;
+    /** The largest number of collection elements one query may fetch */
+    public static final int MAX_ROWS = 10000;
+
+    private static final ThreadLocal<ProxyCollectionBatch> CURRENT
+        = new ThreadLocal<ProxyCollectionBatch>();
+
+    private static int queryCount = 0;
+    private static int overflowCount = 0;
+    private static int prefetchedCount = 0;
+    private static int usedCount = 0;
+
+    private final ObjectStore os;
+    private final Map<MultiKey, List<WeakReference<ProxyCollection<?>>>> pending
+        = new HashMap<MultiKey, List<WeakReference<ProxyCollection<?>>>>();
+
+    /**
+     * Constructor.
+     *
+     * @param os the ObjectStore the batch of results comes from
+     */
+    private ProxyCollectionBatch(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Starts a batch on this thread, which the ProxyCollections made until it is closed join.
+     *
+     * @param os the ObjectStore the results come from
+     * @return the batch that was open before, which must be passed to close
+     */
+    public static ProxyCollectionBatch open(ObjectStore os) {
+        ProxyCollectionBatch previous = CURRENT.get();
+        CURRENT.set(new ProxyCollectionBatch(os));
+        return previous;
+    }
+
+    /**
+     * Ends the batch on this thread.
+     *
+     * @param previous the value returned by the matching call to open
+     */
+    public static void close(ProxyCollectionBatch previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Adds a new ProxyCollection to the batch open on this thread, if there is one for its
+     * ObjectStore.
+     *
+     * @param pc the ProxyCollection
+     * @return the batch joined, or null
+     */
+    static ProxyCollectionBatch join(ProxyCollection<?> pc) {
+        ProxyCollectionBatch batch = CURRENT.get();
+        if ((batch == null) || (batch.os != pc.getObjectStore())) {
+            return null;
+        }
+        batch.add(pc);
+        return batch;
+    }
+
+    private synchronized void add(ProxyCollection<?> pc) {
+        MultiKey key = new MultiKey(pc.getOwner().getClass(), pc.getFieldName());
+        List<WeakReference<ProxyCollection<?>>> proxies = pending.get(key);
+        if (proxies == null) {
+            proxies = new ArrayList<WeakReference<ProxyCollection<?>>>();
+            pending.put(key, proxies);
+        }
+        proxies.add(new WeakReference<ProxyCollection<?>>(pc));
+    }
+
+    /**
+     * Fetches the collection of the given ProxyCollection along with the same collection of the
+     * other objects in the batch that have not been evaluated yet. This must not be called while
+     * holding the lock on a ProxyCollection.
+     *
+     * @param pc the ProxyCollection being evaluated
+     * @return true if the collection of pc was fetched, or false if it should fetch it itself
+     */
+    boolean load(ProxyCollection<?> pc) {
+        List<ProxyCollection<?>> proxies = new ArrayList<ProxyCollection<?>>();
+        synchronized (this) {
+            MultiKey key = new MultiKey(pc.getOwner().getClass(), pc.getFieldName());
+            List<WeakReference<ProxyCollection<?>>> refs = pending.get(key);
+            if (refs == null) {
+                return false;
+            }
+            proxies.add(pc);
+            Iterator<WeakReference<ProxyCollection<?>>> iter = refs.iterator();
+            while (iter.hasNext() && (proxies.size() < MAX_OBJECTS)) {
+                ProxyCollection<?> other = iter.next().get();
+                iter.remove();
+                if ((other != null) && (other != pc) && other.isUnevaluated()) {
+                    proxies.add(other);
+                }
+            }
+            if (refs.isEmpty()) {
+                pending.remove(key);
+            }
+            try {
+                while (proxies.size() > 1) {
+                    List<ProxyCollection<?>> rest = fetch(proxies);
+                    if (rest == null) {
+                        break;
+                    }
+                    if (rest.isEmpty() || (rest.get(0) != pc)) {
+                        // pc is done with, so the rest wait until they are used
+                        for (ProxyCollection<?> other : rest) {
+                            add(other);
+                        }
+                        return !pc.isUnevaluated();
+                    }
+                    proxies = rest;
+                }
+                if (proxies.size() == 1) {
+                    return false;
+                }
+            } catch (ObjectStoreException e) {
+                LOG.warn("Failed to fetch " + pc.getFieldName() + " collections for "
+                        + proxies.size() + " objects", e);
+            }
+            // Leave the rest of the batch to fetch this collection one object at a time
+            pending.remove(key);
+            return false;
+        }
+    }
+
+    /**
+     * Fetches the collections of some ProxyCollections with one query, in the order of the ids of
+     * their owners so that if there are too many elements the collections that were returned in
+     * full can be kept.
+     *
+     * @param proxies the ProxyCollections, all of the same collection of objects of one class
+     * @return the ProxyCollections that were not reached before the results were cut short, apart
+     * from the one they were cut short at, or null if the collections cannot be fetched together
+     * @throws ObjectStoreException if the query fails
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private List<ProxyCollection<?>> fetch(List<ProxyCollection<?>> proxies)
+        throws ObjectStoreException {
+        ProxyCollection<?> first = proxies.get(0);
+        Class<?> ownerType;
+        try {
+            ownerType = DynamicUtil.getSimpleClass(first.getOwner());
+        } catch (IllegalArgumentException e) {
+            // Objects of more than one class cannot be named in a query
+            return null;
+        }
+        Map<Integer, Collection<Object>> collections = new HashMap<Integer, Collection<Object>>();
+        for (ProxyCollection<?> pc : proxies) {
+            collections.put(pc.getOwner().getId(), new HashSet<Object>());
+        }
+        Query q = new Query();
+        q.setDistinct(false);
+        QueryClass qc1 = new QueryClass(ownerType);
+        QueryClass qc2 = new QueryClass(first.getElementType());
+        q.addFrom(qc1);
+        q.addFrom(qc2);
+        q.addToSelect(new QueryField(qc1, "id"));
+        q.addToSelect(qc2);
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(new ContainsConstraint(new QueryCollectionReference(qc1,
+                        first.getFieldName()), ConstraintOp.CONTAINS, qc2));
+        cs.addConstraint(new BagConstraint(new QueryField(qc1, "id"), ConstraintOp.IN,
+                    new ArrayList<Integer>(collections.keySet())));
+        q.setConstraint(cs);
+        q.addToOrderBy(new QueryField(qc1, "id"));
+        List<ResultsRow<Object>> rows = os.execute(q, 0, MAX_ROWS + 1, true, false,
+                ObjectStore.SEQUENCE_IGNORE);
+        // The collection of the owner the rows were cut short at, and those after it, are not
+        // complete
+        Integer cutAt = null;
+        if (rows.size() > MAX_ROWS) {
+            cutAt = (Integer) rows.get(MAX_ROWS).get(0);
+        }
+        for (ResultsRow<Object> row : rows) {
+            Integer ownerId = (Integer) row.get(0);
+            if ((cutAt == null) || (ownerId.intValue() < cutAt.intValue())) {
+                collections.get(ownerId).add(row.get(1));
+            }
+        }
+        List<ProxyCollection<?>> rest = new ArrayList<ProxyCollection<?>>();
+        int fetched = 0;
+        for (ProxyCollection pc : proxies) {
+            int ownerId = pc.getOwner().getId().intValue();
+            if ((cutAt == null) || (ownerId < cutAt.intValue())) {
+                pc.setPrefetchedCollection(collections.get(pc.getOwner().getId()));
+                fetched++;
+            } else if (ownerId > cutAt.intValue()) {
+                rest.add(pc);
+            }
+        }
+        synchronized (ProxyCollectionBatch.class) {
+            queryCount++;
+            prefetchedCount += fetched;
+            if (cutAt != null) {
+                overflowCount++;
+            }
+        }
+        maybeLog();
+        return rest;
+    }
+
+    /**
+     * Records that a collection fetched by a batch has been used, so a query has been saved.
+     */
+    static synchronized void prefetchedCollectionUsed() {
+        usedCount++;
+    }
+
+    /**
+     * Returns a description of how many queries batching ProxyCollections has saved.
+     *
+     * @return a String
+     */
+    public static synchronized String getStatistics() {
+        return "ProxyCollection batches: " + queryCount + " queries (" + overflowCount
+            + " cut short) fetched " + prefetchedCount + " collections, of which " + usedCount
+            + " were used, saving " + (usedCount - queryCount) + " queries";
+    }
+
+    private static void maybeLog() {
+        int count;
+        synchronized (ProxyCollectionBatch.class) {
+            count = queryCount;
+        }
+        if (count % 10000 == 0) {
+            LOG.info(getStatistics());
+        }
+    }
+}
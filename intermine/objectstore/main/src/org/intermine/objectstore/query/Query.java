@@ -424,6 +424,16 @@ public class Query implements FromElement, Queryable, HasFromList
         return iqlQuery;
     }
 
+    /**
+     * Returns a key for this query that is equal to that of any other query with the same
+     * structure. Like the IqlQuery it is made from, it is cached until the query is changed.
+     *
+     * @return a QueryFingerprint
+     */
+    public QueryFingerprint getFingerprint() {
+        return getIqlQuery().getFingerprint();
+    }
+
     /**
      * Set an alias for an element in the Query.
      *
@@ -0,0 +1,102 @@
+package org.intermine.objectstore.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.intermine.objectstore.query.iql.IqlQuery;
+
+/**
+ * An immutable key for a Query, that is equal to the key of any other Query with the same
+ * structure. It is made from the canonical IQL form of the query, but compares the parameters
+ * (such as the contents of bags) as objects rather than rendering them to a String, and computes
+ * its hash code once. The parameters are copied, so changing a bag after the fingerprint has been
+ * taken does not change the fingerprint.
+ */
+public final class QueryFingerprint
+{
+    private final String queryString;
+    private final List<Object> parameters;
+    private final int hashCode;
+
+    /**
+     * Constructor.
+     *
+     * @param iql the IQL form of the query
+     */
+    public QueryFingerprint(IqlQuery iql) {
+        queryString = iql.getQueryString();
+        List<Object> copy = new ArrayList<Object>();
+        if (iql.getParameters() != null) {
+            for (Object parameter : iql.getParameters()) {
+                copy.add(snapshot(parameter));
+            }
+        }
+        parameters = Collections.unmodifiableList(copy);
+        hashCode = 31 * queryString.hashCode() + parameters.hashCode();
+    }
+
+    private static Object snapshot(Object o) {
+        if (o instanceof Set<?>) {
+            Set<Object> copy = new HashSet<Object>();
+            for (Object element : (Set<?>) o) {
+                copy.add(snapshot(element));
+            }
+            return copy;
+        } else if (o instanceof Collection<?>) {
+            List<Object> copy = new ArrayList<Object>();
+            for (Object element : (Collection<?>) o) {
+                copy.add(snapshot(element));
+            }
+            return copy;
+        }
+        return o;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof QueryFingerprint) {
+            QueryFingerprint other = (QueryFingerprint) o;
+            return (hashCode == other.hashCode) && queryString.equals(other.queryString)
+                && parameters.equals(other.parameters);
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Returns the IQL of the query, without the parameters.
+     *
+     * @return a String
+     */
+    @Override
+    public String toString() {
+        return queryString;
+    }
+}
@@ -64,6 +64,11 @@ public class QueryFunction implements QueryEvaluable
      */
     public static final int WIDTH_BUCKET = 10;
 
+    /**
+     * Count the distinct non-null values of a field over a number of rows.
+     */
+    public static final int COUNT_DISTINCT = 11;
+
     protected QueryEvaluable obj;
     protected int op;
 
@@ -78,7 +83,13 @@ public class QueryFunction implements QueryEvaluable
     public QueryFunction(QueryEvaluable qe, int op) {
         if ((qe instanceof QueryField) || (qe instanceof QueryExpression)
                 || (qe instanceof QueryCast) || (qe instanceof QueryForeignKey)) {
-            constructNonCount(qe, op);
+            if (op == COUNT_DISTINCT) {
+                // Any type of value can be counted
+                obj = qe;
+                this.op = op;
+            } else {
+                constructNonCount(qe, op);
+            }
         } else {
             throw new IllegalArgumentException("Value unsuitable for QueryFunction: " + qe);
         }
@@ -119,7 +130,7 @@ public class QueryFunction implements QueryEvaluable
        */
     @Override
     public Class<?> getType() {
-        if (op == COUNT) {
+        if ((op == COUNT) || (op == COUNT_DISTINCT)) {
             return Long.class;
         }
         return obj.getType();
@@ -45,6 +45,7 @@ import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryEvaluable;
 import org.intermine.objectstore.query.QueryExpression;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFingerprint;
 import org.intermine.objectstore.query.QueryForeignKey;
 import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryNode;
@@ -70,6 +71,7 @@ public class IqlQuery
     private String queryString;
     private String packageName;
     private List<?> parameters;
+    private QueryFingerprint fingerprint;
 
     /**
      * No-arg constructor (for deserialization)
@@ -264,6 +266,9 @@ public class IqlQuery
                     case QueryFunction.STDDEV:
                         retval = "STDDEV(";
                         break;
+                    case QueryFunction.COUNT_DISTINCT:
+                        retval = "COUNT(DISTINCT ";
+                        break;
                     case QueryFunction.CEIL:
                         retval = "CEIL(";
                         break;
@@ -752,6 +757,7 @@ public class IqlQuery
      */
     public void setQueryString(String queryString) {
         this.queryString = queryString;
+        fingerprint = null;
     }
 
     /**
@@ -789,6 +795,30 @@ public class IqlQuery
      */
     public void setParameters(List<?> parameters) {
         this.parameters = parameters;
+        fingerprint = null;
+    }
+
+    /**
+     * Returns a key for this query that does not require rendering the parameters to a String.
+     * It is computed the first time it is asked for, unless the query has a bag parameter -
+     * BagConstraint does not copy its bag, so the bag may have changed by the next time.
+     *
+     * @return a QueryFingerprint
+     */
+    public synchronized QueryFingerprint getFingerprint() {
+        if (fingerprint != null) {
+            return fingerprint;
+        }
+        QueryFingerprint retval = new QueryFingerprint(this);
+        if (parameters != null) {
+            for (Object parameter : parameters) {
+                if (parameter instanceof Collection<?>) {
+                    return retval;
+                }
+            }
+        }
+        fingerprint = retval;
+        return retval;
     }
 
     /**
@@ -941,6 +941,10 @@ public final class IqlQueryParser
                 case IqlTokenTypes.LITERAL_count:
                     type = QueryFunction.COUNT;
                     break;
+                case IqlTokenTypes.LITERAL_distinct:
+                    // count(distinct x)
+                    type = QueryFunction.COUNT_DISTINCT;
+                    break;
                 case IqlTokenTypes.LITERAL_sum:
                     type = QueryFunction.SUM;
                     break;
@@ -219,7 +219,7 @@ thing:
 
 safe_function:
         (
-            "count" OPEN_PAREN! ASTERISK! CLOSE_PAREN!
+            "count" OPEN_PAREN! ( ASTERISK! | "distinct" abstract_value ) CLOSE_PAREN!
             | "max" OPEN_PAREN! abstract_value CLOSE_PAREN!
             | "min" OPEN_PAREN! abstract_value CLOSE_PAREN!
             | "sum" OPEN_PAREN! abstract_value CLOSE_PAREN!
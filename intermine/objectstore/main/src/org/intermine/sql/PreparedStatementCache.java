@@ -0,0 +1,121 @@
+package org.intermine.sql;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.postgresql.PGConnection;
+
+/**
+ * Keeps PreparedStatements open on each database connection, so that running the same SQL again
+ * with other parameters reuses the statement, and after a few runs the plan the database made for
+ * it. The statements are kept on the physical connection underneath the connection pool, because
+ * the pool closes the statements made through a connection when it is returned. Once a connection
+ * has more than a set number of statements, the one used longest ago is closed.
+ */
+public class PreparedStatementCache
+{
+    private static final Logger LOG = Logger.getLogger(PreparedStatementCache.class);
+
+    private final int maxPerConnection;
+    private final Map<Connection, Map<String, PreparedStatement>> statements =
+        new HashMap<Connection, Map<String, PreparedStatement>>();
+
+    /**
+     * Constructor.
+     *
+     * @param maxPerConnection the number of statements to keep open on each connection
+     */
+    public PreparedStatementCache(int maxPerConnection) {
+        this.maxPerConnection = maxPerConnection;
+    }
+
+    /**
+     * Returns a PreparedStatement for some SQL on the physical connection underneath a
+     * Connection. The statement is kept for the next user of the same physical connection, so
+     * the caller must not close it, and must be finished with it before giving the Connection
+     * back.
+     *
+     * @param c a Connection, which may come from a connection pool
+     * @param sql the SQL, with placeholders for the parameters
+     * @return a PreparedStatement, or null if the physical connection cannot be reached
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public PreparedStatement prepare(Connection c, String sql) throws SQLException {
+        Connection physical = null;
+        if (c.isWrapperFor(PGConnection.class)) {
+            Object unwrapped = c.unwrap(PGConnection.class);
+            if (unwrapped instanceof Connection) {
+                physical = (Connection) unwrapped;
+            }
+        }
+        if (physical == null) {
+            return null;
+        }
+        Map<String, PreparedStatement> forConnection;
+        synchronized (statements) {
+            forConnection = statements.get(physical);
+            if (forConnection == null) {
+                removeClosedConnections();
+                forConnection = new LinkedHashMap<String, PreparedStatement>(16, 0.75F, true) {
+                    @Override
+                    protected boolean removeEldestEntry(
+                            Map.Entry<String, PreparedStatement> eldest) {
+                        if (size() > maxPerConnection) {
+                            close(eldest.getValue());
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+                statements.put(physical, forConnection);
+            }
+        }
+        // Only the thread holding the connection uses its statements
+        PreparedStatement ps = forConnection.get(sql);
+        if ((ps == null) || ps.isClosed()) {
+            ps = physical.prepareStatement(sql);
+            forConnection.put(sql, ps);
+        }
+        return ps;
+    }
+
+    /**
+     * Forgets the statements of connections that the pool has closed.
+     */
+    private void removeClosedConnections() {
+        Iterator<Connection> iter = statements.keySet().iterator();
+        while (iter.hasNext()) {
+            try {
+                if (iter.next().isClosed()) {
+                    iter.remove();
+                }
+            } catch (SQLException e) {
+                iter.remove();
+            }
+        }
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            LOG.warn("Could not close prepared statement", e);
+        }
+    }
+}
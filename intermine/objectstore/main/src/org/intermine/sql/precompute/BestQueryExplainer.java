@@ -16,6 +16,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.intermine.sql.query.ExplainResult;
 import org.intermine.sql.query.Query;
@@ -27,7 +28,7 @@ import org.intermine.sql.query.Query;
  */
 public class BestQueryExplainer extends BestQuery
 {
-    private static final int OVERHEAD = 300;
+    protected static final int OVERHEAD = 300;
     protected static final int ALWAYS_EXPLAIN_TABLES = 3;
     protected static final int NEVER_EXPLAIN_TABLES = 8;
 
@@ -37,6 +38,8 @@ public class BestQueryExplainer extends BestQuery
     protected Connection con;
     protected Date start = new Date();
     protected long timeLimit = 0;
+    protected int candidateCount = 0;
+    protected AtomicInteger explainCount = new AtomicInteger();
 
     /**
      * Constructs an empty BestQueryExplainer for testing purposes
@@ -98,6 +101,7 @@ public class BestQueryExplainer extends BestQuery
      * @throws SQLException if an error occurs in the underlying database
      */
     protected void add(Candidate c) throws BestQueryException, SQLException {
+        candidateCount++;
         int tableCount = c.getTableCount();
         boolean doExplain = (tableCount <= ALWAYS_EXPLAIN_TABLES);
         if (tableCount < candidateTables) {
@@ -108,9 +112,7 @@ public class BestQueryExplainer extends BestQuery
             }
         }
         if (doExplain) {
-            if (c.betterThan(bestCandidate)) {
-                bestCandidate = c;
-            }
+            explain(c);
         } else {
             didNotExplain(c);
             if (tableCount == candidateTables) {
@@ -134,6 +136,37 @@ public class BestQueryExplainer extends BestQuery
         }
     }
 
+    /**
+     * Explains a Candidate, and makes it the best Candidate if it is faster than the current one.
+     * It can be overridden by subclasses.
+     *
+     * @param c the Candidate
+     * @throws SQLException if an error occurs in the underlying database
+     */
+    protected void explain(Candidate c) throws SQLException {
+        if (c.betterThan(bestCandidate)) {
+            bestCandidate = c;
+        }
+    }
+
+    /**
+     * Returns the number of candidate queries that have been added.
+     *
+     * @return an int
+     */
+    public int getCandidateCount() {
+        return candidateCount;
+    }
+
+    /**
+     * Returns the number of candidate queries that have been explained.
+     *
+     * @return an int
+     */
+    public int getExplainCount() {
+        return explainCount.get();
+    }
+
     /**
      * Internal method that creates an ExplainResult. It can be overridden by subclasses.
      *
@@ -340,6 +373,7 @@ public class BestQueryExplainer extends BestQuery
             if (explainResult == null) {
                 explainResult = (query == null ? getExplainResult(queryString)
                         : getExplainResult(query));
+                explainCount.incrementAndGet();
             }
             return explainResult;
         }
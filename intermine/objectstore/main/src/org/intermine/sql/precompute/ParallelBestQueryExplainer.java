@@ -0,0 +1,293 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
+import org.intermine.sql.query.ExplainResult;
+
+/**
+ * A BestQueryExplainer that explains candidate queries on several database connections at once.
+ * <p>
+ * The first candidate (the unoptimised query) is explained straight away, as before. Later
+ * candidates are put on a queue, and helper threads, each with its own connection from the
+ * Database, explain them while the optimiser carries on generating more. The thread that is
+ * optimising also explains queued candidates on its own connection when it needs a result, so
+ * progress is made even if no more connections are available. The search stops at the time limit,
+ * or as soon as the best plan found so far is quicker than the time already spent optimising -
+ * even a candidate that took no time at all could not save more than that.
+ * <p>
+ * A helper's connection cannot see temporary tables (such as bag tables) created in the
+ * optimising thread's uncommitted transaction, so a candidate that a helper fails to explain is
+ * handed back and explained on the optimising thread's connection. Helper threads are shared by
+ * all explainers, and there are never more than MAX_HELPERS of them, so they never hold more than
+ * MAX_HELPERS connections from the Database between them.
+ */
+public class ParallelBestQueryExplainer extends BestQueryExplainer
+{
+    private static final Logger LOG = Logger.getLogger(ParallelBestQueryExplainer.class);
+    private static final long POLL_INTERVAL = 50;
+
+    /** The largest number of helper threads, and so helper connections, used at once. */
+    public static final int MAX_HELPERS = 8;
+
+    private static ExecutorService executor = null;
+
+    private final Database database;
+    private final int threads;
+    private final BlockingQueue<Job> queue = new LinkedBlockingQueue<Job>();
+    // Jobs that a helper could not explain, to be explained on con
+    private final BlockingQueue<Job> retry = new LinkedBlockingQueue<Job>();
+    private final BlockingQueue<Candidate> finished = new LinkedBlockingQueue<Candidate>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger helpers = new AtomicInteger();
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructs an empty ParallelBestQueryExplainer for testing purposes, which uses
+     * DummyExplainResults instead of a database.
+     *
+     * @param threads the maximum number of candidates to explain at once
+     */
+    public ParallelBestQueryExplainer(int threads) {
+        super();
+        this.database = null;
+        this.threads = threads;
+    }
+
+    /**
+     * Constructs a ParallelBestQueryExplainer.
+     *
+     * @param con the Connection to use in the optimising thread
+     * @param database the Database to get connections for the helper threads from
+     * @param timeLimit a time limit in milliseconds
+     * @param threads the maximum number of connections to explain on at once, including con
+     */
+    public ParallelBestQueryExplainer(Connection con, Database database, long timeLimit,
+            int threads) {
+        super(con, timeLimit);
+        this.database = database;
+        this.threads = threads;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void add(Candidate c) throws BestQueryException, SQLException {
+        collectFinished();
+        super.add(c);
+    }
+
+    /**
+     * Queues the Candidate to be explained, unless it is the first one.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    protected void explain(Candidate c) throws SQLException {
+        if ((bestCandidate == null) && (outstanding.get() == 0)) {
+            super.explain(c);
+        } else {
+            submit(c);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Candidate getBest() throws SQLException {
+        for (Candidate c : candidates) {
+            submit(c);
+        }
+        candidates.clear();
+        while (true) {
+            collectFinished();
+            if (bestCandidate != null) {
+                long elapsed = System.currentTimeMillis() - start.getTime();
+                if (((timeLimit >= 0) && (elapsed > timeLimit))
+                        || (bestCandidate.getExplain().getTime() < (elapsed + OVERHEAD))) {
+                    stop();
+                    return bestCandidate;
+                }
+            }
+            Job job = retry.poll();
+            if (job == null) {
+                job = queue.poll();
+            }
+            if (job != null) {
+                job.candidate.explainResult = ExplainResult.getInstance(job.sql, con);
+                explainCount.incrementAndGet();
+                outstanding.decrementAndGet();
+                if (job.candidate.betterThan(bestCandidate)) {
+                    bestCandidate = job.candidate;
+                }
+            } else if (outstanding.get() > 0) {
+                try {
+                    Candidate c = finished.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if ((c != null) && c.betterThan(bestCandidate)) {
+                        bestCandidate = c;
+                    }
+                } catch (InterruptedException e) {
+                    stop();
+                    return bestCandidate;
+                }
+            } else {
+                return bestCandidate;
+            }
+        }
+    }
+
+    /**
+     * Returns a connection for a helper thread to explain candidates on. It can be overridden by
+     * subclasses.
+     *
+     * @return a Connection, which will be closed by the helper
+     * @throws SQLException if a connection cannot be obtained
+     */
+    protected Connection getHelperConnection() throws SQLException {
+        return (database == null ? null : database.getConnection());
+    }
+
+    /**
+     * Makes the best finished Candidate the best Candidate.
+     */
+    private void collectFinished() throws SQLException {
+        Candidate c = finished.poll();
+        while (c != null) {
+            if (c.betterThan(bestCandidate)) {
+                bestCandidate = c;
+            }
+            c = finished.poll();
+        }
+    }
+
+    /**
+     * Queues a Candidate to be explained, and starts a helper thread if there are fewer than
+     * allowed. The SQL is generated here, because the optimiser may go on to alter the Query.
+     */
+    private void submit(Candidate c) {
+        if (stopped) {
+            return;
+        }
+        outstanding.incrementAndGet();
+        queue.add(new Job(c, c.getQueryString()));
+        if (helpers.get() < threads - 1) {
+            helpers.incrementAndGet();
+            try {
+                getExecutor().execute(new Helper());
+            } catch (RejectedExecutionException e) {
+                // Every helper thread is busy, so this thread will explain the Candidate itself
+                helpers.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stops explaining. Explains already running are left to finish, and their results ignored.
+     */
+    private void stop() {
+        stopped = true;
+        queue.clear();
+        retry.clear();
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            // No queue, so that a helper is only started when a thread is free to run it
+            executor = new ThreadPoolExecutor(0, MAX_HELPERS, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "ParallelBestQueryExplainer helper "
+                                    + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+    /**
+     * A Candidate with the SQL to explain for it.
+     */
+    private static class Job
+    {
+        private final Candidate candidate;
+        private final String sql;
+
+        Job(Candidate candidate, String sql) {
+            this.candidate = candidate;
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * Explains queued Candidates on its own connection until the queue is empty, or until it
+     * fails to explain one, which it hands back to the optimising thread.
+     */
+    private class Helper implements Runnable
+    {
+        @Override
+        public void run() {
+            Connection c = null;
+            try {
+                if (stopped || queue.isEmpty()) {
+                    // The optimising thread got there first
+                    return;
+                }
+                c = getHelperConnection();
+                Job job = queue.poll();
+                while ((job != null) && (!stopped)) {
+                    try {
+                        job.candidate.explainResult = ExplainResult.getInstance(job.sql, c);
+                    } catch (SQLException e) {
+                        LOG.debug("Could not explain candidate query on a helper connection,"
+                                + " leaving it to the optimising thread: " + job.sql, e);
+                        retry.add(job);
+                        return;
+                    }
+                    explainCount.incrementAndGet();
+                    finished.add(job.candidate);
+                    outstanding.decrementAndGet();
+                    job = queue.poll();
+                }
+            } catch (SQLException e) {
+                LOG.warn("Could not get a connection to explain candidate queries", e);
+            } finally {
+                helpers.decrementAndGet();
+                if (c != null) {
+                    try {
+                        c.close();
+                    } catch (SQLException e) {
+                        // Ignore
+                    }
+                }
+            }
+        }
+    }
+}
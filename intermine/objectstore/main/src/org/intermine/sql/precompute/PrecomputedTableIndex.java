@@ -0,0 +1,163 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.intermine.sql.query.AbstractTable;
+import org.intermine.sql.query.Query;
+import org.intermine.sql.query.Table;
+
+/**
+ * An index of PrecomputedTables by the tables they are built from, used to find the precomputed
+ * tables that could possibly be fitted into a query without trying to merge every one of them.
+ * <p>
+ * A precomputed table can only be used in a query if every table in its FROM list can be mapped
+ * onto a different table of the same name in the query's FROM list. The index groups precomputed
+ * tables by their signature - the number of times each table name appears in the FROM list - and
+ * files each signature under the name in it that is used by the fewest precomputed tables. To
+ * find the candidates for a query, only the signatures filed under the names in the query are
+ * looked at, and a signature is a candidate if the query has at least as many of each name.
+ * <p>
+ * Subqueries in a FROM list are not indexed: a precomputed table whose FROM list is only
+ * subqueries is always a candidate.
+ */
+public class PrecomputedTableIndex
+{
+    private final int size;
+    private final Map<String, List<Signature>> byName = new HashMap<String, List<Signature>>();
+    private final List<Signature> unnamed = new ArrayList<Signature>();
+
+    /**
+     * Constructor.
+     *
+     * @param precomputedTables the PrecomputedTables to index
+     */
+    public PrecomputedTableIndex(Collection<PrecomputedTable> precomputedTables) {
+        this.size = precomputedTables.size();
+        Map<Map<String, Integer>, Signature> signatures
+            = new LinkedHashMap<Map<String, Integer>, Signature>();
+        Map<String, Integer> usage = new HashMap<String, Integer>();
+        for (PrecomputedTable pt : precomputedTables) {
+            Map<String, Integer> counts = countNames(pt.getQuery().getFrom());
+            Signature signature = signatures.get(counts);
+            if (signature == null) {
+                signature = new Signature(counts);
+                signatures.put(counts, signature);
+                for (String name : counts.keySet()) {
+                    Integer used = usage.get(name);
+                    usage.put(name, Integer.valueOf(used == null ? 1 : used.intValue() + 1));
+                }
+            }
+            signature.tables.add(pt);
+        }
+        for (Signature signature : signatures.values()) {
+            String rarest = null;
+            int rarestUsage = Integer.MAX_VALUE;
+            for (String name : signature.counts.keySet()) {
+                int used = usage.get(name).intValue();
+                if (used < rarestUsage) {
+                    rarest = name;
+                    rarestUsage = used;
+                }
+            }
+            if (rarest == null) {
+                unnamed.add(signature);
+            } else {
+                List<Signature> list = byName.get(rarest);
+                if (list == null) {
+                    list = new ArrayList<Signature>();
+                    byName.put(rarest, list);
+                }
+                list.add(signature);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of PrecomputedTables in the index.
+     *
+     * @return an int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the PrecomputedTables whose FROM lists could be mapped onto the FROM list of the
+     * given query. The other precomputed tables cannot be fitted into the query, and need not be
+     * tried.
+     *
+     * @param query the Query to be optimised
+     * @return a SortedSet of PrecomputedTables, in their natural order
+     */
+    public SortedSet<PrecomputedTable> getCandidates(Query query) {
+        SortedSet<PrecomputedTable> retval = new TreeSet<PrecomputedTable>();
+        Map<String, Integer> queryCounts = countNames(query.getFrom());
+        for (String name : queryCounts.keySet()) {
+            List<Signature> list = byName.get(name);
+            if (list != null) {
+                for (Signature signature : list) {
+                    if (signature.fits(queryCounts)) {
+                        retval.addAll(signature.tables);
+                    }
+                }
+            }
+        }
+        for (Signature signature : unnamed) {
+            retval.addAll(signature.tables);
+        }
+        return retval;
+    }
+
+    private static Map<String, Integer> countNames(Set<AbstractTable> from) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (AbstractTable table : from) {
+            if (table instanceof Table) {
+                String name = ((Table) table).getName();
+                Integer count = counts.get(name);
+                counts.put(name, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * The precomputed tables that share a multiset of table names.
+     */
+    private static class Signature
+    {
+        private final Map<String, Integer> counts;
+        private final List<PrecomputedTable> tables = new ArrayList<PrecomputedTable>();
+
+        Signature(Map<String, Integer> counts) {
+            this.counts = counts;
+        }
+
+        boolean fits(Map<String, Integer> queryCounts) {
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                Integer available = queryCounts.get(entry.getKey());
+                if ((available == null) || (available.intValue() < entry.getValue().intValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
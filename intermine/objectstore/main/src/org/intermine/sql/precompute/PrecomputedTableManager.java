@@ -17,7 +17,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -26,15 +28,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.query.AbstractConstraint;
 import org.intermine.sql.query.AbstractTable;
 import org.intermine.sql.query.AbstractValue;
+import org.intermine.sql.query.Constant;
+import org.intermine.sql.query.ConstraintSet;
+import org.intermine.sql.query.Field;
+import org.intermine.sql.query.InListConstraint;
+import org.intermine.sql.query.NotConstraint;
 import org.intermine.sql.query.OrderDescending;
 import org.intermine.sql.query.Query;
 import org.intermine.sql.query.SelectValue;
+import org.intermine.sql.query.SubQuery;
+import org.intermine.sql.query.SubQueryConstraint;
 import org.intermine.sql.query.Table;
 
 /**
@@ -48,11 +59,16 @@ public class PrecomputedTableManager
     private static final Logger LOG = Logger.getLogger(PrecomputedTableManager.class);
 
     protected TreeSet<PrecomputedTable> precomputedTables = new TreeSet<PrecomputedTable>();
+    private volatile PrecomputedTableIndex index = null;
+    private final AtomicInteger generation = new AtomicInteger();
     protected Map<String, Map<String, PrecomputedTable>> types
         = new HashMap<String, Map<String, PrecomputedTable>>();
     protected Database database = null;
     protected Connection conn = null;
     protected static final String TABLE_INDEX = "precompute_index";
+    protected static final String TABLE_REFRESH = "precompute_refresh";
+    /** The most ids added to a table that a precomputed table can be refreshed with */
+    public static final int MAX_REFRESH_IDS = 10000;
     protected static Map<Object, PrecomputedTableManager> instances
         = new HashMap<Object, PrecomputedTableManager>();
 
@@ -171,6 +187,8 @@ public class PrecomputedTableManager
         } else {
             addTableToDatabase(pt, indexes, true);
             precomputedTables.add(pt);
+            index = null;
+            generation.incrementAndGet();
             queryStrings.put(queryString, pt);
         }
     }
@@ -188,6 +206,8 @@ public class PrecomputedTableManager
             iter.remove();
         }
         types.clear();
+        index = null;
+        generation.incrementAndGet();
     }
 
     /**
@@ -201,19 +221,13 @@ public class PrecomputedTableManager
         Iterator<PrecomputedTable> iter = precomputedTables.iterator();
         while (iter.hasNext()) {
             PrecomputedTable pt = iter.next();
-            Query q = pt.getQuery();
-            boolean drop = false;
-            for (AbstractTable table : q.getFrom()) {
-                if (table instanceof Table) {
-                    if (tablesAltered.contains(((Table) table).getName())) {
-                        drop = true;
-                        break;
-                    }
-                }
-            }
-            if (drop) {
+            Set<String> tableNames = getTableNames(pt.getQuery());
+            tableNames.retainAll(tablesAltered);
+            if (!tableNames.isEmpty()) {
                 deleteTableFromDatabase(pt.getName());
                 iter.remove();
+                index = null;
+                generation.incrementAndGet();
                 String queryString = pt.getOriginalSql();
                 Map<String, PrecomputedTable> queryStrings = types.get(pt.getCategory());
                 queryStrings.remove(queryString);
@@ -221,6 +235,213 @@ public class PrecomputedTableManager
         }
     }
 
+    /**
+     * Brings up to date all precomputed tables that would be affected by committed changes to
+     * the given tables. If rows have only been added to the tables a precomputed table is built
+     * from, the rows of the precomputed table that come from the new rows are inserted into it,
+     * in a single transaction so that queries never see it half-updated. Inserting takes no lock
+     * that blocks queries reading the table. Any other affected precomputed table is dropped, as
+     * dropAffected() does, rather than refilled here: refilling would block every query using it
+     * until the commit returned.
+     * <p>
+     * New rows are found by the ids of the rows added to each table, as recorded by the writer
+     * that made the changes, so it does not matter in which order the ids were allocated. This
+     * relies on there being a single writer, as is the case for the ObjectStoreWriter of a
+     * production objectstore. Precomputed tables that cannot be refreshed this way - because
+     * they group, aggregate or use subqueries, or because rows were added to one of their tables
+     * without their ids being recorded - are dropped.
+     *
+     * @param tablesAltered a Set of the names of tables that have been altered
+     * @param idsAdded a Map from table name to the ids of the rows added to that table, for the
+     * tables whose new rows are known. No more than MAX_REFRESH_IDS ids are used for a table
+     * @param tablesRemovedFrom a Set of the names of tables that have had rows deleted or updated
+     * @throws SQLException if something goes wrong
+     */
+    public void refreshAffected(Set<String> tablesAltered, Map<String, Set<Integer>> idsAdded,
+            Set<String> tablesRemovedFrom) throws SQLException {
+        int refreshed = 0;
+        int dropped = 0;
+        long refreshTime = 0;
+        long refreshedBuildTime = 0;
+        for (PrecomputedTable pt : new ArrayList<PrecomputedTable>(precomputedTables)) {
+            Set<String> tableNames = getTableNames(pt.getQuery());
+            boolean removed = false;
+            Set<String> appended = new HashSet<String>();
+            for (String tableName : tableNames) {
+                if (tablesRemovedFrom.contains(tableName)) {
+                    removed = true;
+                } else if (tablesAltered.contains(tableName)) {
+                    appended.add(tableName);
+                }
+            }
+            if (!removed && appended.isEmpty()) {
+                continue;
+            }
+            int rows = -1;
+            if (!removed) {
+                Connection con = null;
+                try {
+                    con = (conn == null ? database.getConnection() : conn);
+                    long buildTime = getBuildTime(pt.getName(), con);
+                    long start = System.currentTimeMillis();
+                    rows = refreshTable(pt, appended, idsAdded, con);
+                    long time = System.currentTimeMillis() - start;
+                    if (rows >= 0) {
+                        refreshed++;
+                        refreshTime += time;
+                        refreshedBuildTime += Math.max(buildTime, 0);
+                        LOG.info("Refreshed precomputed table " + pt.getName() + " with " + rows
+                                + " new rows in " + time + " ms (a full build took "
+                                + (buildTime < 0 ? "an unknown time" : buildTime + " ms") + ")");
+                    }
+                } finally {
+                    if ((con != null) && (conn == null)) {
+                        con.close();
+                    }
+                }
+            }
+            if (rows < 0) {
+                delete(pt);
+                dropped++;
+                LOG.info("Dropped precomputed table " + pt.getName() + " ("
+                        + (removed ? "rows were deleted or updated"
+                            : "cannot be refreshed incrementally") + ")");
+            }
+        }
+        if (refreshed + dropped > 0) {
+            LOG.info("Refreshed " + refreshed + " precomputed tables incrementally in "
+                    + refreshTime + " ms, which took " + refreshedBuildTime + " ms to build, and"
+                    + " dropped " + dropped + " precomputed tables");
+        }
+    }
+
+    /**
+     * Inserts the rows that come from newly added rows of the source tables into a precomputed
+     * table.
+     *
+     * @return the number of rows inserted, or -1 if the table cannot be refreshed incrementally
+     */
+    private int refreshTable(PrecomputedTable pt, Set<String> appended,
+            Map<String, Set<Integer>> idsAdded, Connection con) throws SQLException {
+        Query q = pt.getQuery();
+        if (!q.getGroupBy().isEmpty() || (q.getUnion().size() > 1) || (q.getLimit() != 0)
+                || (q.getOffset() != 0) || hasSubQuery(q.getWhere())) {
+            return -1;
+        }
+        for (SelectValue sv : q.getSelect()) {
+            if (sv.getValue().isAggregate()) {
+                return -1;
+            }
+        }
+        for (AbstractTable table : q.getFrom()) {
+            if (!(table instanceof Table)) {
+                return -1;
+            }
+        }
+        for (String tableName : appended) {
+            Set<Integer> ids = idsAdded.get(tableName);
+            if ((ids == null) || (ids.size() > MAX_REFRESH_IDS)) {
+                return -1;
+            }
+        }
+        // Only the rows that join to at least one new row
+        Query delta = new Query(pt.getOriginalSql(), true);
+        ConstraintSet newRows = new ConstraintSet();
+        for (AbstractTable table : delta.getFrom()) {
+            String tableName = ((Table) table).getName();
+            if (appended.contains(tableName)) {
+                InListConstraint added = new InListConstraint(new Field("id", table));
+                for (Integer id : idsAdded.get(tableName)) {
+                    added.add(new Constant(id.toString()));
+                }
+                newRows.add(added);
+            }
+        }
+        delta.addWhere(newRows);
+        String deltaSql = new PrecomputedTable(delta, pt.getOriginalSql(), pt.getName(),
+                pt.getCategory(), con).getSQLString();
+        String sql;
+        if (q.isDistinct()) {
+            sql = "INSERT INTO " + pt.getName() + " SELECT * FROM (" + deltaSql
+                + ") AS delta EXCEPT SELECT * FROM " + pt.getName();
+        } else {
+            sql = "INSERT INTO " + pt.getName() + " " + deltaSql;
+        }
+        int rows = con.createStatement().executeUpdate(sql);
+        if (!con.getAutoCommit()) {
+            con.commit();
+        }
+        if (rows > 0) {
+            con.createStatement().execute("ANALYSE " + pt.getName());
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the names of all the tables a query reads, including those in subqueries in its
+     * FROM list and WHERE clause, and in the other queries of a union.
+     *
+     * @param q a Query
+     * @return a Set of table names
+     */
+    protected static Set<String> getTableNames(Query q) {
+        Set<String> retval = new HashSet<String>();
+        addTableNames(q, retval);
+        return retval;
+    }
+
+    private static void addTableNames(Query q, Set<String> tableNames) {
+        for (Query member : q.getUnion()) {
+            for (AbstractTable table : member.getFrom()) {
+                if (table instanceof Table) {
+                    tableNames.add(((Table) table).getName());
+                } else if (table instanceof SubQuery) {
+                    addTableNames(((SubQuery) table).getQuery(), tableNames);
+                }
+            }
+            addTableNames(member.getWhere(), tableNames);
+            addTableNames(member.getHaving(), tableNames);
+        }
+    }
+
+    private static void addTableNames(Collection<AbstractConstraint> constraints,
+            Set<String> tableNames) {
+        for (AbstractConstraint c : constraints) {
+            if (c instanceof SubQueryConstraint) {
+                addTableNames(((SubQueryConstraint) c).getRight(), tableNames);
+            } else if (c instanceof NotConstraint) {
+                addTableNames(Collections.singleton(((NotConstraint) c).getConstraint()),
+                        tableNames);
+            } else if (c instanceof ConstraintSet) {
+                addTableNames(((ConstraintSet) c).getConstraints(), tableNames);
+            }
+        }
+    }
+
+    private static boolean hasSubQuery(Collection<AbstractConstraint> constraints) {
+        for (AbstractConstraint c : constraints) {
+            if ((c instanceof SubQueryConstraint)
+                    || ((c instanceof NotConstraint) && hasSubQuery(Collections.singleton(
+                                ((NotConstraint) c).getConstraint())))
+                    || ((c instanceof ConstraintSet)
+                        && hasSubQuery(((ConstraintSet) c).getConstraints()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the time a precomputed table took to build, or -1 if it is not known.
+     */
+    private static long getBuildTime(String name, Connection con) throws SQLException {
+        PreparedStatement pstmt = con.prepareStatement("SELECT buildtime FROM " + TABLE_REFRESH
+                + " WHERE name = ?");
+        pstmt.setString(1, name);
+        ResultSet res = pstmt.executeQuery();
+        return (res.next() ? res.getLong(1) : -1);
+    }
+
     /**
      * Delete a precomputed table from the underlying database.
      *
@@ -239,6 +460,8 @@ public class PrecomputedTableManager
 
         deleteTableFromDatabase(pt.getName());
         precomputedTables.remove(pt);
+        index = null;
+        generation.incrementAndGet();
         String queryString = pt.getOriginalSql();
         Map<String, PrecomputedTable> queryStrings = types.get(pt.getCategory());
         queryStrings.remove(queryString);
@@ -253,6 +476,33 @@ public class PrecomputedTableManager
         return precomputedTables;
     }
 
+    /**
+     * Get a number that changes whenever precomputed tables are added or deleted, so that
+     * anything remembered about the set of tables can tell when it is out of date.
+     *
+     * @return the generation of the set of precomputed tables
+     */
+    public int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Get an index of the precomputed tables by the tables they are built from, so the optimiser
+     * only has to try the ones that could fit a query. The index is rebuilt after precomputed
+     * tables are added or deleted.
+     *
+     * @return a PrecomputedTableIndex of the precomputed tables present in the database
+     */
+    public synchronized PrecomputedTableIndex getPrecomputedTableIndex() {
+        if (index == null) {
+            long start = System.currentTimeMillis();
+            index = new PrecomputedTableIndex(precomputedTables);
+            LOG.debug("Indexed " + index.size() + " precomputed tables in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+        return index;
+    }
+
     /**
      * Add a PrecomputedTable to the database.
      *
@@ -273,12 +523,14 @@ public class PrecomputedTableManager
 
             // Create the table
             Statement stmt = con.createStatement();
+            long start = System.currentTimeMillis();
             String sql = pt.getSQLString();
             BestQuery bq = QueryOptimiser.optimise(sql, null, this, con,
                     QueryOptimiserContext.DEFAULT);
             sql = "CREATE TABLE " + pt.getName() + " AS " + bq.getBestQueryString();
             LOG.info("Creating new precomputed table " + sql);
             stmt.execute(sql);
+            long buildTime = System.currentTimeMillis() - start;
 
             String orderByField = pt.getOrderByField();
             if (orderByField != null) {
@@ -329,6 +581,11 @@ public class PrecomputedTableManager
                 pstmt.setString(2, pt.getOriginalSql());
                 pstmt.setString(3, pt.getCategory());
                 pstmt.execute();
+                pstmt = con.prepareStatement("INSERT INTO " + TABLE_REFRESH
+                        + " (name, buildtime) VALUES(?, ?)");
+                pstmt.setString(1, pt.getName());
+                pstmt.setLong(2, buildTime);
+                pstmt.execute();
             }
             LOG.info("Finished creating precomputed table " + pt.getName() + " for category "
                     + pt.getCategory());
@@ -386,6 +643,9 @@ public class PrecomputedTableManager
                                                            + TABLE_INDEX + " WHERE name = ?");
             pstmt.setString(1, name);
             pstmt.execute();
+            pstmt = con.prepareStatement("DELETE FROM " + TABLE_REFRESH + " WHERE name = ?");
+            pstmt.setString(1, name);
+            pstmt.execute();
 
             // Drop the table
             Statement stmt = con.createStatement();
@@ -486,6 +746,10 @@ public class PrecomputedTableManager
         if (!DatabaseUtil.tableExists(con, TABLE_INDEX)) {
             setupDatabase(con);
         }
+        // Databases set up before precomputed tables could be refreshed have no refresh table
+        if (!DatabaseUtil.tableExists(con, TABLE_REFRESH)) {
+            setupRefreshTable(con);
+        }
         long start = System.currentTimeMillis();
         Statement stmt = con.createStatement();
         ResultSet res = stmt.executeQuery("SELECT name, statement, category FROM " + TABLE_INDEX);
@@ -505,6 +769,8 @@ public class PrecomputedTableManager
                     types.put(pt.getCategory(), queryStrings);
                 }
                 queryStrings.put(queryString, pt);
+                index = null;
+                generation.incrementAndGet();
             } catch (IllegalArgumentException e) {
                 // This would be a poor query string in the TABLE_INDEX
                 failedCount++;
@@ -529,6 +795,22 @@ public class PrecomputedTableManager
         }
     }
 
+    /**
+     * Sets up the table that records how long each precomputed table took to build, so that the
+     * time taken to refresh it can be compared.
+     *
+     * @param con the Connection to use
+     * @throws SQLException if there is a problem in the underlying database
+     */
+    protected void setupRefreshTable(Connection con) throws SQLException {
+        Statement stmt = con.createStatement();
+        stmt.execute("CREATE TABLE " + TABLE_REFRESH
+                + "(name text, buildtime bigint)");
+        if (!con.getAutoCommit()) {
+            con.commit();
+        }
+    }
+
     /**
      * Returns a PrecomputedTable object if one exists in the manager with the given category and
      * original SQL string.
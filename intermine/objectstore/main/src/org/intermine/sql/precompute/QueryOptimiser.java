@@ -20,12 +20,15 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.StringUtil;
@@ -69,6 +72,15 @@ public final class QueryOptimiser
     private static final String ALIAS_PREFIX = "P";
     private static int callCount = 0;
 
+    // Upper bounds in milliseconds of the buckets of the optimise time histogram
+    private static final long[] TIME_BUCKETS = new long[] {1, 10, 100, 1000, 10000};
+    private static final AtomicLongArray OPTIMISE_TIMES
+        = new AtomicLongArray(TIME_BUCKETS.length + 1);
+    // Totals over the queries optimised with a BestQueryExplainer
+    private static final AtomicLong EXPLAINED_QUERIES = new AtomicLong();
+    private static final AtomicLong CANDIDATES = new AtomicLong();
+    private static final AtomicLong EXPLAINS = new AtomicLong();
+
     /**
      * Runs the optimiser through the query represented in the String, given the database. If
      * anything goes wrong, then the original String is returned.
@@ -157,10 +169,9 @@ public final class QueryOptimiser
             }
             return new BestQueryFallback(null, query);
         }
-        Set<PrecomputedTable> precomputedTables = ptm.getPrecomputedTables();
         OptimiserCache cache = OptimiserCache.getInstance(database);
         return optimiseWith(query, originalQuery, database, explainConnection, context,
-                            precomputedTables, cache);
+                            ptm.getPrecomputedTableIndex(), cache);
     }
 
     /**
@@ -180,11 +191,34 @@ public final class QueryOptimiser
     public static BestQuery optimiseWith(String query, Query originalQuery, Database database,
             Connection connection, QueryOptimiserContext context,
             Set<PrecomputedTable> precomputedTables, OptimiserCache cache) throws SQLException {
+        return optimiseWith(query, originalQuery, database, connection, context,
+                new PrecomputedTableIndex(precomputedTables), cache);
+    }
+
+    /**
+     * Runs the optimiser through the query repesented in the String and Query, given the Connection
+     * and an index of PrecomputedTables. Only the PrecomputedTables that the index says could fit
+     * the query are tried.
+     *
+     * @param query the query String to optimise
+     * @param originalQuery the Query object to optimise - or optionally null
+     * @param database a Database
+     * @param connection the database connection to use, or null if database is a Database
+     * @param context a QueryOptimiserContext, to alter settings
+     * @param precomputedTables a PrecomputedTableIndex
+     * @param cache an OptimiserCache
+     * @return a BestQuery object
+     * @throws SQLException if a database error occurs
+     */
+    public static BestQuery optimiseWith(String query, Query originalQuery, Database database,
+            Connection connection, QueryOptimiserContext context,
+            PrecomputedTableIndex precomputedTables, OptimiserCache cache) throws SQLException {
         Connection explainConnection = connection;
         Query optimiseQuery = originalQuery;
         callCount++;
         if (callCount % REPORT_INTERVAL == 0) {
-            LOG.info("Optimiser called " + callCount + " times");
+            LOG.info("Optimiser called " + callCount + " times, optimise times: "
+                    + getOptimiseTimeHistogram() + ", " + getCandidateCounts());
         }
         long start = new Date().getTime();
         long parseTime = 0;
@@ -217,7 +251,12 @@ public final class QueryOptimiser
             } else if (context.getMode() == QueryOptimiserContext.MODE_VERBOSE_SUMMARY) {
                 bestQuery = new BestQueryLogger(false);
             } else {
-                bestQuery = new BestQueryExplainer(explainConnection, context.getTimeLimit());
+                if ((context.getExplainThreads() > 1) && (database != null)) {
+                    bestQuery = new ParallelBestQueryExplainer(explainConnection, database,
+                            context.getTimeLimit(), context.getExplainThreads());
+                } else {
+                    bestQuery = new BestQueryExplainer(explainConnection, context.getTimeLimit());
+                }
             }
             String optimisedQuery = null;
             int expectedTime = 0;
@@ -267,6 +306,15 @@ public final class QueryOptimiser
             LOG.debug("New cache line produced - limit = " + limitOffsetQuery.getLimit());
             cache.addCacheLine(limitOffsetQuery.getQuery(), limitOffsetOptimisedQuery.getQuery(),
                     limitOffsetQuery.getLimit());
+            recordOptimiseTime((new Date()).getTime() - start);
+            if (bestQuery instanceof BestQueryExplainer) {
+                BestQueryExplainer explainer = (BestQueryExplainer) bestQuery;
+                EXPLAINED_QUERIES.incrementAndGet();
+                CANDIDATES.addAndGet(explainer.getCandidateCount());
+                EXPLAINS.addAndGet(explainer.getExplainCount());
+                LOG.debug("Optimiser tried " + explainer.getCandidateCount() + " candidates and"
+                        + " explained " + explainer.getExplainCount() + " of them");
+            }
             LOG.debug("Optimising " + (expectedTime == 0 ? "" : expectedTime + " ms ")
                     + "query took " + ((new Date()).getTime() - start)
                     + (parseTime == 0 ? " ms without parsing " : " ms including "
@@ -289,6 +337,44 @@ public final class QueryOptimiser
         return new BestQueryFallback(originalQuery, query);
     }
 
+    private static void recordOptimiseTime(long time) {
+        int bucket = 0;
+        while ((bucket < TIME_BUCKETS.length) && (time >= TIME_BUCKETS[bucket])) {
+            bucket++;
+        }
+        OPTIMISE_TIMES.incrementAndGet(bucket);
+    }
+
+    /**
+     * Returns a histogram of how long the optimiser has taken over the queries that were not
+     * found in the cache, since the JVM started.
+     *
+     * @return a Map from the name of each time range to the number of queries in it, in order
+     */
+    public static Map<String, Long> getOptimiseTimeHistogram() {
+        Map<String, Long> retval = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < TIME_BUCKETS.length; i++) {
+            retval.put("<" + TIME_BUCKETS[i] + "ms", Long.valueOf(OPTIMISE_TIMES.get(i)));
+        }
+        retval.put(">=" + TIME_BUCKETS[TIME_BUCKETS.length - 1] + "ms",
+                Long.valueOf(OPTIMISE_TIMES.get(TIME_BUCKETS.length)));
+        return retval;
+    }
+
+    /**
+     * Returns the number of queries that have been optimised by explaining candidates since the
+     * JVM started, with the total numbers of candidates tried and explained for them.
+     *
+     * @return a Map from "queries", "candidates" and "explained" to the counts, in that order
+     */
+    public static Map<String, Long> getCandidateCounts() {
+        Map<String, Long> retval = new LinkedHashMap<String, Long>();
+        retval.put("queries", Long.valueOf(EXPLAINED_QUERIES.get()));
+        retval.put("candidates", Long.valueOf(CANDIDATES.get()));
+        retval.put("explained", Long.valueOf(EXPLAINS.get()));
+        return retval;
+    }
+
     /**
      * Remaps the aliases of any table that starts with the ALIAS_PREFIX, to avoid clashes with
      * future precomputed tables.
@@ -316,6 +402,23 @@ public final class QueryOptimiser
      */
     public static void recursiveOptimiseCheckSubquery(Set<PrecomputedTable> precomputedTables,
             Query query, BestQuery bestQuery) throws BestQueryException, SQLException {
+        recursiveOptimiseCheckSubquery(new PrecomputedTableIndex(precomputedTables), query,
+                bestQuery);
+    }
+
+    /**
+     * Recursively optimises the query, given an index of precomputed tables, and updates the
+     * BestQuery object with each Query found. This method looks for simple subqueries to
+     * optimise, and calls recursiveOptimise with the precomputed tables that could fit the query.
+     *
+     * @param precomputedTables a PrecomputedTableIndex of the PrecomputedTables to use
+     * @param query a query to optimise
+     * @param bestQuery a BestQuery object to update with each optimised Query object
+     * @throws BestQueryException if the BestQuery decides to cut short the search
+     * @throws SQLException if a database error occurs
+     */
+    public static void recursiveOptimiseCheckSubquery(PrecomputedTableIndex precomputedTables,
+            Query query, BestQuery bestQuery) throws BestQueryException, SQLException {
         if (query.getFrom().size() == 1) {
             AbstractTable at = query.getFrom().iterator().next();
             if (at instanceof SubQuery) {
@@ -331,7 +434,7 @@ public final class QueryOptimiser
             }
         }
         remapAliasesToAvoidPrecomputePrefix(query);
-        recursiveOptimise(precomputedTables, query, bestQuery, query);
+        recursiveOptimise(precomputedTables.getCandidates(query), query, bestQuery, query);
     }
 
     /**
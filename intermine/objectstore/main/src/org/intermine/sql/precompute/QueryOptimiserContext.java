@@ -33,6 +33,7 @@ public class QueryOptimiserContext
     // to a Query object in milliseconds. It can be overwritten by the property:
     // os.query.max-query-parse-time=200
     private long maxQueryParseTime = 100;
+    private int explainThreads = 1;
 
 
     /**
@@ -83,7 +84,29 @@ public class QueryOptimiserContext
         return timeLimit;
     }
 
+    /**
+     * Sets the number of database connections the optimiser may use at once to explain candidate
+     * queries. A value of 1 explains them one at a time on the optimiser's own connection.
+     *
+     * @param explainThreads the number of connections
+     */
+    public void setExplainThreads(int explainThreads) {
+        if (explainThreads < 1) {
+            throw new IllegalArgumentException("Invalid number of explain threads "
+                    + explainThreads);
+        }
+        this.explainThreads = explainThreads;
+    }
 
+    /**
+     * Returns the number of database connections the optimiser may use at once to explain
+     * candidate queries.
+     *
+     * @return an int
+     */
+    public int getExplainThreads() {
+        return explainThreads;
+    }
 
     /**
      * Returns true if the optimiser will print out stuff.
@@ -138,5 +161,11 @@ public class QueryOptimiserContext
         public long getTimeLimit() {
             return -1;
         }
+
+        @Override
+        public void setExplainThreads(@SuppressWarnings("unused") int explainThreads) {
+            throw new IllegalStateException("This is the default QueryOptimiserContext - it cannot"
+                    + " be altered");
+        }
     };
 }
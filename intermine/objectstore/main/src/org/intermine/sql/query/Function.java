@@ -108,10 +108,14 @@ public class Function extends AbstractValue
      * LEAST(x, y) - takes two operands
      */
     public static final int LEAST = 20;
+    /**
+     * COUNT(DISTINCT x) aggregate function - takes one operand
+     */
+    public static final int COUNT_DISTINCT = 21;
 
     private static final String[] REPRESENTATIONS = {"", "COUNT(*)", "MAX(", "MIN(",
         "SUM(", "AVG(", " + ", " - ", " * ", " / ", " ^ ", " % ", "::", "STRPOS(", "SUBSTR(",
-        "COALESCE(", "LOWER(", "UPPER(", "STDDEV(", "GREATEST(", "LEAST("};
+        "COALESCE(", "LOWER(", "UPPER(", "STDDEV(", "GREATEST(", "LEAST(", "COUNT(DISTINCT "};
 
     /**
      * Constructor for this Function object.
@@ -120,7 +124,7 @@ public class Function extends AbstractValue
      * @throws IllegalArgumentException if operation is not valid
      */
     public Function(int operation) {
-        if ((operation < 1) || (operation > 20)) {
+        if ((operation < 1) || (operation > 21)) {
             throw (new IllegalArgumentException("operation is not valid"));
         }
         this.operation = operation;
@@ -144,6 +148,7 @@ public class Function extends AbstractValue
             case LOWER:
             case UPPER:
             case STDDEV:
+            case COUNT_DISTINCT:
                 if (operands.size() >= 1) {
                     throw (new IllegalArgumentException("This function may only take one operand"));
                 }
@@ -195,6 +200,7 @@ public class Function extends AbstractValue
             case LOWER:
             case UPPER:
             case STDDEV:
+            case COUNT_DISTINCT:
                 if (operands.size() < 1) {
                     throw (new IllegalStateException("This function needs an operand"));
                 }
@@ -371,6 +377,7 @@ public class Function extends AbstractValue
             case SUM:
             case AVG:
             case STDDEV:
+            case COUNT_DISTINCT:
                 return true;
             default:
                 for (AbstractValue operand : operands) {
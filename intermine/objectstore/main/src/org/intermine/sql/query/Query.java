@@ -163,32 +163,20 @@ public class Query implements SQLStringable
         aliasToTable = new HashMap<String, AbstractTable>();
         originalAliasToTable = new HashMap<String, AbstractTable>();
         try {
-            InputStream is = new ByteArrayInputStream(sql.getBytes());
+            AST ast;
+            if (treeParse) {
+                ast = SqlParseCache.parse(sql, timeOut);
+            } else {
+                InputStream is = new ByteArrayInputStream(sql.getBytes());
 
-            SqlLexer lexer = new SqlLexer(is);
-            SqlParser parser = new SqlParser(lexer);
-            parser.start_rule();
+                SqlLexer lexer = new SqlLexer(is);
+                SqlParser parser = new SqlParser(lexer);
+                parser.start_rule();
 
-            AST ast = parser.getAST();
-            if (ast == null) {
-                throw (new IllegalArgumentException("Invalid SQL string " + sql));
-            }
-            if (treeParse) {
-                AST oldAst;
-                long startTime = System.currentTimeMillis();
-                do {
-                    oldAst = ast;
-                    SqlTreeParser treeparser = new SqlTreeParser();
-                    treeparser.start_rule(ast);
-                    ast = treeparser.getAST();
-                    if (ast == null) {
-                        throw (new IllegalArgumentException("Invalid SQL string " + sql));
-                    }
-                    long elapsedTime = System.currentTimeMillis() - startTime;
-                    if (timeOut != null && elapsedTime > timeOut.longValue()) {
-                        throw new QueryParseTimeoutException();
-                    }
-                } while (!oldAst.equalsList(ast));
+                ast = parser.getAST();
+                if (ast == null) {
+                    throw (new IllegalArgumentException("Invalid SQL string " + sql));
+                }
             }
 
             processSqlStatementAST(ast);
@@ -1105,6 +1093,10 @@ public class Query implements SQLStringable
                         gotType = true;
                     }
                     break;
+                case SqlTokenTypes.LITERAL_distinct:
+                    // COUNT(DISTINCT x)
+                    retval = new Function(Function.COUNT_DISTINCT);
+                    break;
                 case SqlTokenTypes.LITERAL_max:
                     if (!gotType) {
                         retval = new Function(Function.MAX);
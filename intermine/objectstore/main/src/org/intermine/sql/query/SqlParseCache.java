@@ -0,0 +1,207 @@
+package org.intermine.sql.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.util.CacheMap;
+
+import antlr.CommonAST;
+import antlr.RecognitionException;
+import antlr.Token;
+import antlr.TokenStream;
+import antlr.TokenStreamException;
+import antlr.collections.AST;
+
+/**
+ * A cache of parsed SQL, used by Query when it is constructed from a String.
+ * <p>
+ * Parsing SQL means lexing it, parsing the tokens, and then running the tree parser over the
+ * result again and again until it stops changing. Only the lexing depends on the constants in the
+ * SQL - the rest only looks at the types of the tokens. So the SQL is lexed, the constants are
+ * replaced with numbered markers, and the normalised tree for that sequence of tokens is cached.
+ * SQL that differs from an earlier string only in its constants (for example the value looked for,
+ * or the LIMIT and OFFSET of a page of results) is then turned into a tree by copying the cached
+ * one and putting the constants back in place of the markers.
+ */
+public final class SqlParseCache
+{
+    private static final char MARKER = '\u0000';
+
+    private static Map<String, AST> cache = Collections.synchronizedMap(
+            new CacheMap<String, AST>("SqlParseCache"));
+    private static volatile boolean enabled = true;
+
+    private SqlParseCache() {
+    }
+
+    /**
+     * Sets whether parsed SQL should be cached. This is only useful for measuring the effect of
+     * the cache.
+     *
+     * @param enabled false to parse every String from scratch
+     */
+    public static void setEnabled(boolean enabled) {
+        SqlParseCache.enabled = enabled;
+        cache.clear();
+    }
+
+    /**
+     * Parses a SQL String into a normalised abstract syntax tree, ready for
+     * Query.processSqlStatementAST().
+     *
+     * @param sql a SQL String
+     * @param timeOut maximum time in milliseconds to spend in the tree parser, or null
+     * @return a new AST, which the caller may alter
+     * @throws RecognitionException if the SQL cannot be parsed
+     * @throws TokenStreamException if the SQL cannot be lexed
+     */
+    static AST parse(String sql, Long timeOut) throws RecognitionException, TokenStreamException {
+        if (!enabled) {
+            return normalise(new SqlLexer(new ByteArrayInputStream(sql.getBytes())), sql, timeOut);
+        }
+        final List<Token> tokens = new ArrayList<Token>();
+        List<String> constants = new ArrayList<String>();
+        String shape = lex(sql, tokens, constants, null);
+        AST ast = cache.get(shape);
+        if (ast == null) {
+            ast = normalise(new TokenStream() {
+                private Iterator<Token> iter = tokens.iterator();
+                private Token last = null;
+
+                @Override
+                public Token nextToken() {
+                    if (iter.hasNext()) {
+                        last = iter.next();
+                    }
+                    return last;
+                }
+            }, sql, timeOut);
+            cache.put(shape, ast);
+        }
+        return copy(ast, constants);
+    }
+
+    /**
+     * Returns the shape of a SQL String, which is the same for any two Strings that differ only in
+     * their constants.
+     *
+     * @param sql a SQL String
+     * @return a String that identifies the shape of the SQL
+     * @throws TokenStreamException if the SQL cannot be lexed
+     */
+    public static String getShape(String sql) throws TokenStreamException {
+        return lex(sql, new ArrayList<Token>(), new ArrayList<String>(), null);
+    }
+
+    /**
+     * Returns the shape of a SQL String, and adds the text of each of its constants to a List in
+     * the order they appear.
+     *
+     * @param sql a SQL String
+     * @param constants a List to add the text of the constants to
+     * @param offsets a List to add the position in sql of each constant to, or null
+     * @return a String that identifies the shape of the SQL
+     * @throws TokenStreamException if the SQL cannot be lexed
+     */
+    public static String getShape(String sql, List<String> constants, List<Integer> offsets)
+        throws TokenStreamException {
+        return lex(sql, new ArrayList<Token>(), constants, offsets);
+    }
+
+    /**
+     * Lexes the SQL into tokens with the constants replaced by markers, and returns its shape.
+     * The positions of the constants are only right for SQL on one line, which is all that
+     * SqlGenerator and the QueryOptimiser produce.
+     */
+    private static String lex(String sql, List<Token> tokens, List<String> constants,
+            List<Integer> offsets) throws TokenStreamException {
+        SqlLexer lexer = new SqlLexer(new ByteArrayInputStream(sql.getBytes()));
+        StringBuilder key = new StringBuilder();
+        Token token;
+        do {
+            token = lexer.nextToken();
+            int type = token.getType();
+            key.append(type);
+            if ((type == SqlTokenTypes.QUOTED_STRING) || (type == SqlTokenTypes.ESCAPED_STRING)
+                    || (type == SqlTokenTypes.INTEGER) || (type == SqlTokenTypes.FLOAT)) {
+                if (offsets != null) {
+                    offsets.add(token.getLine() == 1 ? token.getColumn() - 1 : -1);
+                }
+                constants.add(token.getText());
+                token.setText(MARKER + Integer.toString(constants.size() - 1));
+            } else {
+                key.append(token.getText());
+            }
+            key.append(MARKER);
+            tokens.add(token);
+        } while (token.getType() != Token.EOF_TYPE);
+        return key.toString();
+    }
+
+    /**
+     * Copies a tree and its siblings, replacing the markers with the constants.
+     */
+    private static AST copy(AST ast, List<String> constants) {
+        AST first = null;
+        AST previous = null;
+        for (AST node = ast; node != null; node = node.getNextSibling()) {
+            String text = node.getText();
+            if ((text != null) && (text.length() > 1) && (text.charAt(0) == MARKER)) {
+                text = constants.get(Integer.parseInt(text.substring(1)));
+            }
+            CommonAST newNode = new CommonAST();
+            newNode.initialize(node.getType(), text);
+            newNode.setFirstChild(copy(node.getFirstChild(), constants));
+            if (previous == null) {
+                first = newNode;
+            } else {
+                previous.setNextSibling(newNode);
+            }
+            previous = newNode;
+        }
+        return first;
+    }
+
+    /**
+     * Parses the tokens and runs the tree parser until the tree stops changing.
+     */
+    private static AST normalise(TokenStream tokens, String sql, Long timeOut)
+        throws RecognitionException, TokenStreamException {
+        SqlParser parser = new SqlParser(tokens);
+        parser.start_rule();
+        AST ast = parser.getAST();
+        if (ast == null) {
+            throw (new IllegalArgumentException("Invalid SQL string " + sql));
+        }
+        AST oldAst;
+        long startTime = System.currentTimeMillis();
+        do {
+            oldAst = ast;
+            SqlTreeParser treeparser = new SqlTreeParser();
+            treeparser.start_rule(ast);
+            ast = treeparser.getAST();
+            if (ast == null) {
+                throw (new IllegalArgumentException("Invalid SQL string " + sql));
+            }
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            if (timeOut != null && elapsedTime > timeOut.longValue()) {
+                throw new QueryParseTimeoutException();
+            }
+        } while (!oldAst.equalsList(ast));
+        return ast;
+    }
+}
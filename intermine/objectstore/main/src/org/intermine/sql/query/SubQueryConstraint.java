@@ -43,6 +43,24 @@ public class SubQueryConstraint extends AbstractConstraint
         this.right = right;
     }
 
+    /**
+     * Returns the left AbstractValue.
+     *
+     * @return an AbstractValue
+     */
+    public AbstractValue getLeft() {
+        return left;
+    }
+
+    /**
+     * Returns the right Query.
+     *
+     * @return a Query
+     */
+    public Query getRight() {
+        return right;
+    }
+
     /**
      * Returns a String representation of this SubQueryConstraint object, suitable for forming part
      * of an SQL Query.
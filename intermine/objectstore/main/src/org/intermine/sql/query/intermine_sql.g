@@ -109,7 +109,7 @@ typecast: #( TYPECAST abstract_value ("boolean" | "real" | "double" | "smallint"
 field: #( FIELD (table_alias)? field_name );
 
 safe_function: #( SAFE_FUNCTION (
-                "count"
+                "count" ( "distinct" abstract_value )?
                 | "max" abstract_value
                 | "min" abstract_value
                 | "sum" abstract_value
@@ -447,7 +447,7 @@ typecast:
 
 safe_function:
         (
-            "count" OPEN_PAREN! ASTERISK! CLOSE_PAREN!
+            "count" OPEN_PAREN! ( ASTERISK! | "distinct" abstract_value ) CLOSE_PAREN!
             | "max" OPEN_PAREN! abstract_value CLOSE_PAREN!
             | "min" OPEN_PAREN! abstract_value CLOSE_PAREN!
             | "sum" OPEN_PAREN! abstract_value CLOSE_PAREN!
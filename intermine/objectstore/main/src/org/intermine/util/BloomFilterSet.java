@@ -0,0 +1,143 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A Set that remembers objects in a Bloom filter. The contains method returns false if the object
+ * has definitely not been added, and true if it probably has been. Objects are hashed using their
+ * hashCode(), except that Strings are hashed using all 64 bits of a longer hash, so objects that
+ * are equal must be of the same class to be found.
+ *
+ * @param <E> The element type
+ */
+public class BloomFilterSet<E> extends PseudoSet<E>
+{
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private int added = 0;
+
+    /**
+     * Constructs a BloomFilterSet big enough to hold the given number of objects with the given
+     * rate of false positives.
+     *
+     * @param expectedSize the number of objects that will be added
+     * @param falsePositiveRate the proportion of objects not added for which contains should return
+     * true once expectedSize objects have been added, for example 0.01
+     */
+    public BloomFilterSet(int expectedSize, double falsePositiveRate) {
+        if ((falsePositiveRate <= 0.0) || (falsePositiveRate >= 1.0)) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1, was "
+                    + falsePositiveRate);
+        }
+        double ln2 = Math.log(2.0);
+        long m = (long) Math.ceil(-Math.max(expectedSize, 1) * Math.log(falsePositiveRate)
+                / (ln2 * ln2));
+        bits = new long[(int) ((m + 63) / 64)];
+        bitCount = bits.length * 64L;
+        hashCount = Math.max(1, (int) Math.round(ln2 * bitCount / Math.max(expectedSize, 1)));
+    }
+
+    /**
+     * Adds an object to the filter.
+     *
+     * @param o the object
+     * @return true if the object was definitely not in the set before
+     */
+    @Override
+    public boolean add(E o) {
+        long hash = hash(o);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((bits[word] & mask) == 0) {
+                bits[word] |= mask;
+                changed = true;
+            }
+        }
+        added++;
+        return changed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(Object o) {
+        long hash = hash(o);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of objects added, including any added more than once.
+     *
+     * @return an int
+     */
+    public int getAddedCount() {
+        return added;
+    }
+
+    /**
+     * Returns the rate of false positives that contains() is expected to give, given the number of
+     * objects added so far.
+     *
+     * @return a proportion between 0 and 1
+     */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1.0 - Math.exp(-((double) hashCount) * added / bitCount), hashCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "BloomFilterSet(" + added + " values, " + bitCount + " bits, " + hashCount
+            + " hashes, expected false positive rate "
+            + String.format("%.4f", getExpectedFalsePositiveRate()) + ")";
+    }
+
+    private long index(int combinedHash) {
+        return (combinedHash & 0xFFFFFFFFL) % bitCount;
+    }
+
+    private static long hash(Object o) {
+        long h;
+        if (o instanceof String) {
+            // FNV-1a, so that Strings with the same 32-bit hashCode are usually told apart
+            String s = (String) o;
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        } else {
+            h = (o == null ? 0 : o.hashCode());
+        }
+        // Finish with the SplitMix64 mixer, so that both halves depend on every input bit
+        h += 0x9e3779b97f4a7c15L;
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,199 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache that many threads can read and write without locking. Like CacheMap, values are held
+ * by soft references so the garbage collector can reclaim them, but the cache also holds at most
+ * maxSize entries, evicting the least recently used entry when a new one takes it over the limit.
+ * Hits, misses and evictions are counted for the statistics returned by toString().
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+public class ConcurrentCache<K, V>
+{
+    private final String name;
+    private final int maxSize;
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param name a name for the cache, for the statistics
+     * @param maxSize the maximum number of entries to hold
+     */
+    public ConcurrentCache(String name, int maxSize) {
+        this.name = name;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the value for a key, or null if there is none or it has been garbage collected.
+     *
+     * @param key the key
+     * @return the value
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        V value = (entry == null ? null : entry.ref.get());
+        if (value == null) {
+            if (entry != null) {
+                entries.remove(key, entry);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.lastUsed = clock.incrementAndGet();
+        hits.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Sets the value for a key, replacing any value already there.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(K key, V value) {
+        entries.put(key, new Entry<V>(value, clock.incrementAndGet()));
+        evictIfFull();
+    }
+
+    /**
+     * Sets the value for a key unless it already has one, which is returned instead. This lets
+     * threads that made values for the same key at the same time all use the same one.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the value already held for the key, or null if the given value was added
+     */
+    public V putIfAbsent(K key, V value) {
+        Entry<V> newEntry = new Entry<V>(value, clock.incrementAndGet());
+        while (true) {
+            Entry<V> entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                evictIfFull();
+                return null;
+            }
+            V existing = entry.ref.get();
+            if (existing != null) {
+                return existing;
+            }
+            if (entries.replace(key, entry, newEntry)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Removes the value for a key.
+     *
+     * @param key the key
+     */
+    public void remove(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Returns the number of entries held, including any whose value has been garbage collected.
+     *
+     * @return an int
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of lookups that found a value.
+     *
+     * @return a long
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that found no value.
+     *
+     * @return a long
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries evicted to keep within maxSize.
+     *
+     * @return a long
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    // Finds the victim by scanning every entry, which is cheap next to the work done by a caller
+    // that has just missed in the cache. Entries whose value has been collected go first.
+    private void evictIfFull() {
+        while (entries.size() > maxSize) {
+            K victim = null;
+            long oldest = Long.MAX_VALUE;
+            for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+                if (entry.getValue().ref.get() == null) {
+                    victim = entry.getKey();
+                    break;
+                }
+                if (entry.getValue().lastUsed < oldest) {
+                    oldest = entry.getValue().lastUsed;
+                    victim = entry.getKey();
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            if (entries.remove(victim) != null) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        return name + ": " + entries.size() + "/" + maxSize + " entries, " + hitCount + " hits, "
+            + misses.get() + " misses (" + (lookups == 0 ? 0 : (100 * hitCount / lookups))
+            + "% hit rate), " + evictions.get() + " evictions";
+    }
+
+    private static class Entry<V>
+    {
+        final SoftReference<V> ref;
+        volatile long lastUsed;
+
+        Entry(V value, long lastUsed) {
+            this.ref = new SoftReference<V>(value);
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package org.intermine.model.testmodel;
+
+public interface ImportantPerson extends org.intermine.model.InterMineObject
+{
+    public java.lang.Integer getSeniority();
+    public void setSeniority(final java.lang.Integer seniority);
+
+}
@@ -0,0 +1,5 @@
+package org.intermine.model.testmodel;
+
+public interface RandomInterface extends org.intermine.model.InterMineObject
+{
+}
@@ -10,9 +10,12 @@ package org.intermine.objectstore;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -25,7 +28,14 @@ import org.intermine.model.testmodel.Manager;
 import org.intermine.model.testmodel.Types;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryFunction;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.objectstore.query.iql.IqlQueryParser;
 
 public class ObjectStoreSummaryTest extends StoreDataTestCase
 {
@@ -153,4 +163,56 @@ public class ObjectStoreSummaryTest extends StoreDataTestCase
         assertEquals(10, oss.maxValues);
         assertEquals(10, ossFromProps.maxValues);
     }
+
+    public void testCountDistinctInOneScan() throws Exception {
+        final List<Query> countQueries = Collections.synchronizedList(new ArrayList<Query>());
+        ObjectStore os = new ObjectStorePassthruImpl(ObjectStoreFactory
+                .getObjectStore("os.unittest")) {
+            @Override
+            public Results execute(Query q, int batchSize, boolean optimise, boolean explain,
+                    boolean prefetch) {
+                QuerySelectable first = q.getSelect().get(0);
+                if ((first instanceof QueryFunction) && (((QueryFunction) first).getOperation()
+                            == QueryFunction.COUNT_DISTINCT)) {
+                    countQueries.add(q);
+                }
+                return super.execute(q, batchSize, optimise, explain, prefetch);
+            }
+        };
+        Properties config = new Properties();
+        config.put("max.field.values", "10");
+        ObjectStoreSummary oss = new ObjectStoreSummary(os, config);
+
+        // Each class has its attributes counted by a single query
+        Query employeeCounts = null;
+        Set<Class<?>> counted = new HashSet<Class<?>>();
+        for (Query q : countQueries) {
+            Class<?> type = ((QueryClass) q.getFrom().iterator().next()).getType();
+            assertTrue("Counted " + type + " twice", counted.add(type));
+            if (Employee.class.equals(type)) {
+                employeeCounts = q;
+            }
+        }
+        assertNotNull(employeeCounts);
+        int attributes = os.getModel().getClassDescriptorByName(Employee.class.getName())
+            .getAllAttributeDescriptors().size();
+        // every attribute but id
+        assertEquals(attributes - 1, employeeCounts.getSelect().size());
+
+        // The counts agree with the values fetched afterwards
+        ResultsRow<?> row = (ResultsRow<?>) os.execute(employeeCounts).get(0);
+        int ageIndex = -1;
+        for (int i = 0; i < employeeCounts.getSelect().size(); i++) {
+            QueryFunction qf = (QueryFunction) employeeCounts.getSelect().get(i);
+            if ("age".equals(((QueryField) qf.getParam()).getFieldName())) {
+                ageIndex = i;
+            }
+        }
+        assertEquals(6L, ((Number) row.get(ageIndex)).longValue());
+        assertEquals(6, oss.getFieldValues(Employee.class.getName(), "age").size());
+
+        // The query can be read back from its IQL, as the query logs are
+        assertEquals(employeeCounts.toString(),
+                IqlQueryParser.parse(new IqlQuery(employeeCounts)).toString());
+    }
 }
@@ -0,0 +1,81 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class BagTableCacheTest extends TestCase
+{
+    public BagTableCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void testGetKey() throws Exception {
+        String key1 = BagTableCache.getKey(Integer.class, Arrays.asList(3, 1, 2));
+        String key2 = BagTableCache.getKey(Integer.class, Arrays.asList(1, 2, 3));
+        String key3 = BagTableCache.getKey(Integer.class, Arrays.asList(1, 2, 4));
+        String key4 = BagTableCache.getKey(Long.class, Arrays.asList(1L, 2L, 3L));
+        assertEquals(key1, key2);
+        assertFalse(key1.equals(key3));
+        assertFalse(key1.equals(key4));
+        // Elements of the wrong type are not written into bag tables, so are ignored
+        List<Object> mixed = new ArrayList<Object>(Arrays.asList(1, 2, 3));
+        mixed.add("four");
+        assertEquals(key1, BagTableCache.getKey(Integer.class, mixed));
+        // Element boundaries must not be confused
+        assertFalse(BagTableCache.getKey(String.class, Arrays.asList("a", "bc")).equals(
+                    BagTableCache.getKey(String.class, Arrays.asList("ab", "c"))));
+    }
+
+    public void testSharing() throws Exception {
+        BagTableCache cache = new BagTableCache(1);
+        assertNull(cache.acquire("a"));
+        assertTrue(cache.register("a", "table_a"));
+        assertFalse(cache.register("a", "table_a2"));
+        assertEquals("table_a", cache.acquire("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // Two users, so releasing one leaves the table in use
+        assertTrue(cache.release("a", "table_a"));
+        assertEquals(Collections.EMPTY_LIST, cache.evict());
+        // The losing table of a race is not shared
+        assertFalse(cache.release("a", "table_a2"));
+        assertTrue(cache.release("a", "table_a"));
+        // One idle table is allowed
+        assertEquals(Collections.EMPTY_LIST, cache.evict());
+        assertEquals("table_a", cache.acquire("a"));
+        assertTrue(cache.release("a", "table_a"));
+    }
+
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        BagTableCache cache = new BagTableCache(1);
+        cache.register("a", "table_a");
+        cache.register("b", "table_b");
+        cache.register("c", "table_c");
+        cache.release("a", "table_a");
+        cache.release("b", "table_b");
+        cache.acquire("a");
+        cache.release("a", "table_a");
+        // c is still in use, and a was used more recently than b
+        assertEquals(Collections.singletonList("table_b"), cache.evict());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        cache.release("c", "table_c");
+        assertEquals(Collections.singletonList("table_a"), cache.evict());
+        assertEquals(Collections.singletonList("table_c"), cache.clear());
+    }
+}
@@ -12,11 +12,14 @@ package org.intermine.objectstore.intermine;
 
 import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import junit.framework.TestCase;
 
+import org.intermine.metadata.ConstraintOp;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.testmodel.Department;
 import org.intermine.model.testmodel.Employee;
@@ -25,8 +28,13 @@ import org.intermine.objectstore.ObjectStoreWriterFactory;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCloner;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.PrecomputedTableManager;
 
 public class ObjectStorePrecomputedTablesTest extends TestCase
 {
@@ -136,6 +144,57 @@ public class ObjectStorePrecomputedTablesTest extends TestCase
             writer.close();
         }
     }
-}
 
+    public void testRefreshWithPreallocatedId() throws Exception {
+        ObjectStoreWriterInterMineImpl writer = (ObjectStoreWriterInterMineImpl)
+            ObjectStoreWriterFactory.getObjectStoreWriter("osw.unittest");
+        ObjectStoreInterMineImpl os = (ObjectStoreInterMineImpl) writer.getObjectStore();
+        List<InterMineObject> toRemove = new ArrayList<InterMineObject>();
+        try {
+            // Storing the employee gives its department an id, but the department is only stored
+            // after departments with higher ids have been committed and precomputed
+            Department late = new Department();
+            late.setName("Refresh late");
+            Employee e = new Employee();
+            e.setName("Refresh employee");
+            e.setDepartment(late);
+            writer.beginTransaction();
+            writer.store(e);
+            toRemove.add(e);
+            for (int i = 0; i < 5; i++) {
+                Department d = new Department();
+                d.setName("Refresh" + i);
+                writer.store(d);
+                toRemove.add(d);
+            }
+            writer.commitTransaction();
+            assertTrue(late.getId().intValue() < toRemove.get(5).getId().intValue());
 
+            Query q = new Query();
+            QueryClass qc = new QueryClass(Department.class);
+            q.addFrom(qc);
+            q.addToSelect(qc);
+            q.setConstraint(new SimpleConstraint(new QueryField(qc, "name"), ConstraintOp.MATCHES,
+                        new QueryValue("Refresh%")));
+            List<String> tables = os.precompute(q, "test");
+            assertEquals(5, os.execute(QueryCloner.cloneQuery(q), 1000, true, false, true).size());
+
+            writer.store(late);
+            toRemove.add(late);
+            PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(os.getDatabase());
+            Set<String> names = new HashSet<String>();
+            for (PrecomputedTable pt : ptm.getPrecomputedTables()) {
+                names.add(pt.getName());
+            }
+            assertTrue(names.containsAll(tables));
+            assertEquals(6, os.execute(QueryCloner.cloneQuery(q), 1000, true, false, true).size());
+        } finally {
+            writer.beginTransaction();
+            for (InterMineObject o : toRemove) {
+                writer.delete(o);
+            }
+            writer.commitTransaction();
+            writer.close();
+        }
+    }
+}
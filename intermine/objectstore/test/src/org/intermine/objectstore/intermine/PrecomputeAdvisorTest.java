@@ -0,0 +1,98 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.iql.IqlQuery;
+
+public class PrecomputeAdvisorTest extends TestCase
+{
+    private static final String PACKAGE = "org.intermine.model.testmodel";
+
+    public PrecomputeAdvisorTest(String arg) {
+        super(arg);
+    }
+
+    private static Query parse(String iql) {
+        return new IqlQuery(iql, PACKAGE).toQuery();
+    }
+
+    public void testValuesRemoved() throws Exception {
+        Query q1 = parse("SELECT a1_, a2_ FROM Employee AS a1_, Department AS a2_ WHERE"
+                + " a1_.department CONTAINS a2_ AND a2_.name = 'DepartmentA1' AND a1_.age > 20");
+        Query q2 = parse("SELECT a1_, a2_ FROM Employee AS a1_, Department AS a2_ WHERE"
+                + " a1_.department CONTAINS a2_ AND a2_.name = 'DepartmentB1' AND a1_.age > 40");
+        Query shape = PrecomputeAdvisor.getShape(q1);
+        assertEquals(shape.toString(), PrecomputeAdvisor.getShape(q2).toString());
+
+        assertEquals(4, shape.getSelect().size());
+        assertTrue(shape.getSelect().get(0) instanceof QueryClass);
+        assertTrue(shape.getSelect().get(1) instanceof QueryClass);
+        assertTrue(shape.getSelect().get(2) instanceof QueryField);
+        assertTrue(shape.getSelect().get(3) instanceof QueryField);
+        ConstraintSet cs = (ConstraintSet) shape.getConstraint();
+        assertEquals(1, cs.getConstraints().size());
+        assertTrue(cs.getConstraints().iterator().next() instanceof ContainsConstraint);
+
+        // The original query is untouched
+        assertEquals(2, q1.getSelect().size());
+        assertEquals(3, ((ConstraintSet) q1.getConstraint()).getConstraints().size());
+    }
+
+    public void testBagsRemoved() throws Exception {
+        List<String> bag = new ArrayList<String>(Arrays.asList("DepartmentA1", "DepartmentB1"));
+        Query q = new IqlQuery("SELECT a1_, a2_ FROM Employee AS a1_, Department AS a2_ WHERE"
+                + " a1_.department CONTAINS a2_ AND a2_.name IN ?", PACKAGE,
+                Collections.singletonList(bag)).toQuery();
+        Query shape = PrecomputeAdvisor.getShape(q);
+        assertEquals(3, shape.getSelect().size());
+        ConstraintSet cs = (ConstraintSet) shape.getConstraint();
+        assertEquals(1, cs.getConstraints().size());
+        assertFalse(cs.getConstraints().iterator().next() instanceof BagConstraint);
+
+        // A bag that is part of the join pattern would have to be kept with the shape
+        q = new IqlQuery("SELECT a1_, a2_ FROM Employee AS a1_, Department AS a2_ WHERE"
+                + " a1_.department CONTAINS a2_ AND (a2_.name IN ? OR a1_.age > 20)", PACKAGE,
+                Collections.singletonList(bag)).toQuery();
+        assertNull(PrecomputeAdvisor.getShape(q));
+    }
+
+    public void testNotJoins() throws Exception {
+        assertNull(PrecomputeAdvisor.getShape(parse("SELECT a1_ FROM Employee AS a1_"
+                        + " WHERE a1_.name = 'EmployeeA1'")));
+        assertNull(PrecomputeAdvisor.getShape(parse("SELECT a2_.name AS a3_, COUNT(*) AS a4_"
+                        + " FROM Employee AS a1_, Department AS a2_"
+                        + " WHERE a1_.department CONTAINS a2_ GROUP BY a2_.name")));
+    }
+
+    public void testRecord() throws Exception {
+        PrecomputeAdvisor advisor = new PrecomputeAdvisor(null, 2, 100);
+        Query q = parse("SELECT a1_, a2_ FROM Employee AS a1_, Department AS a2_ WHERE"
+                + " a1_.department CONTAINS a2_ AND a2_.name = 'DepartmentA1'");
+        assertFalse(advisor.record(q, 99));
+        assertTrue(advisor.record(q, 100));
+        assertTrue(advisor.record(q, 200));
+        assertTrue(advisor.record(q, 300));
+        assertEquals(2, advisor.size());
+    }
+}
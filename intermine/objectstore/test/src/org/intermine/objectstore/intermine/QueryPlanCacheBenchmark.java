@@ -0,0 +1,110 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.precompute.BestQueryStorer;
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.precompute.PrecomputedTableIndex;
+import org.intermine.sql.precompute.QueryOptimiser;
+import org.intermine.sql.query.Query;
+
+/**
+ * Compares the time taken to optimise a template-like query run with a different value each time,
+ * first with no plan (parsing the SQL and trying every precomputed table that could fit) and then
+ * binding the values into the plan made by a QueryPlanCache after the first run. Explaining the
+ * candidates, which needs a database, is left out, so the real saving is larger. This is not part
+ * of the test suite - run it by hand.
+ */
+public class QueryPlanCacheBenchmark extends TestCase
+{
+    private static final int RUNS = 200;
+
+    private static final String SQL = "SELECT a1_.OBJECT AS a1_, a1_.id AS a1_id,"
+        + " a2_.OBJECT AS a2_, a2_.id AS a2_id, a3_.OBJECT AS a3_, a3_.id AS a3_id"
+        + " FROM Gene AS a1_, Protein AS a2_, Organism AS a3_, GenesProteins AS indirect0"
+        + " WHERE a1_.symbol = 'symbol%d' AND a3_.taxonId = %d"
+        + " AND a1_.id = indirect0.Proteins AND indirect0.Genes = a2_.id"
+        + " AND a1_.organismId = a3_.id ORDER BY a1_.id, a2_.id, a3_.id LIMIT 1000";
+
+    private static final String[] PT_SQL = new String[] {
+        "SELECT a1_.OBJECT AS a1_, a1_.id AS a1_id, a1_.symbol AS a1_symbol,"
+            + " a3_.OBJECT AS a3_, a3_.id AS a3_id, a3_.taxonId AS a3_taxonid"
+            + " FROM Gene AS a1_, Organism AS a3_ WHERE a1_.organismId = a3_.id",
+        "SELECT a1_.OBJECT AS a1_, a1_.id AS a1_id, a1_.symbol AS a1_symbol,"
+            + " a1_.organismId AS a1_organismid, a2_.OBJECT AS a2_, a2_.id AS a2_id"
+            + " FROM Gene AS a1_, Protein AS a2_, GenesProteins AS indirect0"
+            + " WHERE a1_.id = indirect0.Proteins AND indirect0.Genes = a2_.id",
+        "SELECT a2_.OBJECT AS a2_, a2_.id AS a2_id, indirect0.Proteins AS indirect0proteins"
+            + " FROM Protein AS a2_, GenesProteins AS indirect0 WHERE indirect0.Genes = a2_.id"
+    };
+
+    public QueryPlanCacheBenchmark(String arg1) {
+        super(arg1);
+    }
+
+    public void testColdAndWarm() throws Exception {
+        for (int copies : new int[] {1, 10, 50}) {
+            Set<PrecomputedTable> precomps = new TreeSet<PrecomputedTable>();
+            for (int i = 0; i < copies; i++) {
+                for (int j = 0; j < PT_SQL.length; j++) {
+                    precomps.add(new PrecomputedTable(new Query(PT_SQL[j]), PT_SQL[j],
+                                "precomp" + j + "_" + i, null, null));
+                }
+            }
+            PrecomputedTableIndex index = new PrecomputedTableIndex(precomps);
+            QueryPlanCache plans = new QueryPlanCache(10);
+
+            long start = System.nanoTime();
+            int coldCandidates = 0;
+            for (int i = 0; i < RUNS; i++) {
+                BestQueryStorer bestQuery = new BestQueryStorer();
+                QueryOptimiser.recursiveOptimiseCheckSubquery(index, new Query(sql(i)), bestQuery);
+                coldCandidates = bestQuery.getQueries().size();
+                if (i == 0) {
+                    plans.addPlan(sql(i), chooseCandidate(bestQuery), precomps, 0);
+                }
+            }
+            long coldTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                assertNotNull(plans.bind(sql(i), 0));
+            }
+            long warmTime = System.nanoTime() - start;
+
+            System.out.printf("%4d precomputed tables: cold plan %4d candidates %8.3f ms,"
+                    + " warm plan %8.3f ms per query\n", precomps.size(), coldCandidates,
+                    coldTime / 1000000.0 / RUNS, warmTime / 1000000.0 / RUNS);
+        }
+    }
+
+    /**
+     * Stands in for the explainer by picking the candidate that reads the fewest tables.
+     */
+    private static String chooseCandidate(BestQueryStorer bestQuery) {
+        Query best = null;
+        for (Query q : bestQuery.getQueries()) {
+            if ((best == null) || (q.getFrom().size() < best.getFrom().size())) {
+                best = q;
+            }
+        }
+        return best.getSQLString();
+    }
+
+    private static String sql(int i) {
+        return String.format(SQL, i, 7000 + i);
+    }
+}
@@ -0,0 +1,133 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.precompute.PrecomputedTable;
+import org.intermine.sql.query.Query;
+
+public class QueryPlanCacheTest extends TestCase
+{
+    private static final String PT_SQL = "SELECT a1_.id AS a1_id, a2_.id AS a2_id"
+        + " FROM Gene AS a1_, Organism AS a2_ WHERE a1_.organismId = a2_.id";
+
+    private PrecomputedTable pt1;
+    private PrecomputedTable pt10;
+    private List<PrecomputedTable> available;
+
+    public QueryPlanCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        pt1 = new PrecomputedTable(new Query(PT_SQL), PT_SQL, "precomp1", null, null);
+        pt10 = new PrecomputedTable(new Query(PT_SQL), PT_SQL, "precomp10", null, null);
+        available = Arrays.asList(pt1, pt10);
+    }
+
+    public void testPlanForSameShape() throws Exception {
+        QueryPlanCache cache = new QueryPlanCache(10);
+        cache.addPlan(sql("zen", 7227, 0), optimised("precomp1", "zen", 7227, 0), available, 1);
+        QueryPlanCache.BoundPlan plan = cache.bind(sql("eve", 9606, 1000), 1);
+        assertEquals(optimised("precomp1", "eve", 9606, 1000), plan.getSql());
+        assertEquals(Collections.singleton(pt1), plan.getTables());
+        assertTrue(plan.isParameterised());
+        assertEquals("SELECT P.a1_id AS a1_id FROM precomp1 AS P WHERE P.a1_symbol = ?"
+                + " AND P.a2_taxonid = ? ORDER BY P.a1_id LIMIT ? OFFSET ?",
+                plan.getParameterisedSql());
+        assertNull(cache.bind("SELECT a1_.id AS a1_id FROM Gene AS a1_", 1));
+    }
+
+    public void testPlanWithoutTables() throws Exception {
+        QueryPlanCache cache = new QueryPlanCache(10);
+        cache.addPlan(sql("zen", 7227, 0), sql("zen", 7227, 0), available, 1);
+        QueryPlanCache.BoundPlan plan = cache.bind(sql("it's", 9606, 0), 1);
+        assertEquals(sql("it's", 9606, 0), plan.getSql());
+        assertEquals(Collections.emptySet(), plan.getTables());
+    }
+
+    public void testValueCoveredByTable() throws Exception {
+        QueryPlanCache cache = new QueryPlanCache(10);
+        // The precomputed table only has rows for taxonId 7227, so would not fit 9606
+        cache.addPlan(sql("zen", 7227, 0), "SELECT P.a1_id AS a1_id FROM precomp1 AS P"
+                + " WHERE P.a1_symbol = 'zen' ORDER BY P.a1_id LIMIT 1000 OFFSET 0", available, 1);
+        assertNull(cache.bind(sql("eve", 9606, 0), 1));
+    }
+
+    public void testTableWithConstants() throws Exception {
+        String fly = "SELECT a1_.id AS a1_id, a2_.id AS a2_id FROM Gene AS a1_, Organism AS a2_"
+            + " WHERE a1_.organismId = a2_.id AND a2_.taxonId = 7227";
+        PrecomputedTable flyPt = new PrecomputedTable(new Query(fly), fly, "precomp2", null,
+                null);
+        QueryPlanCache cache = new QueryPlanCache(10);
+        cache.addPlan(sql("zen", 7227, 0), optimised("precomp1", "zen", 7227, 0),
+                Arrays.asList(pt1, flyPt), 1);
+        assertNull(cache.bind(sql("eve", 9606, 0), 1));
+
+        // A table with constants that cannot fit the query does not matter
+        String protein = "SELECT a1_.id AS a1_id FROM Protein AS a1_ WHERE a1_.length > 100";
+        PrecomputedTable proteinPt = new PrecomputedTable(new Query(protein), protein,
+                "precomp3", null, null);
+        cache.addPlan(sql("zen", 7227, 0), optimised("precomp1", "zen", 7227, 0),
+                Arrays.asList(pt1, proteinPt), 1);
+        assertNotNull(cache.bind(sql("eve", 9606, 0), 1));
+    }
+
+    public void testEqualValues() throws Exception {
+        QueryPlanCache cache = new QueryPlanCache(10);
+        cache.addPlan(sql("zen", 1000, 0), optimised("precomp1", "zen", 1000, 0), available, 1);
+        // The plan cannot tell whether 1000 in the optimised SQL is the taxonId or the LIMIT
+        assertNull(cache.bind(sql("eve", 9606, 0), 1));
+        assertEquals(optimised("precomp1", "eve", 1000, 0),
+                cache.bind(sql("eve", 1000, 0), 1).getSql());
+    }
+
+    public void testNotParameterised() throws Exception {
+        QueryPlanCache cache = new QueryPlanCache(10);
+        String sql = "SELECT a1_.id AS a1_id FROM Gene AS a1_ WHERE a1_.score > 1.5";
+        cache.addPlan(sql, sql, available, 1);
+        assertFalse(cache.bind(sql, 1).isParameterised());
+
+        cache.addPlan(sql("zen", 7227, 0), sql("zen", 7227, 0), available, 1);
+        QueryPlanCache.BoundPlan plan = cache.bind(sql("eve", 9606, 0), 1);
+        assertTrue(plan.isParameterised());
+        plan.notParameterised();
+        assertFalse(cache.bind(sql("eve", 9606, 0), 1).isParameterised());
+    }
+
+    public void testAddedOrDroppedTable() throws Exception {
+        QueryPlanCache cache = new QueryPlanCache(10);
+        List<PrecomputedTable> before = Collections.singletonList(pt1);
+        cache.addPlan(sql("zen", 7227, 0), optimised("precomp1", "zen", 7227, 0), before, 1);
+        assertNotNull(cache.bind(sql("eve", 9606, 0), 1));
+        // pt10 has been created, so the shape is optimised again and can choose it
+        assertNull(cache.bind(sql("eve", 9606, 0), 2));
+        assertNull(cache.bind(sql("eve", 9606, 0), 1));
+        cache.addPlan(sql("eve", 9606, 0), optimised("precomp10", "eve", 9606, 0), available, 2);
+        assertEquals(Collections.singleton(pt10), cache.bind(sql("zen", 7227, 0), 2).getTables());
+    }
+
+    private static String sql(String symbol, int taxonId, int offset) {
+        return "SELECT a1_.id AS a1_id FROM Gene AS a1_, Organism AS a2_"
+            + " WHERE a1_.organismId = a2_.id AND a1_.symbol = '" + symbol.replace("'", "''")
+            + "' AND a2_.taxonId = " + taxonId + " ORDER BY a1_.id LIMIT 1000 OFFSET " + offset;
+    }
+
+    private static String optimised(String table, String symbol, int taxonId, int offset) {
+        return "SELECT P.a1_id AS a1_id FROM " + table + " AS P WHERE P.a1_symbol = '" + symbol
+            + "' AND P.a2_taxonid = " + taxonId + " ORDER BY P.a1_id LIMIT 1000 OFFSET " + offset;
+    }
+}
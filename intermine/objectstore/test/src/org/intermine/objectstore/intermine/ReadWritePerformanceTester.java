@@ -51,7 +51,9 @@ public class ReadWritePerformanceTester {
         }
         double timePerThousand = (double) storeTime / ((double)(batches * batchSize)) * 1000;
         System.out.println("Total store time: " + storeTime + "ms. Average time per thousand: "
-                + new DecimalFormat("#0.000").format(timePerThousand) + "ms.");
+                + new DecimalFormat("#0.000").format(timePerThousand) + "ms ("
+                + new DecimalFormat("#0").format(1000000.0 / timePerThousand)
+                + " objects per second).");
         LOG.info("Total store time: " + storeTime + "ms");
 
         // flush the cache so we have to materialise all objects
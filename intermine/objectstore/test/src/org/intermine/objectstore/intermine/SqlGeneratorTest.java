@@ -546,6 +546,12 @@ public class SqlGeneratorTest extends SetupDataTestCase
                 // And check that the SQL generated is high enough quality to be parsed by the
                 // optimiser.
                 org.intermine.sql.query.Query sql = new org.intermine.sql.query.Query(generated);
+                // Where the tree can be built without the SQL, it must be the parsed SQL
+                org.intermine.sql.query.Query tree = SqlTreeGenerator.generate(q, 0,
+                        Integer.MAX_VALUE, getSchema(), bagTableNames);
+                if (tree != null) {
+                    assertEquals(type, sql, tree);
+                }
                 if (!"LargeBagNotConstraintUsingTable".equals(type)) {
                     // Also check to see that the optimiser doesn't barf on them.
                     //PrecomputedTableManager ptm = PrecomputedTableManager.getInstance(db);
@@ -0,0 +1,119 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.Model;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryExpression;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.sql.query.SqlParseCache;
+
+/**
+ * Compares the per-query cost of getting the tree the optimiser works on for a three-way join
+ * run again and again with different values - by generating SQL and parsing it, with and without
+ * the SqlParseCache, and by generating SQL and building the tree from the Query with
+ * SqlTreeGenerator. This is not part of the test suite - run it by hand.
+ */
+public class SqlTreeGeneratorBenchmark extends TestCase
+{
+    private static final int WARMUP = 500;
+    private static final int RUNS = 2000;
+    private static final int LIMIT = 1000;
+
+    private DatabaseSchema schema;
+    private Map<Object, String> bagTableNames = new HashMap<Object, String>();
+
+    public SqlTreeGeneratorBenchmark(String arg1) {
+        super(arg1);
+    }
+
+    public void setUp() throws Exception {
+        Model model = Model.getInstanceByName("testmodel");
+        schema = new DatabaseSchema(model, Collections.<ClassDescriptor>emptyList(), true,
+                Collections.<String>emptySet(), 1, false, false);
+    }
+
+    public void testTree() throws Exception {
+        SqlParseCache.setEnabled(false);
+        double uncached = time(false);
+        SqlParseCache.setEnabled(true);
+        double cached = time(false);
+        double tree = time(true);
+        System.out.printf("Generate and parse without cache %8.1f us, with cache %8.1f us,"
+                + " generate and build tree %8.1f us per query\n", uncached, cached, tree);
+    }
+
+    private double time(boolean tree) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            run(i, tree);
+        }
+        long start = System.nanoTime();
+        for (int i = WARMUP; i < WARMUP + RUNS; i++) {
+            run(i, tree);
+        }
+        return (System.nanoTime() - start) / 1000.0 / RUNS;
+    }
+
+    private void run(int i, boolean tree) throws Exception {
+        Query q = query(i);
+        String sql = SqlGenerator.generate(q, i * LIMIT, LIMIT, schema, null, bagTableNames);
+        if (tree) {
+            assertNotNull(SqlTreeGenerator.generate(q, i * LIMIT, LIMIT, schema, bagTableNames));
+        } else {
+            new org.intermine.sql.query.Query(sql);
+        }
+    }
+
+    private static Query query(int i) {
+        Query q = new Query();
+        QueryClass qcEmployee = new QueryClass(Employee.class);
+        QueryClass qcDepartment = new QueryClass(Department.class);
+        QueryClass qcCompany = new QueryClass(Company.class);
+        q.addFrom(qcEmployee);
+        q.addFrom(qcDepartment);
+        q.addFrom(qcCompany);
+        q.addToSelect(qcEmployee);
+        q.addToSelect(qcDepartment);
+        q.addToSelect(qcCompany);
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(new SimpleConstraint(new QueryExpression(QueryExpression.LOWER,
+                new QueryField(qcEmployee, "name")), ConstraintOp.MATCHES,
+                new QueryValue("employee" + i + "%")));
+        cs.addConstraint(new SimpleConstraint(new QueryField(qcCompany, "vatNumber"),
+                ConstraintOp.EQUALS, new QueryValue(new Integer(7000 + i))));
+        cs.addConstraint(new SimpleConstraint(new QueryField(qcEmployee, "age"),
+                ConstraintOp.GREATER_THAN, new QueryValue(new Integer(i % 60))));
+        cs.addConstraint(new ContainsConstraint(new QueryObjectReference(qcEmployee,
+                "department"), ConstraintOp.CONTAINS, qcDepartment));
+        cs.addConstraint(new ContainsConstraint(new QueryObjectReference(qcDepartment,
+                "company"), ConstraintOp.CONTAINS, qcCompany));
+        q.setConstraint(cs);
+        q.setDistinct(true);
+        return q;
+    }
+}
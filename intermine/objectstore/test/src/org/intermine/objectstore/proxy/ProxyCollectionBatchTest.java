@@ -0,0 +1,151 @@
+package org.intermine.objectstore.proxy;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.util.DynamicUtil;
+
+public class ProxyCollectionBatchTest extends TestCase
+{
+    private ObjectStoreDummyImpl os;
+
+    public ProxyCollectionBatchTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        os = new ObjectStoreDummyImpl();
+    }
+
+    public void testLoadTogether() throws Exception {
+        Company c1 = createCompany(1);
+        Company c2 = createCompany(2);
+        Department d1 = (Department) DynamicUtil.createObject(Collections.singleton(
+                    Department.class));
+        Department d2 = (Department) DynamicUtil.createObject(Collections.singleton(
+                    Department.class));
+        Department d3 = (Department) DynamicUtil.createObject(Collections.singleton(
+                    Department.class));
+        os.addRow(row(1, d1));
+        os.addRow(row(2, d2));
+        os.addRow(row(1, d3));
+        os.setResultsSize(3);
+
+        ProxyCollectionBatch previous = ProxyCollectionBatch.open(os);
+        ProxyCollection<Department> pc1;
+        ProxyCollection<Department> pc2;
+        try {
+            pc1 = new ProxyCollection<Department>(os, c1, "departments", Department.class);
+            pc2 = new ProxyCollection<Department>(os, c2, "departments", Department.class);
+        } finally {
+            ProxyCollectionBatch.close(previous);
+        }
+
+        assertEquals(2, pc1.size());
+        assertEquals(1, os.getExecuteCalls());
+        assertEquals(Collections.singleton(d2), pc2.getMaterialisedCollection());
+        assertEquals(1, pc2.size());
+        assertEquals(1, os.getExecuteCalls());
+    }
+
+    public void testTooManyRows() throws Exception {
+        Company c1 = createCompany(1);
+        Company c2 = createCompany(2);
+        Company c3 = createCompany(3);
+        Company c4 = createCompany(4);
+        // The rows come back in order of company, and are cut short in the departments of c2
+        final List<List<ResultsRow<Object>>> results = new ArrayList<List<ResultsRow<Object>>>();
+        List<ResultsRow<Object>> rows = new ArrayList<ResultsRow<Object>>();
+        int c1Rows = ProxyCollectionBatch.MAX_ROWS - 10;
+        for (int i = 0; i < c1Rows; i++) {
+            rows.add(row(1, createDepartment(i)));
+        }
+        for (int i = 0; i < 20; i++) {
+            rows.add(row(2, createDepartment(c1Rows + i)));
+        }
+        Department d3 = createDepartment(c1Rows + 20);
+        Department d4 = createDepartment(c1Rows + 21);
+        rows.add(row(3, d3));
+        rows.add(row(4, d4));
+        results.add(rows);
+        results.add(Arrays.asList(row(3, d3), row(4, d4)));
+        ObjectStoreDummyImpl cutShort = new ObjectStoreDummyImpl() {
+            @Override
+            public List execute(Query q, int start, int limit, boolean optimise,
+                    boolean explain, Map<Object, Integer> sequence) {
+                List<ResultsRow<Object>> next = results.remove(0);
+                return next.subList(0, Math.min(limit, next.size()));
+            }
+        };
+
+        ProxyCollectionBatch previous = ProxyCollectionBatch.open(cutShort);
+        ProxyCollection<Department> pc1;
+        ProxyCollection<Department> pc2;
+        ProxyCollection<Department> pc3;
+        ProxyCollection<Department> pc4;
+        try {
+            pc1 = new ProxyCollection<Department>(cutShort, c1, "departments",
+                    Department.class);
+            pc2 = new ProxyCollection<Department>(cutShort, c2, "departments",
+                    Department.class);
+            pc3 = new ProxyCollection<Department>(cutShort, c3, "departments",
+                    Department.class);
+            pc4 = new ProxyCollection<Department>(cutShort, c4, "departments",
+                    Department.class);
+        } finally {
+            ProxyCollectionBatch.close(previous);
+        }
+
+        // The collection returned in full is kept, and the others are not
+        assertEquals(c1Rows, pc1.size());
+        assertEquals(1, results.size());
+        assertNull(pc2.getMaterialisedCollection());
+        assertNull(pc3.getMaterialisedCollection());
+        assertNull(pc4.getMaterialisedCollection());
+        // The objects after the one the rows were cut short at are fetched together later
+        assertEquals(Collections.singleton(d3), new HashSet<Department>(pc3));
+        assertEquals(0, results.size());
+        assertEquals(Collections.singleton(d4), pc4.getMaterialisedCollection());
+    }
+
+    private Company createCompany(int id) {
+        Company c = (Company) DynamicUtil.createObject(Collections.singleton(Company.class));
+        c.setId(new Integer(id));
+        return c;
+    }
+
+    private Department createDepartment(int id) {
+        Department d = (Department) DynamicUtil.createObject(Collections.singleton(
+                    Department.class));
+        d.setId(new Integer(id));
+        return d;
+    }
+
+    private ResultsRow<Object> row(int id, Object o) {
+        ResultsRow<Object> row = new ResultsRow<Object>();
+        row.add(new Integer(id));
+        row.add(o);
+        return row;
+    }
+}
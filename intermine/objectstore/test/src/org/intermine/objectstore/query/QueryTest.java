@@ -17,6 +17,7 @@ import java.util.List;
 import junit.framework.TestCase;
 
 import org.intermine.metadata.ConstraintOp;
+import org.intermine.objectstore.query.iql.IqlQuery;
 import org.intermine.model.testmodel.Company;
 import org.intermine.model.testmodel.Department;
 import org.intermine.model.testmodel.Employee;
@@ -236,4 +237,44 @@ public class QueryTest extends TestCase
         q.setDistinct(false);
         assertEquals("SELECT a1_ FROM org.intermine.model.testmodel.Employee AS a1_", q.toString());
     }
+
+    public void testFingerprint() {
+        List<String> names = new ArrayList<String>();
+        names.add("CompanyA");
+        names.add("CompanyB");
+        Query q1 = new Query();
+        QueryClass qc1 = new QueryClass(Company.class);
+        q1.addFrom(qc1);
+        q1.addToSelect(qc1);
+        q1.setConstraint(new BagConstraint(new QueryField(qc1, "name"), ConstraintOp.IN, names));
+        Query q2 = new Query();
+        QueryClass qc2 = new QueryClass(Company.class);
+        q2.addFrom(qc2);
+        q2.addToSelect(qc2);
+        q2.setConstraint(new BagConstraint(new QueryField(qc2, "name"), ConstraintOp.IN,
+                    new ArrayList<String>(names)));
+
+        QueryFingerprint fingerprint = q1.getFingerprint();
+        assertEquals(fingerprint, q2.getFingerprint());
+        assertEquals(fingerprint.hashCode(), q2.getFingerprint().hashCode());
+
+        // the fingerprint keeps the bag as it was when the fingerprint was taken
+        names.add("CompanyC");
+        assertFalse(fingerprint.equals(new QueryFingerprint(new IqlQuery(q1))));
+        // and the query does not keep it, as the bag has been changed in place
+        assertFalse(fingerprint.equals(q1.getFingerprint()));
+        assertEquals(new QueryFingerprint(new IqlQuery(q1)), q1.getFingerprint());
+        names.remove("CompanyC");
+        assertEquals(fingerprint, q1.getFingerprint());
+
+        // a query without a bag keeps its fingerprint
+        Query q3 = new Query();
+        QueryClass qc3 = new QueryClass(Company.class);
+        q3.addFrom(qc3);
+        q3.addToSelect(qc3);
+        assertSame(q3.getFingerprint(), q3.getFingerprint());
+
+        q2.setDistinct(false);
+        assertFalse(fingerprint.equals(q2.getFingerprint()));
+    }
 }
@@ -17,6 +17,7 @@ import java.util.Iterator;
 import junit.framework.Test;
 
 import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.testing.OneTimeTestCase;
 
 /**
@@ -209,12 +210,28 @@ public class IqlQueryParserTest extends IqlQueryTestCase
 
     }
 
+    public void testCountDistinct() throws Exception {
+        Query q = IqlQueryParser.parse(new IqlQuery("select count(distinct Company.name) as a, count(*) as b from Company", "org.intermine.model.testmodel"));
+        assertEquals("SELECT COUNT(DISTINCT Company.name) AS a, COUNT(*) AS b FROM org.intermine.model.testmodel.Company AS Company", q.toString());
+        QueryFunction qf = (QueryFunction) q.getSelect().get(0);
+        assertEquals(QueryFunction.COUNT_DISTINCT, qf.getOperation());
+        assertEquals(Long.class, qf.getType());
+        // The IQL of the query can be parsed back
+        assertEquals(q.toString(), IqlQueryParser.parse(new IqlQuery(q)).toString());
+    }
+
     public void testInvalidSafeFunctions() throws Exception {
         try {
             Query q = IqlQueryParser.parse(new IqlQuery("select count(5) as a from Company", "org.intermine.model.testmodel"));
             fail("Expected: IllegalArgumentException, because count does not take an argument");
         } catch (IllegalArgumentException e) {
-            assertEquals("expecting ASTERISK, found '5'", e.getCause().getMessage());
+            assertEquals("unexpected token: 5", e.getCause().getMessage());
+        }
+        try {
+            Query q = IqlQueryParser.parse(new IqlQuery("select count(distinct *) as a from Company", "org.intermine.model.testmodel"));
+            fail("Expected: IllegalArgumentException, because count(distinct) needs a value");
+        } catch (IllegalArgumentException e) {
+            assertEquals("unexpected token: *", e.getCause().getMessage());
         }
         try {
             Query q = IqlQueryParser.parse(new IqlQuery("select sum(5, 3) as a from Company", "org.intermine.model.testmodel"));
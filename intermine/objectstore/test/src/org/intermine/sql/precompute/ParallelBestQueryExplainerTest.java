@@ -0,0 +1,107 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for ParallelBestQueryExplainer, using DummyExplainResults (which take 300ms for each
+ * table and constraint) rather than a database.
+ */
+public class ParallelBestQueryExplainerTest extends TestCase
+{
+    private static final String Q1 = "SELECT a.x FROM mytable AS a WHERE a.x = 1";
+    private static final String Q2 = "SELECT a.x FROM mytable AS a, mytable AS b WHERE a.x = 1"
+        + " AND b.y = 1";
+    private static final String Q3 = "SELECT a.x FROM mytable AS a, mytable AS b, mytable AS c"
+        + " WHERE a.x = 1 AND b.y = 1 AND c.z = 1";
+
+    public ParallelBestQueryExplainerTest(String arg1) {
+        super(arg1);
+    }
+
+    private static BestQueryExplainer explainer() {
+        return new ParallelBestQueryExplainer(4);
+    }
+
+    public void testReturnBest() throws Exception {
+        BestQueryExplainer bq = explainer();
+        bq.add(Q3);
+        bq.add(Q1);
+        bq.add(Q2);
+        assertEquals(Q1, bq.getBestQueryString());
+        assertEquals(3, bq.getCandidateCount());
+        assertEquals(3, bq.getExplainCount());
+
+        bq = explainer();
+        bq.add(Q1);
+        bq.add(Q2);
+        bq.add(Q3);
+        assertEquals(Q1, bq.getBestQueryString());
+    }
+
+    public void testManyCandidates() throws Exception {
+        BestQueryExplainer bq = explainer();
+        bq.add(Q3);
+        for (int i = 0; i < 50; i++) {
+            bq.add(i == 37 ? Q1 : Q2);
+        }
+        assertEquals(Q1, bq.getBestQueryString());
+        assertEquals(51, bq.getCandidateCount());
+        assertEquals(51, bq.getExplainCount());
+    }
+
+    public void testStopsWhenQueryBetterThanElapsed() throws Exception {
+        BestQueryExplainer bq = explainer();
+        bq.add(Q1); // Takes 600 milliseconds
+        Thread.sleep(700);
+        try {
+            bq.add(Q2);
+            fail("Expected: BestQueryException");
+        } catch (BestQueryException e) {
+        }
+    }
+
+    public void testHelperCannotExplain() throws Exception {
+        // Helpers get connections that fail, as if they could not see the caller's temporary
+        // tables, so every candidate has to be explained on the caller's connection instead
+        final AtomicInteger helperConnections = new AtomicInteger();
+        BestQueryExplainer bq = new ParallelBestQueryExplainer(4) {
+            @Override
+            protected Connection getHelperConnection() {
+                helperConnections.incrementAndGet();
+                return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] {Connection.class}, new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method method, Object[] args)
+                                throws SQLException {
+                                throw new SQLException("relation \"bag_table\" does not exist");
+                            }
+                        });
+            }
+        };
+        bq.add(Q3);
+        for (int i = 0; i < 10; i++) {
+            bq.add(i == 7 ? Q1 : Q2);
+        }
+        assertEquals(Q1, bq.getBestQueryString());
+        assertEquals(11, bq.getCandidateCount());
+        assertEquals(11, bq.getExplainCount());
+        assertTrue(helperConnections.get() > 0);
+    }
+}
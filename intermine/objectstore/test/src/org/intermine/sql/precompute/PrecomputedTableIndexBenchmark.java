@@ -0,0 +1,99 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.query.Query;
+
+/**
+ * Compares the time taken to optimise a query by trying every precomputed table with the time
+ * taken when only the candidates from a PrecomputedTableIndex are tried, as the number of
+ * precomputed tables grows. This is not part of the test suite - run it by hand.
+ */
+public class PrecomputedTableIndexBenchmark extends TestCase
+{
+    private static final int TABLE_NAMES = 60;
+    private static final int RUNS = 20;
+
+    private static final String QUERY = "SELECT t1.x AS a, t2.x AS b, t3.x AS c, t4.x AS d"
+        + " FROM table1 AS t1, table2 AS t2, table3 AS t3, table4 AS t4"
+        + " WHERE t1.id = t2.parent AND t2.id = t3.parent AND t3.id = t4.parent";
+
+    public PrecomputedTableIndexBenchmark(String arg1) {
+        super(arg1);
+    }
+
+    public void testScaling() throws Exception {
+        for (int count : new int[] {10, 100, 500, 1000, 2000}) {
+            TreeSet<PrecomputedTable> precomps = makePrecomputedTables(count);
+            PrecomputedTableIndex index = new PrecomputedTableIndex(precomps);
+
+            long start = System.nanoTime();
+            int allQueries = 0;
+            for (int i = 0; i < RUNS; i++) {
+                BestQueryStorer bestQuery = new BestQueryStorer();
+                Query q = new Query(QUERY);
+                QueryOptimiser.recursiveOptimise(precomps, q, bestQuery, q);
+                allQueries = bestQuery.getQueries().size();
+            }
+            long allTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int indexQueries = 0;
+            for (int i = 0; i < RUNS; i++) {
+                BestQueryStorer bestQuery = new BestQueryStorer();
+                QueryOptimiser.recursiveOptimiseCheckSubquery(index, new Query(QUERY), bestQuery);
+                indexQueries = bestQuery.getQueries().size();
+            }
+            long indexTime = System.nanoTime() - start;
+
+            assertEquals(allQueries, indexQueries);
+            System.out.printf("%5d precomputed tables, %3d candidates: all %8.3f ms,"
+                    + " indexed %8.3f ms per query\n", count,
+                    index.getCandidates(new Query(QUERY)).size(),
+                    allTime / 1000000.0 / RUNS, indexTime / 1000000.0 / RUNS);
+        }
+    }
+
+    /**
+     * Makes chains of two or three joined tables, picked at random from TABLE_NAMES tables, so
+     * that a few of them fit the query.
+     */
+    private static TreeSet<PrecomputedTable> makePrecomputedTables(int count) {
+        Random random = new Random(42);
+        TreeSet<PrecomputedTable> retval = new TreeSet<PrecomputedTable>();
+        for (int i = 0; i < count; i++) {
+            int first = 1 + random.nextInt(TABLE_NAMES);
+            int length = 2 + random.nextInt(2);
+            StringBuilder select = new StringBuilder("SELECT ");
+            StringBuilder from = new StringBuilder(" FROM ");
+            StringBuilder where = new StringBuilder();
+            for (int j = 0; j < length; j++) {
+                int table = 1 + ((first + j - 1) % TABLE_NAMES);
+                String alias = "t" + (j + 1);
+                select.append(j == 0 ? "" : ", ").append(alias).append(".x AS a" + j + "_, ")
+                    .append(alias).append(".id AS b" + j + "_");
+                from.append(j == 0 ? "" : ", ").append("table" + table + " AS " + alias);
+                if (j > 0) {
+                    where.append(j == 1 ? " WHERE " : " AND ").append("t" + j + ".id = " + alias
+                            + ".parent");
+                }
+            }
+            String sql = select.toString() + from + where;
+            retval.add(new PrecomputedTable(new Query(sql), sql, "precomp" + i, null, null));
+        }
+        return retval;
+    }
+}
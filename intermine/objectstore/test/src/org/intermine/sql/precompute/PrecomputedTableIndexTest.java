@@ -0,0 +1,87 @@
+package org.intermine.sql.precompute;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.StringUtil;
+import org.intermine.sql.query.Query;
+
+public class PrecomputedTableIndexTest extends TestCase
+{
+    private PrecomputedTable ptA, ptAB, ptAA, ptBC, ptSub;
+
+    public PrecomputedTableIndexTest(String arg1) {
+        super(arg1);
+    }
+
+    public void setUp() throws Exception {
+        ptA = precomp("SELECT a.x AS ax FROM tablea AS a", "ptA");
+        ptAB = precomp("SELECT a.x AS ax, b.y AS yb FROM tablea AS a, tableb AS b WHERE a.id = b.aid",
+                "ptAB");
+        ptAA = precomp("SELECT a1.x AS ax, a2.x AS bx FROM tablea AS a1, tablea AS a2 WHERE a1.id = a2.parent",
+                "ptAA");
+        ptBC = precomp("SELECT b.y AS yb, c.z AS cz FROM tableb AS b, tablec AS c WHERE b.id = c.bid",
+                "ptBC");
+        ptSub = precomp("SELECT s.x AS sx FROM (SELECT a.x FROM tablea AS a) AS s", "ptSub");
+    }
+
+    private static PrecomputedTable precomp(String sql, String name) {
+        return new PrecomputedTable(new Query(sql), sql, name, null, null);
+    }
+
+    private Set<PrecomputedTable> candidates(String sql) {
+        PrecomputedTableIndex index = new PrecomputedTableIndex(Arrays.asList(ptA, ptAB, ptAA,
+                    ptBC, ptSub));
+        assertEquals(5, index.size());
+        return new HashSet<PrecomputedTable>(index.getCandidates(new Query(sql)));
+    }
+
+    public void testSubsetOfTables() throws Exception {
+        assertEquals(new HashSet<PrecomputedTable>(Arrays.asList(ptA, ptAB, ptSub)),
+                candidates("SELECT a.x, b.y FROM tablea AS a, tableb AS b WHERE a.id = b.aid"));
+    }
+
+    public void testRepeatedTables() throws Exception {
+        assertEquals(new HashSet<PrecomputedTable>(Arrays.asList(ptA, ptAA, ptSub)),
+                candidates("SELECT a1.x, a2.x FROM tablea AS a1, tablea AS a2 WHERE a1.id = a2.parent"));
+        assertEquals(new HashSet<PrecomputedTable>(Arrays.asList(ptA, ptAB, ptAA, ptBC, ptSub)),
+                candidates("SELECT a1.x FROM tablea AS a1, tablea AS a2, tableb AS b, tablec AS c"));
+    }
+
+    public void testNoMatch() throws Exception {
+        assertEquals(new HashSet<PrecomputedTable>(Arrays.asList(ptSub)),
+                candidates("SELECT d.w FROM tabled AS d"));
+    }
+
+    public void testSameResultAsAllTables() throws Exception {
+        List<PrecomputedTable> all = new ArrayList<PrecomputedTable>(Arrays.asList(ptA, ptAB, ptAA,
+                    ptBC, ptSub));
+        String sql = "SELECT a.x, b.y FROM tablea AS a, tableb AS b WHERE a.id = b.aid AND a.x = 5";
+        StringUtil.setNextUniqueNumber(42);
+        BestQueryStorer withAll = new BestQueryStorer();
+        Query q = new Query(sql);
+        QueryOptimiser.recursiveOptimise(new TreeSet<PrecomputedTable>(all), q, withAll, q);
+        StringUtil.setNextUniqueNumber(42);
+        BestQueryStorer withIndex = new BestQueryStorer();
+        QueryOptimiser.recursiveOptimiseCheckSubquery(new PrecomputedTableIndex(all),
+                new Query(sql), withIndex);
+        assertFalse(withAll.getQueries().isEmpty());
+        assertEquals(withAll.getQueries(), withIndex.getQueries());
+    }
+}
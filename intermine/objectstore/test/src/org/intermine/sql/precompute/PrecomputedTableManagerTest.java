@@ -13,8 +13,11 @@ package org.intermine.sql.precompute;
 import junit.framework.TestCase;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.Statement;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -77,6 +80,7 @@ public class PrecomputedTableManagerTest extends TestCase
         Statement stmt = con.createStatement();
         stmt.addBatch("DROP TABLE tabletest");
         stmt.addBatch("DROP TABLE precompute_index");
+        stmt.addBatch("DROP TABLE precompute_refresh");
         stmt.executeBatch();
         con.commit();
         con.close();
@@ -284,6 +288,130 @@ public class PrecomputedTableManagerTest extends TestCase
         }
     }
 
+    public void testRefreshAffected() throws Exception {
+        synchronized (pt1) {
+            Connection con = database.getConnection();
+            con.setAutoCommit(true);
+            Statement stmt = con.createStatement();
+            PrecomputedTableManager ptm = new PrecomputedTableManager(database);
+            try {
+                createTable();
+                stmt.execute("CREATE TABLE tablerefresh(id int, col1 int)");
+                for (int i = 1; i < 100; i++) {
+                    if (i != 43) {
+                        stmt.execute("INSERT INTO tablerefresh VALUES(" + i + ", " + (i % 10)
+                                + ")");
+                    }
+                }
+                Query q = new Query("SELECT DISTINCT t.id AS a, t.col1 AS b FROM tablerefresh AS t"
+                        + " WHERE t.col1 < 5");
+                PrecomputedTable pt2 = new PrecomputedTable(q, q.getSQLString(), "precomp2",
+                        "test", con);
+                ptm.add(pt2);
+                assertEquals(48, count(con, "precomp2"));
+
+                // Appended rows are inserted, and the table is not dropped
+                Set<String> changed = Collections.singleton("tablerefresh");
+                Set<Integer> ids = new HashSet<Integer>();
+                for (int i = 100; i < 110; i++) {
+                    stmt.execute("INSERT INTO tablerefresh VALUES(" + i + ", " + (i % 10) + ")");
+                    ids.add(new Integer(i));
+                }
+                ptm.refreshAffected(changed, Collections.singletonMap("tablerefresh", ids),
+                        Collections.<String>emptySet());
+                assertTrue(ptm.getPrecomputedTables().contains(pt2));
+                assertEquals(53, count(con, "precomp2"));
+
+                // A row with an id allocated before the last refresh but stored after it is
+                // still inserted
+                stmt.execute("INSERT INTO tablerefresh VALUES(43, 3)");
+                ptm.refreshAffected(changed, Collections.singletonMap("tablerefresh",
+                            Collections.singleton(new Integer(43))),
+                        Collections.<String>emptySet());
+                assertTrue(ptm.getPrecomputedTables().contains(pt2));
+                assertEquals(54, count(con, "precomp2"));
+                ResultSet res = con.createStatement().executeQuery("SELECT COUNT(*) FROM precomp2"
+                        + " WHERE a = 43");
+                res.next();
+                assertEquals(1, res.getInt(1));
+
+                // Rows added without their ids being known make it drop the table
+                stmt.execute("INSERT INTO tablerefresh VALUES(110, 0)");
+                ptm.refreshAffected(changed, Collections.<String, Set<Integer>>emptyMap(),
+                        Collections.<String>emptySet());
+                assertFalse(ptm.getPrecomputedTables().contains(pt2));
+                ptm.add(pt2);
+                assertEquals(55, count(con, "precomp2"));
+
+                // Deleted rows make it drop the table rather than refill it
+                stmt.execute("DELETE FROM tablerefresh WHERE id < 20");
+                ptm.refreshAffected(changed, Collections.<String, Set<Integer>>emptyMap(),
+                        changed);
+                assertFalse(ptm.getPrecomputedTables().contains(pt2));
+                assertFalse(DatabaseUtil.tableExists(con, "precomp2"));
+            } catch (SQLException e) {
+                throw (SQLException) Util.verboseException(e);
+            } finally {
+                stmt.execute("DROP TABLE tablerefresh");
+                deleteTable();
+                con.close();
+            }
+        }
+    }
+
+    public void testRefreshAffectedSubQuery() throws Exception {
+        synchronized (pt1) {
+            Connection con = database.getConnection();
+            con.setAutoCommit(true);
+            Statement stmt = con.createStatement();
+            PrecomputedTableManager ptm = new PrecomputedTableManager(database);
+            try {
+                createTable();
+                stmt.execute("CREATE TABLE tablerefresh(id int, col1 int)");
+                stmt.execute("CREATE TABLE tablerefreshsub(id int, col1 int)");
+                for (int i = 1; i < 100; i++) {
+                    stmt.execute("INSERT INTO tablerefresh VALUES(" + i + ", " + (i % 10) + ")");
+                }
+                stmt.execute("INSERT INTO tablerefreshsub VALUES(1, 3)");
+                Query q = new Query("SELECT t.id AS a, t.col1 AS b FROM tablerefresh AS t"
+                        + " WHERE t.col1 IN (SELECT s.col1 FROM tablerefreshsub AS s)");
+                assertEquals(new HashSet<String>(Arrays.asList("tablerefresh",
+                                "tablerefreshsub")), PrecomputedTableManager.getTableNames(q));
+                PrecomputedTable pt2 = new PrecomputedTable(q, q.getSQLString(), "precomp2",
+                        "test", con);
+                ptm.add(pt2);
+                assertEquals(10, count(con, "precomp2"));
+
+                // Changes to a table only used in the subquery affect the precomputed table, and
+                // as the new rows cannot be found incrementally it is dropped
+                stmt.execute("INSERT INTO tablerefreshsub VALUES(2, 4)");
+                Set<String> changed = Collections.singleton("tablerefreshsub");
+                ptm.refreshAffected(changed, Collections.singletonMap("tablerefreshsub",
+                            Collections.singleton(new Integer(2))),
+                        Collections.<String>emptySet());
+                assertFalse(ptm.getPrecomputedTables().contains(pt2));
+                assertFalse(DatabaseUtil.tableExists(con, "precomp2"));
+
+                ptm.add(pt2);
+                ptm.dropAffected(changed);
+                assertFalse(ptm.getPrecomputedTables().contains(pt2));
+            } catch (SQLException e) {
+                throw (SQLException) Util.verboseException(e);
+            } finally {
+                stmt.execute("DROP TABLE tablerefresh");
+                stmt.execute("DROP TABLE tablerefreshsub");
+                deleteTable();
+                con.close();
+            }
+        }
+    }
+
+    private static int count(Connection con, String table) throws SQLException {
+        ResultSet res = con.createStatement().executeQuery("SELECT COUNT(*) FROM " + table);
+        res.next();
+        return res.getInt(1);
+    }
+
     public void testOrderDescending() throws Exception {
         Query q = new Query("SELECT employee.age FROM employee ORDER BY employee.age DESC");
         Connection con = database.getConnection();
@@ -68,6 +68,10 @@ public class FunctionTest extends TestCase
         assertEquals("MAX(3)", f2.getSQLString());
         assertEquals("(2 + 3)", f3.getSQLString());
         assertEquals("(2 - 3)", f5.getSQLString());
+        Function countDistinct = new Function(Function.COUNT_DISTINCT);
+        countDistinct.add(new Constant("2"));
+        assertEquals("COUNT(DISTINCT 2)", countDistinct.getSQLString());
+        assertTrue(countDistinct.isAggregate());
     }
 
     public void testEquals() throws Exception {
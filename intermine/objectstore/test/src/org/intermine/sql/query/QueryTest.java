@@ -154,6 +154,20 @@ public class QueryTest extends TestCase
         assertEquals(q2, q1);
     }
 
+    public void testSelectCountDistinct() throws Exception {
+        q1 = new Query("select count(distinct table1.field1) as alias1, count(*) as alias2 from table1");
+        q2 = new Query();
+        Table t1 = new Table("table1");
+        Field f1 = new Field("field1", t1);
+        Function func1 = new Function(Function.COUNT_DISTINCT);
+        func1.add(f1);
+        q2.addSelect(new SelectValue(func1, "alias1"));
+        q2.addSelect(new SelectValue(new Function(Function.COUNT), "alias2"));
+        q2.addFrom(t1);
+        assertEquals(q2, q1);
+        assertEquals("SELECT COUNT(DISTINCT table1.field1) AS alias1, COUNT(*) AS alias2 FROM table1", q1.getSQLString());
+    }
+
     public void testSelectPlusFunctionAlias() throws Exception {
         q1 = new Query("select table1.field1 + table1.field2 as alias1 from table1");
         q2 = new Query();
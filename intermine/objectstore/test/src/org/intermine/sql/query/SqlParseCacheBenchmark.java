@@ -0,0 +1,60 @@
+package org.intermine.sql.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the time taken to parse SQL of the kind the optimiser sees - the same join run again
+ * and again with different values - with and without the SqlParseCache. This is not part of the
+ * test suite - run it by hand.
+ */
+public class SqlParseCacheBenchmark extends TestCase
+{
+    private static final int WARMUP = 500;
+    private static final int RUNS = 2000;
+
+    private static final String SQL = "SELECT DISTINCT a1_.OBJECT AS a1_, a1_.id AS a1_id,"
+        + " a2_.OBJECT AS a2_, a2_.id AS a2_id, a3_.OBJECT AS a3_, a3_.id AS a3_id"
+        + " FROM Gene AS a1_, Protein AS a2_, Organism AS a3_, GenesProteins AS indirect0"
+        + " WHERE LOWER(a1_.symbol) LIKE 'symbol%d' AND a3_.taxonId = %d"
+        + " AND a1_.id = indirect0.Proteins AND indirect0.Genes = a2_.id"
+        + " AND a1_.organismId = a3_.id AND a2_.length > %d"
+        + " ORDER BY a1_.id, a2_.id, a3_.id LIMIT 1000 OFFSET %d";
+
+    public SqlParseCacheBenchmark(String arg1) {
+        super(arg1);
+    }
+
+    public void testParse() throws Exception {
+        SqlParseCache.setEnabled(false);
+        double uncached = time();
+        SqlParseCache.setEnabled(true);
+        double cached = time();
+        System.out.printf("Parse without cache %8.1f us, with cache %8.1f us per query\n",
+                uncached, cached);
+    }
+
+    private static double time() {
+        for (int i = 0; i < WARMUP; i++) {
+            new Query(sql(i));
+        }
+        long start = System.nanoTime();
+        for (int i = WARMUP; i < WARMUP + RUNS; i++) {
+            new Query(sql(i));
+        }
+        return (System.nanoTime() - start) / 1000.0 / RUNS;
+    }
+
+    private static String sql(int i) {
+        return String.format(SQL, i, 7000 + i, i * 3, i * 1000);
+    }
+}
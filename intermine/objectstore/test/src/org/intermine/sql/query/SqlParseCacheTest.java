@@ -0,0 +1,74 @@
+package org.intermine.sql.query;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class SqlParseCacheTest extends TestCase
+{
+    private static final String[] SQL = new String[] {
+        "SELECT a.x AS ax FROM tablea AS a WHERE a.name = 'fred' AND a.id > 5",
+        "SELECT a.x AS ax FROM tablea AS a WHERE a.name = 'bob' AND a.id > 700",
+        "SELECT a.x AS ax FROM tablea AS a WHERE a.name = 'bob' AND a.id > 700 ORDER BY a.x"
+            + " LIMIT 100 OFFSET 200",
+        "SELECT a.x AS ax FROM tablea AS a WHERE a.name = 'jim' AND a.id > 3 ORDER BY a.x"
+            + " LIMIT 5000 OFFSET 0",
+        "SELECT a.x AS ax FROM tablea AS a WHERE a.id IN (1, 2, 3) OR a.weight > 2.5",
+        "SELECT a.x AS ax FROM tablea AS a WHERE a.id IN (4, 5, 6) OR a.weight > -7.25",
+        "SELECT a.x AS ax, b.y AS by_ FROM tablea AS a, (SELECT c.y AS y FROM tablec AS c"
+            + " WHERE c.z = 'hello') AS b WHERE a.id = b.y AND NOT (a.x = 'goodbye')",
+        "SELECT a.x AS ax FROM tablea AS a WHERE a.x = 'one' UNION SELECT b.x AS ax"
+            + " FROM tableb AS b WHERE b.x = 'two'",
+        "SELECT lower(a.name) AS n, COUNT(*) AS c FROM tablea AS a WHERE a.name LIKE 'a%'"
+            + " GROUP BY lower(a.name) HAVING COUNT(*) > 10"
+    };
+
+    public SqlParseCacheTest(String arg1) {
+        super(arg1);
+    }
+
+    public void tearDown() {
+        SqlParseCache.setEnabled(true);
+    }
+
+    public void testSameAsUncached() throws Exception {
+        SqlParseCache.setEnabled(false);
+        String[] expected = new String[SQL.length];
+        for (int i = 0; i < SQL.length; i++) {
+            expected[i] = new Query(SQL[i]).getSQLString();
+        }
+        SqlParseCache.setEnabled(true);
+        // Twice, so that every string after the first of its shape is a cache hit
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < SQL.length; i++) {
+                assertEquals(SQL[i], expected[i], new Query(SQL[i]).getSQLString());
+            }
+        }
+    }
+
+    public void testLimitOffset() throws Exception {
+        Query q1 = new Query("SELECT a.x AS ax FROM tablea AS a ORDER BY a.x LIMIT 10 OFFSET 20");
+        Query q2 = new Query("SELECT a.x AS ax FROM tablea AS a ORDER BY a.x LIMIT 30 OFFSET 40");
+        assertEquals(10, q1.getLimit());
+        assertEquals(20, q1.getOffset());
+        assertEquals(30, q2.getLimit());
+        assertEquals(40, q2.getOffset());
+    }
+
+    public void testInvalid() throws Exception {
+        try {
+            new Query("SELECT FROM WHERE 'x'");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class BloomFilterSetTest extends TestCase
+{
+    public BloomFilterSetTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testNoFalseNegatives() throws Exception {
+        BloomFilterSet<Object> set = new BloomFilterSet<Object>(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            set.add("FBgn" + i);
+            set.add(new Integer(i * 7));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(set.contains("FBgn" + i));
+            assertTrue(set.contains(new Integer(i * 7)));
+        }
+        assertEquals(20000, set.getAddedCount());
+    }
+
+    public void testFalsePositiveRate() throws Exception {
+        BloomFilterSet<Object> set = new BloomFilterSet<Object>(100000, 0.01);
+        for (int i = 0; i < 100000; i++) {
+            set.add("FBgn" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (set.contains("CG" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 2000);
+        assertTrue(set.getExpectedFalsePositiveRate() < 0.02);
+    }
+
+    public void testEmpty() throws Exception {
+        BloomFilterSet<Object> set = new BloomFilterSet<Object>(0, 0.01);
+        assertFalse(set.contains("anything"));
+        assertFalse(set.contains(null));
+        set.add(null);
+        assertTrue(set.contains(null));
+    }
+}
@@ -0,0 +1,74 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class ConcurrentCacheTest extends TestCase
+{
+    public ConcurrentCacheTest(String arg1) {
+        super(arg1);
+    }
+
+    public void testGetAndPut() throws Exception {
+        ConcurrentCache<String, String> cache = new ConcurrentCache<String, String>("test", 10);
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.putIfAbsent("b", "2"));
+        assertEquals("2", cache.putIfAbsent("b", "3"));
+        assertEquals("2", cache.get("b"));
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        ConcurrentCache<Integer, String> cache = new ConcurrentCache<Integer, String>("test", 3);
+        cache.put(1, "1");
+        cache.put(2, "2");
+        cache.put(3, "3");
+        cache.get(1);
+        cache.put(4, "4");
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals("1", cache.get(1));
+        assertNull(cache.get(2));
+        assertEquals("3", cache.get(3));
+        assertEquals("4", cache.get(4));
+    }
+
+    public void testConcurrentUse() throws Exception {
+        final ConcurrentCache<Integer, Integer> cache =
+            new ConcurrentCache<Integer, Integer>("test", 100);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        Integer key = new Integer(i % 150);
+                        if (cache.get(key) == null) {
+                            cache.putIfAbsent(key, key);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(cache.size() <= 100);
+        assertEquals(40000, cache.getHits() + cache.getMisses());
+    }
+}
@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -52,10 +53,13 @@ public class AutoCompleter
     private HashMap<String, RAMDirectory> blobMap = new HashMap<String, RAMDirectory>();
     private Properties prob;
     private LuceneSearchEngine search = null;
+    private PrefixIndex prefixIndex = null;
 
     private static final File TEMP_DIR =
         new File("build" + File.separatorChar + "autocompleteIndexes");
 
+    private static final File PREFIX_INDEX_FILE = new File(TEMP_DIR, "prefix.index");
+
     private static final Logger LOG = Logger.getLogger(AutoCompleter.class);
 
     /**
@@ -121,6 +125,18 @@ public class AutoCompleter
         }
     }
 
+    /**
+     * Autocompleter constructor for a memory-mapped prefix index.
+     * @param prefixIndex the PrefixIndex built by buildIndex()
+     */
+    public AutoCompleter(PrefixIndex prefixIndex) {
+        this.prefixIndex = prefixIndex;
+        for (String key : prefixIndex.getFields()) {
+            fieldIndexMap.put(key, key);
+            LOG.info("AutoCompleter mapped prefix index for: " + key);
+        }
+    }
+
     /**
      * create the RAMIndex for the search engine
      * @param classDes String of the class and the field (e.g. GOTerm.name)
@@ -197,6 +213,24 @@ public class AutoCompleter
         return search.fastSearch(query, field, n);
     }
 
+    /**
+     * Returns n search results for a field of a class, using the prefix index if there is one,
+     * and otherwise the RAMIndex for the class and field.
+     * @param className the unqualified name of the class (e.g. GOTerm)
+     * @param field is the field in which you like to search (e.g. name)
+     * @param query is the string used for search
+     * @param n number of the first n search results
+     * @return string array with search results and an error flag at position 0
+     */
+    public String[] getFastList(String className, String field, String query, int n) {
+        String classAndField = className + "." + field;
+        if ((prefixIndex != null) && prefixIndex.hasField(classAndField)) {
+            return prefixIndex.getFastList(classAndField, query, n);
+        }
+        createRAMIndex(classAndField);
+        return getFastList(query, field, n);
+    }
+
     /**
      * Build the index from the database blob
      * @param os Objectstore
@@ -214,6 +248,7 @@ public class AutoCompleter
         } else {
             TEMP_DIR.mkdirs();
         }
+        PrefixIndexWriter prefixWriter = new PrefixIndexWriter();
 
         for (Map.Entry<Object, Object> entry: prob.entrySet()) {
             String key = (String) entry.getKey();
@@ -245,6 +280,7 @@ public class AutoCompleter
 
                 LuceneObjectClass objectClass = new LuceneObjectClass(classAndField);
                 objectClass.addField(fieldName);
+                List<String> values = new ArrayList<String>();
 
                 for (Object resRow: results) {
                     @SuppressWarnings("rawtypes")
@@ -252,8 +288,10 @@ public class AutoCompleter
                     if (fieldValue != null) {
                         objectClass.addValueToField(objectClass.getFieldName(0), fieldValue
                                 .toString());
+                        values.add(fieldValue.toString());
                     }
                 }
+                prefixWriter.addField(classAndField, values);
 
                 String indexFileName = TEMP_DIR.getPath() + File.separatorChar + classAndField;
                 LuceneIndex indexer = new LuceneIndex(indexFileName);
@@ -263,6 +301,16 @@ public class AutoCompleter
                 createRAMIndex(classAndField);
             }
         }
+        prefixWriter.write(PREFIX_INDEX_FILE);
+    }
+
+    /**
+     * Returns the prefix index file written by buildIndex(), which can be stored in the database
+     * and memory-mapped by the webapp instead of deserialising the RAMIndexMap.
+     * @return a File, which does not exist if the index has not been built
+     */
+    public File getPrefixIndexFile() {
+        return PREFIX_INDEX_FILE;
     }
 
     /**
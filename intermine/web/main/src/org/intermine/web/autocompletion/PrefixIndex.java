@@ -0,0 +1,320 @@
+package org.intermine.web.autocompletion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only prefix index of field values, memory-mapped from a file written by
+ * PrefixIndexWriter. Values are found by the prefixes of the words they contain, in the same way
+ * as LuceneSearchEngine.fastSearch(), but lookups only touch the pages of the file they need, so
+ * the index takes no space on the heap however many fields it covers.
+ */
+public class PrefixIndex
+{
+    /** The first int of an index file. */
+    static final int MAGIC = 0x494d5049;
+    /** The version of the file format. */
+    static final int VERSION = 1;
+
+    private static final int[] EMPTY = new int[0];
+
+    private Map<String, Section> sections = new HashMap<String, Section>();
+
+    /**
+     * Maps an index file into memory.
+     *
+     * @param file a file written by PrefixIndexWriter
+     * @throws IOException if the file cannot be read, or is not an index
+     */
+    public PrefixIndex(File file) throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid once the file is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        if ((buffer.capacity() < 12) || (buffer.getInt(0) != MAGIC)) {
+            throw new IOException(file + " is not an autocompletion index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " has version " + buffer.getInt(4) + ", expected "
+                    + VERSION);
+        }
+        int fieldCount = buffer.getInt(8);
+        Map<String, int[]> locations = new HashMap<String, int[]>();
+        int position = 12;
+        for (int i = 0; i < fieldCount; i++) {
+            byte[] name = new byte[buffer.getInt(position)];
+            buffer.position(position + 4);
+            buffer.get(name);
+            position += 4 + name.length;
+            locations.put(new String(name, "UTF-8"), new int[] {buffer.getInt(position),
+                buffer.getInt(position + 4)});
+            position += 8;
+        }
+        int headerLength = position;
+        for (Map.Entry<String, int[]> entry : locations.entrySet()) {
+            int start = headerLength + entry.getValue()[0];
+            sections.put(entry.getKey(), new Section(buffer, start));
+        }
+    }
+
+    /**
+     * Returns the names of the class fields in this index.
+     *
+     * @return a Set of Strings (e.g. GOTerm.name)
+     */
+    public Set<String> getFields() {
+        return Collections.unmodifiableSet(sections.keySet());
+    }
+
+    /**
+     * Returns whether this index covers a field.
+     *
+     * @param classAndField the class and field (e.g. GOTerm.name)
+     * @return true if the field is in the index
+     */
+    public boolean hasField(String classAndField) {
+        return sections.containsKey(classAndField);
+    }
+
+    /**
+     * Returns the first n values of a field that have a word starting with each word of the
+     * query, shortest values first. Results are formatted as for
+     * LuceneSearchEngine.fastSearch().
+     *
+     * @param classAndField the class and field (e.g. GOTerm.name)
+     * @param query the prefixes to search for, separated by spaces
+     * @param n the maximum number of values to return
+     * @return a String array with a status at position 0 followed by the values, or null if the
+     * field is not in the index or the query is empty or starts with a wildcard
+     */
+    public String[] getFastList(String classAndField, String query, int n) {
+        Section section = sections.get(classAndField);
+        if ((section == null) || "".equals(query) || query.trim().startsWith("*")) {
+            return null;
+        }
+        int[] matches = null;
+        for (String term : tokenise(query)) {
+            int[] termMatches = section.find(toBytes(term));
+            matches = (matches == null) ? termMatches : intersect(matches, termMatches);
+            if (matches.length == 0) {
+                break;
+            }
+        }
+        if (matches == null) {
+            matches = EMPTY;
+        }
+        int count = Math.min(n, matches.length);
+        String[] results = new String[count + 1];
+        results[0] = "true";
+        for (int i = 0; i < count; i++) {
+            results[i + 1] = section.getValue(matches[i]);
+        }
+        return results;
+    }
+
+    /**
+     * Splits a value into the lower-case words that are entered into the index.
+     *
+     * @param value a String
+     * @return a List of words
+     */
+    static List<String> tokenise(String value) {
+        List<String> retval = new ArrayList<String>();
+        String lower = value.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = (i < lower.length()) && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && (start == -1)) {
+                start = i;
+            } else if ((!wordChar) && (start != -1)) {
+                retval.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Encodes a String as UTF-8.
+     *
+     * @param s a String
+     * @return the bytes of s
+     */
+    static byte[] toBytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Compares two byte arrays as unsigned bytes, which matches the order of the Strings they
+     * encode.
+     *
+     * @param a a byte array
+     * @param b a byte array
+     * @return a negative number, zero or a positive number
+     */
+    static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] retval = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while ((i < a.length) && (j < b.length)) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                retval[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(retval, count);
+    }
+
+    /**
+     * The part of the mapped file holding one field. All positions are absolute positions in the
+     * shared buffer, which is only ever read with absolute gets so it can be used by many threads.
+     */
+    private static class Section
+    {
+        private final ByteBuffer buffer;
+        private final int valueOffsets;
+        private final int valueBytes;
+        private final int tokenCount;
+        private final int tokenOffsets;
+        private final int tokenBytes;
+        private final int postingOffsets;
+        private final int postings;
+
+        Section(ByteBuffer buffer, int start) {
+            this.buffer = buffer;
+            int valueCount = buffer.getInt(start);
+            valueOffsets = start + 4;
+            valueBytes = valueOffsets + 4 * (valueCount + 1);
+            int tokenStart = valueBytes + buffer.getInt(valueOffsets + 4 * valueCount);
+            tokenCount = buffer.getInt(tokenStart);
+            tokenOffsets = tokenStart + 4;
+            tokenBytes = tokenOffsets + 4 * (tokenCount + 1);
+            postingOffsets = tokenBytes + buffer.getInt(tokenOffsets + 4 * tokenCount);
+            postings = postingOffsets + 4 * (tokenCount + 1);
+        }
+
+        String getValue(int id) {
+            int start = buffer.getInt(valueOffsets + 4 * id);
+            int end = buffer.getInt(valueOffsets + 4 * (id + 1));
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(valueBytes + start + i);
+            }
+            try {
+                return new String(bytes, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Returns the sorted ids of the values with a word starting with prefix.
+         */
+        int[] find(byte[] prefix) {
+            int low = search(prefix, false);
+            int high = search(prefix, true);
+            if (low >= high) {
+                return EMPTY;
+            }
+            int start = buffer.getInt(postingOffsets + 4 * low);
+            int end = buffer.getInt(postingOffsets + 4 * high);
+            int[] retval = new int[end - start];
+            for (int i = 0; i < retval.length; i++) {
+                retval[i] = buffer.getInt(postings + 4 * (start + i));
+            }
+            if (high - low > 1) {
+                // Several words match, so merge their posting lists
+                Arrays.sort(retval);
+                int count = 0;
+                for (int i = 0; i < retval.length; i++) {
+                    if ((count == 0) || (retval[count - 1] != retval[i])) {
+                        retval[count++] = retval[i];
+                    }
+                }
+                retval = Arrays.copyOf(retval, count);
+            }
+            return retval;
+        }
+
+        /**
+         * Binary search for the first token that starts with or sorts after the prefix, or if
+         * after is true, the first token that sorts after all the tokens starting with prefix.
+         */
+        private int search(byte[] prefix, boolean after) {
+            int low = 0;
+            int high = tokenCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = comparePrefix(mid, prefix);
+                if ((cmp < 0) || (after && (cmp == 0))) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Compares a token with a prefix, returning zero if the token starts with the prefix.
+         */
+        private int comparePrefix(int token, byte[] prefix) {
+            int start = tokenBytes + buffer.getInt(tokenOffsets + 4 * token);
+            int length = tokenBytes + buffer.getInt(tokenOffsets + 4 * (token + 1)) - start;
+            int common = Math.min(length, prefix.length);
+            for (int i = 0; i < common; i++) {
+                int diff = (buffer.get(start + i) & 0xff) - (prefix[i] & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return (length >= prefix.length) ? 0 : -1;
+        }
+    }
+}
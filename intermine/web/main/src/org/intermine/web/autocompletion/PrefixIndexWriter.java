@@ -0,0 +1,173 @@
+package org.intermine.web.autocompletion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Writes the file read by PrefixIndex. For each class and field the distinct values are sorted
+ * shortest first, and every word of every value is entered into a sorted token table, with a
+ * posting list of the values that contain it. A prefix lookup is then a binary search of the
+ * token table followed by a merge of posting lists.
+ *
+ * The file layout is: a header (magic number, version, number of fields, then the length and
+ * bytes of the name, the offset and the length of each field section), followed by the field
+ * sections. Offsets are relative to the end of the header. Each section holds the value count,
+ * value offsets and value bytes, then the token count, token offsets and token bytes, then the
+ * posting offsets and postings. All strings are UTF-8 and all numbers are big-endian ints.
+ */
+public class PrefixIndexWriter
+{
+    private static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            return PrefixIndex.compareBytes(a, b);
+        }
+    };
+
+    private static final Comparator<String> VALUE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            if (a.length() != b.length()) {
+                return a.length() - b.length();
+            }
+            return a.compareTo(b);
+        }
+    };
+
+    private Map<String, Collection<String>> fields =
+        new LinkedHashMap<String, Collection<String>>();
+
+    /**
+     * Adds the values of a field to the index.
+     *
+     * @param classAndField the class and field (e.g. GOTerm.name)
+     * @param values the values of the field - duplicates and nulls are ignored
+     */
+    public void addField(String classAndField, Collection<String> values) {
+        fields.put(classAndField, values);
+    }
+
+    /**
+     * Writes the index to a file.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        List<byte[]> sections = new ArrayList<byte[]>();
+        for (Collection<String> values : fields.values()) {
+            sections.add(writeSection(values));
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+        try {
+            out.writeInt(PrefixIndex.MAGIC);
+            out.writeInt(PrefixIndex.VERSION);
+            out.writeInt(fields.size());
+            int offset = 0;
+            int i = 0;
+            for (String classAndField : fields.keySet()) {
+                byte[] name = PrefixIndex.toBytes(classAndField);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeInt(offset);
+                out.writeInt(sections.get(i).length);
+                offset += sections.get(i).length;
+                i++;
+            }
+            for (byte[] section : sections) {
+                out.write(section);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] writeSection(Collection<String> values) throws IOException {
+        TreeSet<String> sortedValues = new TreeSet<String>(VALUE_ORDER);
+        for (String value : values) {
+            if (value != null) {
+                sortedValues.add(value);
+            }
+        }
+        List<byte[]> valueBytes = new ArrayList<byte[]>();
+        Map<String, List<Integer>> postings = new HashMap<String, List<Integer>>();
+        int valueId = 0;
+        for (String value : sortedValues) {
+            valueBytes.add(PrefixIndex.toBytes(value));
+            for (String token : PrefixIndex.tokenise(value)) {
+                List<Integer> list = postings.get(token);
+                if (list == null) {
+                    list = new ArrayList<Integer>();
+                    postings.put(token, list);
+                }
+                // Values are visited in order, so a repeated word only ever repeats the last id
+                if (list.isEmpty() || (list.get(list.size() - 1).intValue() != valueId)) {
+                    list.add(valueId);
+                }
+            }
+            valueId++;
+        }
+        Map<byte[], List<Integer>> tokens = new HashMap<byte[], List<Integer>>();
+        for (Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+            tokens.put(PrefixIndex.toBytes(entry.getKey()), entry.getValue());
+        }
+        List<byte[]> tokenBytes = new ArrayList<byte[]>(tokens.keySet());
+        Collections.sort(tokenBytes, BYTE_ORDER);
+
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(byteStream);
+        writeStrings(out, valueBytes);
+        writeStrings(out, tokenBytes);
+        int postingOffset = 0;
+        out.writeInt(postingOffset);
+        for (byte[] token : tokenBytes) {
+            postingOffset += tokens.get(token).size();
+            out.writeInt(postingOffset);
+        }
+        for (byte[] token : tokenBytes) {
+            for (Integer id : tokens.get(token)) {
+                out.writeInt(id.intValue());
+            }
+        }
+        out.close();
+        return byteStream.toByteArray();
+    }
+
+    private static void writeStrings(DataOutputStream out, List<byte[]> strings)
+        throws IOException {
+        out.writeInt(strings.size());
+        int offset = 0;
+        out.writeInt(offset);
+        for (byte[] string : strings) {
+            offset += string.length;
+            out.writeInt(offset);
+        }
+        for (byte[] string : strings) {
+            out.write(string);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package org.intermine.web.displayer;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+
+/**
+ * A request for a ReportDisplayer to run against away from the request thread. It starts with a
+ * copy of the request's attributes and keeps its own, so that displayers running at the same time
+ * do not see each other's attributes, and records the attributes set so that they can be put on
+ * the real request when the displayer is rendered.
+ * <p>
+ * The container may recycle the real request as soon as the page has been sent, while a displayer
+ * is still running, so the parameters, locales, headers and paths of the request are copied when
+ * this is constructed and the real request is never used again. Anything else a displayer asks
+ * of the request throws an UnsupportedOperationException.
+ */
+class CapturingRequest extends HttpServletRequestWrapper
+{
+    private final HttpSession session;
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+    private final Map<String, Object> attributesSet = new LinkedHashMap<String, Object>();
+    private final Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+    private final Map<String, List<String>> headers
+        = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+    private final List<Locale> locales = new ArrayList<Locale>();
+    private final String characterEncoding;
+    private final String method;
+    private final String scheme;
+    private final String serverName;
+    private final int serverPort;
+    private final boolean secure;
+    private final String contextPath;
+    private final String servletPath;
+    private final String pathInfo;
+    private final String requestURI;
+    private final String requestURL;
+    private final String queryString;
+    private final String remoteUser;
+
+    /**
+     * Constructor, which must be called on the thread handling the request.
+     *
+     * @param request the request to copy
+     */
+    CapturingRequest(HttpServletRequest request) {
+        super(detached());
+        this.session = request.getSession();
+        Enumeration<String> names = request.getAttributeNames();
+        while ((names != null) && names.hasMoreElements()) {
+            String name = names.nextElement();
+            attributes.put(name, request.getAttribute(name));
+        }
+        Map<String, String[]> parameterMap = request.getParameterMap();
+        if (parameterMap != null) {
+            for (Map.Entry<String, String[]> entry : parameterMap.entrySet()) {
+                parameters.put(entry.getKey(), entry.getValue().clone());
+            }
+        }
+        names = request.getHeaderNames();
+        while ((names != null) && names.hasMoreElements()) {
+            String name = names.nextElement();
+            Enumeration<String> values = request.getHeaders(name);
+            headers.put(name, values == null ? new ArrayList<String>()
+                    : Collections.list(values));
+        }
+        Enumeration<Locale> requestLocales = request.getLocales();
+        while ((requestLocales != null) && requestLocales.hasMoreElements()) {
+            locales.add(requestLocales.nextElement());
+        }
+        if (locales.isEmpty()) {
+            locales.add(request.getLocale() == null ? Locale.getDefault() : request.getLocale());
+        }
+        characterEncoding = request.getCharacterEncoding();
+        method = request.getMethod();
+        scheme = request.getScheme();
+        serverName = request.getServerName();
+        serverPort = request.getServerPort();
+        secure = request.isSecure();
+        contextPath = request.getContextPath();
+        servletPath = request.getServletPath();
+        pathInfo = request.getPathInfo();
+        requestURI = request.getRequestURI();
+        StringBuffer url = request.getRequestURL();
+        requestURL = (url == null ? null : url.toString());
+        queryString = request.getQueryString();
+        remoteUser = request.getRemoteUser();
+    }
+
+    /**
+     * Returns a request to wrap that refuses to do anything.
+     */
+    private static HttpServletRequest detached() {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                CapturingRequest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method m, Object[] args) {
+                        if ("equals".equals(m.getName()) && (args != null)
+                                && (args.length == 1)) {
+                            return Boolean.valueOf(proxy == args[0]);
+                        } else if ("hashCode".equals(m.getName()) && (args == null)) {
+                            return Integer.valueOf(System.identityHashCode(proxy));
+                        } else if ("toString".equals(m.getName()) && (args == null)) {
+                            return "detached request";
+                        }
+                        throw new UnsupportedOperationException(m.getName() + "() is not"
+                                + " available to report displayers");
+                    }
+                });
+    }
+
+    /**
+     * Returns the attributes that have been set or removed, with null values for the ones removed.
+     *
+     * @return a Map from attribute name to value
+     */
+    Map<String, Object> getAttributesSet() {
+        return attributesSet;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(new ArrayList<String>(attributes.keySet()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void setAttribute(String name, Object value) {
+        attributes.put(name, value);
+        attributesSet.put(name, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void removeAttribute(String name) {
+        attributes.remove(name);
+        attributesSet.put(name, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpSession getSession() {
+        return session;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HttpSession getSession(boolean create) {
+        return session;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getParameter(String name) {
+        String[] values = parameters.get(name);
+        return ((values == null) || (values.length == 0)) ? null : values[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getParameterValues(String name) {
+        String[] values = parameters.get(name);
+        return (values == null ? null : values.clone());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return ((values == null) || values.isEmpty()) ? null : values.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        List<String> values = headers.get(name);
+        return Collections.enumeration(values == null ? Collections.<String>emptyList() : values);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Locale getLocale() {
+        return locales.get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Enumeration<Locale> getLocales() {
+        return Collections.enumeration(locales);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getScheme() {
+        return scheme;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getServerName() {
+        return serverName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSecure() {
+        return secure;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getServletPath() {
+        return servletPath;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPathInfo() {
+        return pathInfo;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getRequestURI() {
+        return requestURI;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StringBuffer getRequestURL() {
+        return (requestURL == null ? null : new StringBuffer(requestURL));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getRemoteUser() {
+        return remoteUser;
+    }
+}
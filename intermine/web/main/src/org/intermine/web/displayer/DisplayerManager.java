@@ -10,36 +10,78 @@ package org.intermine.web.displayer;
  *
  */
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.InterMineAPI;
+import org.intermine.api.profile.Profile;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.TypeUtil;
+import org.intermine.util.CacheMap;
+import org.intermine.util.ShutdownHook;
+import org.intermine.util.Shutdownable;
 import org.intermine.web.logic.config.ReportDisplayerConfig;
 import org.intermine.web.logic.config.WebConfig;
+import org.intermine.web.logic.results.ReportObject;
+import org.intermine.web.logic.session.SessionMethods;
 
 /**
  * Read in and provide access to report page displayers.  Displayers are constructed based
  * on entries in webconfig-model.xml and cached.  On creation config is copied to subclasses.
+ * <p>
+ * The displayers for a report page are started together on a pool of threads when the page is
+ * requested (report.displayers.threads in the web properties, default 4, or 0 to run each one on
+ * the request thread when it is rendered), and rendering a displayer waits for its output for up
+ * to report.displayers.timeout seconds (default 30), after which the displayer is cancelled.  The
+ * output is cached by displayer, object, release and user - or session, for users who are not
+ * logged in - and timings for each displayer are available from getMetrics().
  * @author Richard Smith
  *
  */
-public final class DisplayerManager
+public final class DisplayerManager implements Shutdownable
 {
     private static DisplayerManager instance = null;
     private Map<String, Map<String, List<ReportDisplayer>>> displayers =
         new HashMap<String, Map<String, List<ReportDisplayer>>>();
     private static final String DEFAULT_PLACEMENT = "summary";
+    private static final String PREFIX = "report.displayers.";
 
     protected static final Logger LOG = Logger.getLogger(DisplayerManager.class);
 
+    private final ExecutorService executor;
+    private final long timeoutMillis;
+    private final String release;
+    private final Map<String, OutputTask> outputs = Collections.synchronizedMap(
+            new CacheMap<String, OutputTask>("DisplayerManager outputs"));
+    private final ConcurrentHashMap<String, Timings> timings
+        = new ConcurrentHashMap<String, Timings>();
+
     /**
      * Fetch the DisplayerManager, a single instance is held.
      * @param webConfig web configuration
@@ -47,13 +89,51 @@ public final class DisplayerManager
      * @return the DisplayerManager
      */
     public static DisplayerManager getInstance(WebConfig webConfig, InterMineAPI im) {
+        return getInstance(webConfig, im, null);
+    }
+
+    /**
+     * Fetch the DisplayerManager, a single instance is held.
+     * @param webConfig web configuration
+     * @param im the InterMine API
+     * @param webProperties the web properties, or null for the default settings
+     * @return the DisplayerManager
+     */
+    public static synchronized DisplayerManager getInstance(WebConfig webConfig, InterMineAPI im,
+            Properties webProperties) {
         if (instance == null) {
-            instance = new DisplayerManager(webConfig, im);
+            instance = new DisplayerManager(webConfig, im, webProperties);
         }
         return instance;
     }
 
-    private DisplayerManager(WebConfig webConfig, InterMineAPI im) {
+    /**
+     * Constructor, which is only used directly by tests.
+     * @param webConfig web configuration
+     * @param im the InterMine API
+     * @param webProperties the web properties, or null for the default settings
+     */
+    DisplayerManager(WebConfig webConfig, InterMineAPI im, Properties webProperties) {
+        Properties props = (webProperties == null ? new Properties() : webProperties);
+        int threads = getInt(props, "threads", 4);
+        timeoutMillis = getInt(props, "timeout", 30) * 1000L;
+        release = props.getProperty("project.releaseVersion", "");
+        if (threads > 0) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Report displayer " + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            ShutdownHook.registerObject(new WeakReference<Object>(this));
+        } else {
+            executor = null;
+        }
+
         for (ReportDisplayerConfig config : webConfig.getReportDisplayerConfigs()) {
 
             ReportDisplayer displayer = null;
@@ -129,6 +209,234 @@ public final class DisplayerManager
         return displayers.get(type);
     }
 
+    /**
+     * Starts all the displayers for the object being displayed, unless their output is already
+     * cached or being made.  This returns straight away, and must be called on the thread handling
+     * the request.
+     * @param request the request for the report page
+     * @param reportObject the object being displayed
+     */
+    public void prefetch(HttpServletRequest request, ReportObject reportObject) {
+        if (executor == null) {
+            return;
+        }
+        for (ReportDisplayer displayer : getAllReportDisplayersForType(reportObject.getType())) {
+            start(displayer, getKey(displayer, request, reportObject), request, reportObject);
+        }
+    }
+
+    /**
+     * Returns the output of a displayer for an object, starting the displayer if it was not
+     * prefetched and waiting for it to finish.  If it takes too long, an error page is shown in its
+     * place, and it is cancelled so that the next request starts it again.
+     * @param displayer the displayer
+     * @param request the request for the report page
+     * @param reportObject the object being displayed
+     * @return the output
+     */
+    DisplayerOutput getOutput(ReportDisplayer displayer, HttpServletRequest request,
+            ReportObject reportObject) {
+        Timings t = getTimings(displayer);
+        String key = getKey(displayer, request, reportObject);
+        OutputTask task = start(displayer, key, request, reportObject);
+        if (task.used.getAndSet(true)) {
+            t.cacheHits.incrementAndGet();
+        }
+        long start = System.currentTimeMillis();
+        try {
+            DisplayerOutput output = task.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            t.waited.addAndGet(System.currentTimeMillis() - start);
+            if (!output.isCacheable()) {
+                // The task forgets itself too, but may not have done so yet
+                forget(key, task);
+            }
+            return output;
+        } catch (TimeoutException e) {
+            t.timeouts.incrementAndGet();
+            // Cancelling the task frees its thread, and takes it out of the cache
+            task.cancel(true);
+            LOG.warn("Report displayer " + displayer.getDisplayerName() + " for "
+                    + reportObject.getType() + "(" + reportObject.getId() + ") took longer than "
+                    + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("Error running report displayer " + displayer.getDisplayerName(),
+                    e.getCause());
+        }
+        return DisplayerOutput.error(displayer.getDisplayerName());
+    }
+
+    /**
+     * Returns the cached output of a displayer, or starts making it.
+     */
+    private OutputTask start(final ReportDisplayer displayer, String key,
+            HttpServletRequest request, final ReportObject reportObject) {
+        final Timings t = getTimings(displayer);
+        OutputTask task;
+        synchronized (outputs) {
+            task = outputs.get(key);
+            if (task != null) {
+                return task;
+            }
+            final CapturingRequest capture = new CapturingRequest(request);
+            task = new OutputTask(key, new Callable<DisplayerOutput>() {
+                @Override
+                public DisplayerOutput call() {
+                    long start = System.currentTimeMillis();
+                    DisplayerOutput output = displayer.render(capture, reportObject);
+                    long time = System.currentTimeMillis() - start;
+                    t.runs.incrementAndGet();
+                    t.totalTime.addAndGet(time);
+                    if (time > t.maxTime.get()) {
+                        t.maxTime.set(time);
+                    }
+                    if (!output.isCacheable()) {
+                        t.errors.incrementAndGet();
+                    }
+                    return output;
+                }
+            });
+            outputs.put(key, task);
+        }
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+        return task;
+    }
+
+    /**
+     * Takes a task out of the cache, unless it has already been replaced.
+     */
+    private void forget(String key, OutputTask task) {
+        synchronized (outputs) {
+            if (outputs.get(key) == task) {
+                outputs.remove(key);
+            }
+        }
+    }
+
+    private String getKey(ReportDisplayer displayer, HttpServletRequest request,
+            ReportObject reportObject) {
+        // Some displayers show the user's lists, and users who are not logged in have lists too,
+        // so output is shared between the sessions of a user but not between anonymous sessions
+        HttpSession session = request.getSession();
+        Profile profile = SessionMethods.getProfile(session);
+        String user = ((profile == null) || (!profile.isLoggedIn()) ? "session:" + session.getId()
+                : "user:" + profile.getUsername());
+        return displayer.getDisplayerName() + "\t" + reportObject.getId() + "\t" + release
+            + "\t" + user;
+    }
+
+    private Timings getTimings(ReportDisplayer displayer) {
+        Timings t = timings.get(displayer.getDisplayerName());
+        if (t == null) {
+            timings.putIfAbsent(displayer.getDisplayerName(), new Timings());
+            t = timings.get(displayer.getDisplayerName());
+        }
+        return t;
+    }
+
+    /**
+     * Returns timings for each displayer that has been run, for monitoring.
+     * @return a map from displayer name to a map of statistic name to value
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> retval = new TreeMap<String, Object>();
+        for (Map.Entry<String, Timings> entry : timings.entrySet()) {
+            Timings t = entry.getValue();
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            long runs = t.runs.get();
+            values.put("runs", runs);
+            values.put("averageMillis", runs == 0 ? 0 : t.totalTime.get() / runs);
+            values.put("maxMillis", t.maxTime.get());
+            values.put("totalWaitMillis", t.waited.get());
+            values.put("cacheHits", t.cacheHits.get());
+            values.put("timeouts", t.timeouts.get());
+            values.put("errors", t.errors.get());
+            retval.put(entry.getKey(), values);
+        }
+        return retval;
+    }
+
+    private static int getInt(Properties webProperties, String name, int defaultValue) {
+        String value = webProperties.getProperty(PREFIX + name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOG.error("Invalid value for " + PREFIX + name + ": " + value + ", defaulting to "
+                        + defaultValue, e);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Stops the displayers that are running, and the threads that run them.
+     */
+    @Override
+    public void shutdown() {
+        synchronized (DisplayerManager.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        outputs.clear();
+    }
+
+    /**
+     * The running or finished run of a displayer for an object, which takes itself out of the
+     * cache if it is cancelled or its output should not be cached.
+     */
+    private class OutputTask extends FutureTask<DisplayerOutput>
+    {
+        // Whether the output has been rendered, so that later renders are cache hits
+        private final AtomicBoolean used = new AtomicBoolean(false);
+        private final String key;
+
+        OutputTask(String key, Callable<DisplayerOutput> callable) {
+            super(callable);
+            this.key = key;
+        }
+
+        @Override
+        protected void done() {
+            boolean cacheable = false;
+            if (!isCancelled()) {
+                try {
+                    cacheable = get().isCacheable();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // Not cacheable
+                }
+            }
+            if (!cacheable) {
+                forget(key, this);
+            }
+        }
+    }
+
+    /**
+     * Counters for one displayer.
+     */
+    private static class Timings
+    {
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+        private final AtomicLong waited = new AtomicLong();
+        private final AtomicLong cacheHits = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+    }
+
     /**
      * Get a specific ReportDisplayer by its name for a given ReportObject type
      * @param objectType object type (Gene etc)
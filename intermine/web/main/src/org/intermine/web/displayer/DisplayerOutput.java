@@ -0,0 +1,90 @@
+package org.intermine.web.displayer;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.intermine.web.logic.results.ReportObject;
+
+/**
+ * The request attributes set by one run of a ReportDisplayer, which can be put on any number of
+ * requests for the same object.
+ */
+class DisplayerOutput
+{
+    private final Map<String, Object> attributes;
+    private final boolean cacheable;
+
+    /**
+     * Constructor.
+     *
+     * @param attributes the attributes set, with null values for attributes removed
+     * @param cacheable false if the output describes a failure that should not be remembered
+     */
+    DisplayerOutput(Map<String, Object> attributes, boolean cacheable) {
+        this.attributes = Collections.unmodifiableMap(new LinkedHashMap<String, Object>(
+                    attributes));
+        this.cacheable = cacheable;
+    }
+
+    /**
+     * Returns the output for a displayer that failed without setting anything.
+     *
+     * @param displayerName the name of the displayer
+     * @return a DisplayerOutput that renders the error page
+     */
+    static DisplayerOutput error(String displayerName) {
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        attributes.put("displayerName", displayerName);
+        attributes.put("jspPage", "reportDisplayerError.jsp");
+        return new DisplayerOutput(attributes, false);
+    }
+
+    /**
+     * Returns whether this output may be reused for later requests.
+     *
+     * @return a boolean
+     */
+    boolean isCacheable() {
+        return cacheable;
+    }
+
+    /**
+     * Returns the attributes set.
+     *
+     * @return an unmodifiable Map
+     */
+    Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Puts the attributes on a request.
+     *
+     * @param request the request being rendered
+     * @param reportObject the ReportObject of this request, which replaces the one the output was
+     * made with
+     */
+    void apply(HttpServletRequest request, ReportObject reportObject) {
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            if (entry.getValue() == null) {
+                request.removeAttribute(entry.getKey());
+            } else {
+                request.setAttribute(entry.getKey(), entry.getValue());
+            }
+        }
+        request.setAttribute("reportObject", reportObject);
+    }
+}
@@ -26,7 +26,8 @@ import org.intermine.web.logic.session.SessionMethods;
  * Parent class for report displayers that appear on report pages.  Subclasses must implement the
  * display() method to place view information on the request.  ReportDisplayers are constructed
  * once and the display() method called many times so caching and one time setup can be performed in
- * the displayer class.
+ * the displayer class.  display() may be called for several objects at once, on threads other than
+ * the one handling the request, so it must be thread safe.
  * @author Richard Smith
  *
  */
@@ -50,14 +51,29 @@ public abstract class ReportDisplayer
 
     /**
      * Execute is called for each report page with the object to be displayed.  This puts the
-     * ReportObject and the JSP name to use on the request then calls the specific subclass'
-     * display() method.
+     * ReportObject and the JSP name to use on the request, along with whatever the specific
+     * subclass' display() method puts there.  display() may already have been run for the object,
+     * or be running on another thread - see DisplayerManager.
      * @param request request for displaying a report page
      * @param reportObject the object being displayed
      */
     public void execute(HttpServletRequest request, ReportObject reportObject) {
+        DisplayerOutput output = reportObject.getDisplayerManager().getOutput(this, request,
+                reportObject);
+        output.apply(request, reportObject);
+    }
+
+    /**
+     * Runs display() against a request that records the attributes set, putting an error page in
+     * place of the output if it fails.
+     * @param request a request to capture attributes with
+     * @param reportObject the object being displayed
+     * @return the attributes set
+     */
+    DisplayerOutput render(CapturingRequest request, ReportObject reportObject) {
         request.setAttribute("reportObject", reportObject);
         request.setAttribute("jspPage", getJspPage());
+        boolean cacheable = true;
         try {
             display(request, reportObject);
         } catch (ReportDisplayerNoResultsException e) {
@@ -70,6 +86,7 @@ public abstract class ReportDisplayer
                     + ExceptionUtils.getFullStackTrace(e));
             request.setAttribute("displayerName", getClass().getSimpleName());
             request.setAttribute("jspPage", "reportDisplayerError.jsp");
+            cacheable = false;
 
             Profile profile = SessionMethods.getProfile(request.getSession());
             if (profile.isSuperuser()) {
@@ -77,6 +94,7 @@ public abstract class ReportDisplayer
                         ExceptionUtils.getStackTrace(ExceptionUtils.getRootCause(e)));
             }
         }
+        return new DisplayerOutput(request.getAttributesSet(), cacheable);
     }
 
     /**
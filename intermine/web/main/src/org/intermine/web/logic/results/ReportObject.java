@@ -125,17 +125,25 @@ public class ReportObject
      * @return map from placement to displayers
      */
     public Map<String, List<ReportDisplayer>> getReportDisplayers() {
-        DisplayerManager displayerManager = DisplayerManager.getInstance(webConfig, im);
+        DisplayerManager displayerManager = getDisplayerManager();
         return displayerManager.getReportDisplayersForType(objectType);
     }
 
+    /**
+     * Get the manager of the report displayers.
+     * @return the DisplayerManager
+     */
+    public DisplayerManager getDisplayerManager() {
+        return DisplayerManager.getInstance(webConfig, im, webProperties);
+    }
+
     /**
      * Give us a displayer by a specific name, called by AjaxServices
      * @param name displayer name
      * @return ReportDisplayer
      */
     public ReportDisplayer getReportDisplayer(String name) {
-        DisplayerManager displayerManager = DisplayerManager.getInstance(webConfig, im);
+        DisplayerManager displayerManager = getDisplayerManager();
         return displayerManager.getReportDisplayerByName(objectType, name);
     }
 
@@ -875,7 +883,7 @@ public class ReportObject
     }
 
     private Set<ReportDisplayer> getAllReportDisplayers() {
-        DisplayerManager displayerManager = DisplayerManager.getInstance(webConfig, im);
+        DisplayerManager displayerManager = getDisplayerManager();
         String clsName = DynamicUtil.getSimpleClass(object).getSimpleName();
         return displayerManager.getAllReportDisplayersForType(clsName);
     }
@@ -10,9 +10,12 @@ package org.intermine.web.struts;
  *
  */
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -87,6 +90,7 @@ import org.intermine.sql.DatabaseUtil;
 import org.intermine.util.PropertiesUtil;
 import org.intermine.util.ShutdownHook;
 import org.intermine.web.autocompletion.AutoCompleter;
+import org.intermine.web.autocompletion.PrefixIndex;
 import org.intermine.web.context.InterMineContext;
 import org.intermine.web.logic.Constants;
 import org.intermine.web.logic.aspects.Aspect;
@@ -195,6 +199,8 @@ public class InitialiserPlugin implements PlugIn
         // Verify that the superuser found in the DB matches the user set in the properties file.
         final Profile superProfile = profileManager.getSuperuserProfile();
         initSuperUser(superProfile);
+        // The superuser's tags mark public lists and templates, so are read on most pages
+        im.getTagManager().preloadTags(superProfile.getUsername());
         try {
             startBagUpgrade(im, profileManager.getAllSuperUsers());
         } catch (ObjectStoreException e) {
@@ -209,6 +215,7 @@ public class InitialiserPlugin implements PlugIn
         LOG.debug("LOADED AUTO COMPLETER");
 
         cleanTags(im.getTagManager());
+        LOG.info(im.getTagManager().getCacheStatistics());
 
         initKeylessClasses(servletContext, webConfig);
 
@@ -402,6 +409,35 @@ public class InitialiserPlugin implements PlugIn
         }
     }
 
+    /**
+     * Copy the autocompletion prefix index out of the database into a temporary file and map it
+     * into memory. Returns null if the database has no prefix index, in which case the serialised
+     * RAMIndexes are used instead.
+     */
+    private AutoCompleter loadPrefixIndex(Database db) throws SQLException {
+        InputStream is = MetadataManager.readLargeBinary(db,
+                MetadataManager.AUTOCOMPLETE_PREFIX_INDEX);
+        if (is == null) {
+            return null;
+        }
+        try {
+            File file = File.createTempFile("autocomplete", ".index");
+            file.deleteOnExit();
+            OutputStream os = new FileOutputStream(file);
+            try {
+                IOUtils.copy(is, os);
+            } finally {
+                os.close();
+            }
+            return new AutoCompleter(new PrefixIndex(file));
+        } catch (IOException e) {
+            LOG.error("Could not load AutoCompleter prefix index", e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
     private boolean validateXML(String xml, String schemaUrl, String errorCode) {
         XMLValidator validator = new XMLValidator();
         validator.validate(xml, schemaUrl);
@@ -417,9 +453,13 @@ public class InitialiserPlugin implements PlugIn
         if (os instanceof ObjectStoreInterMineImpl) {
             Database db = ((ObjectStoreInterMineImpl) os).getDatabase();
             try {
+                AutoCompleter ac = loadPrefixIndex(db);
+                if (ac != null) {
+                    SessionMethods.setAutoCompleter(servletContext, ac);
+                    return;
+                }
                 InputStream is = MetadataManager.retrieveBLOBInputStream(db,
                         MetadataManager.AUTOCOMPLETE_INDEX);
-                AutoCompleter ac;
 
                 if (is != null) {
                     ac = new AutoCompleter(is);
@@ -89,6 +89,8 @@ public class ReportController extends InterMineAction
 
             request.setAttribute("object", reportObject);
             request.setAttribute("reportObject", reportObject);
+            // start the displayers running while the rest of the page is worked out
+            reportObject.getDisplayerManager().prefetch(request, reportObject);
 
             request.setAttribute("requestedObject", requestedObject);
 
@@ -0,0 +1,38 @@
+package org.intermine.webservice.server;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.webservice.server.core.AdmissionController;
+import org.intermine.webservice.server.core.JSONService;
+
+/**
+ * Report the state of the queue of expensive queries, so that it can be monitored.
+ */
+public class AdmissionService extends JSONService
+{
+
+    /** @param im The InterMine state object **/
+    public AdmissionService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "admission";
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        addResultItem(AdmissionController.getInstance(webProperties).getMetrics(), false);
+    }
+
+}
@@ -0,0 +1,41 @@
+package org.intermine.webservice.server;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.web.context.InterMineContext;
+import org.intermine.web.displayer.DisplayerManager;
+import org.intermine.webservice.server.core.JSONService;
+
+/**
+ * Report how long each report page displayer takes, so that slow ones can be found.
+ */
+public class DisplayerMetricsService extends JSONService
+{
+
+    /** @param im The InterMine state object **/
+    public DisplayerMetricsService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "displayers";
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        DisplayerManager manager = DisplayerManager.getInstance(InterMineContext.getWebConfig(),
+                im, webProperties);
+        addResultItem(manager.getMetrics(), false);
+    }
+
+}
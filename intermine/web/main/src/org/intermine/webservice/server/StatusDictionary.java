@@ -43,6 +43,8 @@ public abstract class StatusDictionary
                 ret = "OK"; break;
             case Output.NOT_ACCEPTABLE:
                 ret = "NOT ACCEPTABLE"; break;
+            case Output.SC_TOO_MANY_REQUESTS:
+                ret = "Too many requests."; break;
             default:
                 ret = "Unknown Status";
         }
@@ -39,6 +39,7 @@ import org.intermine.api.profile.ProfileManager;
 import org.intermine.api.profile.ProfileManager.ApiPermission;
 import org.intermine.api.profile.ProfileManager.AuthenticationException;
 import org.intermine.api.util.AnonProfile;
+import org.intermine.objectstore.query.Query;
 import org.intermine.util.PropertiesUtil;
 import org.intermine.web.context.InterMineContext;
 import org.intermine.web.logic.RequestUtil;
@@ -47,14 +48,17 @@ import org.intermine.web.logic.export.ResponseUtil;
 import org.intermine.web.logic.profile.LoginHandler;
 import org.intermine.web.security.KeyStorePublicKeySource;
 import org.intermine.web.security.PublicKeySource;
+import org.intermine.webservice.server.core.AdmissionController;
 import org.intermine.webservice.server.core.ListManager;
 import org.intermine.webservice.server.exceptions.BadRequestException;
 import org.intermine.webservice.server.exceptions.MissingParameterException;
 import org.intermine.webservice.server.exceptions.NotAcceptableException;
 import org.intermine.webservice.server.exceptions.ServiceException;
 import org.intermine.webservice.server.exceptions.ServiceForbiddenException;
+import org.intermine.webservice.server.exceptions.TooManyRequestsException;
 import org.intermine.webservice.server.exceptions.UnauthorizedException;
 import org.intermine.webservice.server.output.CSVFormatter;
+import org.intermine.webservice.server.output.ColumnarOutput;
 import org.intermine.webservice.server.output.HTMLTableFormatter;
 import org.intermine.webservice.server.output.JSONFormatter;
 import org.intermine.webservice.server.output.JSONObjectFormatter;
@@ -143,6 +147,7 @@ public abstract class WebService
     private ApiPermission permission = ProfileManager.getDefaultPermission(ANON_PROFILE);
     private boolean initialised = false;
     private String propertyNameSpace = null;
+    private AdmissionController.Admission admission = null;
 
     /**
      * Return the permission object representing the authorisation state of the
@@ -363,6 +368,11 @@ public abstract class WebService
             logError(t, "Error flushing", 500);
         }
 
+        if (admission != null) {
+            admission.release();
+            admission = null;
+        }
+
         try {
             cleanUp();
         } catch (Throwable t) {
@@ -413,6 +423,25 @@ public abstract class WebService
         }
     }
 
+    /**
+     * Wait until the query this request will run may be run, given how expensive it is and how
+     * many other expensive queries are running. The permission is held until the results have
+     * been written out. Requests are counted against the user they are authenticated as, or
+     * otherwise against their IP address.
+     *
+     * @param q The query this request will run.
+     * @throws TooManyRequestsException if the server is too busy to run the query.
+     */
+    protected void admit(Query q) {
+        if (admission != null) {
+            return;
+        }
+        Profile profile = getPermission().getProfile();
+        String requester = profile.isLoggedIn() ? profile.getUsername() : request.getRemoteAddr();
+        admission = AdmissionController.getInstance(webProperties)
+            .admit(requester, im.getObjectStore(), q);
+    }
+
     /**
      * Subclasses may put clean-up code here, to be run after the request has
      * been executed.
@@ -593,6 +622,10 @@ public abstract class WebService
             msg = realMsg;
         }
         logError(t, realMsg, code);
+        if (t instanceof TooManyRequestsException) {
+            int retryAfter = ((TooManyRequestsException) t).getRetryAfter();
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+        }
         if (!formatIsJSONP()) {
             // Don't set errors statuses on jsonp requests, to enable
             // better error checking in the browser.
@@ -872,6 +905,14 @@ public abstract class WebService
                     ResponseUtil.setJSONHeader(response, "result.json", formatIsJSONP());
                 }
                 break;
+            case COLUMNS:
+                output = new ColumnarOutput(os);
+                filename += ".columns";
+                if (isUncompressed()) {
+                    ResponseUtil.setCustomTypeHeader(response, filename,
+                            Format.COLUMNS.getContentType());
+                }
+                break;
             default:
                 output = getDefaultOutput(out, os, separator);
         }
@@ -138,6 +138,11 @@ public class WebServiceRequestParser
      **/
     public static final String FORMAT_PARAMETER_JSONP_COUNT = "jsonpcount";
 
+    /**
+     * Value of parameter when user wants results in the compact binary columnar format.
+     **/
+    public static final String FORMAT_PARAMETER_COLUMNS = "columns";
+
     /**Name of format parameter that specifies format of returned results. */
     public static final String OUTPUT_PARAMETER = "format";
 
@@ -214,6 +219,7 @@ public class WebServiceRequestParser
             put(FORMAT_PARAMETER_JSON, Format.JSON);
             put(FORMAT_PARAMETER_JSONP_COUNT, Format.JSON);
             put(FORMAT_PARAMETER_JSON_COUNT, Format.JSON);
+            put(FORMAT_PARAMETER_COLUMNS, Format.COLUMNS);
         }
     };
 
@@ -0,0 +1,322 @@
+package org.intermine.webservice.server.core;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.webservice.server.exceptions.TooManyRequestsException;
+
+/**
+ * Decides whether a web service query may run now. Each query is put into a cost class using the
+ * estimate of the ObjectStore. Cheap queries always run, but only a limited number of expensive
+ * queries may run at once, so that a few large exports cannot take every database connection.
+ * <p>
+ * Expensive queries wait for a slot in first-come-first-served order. Each requester (a user
+ * name or an IP address) may only hold a few slots, running or waiting, so one client cannot
+ * fill the queue and everyone else gets a fair turn. Requests that cannot get a slot in time are
+ * refused with a TooManyRequestsException, which says how long the client should wait.
+ * <p>
+ * The settings are read from the web properties:
+ * <ul>
+ * <li>webservice.admission.expensive.time - the estimated time in milliseconds at which a query
+ * becomes expensive (default 2000)</li>
+ * <li>webservice.admission.expensive.rows - the estimated number of rows at which a query
+ * becomes expensive (default 1000000)</li>
+ * <li>webservice.admission.max.expensive - the number of expensive queries that may run at
+ * once (default 4, and 0 turns admission control off)</li>
+ * <li>webservice.admission.max.expensive.per.requester - the number of expensive queries one
+ * requester may have running or waiting (default 2)</li>
+ * <li>webservice.admission.wait - the number of seconds an expensive query may wait for a slot
+ * (default 30)</li>
+ * </ul>
+ */
+public class AdmissionController
+{
+    private static final Logger LOG = Logger.getLogger(AdmissionController.class);
+
+    private static final String PREFIX = "webservice.admission.";
+    private static final int MAX_RETRY_AFTER = 600;
+
+    private static AdmissionController instance = null;
+
+    /** The cost classes queries are put into. */
+    public static enum CostClass {
+        /** Queries that may always run. */
+        CHEAP,
+        /** Queries that must wait for a slot. */
+        EXPENSIVE
+    }
+
+    private final long expensiveTime;
+    private final long expensiveRows;
+    private final int maxExpensive;
+    private final int maxPerRequester;
+    private final long waitMillis;
+
+    private final Semaphore slots;
+    private final Map<String, Integer> requesterSlots = new HashMap<String, Integer>();
+
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private final AtomicLong admittedCheap = new AtomicLong(0);
+    private final AtomicLong admittedExpensive = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong totalWaitMillis = new AtomicLong(0);
+    // A moving average of how long expensive queries hold their slot, for retry hints
+    private volatile long averageRunMillis = 1000;
+
+    /**
+     * Constructor.
+     *
+     * @param expensiveTime the estimated time in milliseconds at which a query becomes expensive
+     * @param expensiveRows the estimated number of rows at which a query becomes expensive
+     * @param maxExpensive the number of expensive queries that may run at once, or 0 to admit
+     * everything
+     * @param maxPerRequester the number of expensive queries one requester may have running or
+     * waiting
+     * @param waitSeconds the number of seconds an expensive query may wait for a slot
+     */
+    public AdmissionController(long expensiveTime, long expensiveRows, int maxExpensive,
+            int maxPerRequester, int waitSeconds) {
+        this.expensiveTime = expensiveTime;
+        this.expensiveRows = expensiveRows;
+        this.maxExpensive = maxExpensive;
+        this.maxPerRequester = maxPerRequester;
+        this.waitMillis = waitSeconds * 1000L;
+        // A fair semaphore hands out slots in the order they were asked for
+        this.slots = new Semaphore(Math.max(maxExpensive, 1), true);
+    }
+
+    /**
+     * Returns the admission controller shared by all web services, creating it from the web
+     * properties the first time.
+     *
+     * @param webProperties the web properties
+     * @return an AdmissionController
+     */
+    public static synchronized AdmissionController getInstance(Properties webProperties) {
+        if (instance == null) {
+            instance = new AdmissionController(
+                    getLong(webProperties, "expensive.time", 2000),
+                    getLong(webProperties, "expensive.rows", 1000000),
+                    (int) getLong(webProperties, "max.expensive", 4),
+                    (int) getLong(webProperties, "max.expensive.per.requester", 2),
+                    (int) getLong(webProperties, "wait", 30));
+        }
+        return instance;
+    }
+
+    private static long getLong(Properties webProperties, String name, long defaultValue) {
+        String value = webProperties.getProperty(PREFIX + name);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOG.error("Invalid value for " + PREFIX + name + ": " + value + ", defaulting to "
+                        + defaultValue, e);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Puts a query into a cost class according to its estimated time and size.
+     *
+     * @param info the estimate for the query
+     * @return a CostClass
+     */
+    public CostClass classify(ResultsInfo info) {
+        if ((info.getComplete() >= expensiveTime) || (info.getRows() >= expensiveRows)) {
+            return CostClass.EXPENSIVE;
+        }
+        return CostClass.CHEAP;
+    }
+
+    /**
+     * Estimates the cost of a query and waits until it may run. The returned Admission must be
+     * released once the results have been read.
+     *
+     * @param requester the user name or IP address the query is run for
+     * @param os the ObjectStore the query will be run in
+     * @param q the query
+     * @return an Admission
+     * @throws TooManyRequestsException if the query is expensive and cannot run soon enough
+     */
+    public Admission admit(String requester, ObjectStore os, Query q) {
+        if (maxExpensive <= 0) {
+            return admit(requester, CostClass.CHEAP);
+        }
+        CostClass cost;
+        try {
+            cost = classify(os.estimate(q));
+        } catch (ObjectStoreException e) {
+            // The query will most likely fail when it is run, but treat it as expensive anyway
+            LOG.warn("Could not estimate query for admission: " + e.getMessage());
+            cost = CostClass.EXPENSIVE;
+        }
+        return admit(requester, cost);
+    }
+
+    /**
+     * Waits until a query of the given cost class may run. The returned Admission must be
+     * released once the results have been read.
+     *
+     * @param requester the user name or IP address the query is run for
+     * @param cost the cost class of the query
+     * @return an Admission
+     * @throws TooManyRequestsException if the query is expensive and cannot run soon enough
+     */
+    public Admission admit(String requester, CostClass cost) {
+        if ((cost == CostClass.CHEAP) || (maxExpensive <= 0)) {
+            admittedCheap.incrementAndGet();
+            return new Admission(null);
+        }
+        synchronized (requesterSlots) {
+            Integer held = requesterSlots.get(requester);
+            int count = (held == null) ? 0 : held.intValue();
+            if (count >= maxPerRequester) {
+                throw reject("You already have " + count + " expensive queries running or waiting."
+                        + " Please wait for them to finish before starting another.");
+            }
+            requesterSlots.put(requester, Integer.valueOf(count + 1));
+        }
+        boolean acquired = false;
+        long start = System.currentTimeMillis();
+        waiting.incrementAndGet();
+        try {
+            acquired = slots.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+            totalWaitMillis.addAndGet(System.currentTimeMillis() - start);
+            if (!acquired) {
+                releaseRequester(requester);
+            }
+        }
+        if (!acquired) {
+            throw reject("The server is busy running other expensive queries. Please try again"
+                    + " later.");
+        }
+        admittedExpensive.incrementAndGet();
+        return new Admission(requester);
+    }
+
+    private TooManyRequestsException reject(String message) {
+        rejected.incrementAndGet();
+        int retryAfter = getRetryAfter();
+        LOG.info("Refused expensive query (" + this + "), retry after " + retryAfter + "s");
+        return new TooManyRequestsException(message, retryAfter);
+    }
+
+    /**
+     * Returns a guess at how many seconds it will be before an expensive query could get a slot,
+     * based on how long expensive queries have been taking and how many are waiting.
+     *
+     * @return a number of seconds
+     */
+    public int getRetryAfter() {
+        long rounds = 1 + (waiting.get() / Math.max(maxExpensive, 1));
+        long seconds = (rounds * averageRunMillis + 999) / 1000;
+        return (int) Math.max(1, Math.min(MAX_RETRY_AFTER, seconds));
+    }
+
+    private void releaseRequester(String requester) {
+        synchronized (requesterSlots) {
+            Integer held = requesterSlots.get(requester);
+            if ((held == null) || (held.intValue() <= 1)) {
+                requesterSlots.remove(requester);
+            } else {
+                requesterSlots.put(requester, Integer.valueOf(held.intValue() - 1));
+            }
+        }
+    }
+
+    /**
+     * Returns the current state of the admission queue, for monitoring.
+     *
+     * @return a Map from the name of each measure to its value
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> retval = new LinkedHashMap<String, Object>();
+        retval.put("maxExpensive", maxExpensive);
+        retval.put("runningExpensive", Math.max(maxExpensive, 1) - slots.availablePermits());
+        retval.put("waiting", waiting.get());
+        synchronized (requesterSlots) {
+            retval.put("requesters", requesterSlots.size());
+        }
+        retval.put("admittedCheap", admittedCheap.get());
+        retval.put("admittedExpensive", admittedExpensive.get());
+        retval.put("rejected", rejected.get());
+        retval.put("totalWaitMillis", totalWaitMillis.get());
+        retval.put("averageRunMillis", averageRunMillis);
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "admission: " + getMetrics();
+    }
+
+    /**
+     * Permission for one query to run. Expensive queries hold a slot until they are released.
+     */
+    public class Admission
+    {
+        private final String requester;
+        private final long start = System.currentTimeMillis();
+        private boolean released = false;
+
+        Admission(String requester) {
+            this.requester = requester;
+        }
+
+        /**
+         * Returns whether this query holds one of the slots for expensive queries.
+         *
+         * @return true if the query was classed as expensive
+         */
+        public boolean isExpensive() {
+            return requester != null;
+        }
+
+        /**
+         * Gives up the slot held by this query, if any. Calling this more than once has no
+         * effect.
+         */
+        public synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (requester != null) {
+                long time = System.currentTimeMillis() - start;
+                averageRunMillis = (averageRunMillis * 7 + time) / 8;
+                slots.release();
+                releaseRequester(requester);
+            }
+        }
+    }
+}
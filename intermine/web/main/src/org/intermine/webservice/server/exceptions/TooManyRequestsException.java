@@ -0,0 +1,42 @@
+package org.intermine.webservice.server.exceptions;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.webservice.server.output.Output;
+
+/**
+ * Exception representation for turning away a request because the server is already running as
+ * many expensive queries as it is allowed to. The client should try again after the number of
+ * seconds given by getRetryAfter(), which is sent as the Retry-After header.
+ */
+public class TooManyRequestsException extends ServiceException
+{
+    private static final long serialVersionUID = -2395137720536410853L;
+
+    private final int retryAfter;
+
+    /**
+     * Constructor
+     * @param message A description of why the request was refused.
+     * @param retryAfter The number of seconds the client should wait before retrying.
+     */
+    public TooManyRequestsException(String message, int retryAfter) {
+        super(message, Output.SC_TOO_MANY_REQUESTS);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return The number of seconds the client should wait before retrying.
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+}
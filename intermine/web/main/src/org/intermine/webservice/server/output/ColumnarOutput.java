@@ -0,0 +1,327 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.webservice.server.exceptions.ServiceException;
+
+/**
+ * Writes results in a compact binary format, which is much cheaper to produce and to parse than
+ * the text formats for large result sets. Rows are sent in batches, and within a batch each
+ * column is sent as a block of values of a single type, with strings replaced by indexes into a
+ * dictionary of the distinct strings in that column.
+ * <p>
+ * All numbers are big-endian, and all strings are UTF-8 preceded by their length in bytes as an
+ * int. The stream is:
+ * <ul>
+ * <li>The magic number 0x494d4353 ("IMCS") and the format VERSION, as ints.</li>
+ * <li>The number of columns, then the name of each column.</li>
+ * <li>Any number of batches. A batch is the number of rows in it (always more than zero),
+ * then for each column a type byte, a null bitmap of (rows + 7) / 8 bytes where bit (i % 8) of
+ * byte (i / 8) is set if row i is null, and then the values:
+ * <ul>
+ * <li>BOOLEAN: one byte per row</li>
+ * <li>INT: one int per row</li>
+ * <li>LONG and DATE: one long per row (milliseconds since the epoch for dates)</li>
+ * <li>DOUBLE: one double per row</li>
+ * <li>STRING: the number of entries in the dictionary, the entries, then one int per row giving
+ * the index of its value in the dictionary</li>
+ * </ul>
+ * Null rows hold zero in the fixed-width types.</li>
+ * <li>An int zero, marking the end of the rows, then the HTTP status code of the request as an
+ * int, and the error message as a string (empty if the request succeeded).</li>
+ * </ul>
+ */
+public class ColumnarOutput extends Output
+{
+    /** The header attribute holding the list of column names. **/
+    public static final String KEY_COLUMNS = "columns";
+
+    /** The first int of the stream. **/
+    public static final int MAGIC = 0x494d4353;
+    /** The version of the format. **/
+    public static final int VERSION = 1;
+
+    /** Type of a column of booleans. **/
+    public static final byte BOOLEAN = 1;
+    /** Type of a column of ints. **/
+    public static final byte INT = 2;
+    /** Type of a column of longs. **/
+    public static final byte LONG = 3;
+    /** Type of a column of doubles. **/
+    public static final byte DOUBLE = 4;
+    /** Type of a column of dates. **/
+    public static final byte DATE = 5;
+    /** Type of a column of dictionary-encoded strings. **/
+    public static final byte STRING = 6;
+
+    private static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private final DataOutputStream out;
+    private final int batchSize;
+    private List<List<Object>> batch;
+    private int columnCount = -1;
+    private boolean headerWritten = false;
+    private int resultsCount = 0;
+
+    /**
+     * Constructor.
+     * @param os The stream to write to.
+     */
+    public ColumnarOutput(OutputStream os) {
+        this(os, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param os The stream to write to.
+     * @param batchSize The number of rows to send in each batch.
+     */
+    public ColumnarOutput(OutputStream os, int batchSize) {
+        this.out = new DataOutputStream(new BufferedOutputStream(os));
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<List<Object>>(batchSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setHeaderAttributes(Map<String, Object> attributes) {
+        if (headerWritten) {
+            throw new RuntimeException("Attempt to set header attributes "
+                + "although header was printed already.");
+        }
+        super.setHeaderAttributes(attributes);
+    }
+
+    /**
+     * Add a row of strings. Prefer addRow(), which keeps the types of the values.
+     * @param item The row.
+     */
+    @Override
+    public void addResultItem(List<String> item) {
+        addRow(item);
+    }
+
+    /**
+     * Add a row of values. Values may be null, Booleans, Numbers, Dates or any other object,
+     * which will be sent as its string representation.
+     * @param row The row.
+     */
+    public void addRow(List<? extends Object> row) {
+        if (columnCount == -1) {
+            columnCount = row.size();
+        } else if (row.size() != columnCount) {
+            throw new ServiceException("Row has " + row.size() + " columns, expected "
+                    + columnCount);
+        }
+        batch.add(new ArrayList<Object>(row));
+        resultsCount++;
+        if (batch.size() >= batchSize) {
+            writeBatch();
+        }
+    }
+
+    /**
+     * Write any remaining rows and the status of the request, and close the stream.
+     */
+    @Override
+    public void flush() {
+        try {
+            writeBatch();
+            writeHeader();
+            out.writeInt(0);
+            out.writeInt(getCode());
+            writeString(getError() == null ? "" : getError());
+            out.close();
+        } catch (IOException e) {
+            throw new ServiceException("Error writing results", e);
+        }
+    }
+
+    @Override
+    protected int getResultsCount() {
+        return resultsCount;
+    }
+
+    private void writeHeader() throws IOException {
+        if (headerWritten) {
+            return;
+        }
+        headerWritten = true;
+        List<String> names = getColumnNames();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(names.size());
+        for (String name : names) {
+            writeString(name);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> getColumnNames() {
+        Object names = getHeaderAttributes().get(KEY_COLUMNS);
+        if (names instanceof List<?> && (columnCount == -1
+                || ((List<?>) names).size() == columnCount)) {
+            return (List<String>) names;
+        }
+        // No (usable) names, so number the columns
+        List<String> retval = new ArrayList<String>();
+        for (int i = 0; i < Math.max(columnCount, 0); i++) {
+            retval.add(String.valueOf(i));
+        }
+        return retval;
+    }
+
+    private void writeBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            writeHeader();
+            int rows = batch.size();
+            out.writeInt(rows);
+            for (int col = 0; col < columnCount; col++) {
+                writeColumn(col, rows);
+            }
+        } catch (IOException e) {
+            throw new ServiceException("Error writing results", e);
+        }
+        batch = new ArrayList<List<Object>>(batchSize);
+    }
+
+    private void writeColumn(int col, int rows) throws IOException {
+        byte type = getType(col);
+        out.writeByte(type);
+        byte[] nulls = new byte[(rows + 7) / 8];
+        for (int i = 0; i < rows; i++) {
+            if (batch.get(i).get(col) == null) {
+                nulls[i / 8] |= 1 << (i % 8);
+            }
+        }
+        out.write(nulls);
+        if (type == STRING) {
+            writeStrings(col, rows);
+            return;
+        }
+        for (int i = 0; i < rows; i++) {
+            Object value = batch.get(i).get(col);
+            switch (type) {
+                case BOOLEAN:
+                    out.writeByte((value != null && ((Boolean) value).booleanValue()) ? 1 : 0);
+                    break;
+                case INT:
+                    out.writeInt(value == null ? 0 : ((Number) value).intValue());
+                    break;
+                case LONG:
+                    out.writeLong(value == null ? 0 : ((Number) value).longValue());
+                    break;
+                case DATE:
+                    out.writeLong(value == null ? 0 : ((Date) value).getTime());
+                    break;
+                default:
+                    out.writeDouble(value == null ? 0 : ((Number) value).doubleValue());
+            }
+        }
+    }
+
+    private void writeStrings(int col, int rows) throws IOException {
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+        List<String> dictionary = new ArrayList<String>();
+        int[] values = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            Object value = batch.get(i).get(col);
+            if (value == null) {
+                continue;
+            }
+            String s = value.toString();
+            Integer index = indexes.get(s);
+            if (index == null) {
+                index = Integer.valueOf(dictionary.size());
+                indexes.put(s, index);
+                dictionary.add(s);
+            }
+            values[i] = index.intValue();
+        }
+        out.writeInt(dictionary.size());
+        for (String s : dictionary) {
+            writeString(s);
+        }
+        for (int i = 0; i < rows; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    /**
+     * Works out the narrowest type that can hold every value of a column in the batch.
+     */
+    private byte getType(int col) {
+        byte type = 0;
+        for (List<Object> row : batch) {
+            Object value = row.get(col);
+            byte valueType;
+            if (value == null) {
+                continue;
+            } else if (value instanceof Boolean) {
+                valueType = BOOLEAN;
+            } else if (value instanceof Integer || value instanceof Short
+                    || value instanceof Byte) {
+                valueType = INT;
+            } else if (value instanceof Long) {
+                valueType = LONG;
+            } else if (value instanceof Float || value instanceof Double) {
+                valueType = DOUBLE;
+            } else if (value instanceof Date) {
+                valueType = DATE;
+            } else {
+                // Strings, and things like BigDecimal that no fixed-width type holds exactly
+                return STRING;
+            }
+            if (type == 0) {
+                type = valueType;
+            } else if (type != valueType) {
+                if (isNumeric(type) && isNumeric(valueType)) {
+                    type = (byte) Math.max(type, valueType);
+                } else {
+                    return STRING;
+                }
+            }
+        }
+        // A column of nulls is sent as an empty dictionary
+        return (type == 0) ? STRING : type;
+    }
+
+    private static boolean isNumeric(byte type) {
+        return type == INT || type == LONG || type == DOUBLE;
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
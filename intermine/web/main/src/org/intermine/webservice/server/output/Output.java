@@ -71,6 +71,11 @@ public abstract class Output
      */
     public static final int NOT_ACCEPTABLE = 406;
 
+    /**
+     * The server is too busy to run this request now, and the client should retry later.
+     */
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
     /**
      * Sets the error message
      * @param message The error message.
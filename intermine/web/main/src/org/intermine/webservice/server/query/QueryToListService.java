@@ -179,7 +179,7 @@ public class QueryToListService extends AbstractQueryService
     }
 
     /**
-     * Get the Objectstore Query to run to generate the list.
+     * Get the Objectstore Query to run to generate the list, once it has been admitted to run.
      * @param pq The pathquery to generate the query from.
      * @param profile The profile to search for bags.
      * @return A query.
@@ -195,6 +195,7 @@ public class QueryToListService extends AbstractQueryService
         } catch (ObjectStoreException e) {
             throw new ServiceException(e);
         }
+        admit(ret);
         return ret;
     }
 
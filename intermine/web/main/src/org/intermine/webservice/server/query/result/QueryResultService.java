@@ -47,6 +47,8 @@ import org.intermine.webservice.server.core.CountProcessor;
 import org.intermine.webservice.server.core.ResultProcessor;
 import org.intermine.webservice.server.exceptions.BadRequestException;
 import org.intermine.webservice.server.exceptions.ServiceException;
+import org.intermine.webservice.server.output.ColumnarOutput;
+import org.intermine.webservice.server.output.ColumnarResultProcessor;
 import org.intermine.webservice.server.output.FlatFileFormatter;
 import org.intermine.webservice.server.output.HTMLTableFormatter;
 import org.intermine.webservice.server.output.JSONCountFormatter;
@@ -123,6 +125,7 @@ public class QueryResultService extends AbstractQueryService
             addAll(Format.BASIC_FORMATS);
             addAll(Format.FLAT_FILES);
             addAll(Format.JSON_FORMATS);
+            add(Format.COLUMNS);
         }
     };
 
@@ -208,6 +211,9 @@ public class QueryResultService extends AbstractQueryService
                 attributes.put(HTMLTableFormatter.KEY_COLUMN_HEADERS,
                         WebUtil.formatPathQueryView(pq, InterMineContext.getWebConfig()));
                 break;
+            case COLUMNS:
+                attributes.put(ColumnarOutput.KEY_COLUMNS, pq.getView());
+                break;
             default:
                 break;
         }
@@ -240,6 +246,8 @@ public class QueryResultService extends AbstractQueryService
                     attributes.put(JSONTableFormatter.KEY_COLUMN_HEADERS, colHeaders);
                 } else if (formatIsFlatFile() && wantsColumnHeaders()) {
                     attributes.put(FlatFileFormatter.COLUMN_HEADERS, colHeaders);
+                } else if (getFormat() == Format.COLUMNS) {
+                    attributes.put(ColumnarOutput.KEY_COLUMNS, colHeaders);
                 }
             }
         }
@@ -296,6 +304,11 @@ public class QueryResultService extends AbstractQueryService
      *            maximum number of results
      */
     public void runPathQuery(PathQuery pathQuery, int firstResult, int maxResults) {
+        try {
+            admit(executor.makeQuery(pathQuery));
+        } catch (ObjectStoreException e) {
+            throw new ServiceException("Problem making query.", e);
+        }
         if (wantsCount) {
             runCount(pathQuery);
         } else {
@@ -378,6 +391,9 @@ public class QueryResultService extends AbstractQueryService
                     processor = new JSONRowResultProcessor(im);
                 }
                 break;
+            case COLUMNS:
+                processor = new ColumnarResultProcessor();
+                break;
             default:
                 processor = new ResultProcessor();
         }
@@ -55,6 +55,7 @@ public class TemplateListAppendService extends TemplateToListService
                 new HashMap<String, QuerySelectable>(),
                 im.getBagQueryRunner(),
                 new HashMap<String, BagQueryResult>());
+        admit(q);
 
         InterMineBag list = profile.getSavedBags().get(name);
         if (list == null) {
@@ -0,0 +1,65 @@
+package org.intermine.web.autocompletion;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class PrefixIndexTest extends TestCase
+{
+    private File file;
+    private PrefixIndex index;
+
+    public PrefixIndexTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("prefix", ".index");
+        PrefixIndexWriter writer = new PrefixIndexWriter();
+        writer.addField("GOTerm.name", Arrays.asList("protein binding", "DNA binding",
+                    "binding", "protein kinase activity", null, "binding", "\u00e9tude Binding"));
+        writer.addField("Gene.symbol", Arrays.asList("eve", "zen"));
+        writer.write(file);
+        index = new PrefixIndex(file);
+    }
+
+    public void tearDown() {
+        file.delete();
+    }
+
+    public void testFields() throws Exception {
+        assertTrue(index.hasField("GOTerm.name"));
+        assertTrue(index.hasField("Gene.symbol"));
+        assertFalse(index.hasField("Gene.name"));
+        assertNull(index.getFastList("Gene.name", "ev", 10));
+    }
+
+    public void testGetFastList() throws Exception {
+        // Shortest values first, each value once, case insensitive
+        assertEquals(Arrays.asList("true", "binding", "DNA binding", "\u00e9tude Binding",
+                    "protein binding"), Arrays.asList(index.getFastList("GOTerm.name", "BIN", 10)));
+        assertEquals(Arrays.asList("true", "binding", "DNA binding"),
+                Arrays.asList(index.getFastList("GOTerm.name", "bin", 2)));
+        // Every word of the query must prefix a word of the value
+        assertEquals(Arrays.asList("true", "protein binding"),
+                Arrays.asList(index.getFastList("GOTerm.name", "pro bi", 10)));
+        assertEquals(Arrays.asList("true", "\u00e9tude Binding"),
+                Arrays.asList(index.getFastList("GOTerm.name", "\u00e9t", 10)));
+        assertEquals(Arrays.asList("true"),
+                Arrays.asList(index.getFastList("GOTerm.name", "pro dna", 10)));
+        assertEquals(Arrays.asList("true", "zen"),
+                Arrays.asList(index.getFastList("Gene.symbol", "z", 10)));
+        assertNull(index.getFastList("GOTerm.name", "*bin", 10));
+    }
+}
@@ -0,0 +1,130 @@
+package org.intermine.web.displayer;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.resetToDefault;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CapturingRequestTest {
+
+    private HttpServletRequest req;
+    private HttpSession session;
+
+    @Before
+    public void setup() {
+        session = createMock(HttpSession.class);
+        req = createNiceMock(HttpServletRequest.class);
+        expect(req.getSession()).andReturn(session);
+        expect(req.getAttributeNames()).andReturn(Collections.enumeration(
+                    Arrays.asList("existing", "removed")));
+        expect(req.getAttribute("existing")).andReturn("a");
+        expect(req.getAttribute("removed")).andReturn("b");
+        expect(req.getParameterMap()).andReturn(
+                Collections.singletonMap("id", new String[] {"1001"}));
+        expect(req.getHeaderNames()).andReturn(Collections.enumeration(
+                    Arrays.asList("Accept-Language")));
+        expect(req.getHeaders("Accept-Language")).andReturn(Collections.enumeration(
+                    Arrays.asList("fr")));
+        expect(req.getLocales()).andReturn(Collections.enumeration(
+                    Arrays.asList(Locale.FRENCH)));
+        expect(req.getContextPath()).andReturn("/flymine");
+        replay(req);
+    }
+
+    @Test
+    public void testCapture() {
+        CapturingRequest capture = new CapturingRequest(req);
+        // Nothing more is asked of the real request, which may be recycled once it is finished
+        resetToDefault(req);
+        replay(req);
+        assertSame(session, capture.getSession());
+        assertSame(session, capture.getSession(false));
+        assertEquals("a", capture.getAttribute("existing"));
+        capture.setAttribute("jspPage", "model/homologues.jsp");
+        capture.removeAttribute("removed");
+        assertEquals("model/homologues.jsp", capture.getAttribute("jspPage"));
+        assertNull(capture.getAttribute("removed"));
+
+        Map<String, Object> expected = new LinkedHashMap<String, Object>();
+        expected.put("jspPage", "model/homologues.jsp");
+        expected.put("removed", null);
+        assertEquals(expected, capture.getAttributesSet());
+    }
+
+    @Test
+    public void testSnapshot() {
+        CapturingRequest capture = new CapturingRequest(req);
+        resetToDefault(req);
+        replay(req);
+        assertEquals("1001", capture.getParameter("id"));
+        assertEquals(Arrays.asList("id"), Collections.list(capture.getParameterNames()));
+        assertNull(capture.getParameter("missing"));
+        assertEquals("fr", capture.getHeader("accept-language"));
+        assertEquals(Locale.FRENCH, capture.getLocale());
+        assertEquals("/flymine", capture.getContextPath());
+        try {
+            capture.getInputStream();
+            fail("Expected an exception");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        } catch (Exception e) {
+            fail("Unexpected " + e);
+        }
+        verify(req);
+    }
+
+    @Test
+    public void testApply() {
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        attributes.put("jspPage", "model/homologues.jsp");
+        attributes.put("removed", null);
+        DisplayerOutput output = new DisplayerOutput(attributes, true);
+        assertTrue(output.isCacheable());
+
+        HttpServletRequest target = createNiceMock(HttpServletRequest.class);
+        target.setAttribute("jspPage", "model/homologues.jsp");
+        target.removeAttribute("removed");
+        target.setAttribute("reportObject", null);
+        replay(target);
+        output.apply(target, null);
+        verify(target);
+    }
+
+    @Test
+    public void testError() {
+        DisplayerOutput output = DisplayerOutput.error("HomologueDisplayer");
+        assertFalse(output.isCacheable());
+        assertEquals("reportDisplayerError.jsp", output.getAttributes().get("jspPage"));
+        assertEquals("HomologueDisplayer", output.getAttributes().get("displayerName"));
+    }
+}
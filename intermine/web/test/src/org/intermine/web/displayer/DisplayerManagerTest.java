@@ -0,0 +1,158 @@
+package org.intermine.web.displayer;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.intermine.api.profile.Profile;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.web.logic.Constants;
+import org.intermine.web.logic.config.ReportDisplayerConfig;
+import org.intermine.web.logic.config.WebConfig;
+import org.intermine.web.logic.results.ReportObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DisplayerManagerTest {
+
+    private DisplayerManager manager;
+    private ReportObject reportObject;
+
+    @Before
+    public void setup() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("report.displayers.threads", "2");
+        props.setProperty("report.displayers.timeout", "1");
+        manager = new DisplayerManager(new WebConfig(), null, props);
+        Employee tim = new Employee();
+        tim.setId(1001);
+        reportObject = new ReportObject(tim, new WebConfig(), null, props);
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    private static HttpServletRequest request(String sessionId, String username) {
+        HttpSession session = createNiceMock(HttpSession.class);
+        expect(session.getId()).andReturn(sessionId).anyTimes();
+        if (username != null) {
+            Profile profile = createNiceMock(Profile.class);
+            expect(profile.isLoggedIn()).andReturn(true).anyTimes();
+            expect(profile.getUsername()).andReturn(username).anyTimes();
+            replay(profile);
+            expect(session.getAttribute(Constants.PROFILE)).andReturn(profile).anyTimes();
+        }
+        replay(session);
+        HttpServletRequest req = createNiceMock(HttpServletRequest.class);
+        expect(req.getSession()).andReturn(session).anyTimes();
+        replay(req);
+        return req;
+    }
+
+    @Test
+    public void testAnonymousSessions() {
+        CountingDisplayer displayer = new CountingDisplayer();
+        DisplayerOutput first = manager.getOutput(displayer, request("a", null), reportObject);
+        assertEquals("a", first.getAttributes().get("session"));
+        DisplayerOutput second = manager.getOutput(displayer, request("b", null), reportObject);
+        assertEquals("b", second.getAttributes().get("session"));
+        assertEquals(first, manager.getOutput(displayer, request("a", null), reportObject));
+        assertEquals(2, displayer.runs.get());
+    }
+
+    @Test
+    public void testLoggedInSessions() {
+        CountingDisplayer displayer = new CountingDisplayer();
+        DisplayerOutput first = manager.getOutput(displayer, request("a", "tim"), reportObject);
+        assertEquals(first, manager.getOutput(displayer, request("b", "tim"), reportObject));
+        assertEquals(1, displayer.runs.get());
+        manager.getOutput(displayer, request("b", "dawn"), reportObject);
+        assertEquals(2, displayer.runs.get());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        SlowDisplayer displayer = new SlowDisplayer();
+        DisplayerOutput output = manager.getOutput(displayer, request("a", null), reportObject);
+        assertFalse(output.isCacheable());
+        // The displayer is stopped, and the next request runs it again
+        assertTrue(displayer.interrupted.await(10, TimeUnit.SECONDS));
+        output = manager.getOutput(displayer, request("a", null), reportObject);
+        assertTrue(output.isCacheable());
+        assertEquals(2, displayer.runs.get());
+    }
+
+    @Test
+    public void testErrorsNotCached() {
+        CountingDisplayer displayer = new CountingDisplayer();
+        displayer.fail = true;
+        assertFalse(manager.getOutput(displayer, request("a", "tim"), reportObject)
+                .isCacheable());
+        manager.getOutput(displayer, request("a", "tim"), reportObject);
+        assertEquals(2, displayer.runs.get());
+    }
+
+    private static class CountingDisplayer extends ReportDisplayer
+    {
+        private final AtomicInteger runs = new AtomicInteger();
+        private boolean fail = false;
+
+        CountingDisplayer() {
+            super(new ReportDisplayerConfig(), null);
+        }
+
+        @Override
+        public void display(HttpServletRequest request, ReportObject reportObject) {
+            runs.incrementAndGet();
+            if (fail) {
+                throw new RuntimeException("Failed");
+            }
+            request.setAttribute("session", request.getSession().getId());
+        }
+    }
+
+    private static class SlowDisplayer extends ReportDisplayer
+    {
+        private final AtomicInteger runs = new AtomicInteger();
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        SlowDisplayer() {
+            super(new ReportDisplayerConfig(), null);
+        }
+
+        @Override
+        public void display(HttpServletRequest request, ReportObject reportObject) {
+            if (runs.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        }
+    }
+}
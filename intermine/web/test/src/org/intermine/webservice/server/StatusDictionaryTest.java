@@ -34,6 +34,10 @@ public class StatusDictionaryTest extends TestCase {
                 "204 Resource representation is empty.",
                 StatusDictionary.getDescription(204)
             );
+        assertEquals(
+                "429 Too many requests.",
+                StatusDictionary.getDescription(429)
+            );
         assertEquals(
                 "506 Unknown Status",
                 StatusDictionary.getDescription(506)
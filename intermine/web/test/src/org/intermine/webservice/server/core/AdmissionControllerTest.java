@@ -0,0 +1,70 @@
+package org.intermine.webservice.server.core;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.query.ResultsInfo;
+import org.intermine.webservice.server.core.AdmissionController.Admission;
+import org.intermine.webservice.server.core.AdmissionController.CostClass;
+import org.intermine.webservice.server.exceptions.TooManyRequestsException;
+
+public class AdmissionControllerTest extends TestCase
+{
+    public AdmissionControllerTest(String arg) {
+        super(arg);
+    }
+
+    public void testClassify() throws Exception {
+        AdmissionController controller = new AdmissionController(1000, 5000, 2, 1, 0);
+        assertEquals(CostClass.CHEAP, controller.classify(new ResultsInfo(10, 100, 20)));
+        assertEquals(CostClass.EXPENSIVE, controller.classify(new ResultsInfo(10, 1000, 20)));
+        assertEquals(CostClass.EXPENSIVE, controller.classify(new ResultsInfo(10, 100, 5000)));
+    }
+
+    public void testLimits() throws Exception {
+        AdmissionController controller = new AdmissionController(1000, 5000, 2, 1, 0);
+        Admission a = controller.admit("alice", CostClass.EXPENSIVE);
+        assertTrue(a.isExpensive());
+        // Cheap queries are never held up
+        assertFalse(controller.admit("alice", CostClass.CHEAP).isExpensive());
+        try {
+            controller.admit("alice", CostClass.EXPENSIVE);
+            fail("Expected a TooManyRequestsException");
+        } catch (TooManyRequestsException e) {
+            assertEquals(429, e.getHttpErrorCode());
+            assertTrue(e.getRetryAfter() >= 1);
+        }
+        Admission b = controller.admit("bob", CostClass.EXPENSIVE);
+        try {
+            controller.admit("carol", CostClass.EXPENSIVE);
+            fail("Expected a TooManyRequestsException");
+        } catch (TooManyRequestsException e) {
+            // Every slot is taken
+        }
+        a.release();
+        a.release();
+        Admission c = controller.admit("carol", CostClass.EXPENSIVE);
+        assertEquals(2, controller.getMetrics().get("runningExpensive"));
+        assertEquals(2L, controller.getMetrics().get("rejected"));
+        assertEquals(3L, controller.getMetrics().get("admittedExpensive"));
+        b.release();
+        c.release();
+        assertEquals(0, controller.getMetrics().get("runningExpensive"));
+        assertEquals(0, controller.getMetrics().get("requesters"));
+    }
+
+    public void testDisabled() throws Exception {
+        AdmissionController controller = new AdmissionController(1000, 5000, 0, 1, 0);
+        assertFalse(controller.admit("alice", CostClass.EXPENSIVE).isExpensive());
+        assertFalse(controller.admit("alice", CostClass.EXPENSIVE).isExpensive());
+    }
+}
@@ -0,0 +1,208 @@
+package org.intermine.webservice.server.output;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.results.ResultElement;
+import org.intermine.webservice.server.exceptions.ServiceException;
+
+public class ColumnarOutputTest extends TestCase {
+
+    private ByteArrayOutputStream bytes;
+    private DataInputStream in;
+
+    public ColumnarOutputTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() {
+        bytes = new ByteArrayOutputStream();
+    }
+
+    private ColumnarOutput output(int batchSize, String... columns) {
+        ColumnarOutput output = new ColumnarOutput(bytes, batchSize);
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put(ColumnarOutput.KEY_COLUMNS, new ArrayList<String>(Arrays.asList(columns)));
+        output.setHeaderAttributes(attributes);
+        return output;
+    }
+
+    private void startReading(String... columns) throws IOException {
+        in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(ColumnarOutput.MAGIC, in.readInt());
+        assertEquals(ColumnarOutput.VERSION, in.readInt());
+        assertEquals(columns.length, in.readInt());
+        for (String column : columns) {
+            assertEquals(column, readString());
+        }
+    }
+
+    private String readString() throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, "UTF-8");
+    }
+
+    private void assertEnd(int code, String error) throws IOException {
+        assertEquals(0, in.readInt());
+        assertEquals(code, in.readInt());
+        assertEquals(error, readString());
+        assertEquals(-1, in.read());
+    }
+
+    public void testTypes() throws IOException {
+        ColumnarOutput output = output(10, "name", "age", "start", "salary");
+        output.addRow(Arrays.<Object>asList("Tim", 30, new Date(1000L), 1.5));
+        output.addRow(Arrays.<Object>asList("Dawn", null, new Date(2000L), 2L));
+        output.addRow(Arrays.<Object>asList("Tim", 26, null, null));
+        assertEquals(3, output.getResultsCount());
+        output.flush();
+
+        startReading("name", "age", "start", "salary");
+        assertEquals(3, in.readInt());
+
+        assertEquals(ColumnarOutput.STRING, in.readByte());
+        assertEquals(0, in.readByte());
+        assertEquals(2, in.readInt());
+        assertEquals("Tim", readString());
+        assertEquals("Dawn", readString());
+        assertEquals(0, in.readInt());
+        assertEquals(1, in.readInt());
+        assertEquals(0, in.readInt());
+
+        assertEquals(ColumnarOutput.INT, in.readByte());
+        assertEquals(2, in.readByte());
+        assertEquals(30, in.readInt());
+        assertEquals(0, in.readInt());
+        assertEquals(26, in.readInt());
+
+        assertEquals(ColumnarOutput.DATE, in.readByte());
+        assertEquals(4, in.readByte());
+        assertEquals(1000L, in.readLong());
+        assertEquals(2000L, in.readLong());
+        assertEquals(0L, in.readLong());
+
+        // A double and a long widen to a double
+        assertEquals(ColumnarOutput.DOUBLE, in.readByte());
+        assertEquals(4, in.readByte());
+        assertEquals(1.5, in.readDouble());
+        assertEquals(2.0, in.readDouble());
+        assertEquals(0.0, in.readDouble());
+
+        assertEnd(200, "");
+    }
+
+    public void testMixedTypesAreStrings() throws IOException {
+        ColumnarOutput output = output(10, "a", "b", "c");
+        output.addRow(Arrays.<Object>asList(Boolean.TRUE, new BigDecimal("1.10"), null));
+        output.addRow(Arrays.<Object>asList(3, new BigDecimal("2"), null));
+        output.flush();
+
+        startReading("a", "b", "c");
+        assertEquals(2, in.readInt());
+        assertEquals(ColumnarOutput.STRING, in.readByte());
+        assertEquals(0, in.readByte());
+        assertEquals(2, in.readInt());
+        assertEquals("true", readString());
+        assertEquals("3", readString());
+        assertEquals(0, in.readInt());
+        assertEquals(1, in.readInt());
+        assertEquals(ColumnarOutput.STRING, in.readByte());
+        assertEquals(0, in.readByte());
+        assertEquals(2, in.readInt());
+        assertEquals("1.10", readString());
+        assertEquals("2", readString());
+        assertEquals(0, in.readInt());
+        assertEquals(1, in.readInt());
+        // A column of nulls is an empty dictionary
+        assertEquals(ColumnarOutput.STRING, in.readByte());
+        assertEquals(3, in.readByte());
+        assertEquals(0, in.readInt());
+        assertEquals(0, in.readInt());
+        assertEquals(0, in.readInt());
+        assertEnd(200, "");
+    }
+
+    public void testBatches() throws IOException {
+        ColumnarOutput output = output(2, "flag");
+        output.addRow(Arrays.<Object>asList(Boolean.TRUE));
+        output.addRow(Arrays.<Object>asList(Boolean.FALSE));
+        output.addResultItem(Arrays.asList("x"));
+        output.setError("Query failed", Output.SC_INTERNAL_SERVER_ERROR);
+        output.flush();
+
+        startReading("flag");
+        assertEquals(2, in.readInt());
+        assertEquals(ColumnarOutput.BOOLEAN, in.readByte());
+        assertEquals(0, in.readByte());
+        assertEquals(1, in.readByte());
+        assertEquals(0, in.readByte());
+        // Each batch has its own types
+        assertEquals(1, in.readInt());
+        assertEquals(ColumnarOutput.STRING, in.readByte());
+        assertEquals(0, in.readByte());
+        assertEquals(1, in.readInt());
+        assertEquals("x", readString());
+        assertEquals(0, in.readInt());
+        assertEnd(500, "Query failed");
+    }
+
+    public void testNoRows() throws IOException {
+        ColumnarOutput output = output(10, "name", "age");
+        output.flush();
+        startReading("name", "age");
+        assertEnd(200, "");
+    }
+
+    public void testNumberedColumns() throws IOException {
+        ColumnarOutput output = new ColumnarOutput(bytes);
+        output.setHeaderAttributes(Collections.<String, Object>singletonMap(
+                ColumnarOutput.KEY_COLUMNS, Arrays.asList("only one")));
+        output.addRow(Arrays.<Object>asList(1, 2));
+        output.flush();
+        startReading("0", "1");
+    }
+
+    public void testWrongRowLength() {
+        ColumnarOutput output = output(10, "name", "age");
+        output.addRow(Arrays.<Object>asList("Tim", 30));
+        try {
+            output.addRow(Arrays.<Object>asList("Tim"));
+            fail("Expected an exception");
+        } catch (ServiceException e) {
+            // Expected
+        }
+    }
+
+    public void testProcessorKeepsTypes() throws IOException {
+        List<List<ResultElement>> rows = new ArrayList<List<ResultElement>>();
+        rows.add(Arrays.asList(new ResultElement(Integer.valueOf(7)), null));
+        ColumnarOutput output = output(10, "age", "name");
+        new ColumnarResultProcessor().write(rows.iterator(), output);
+        output.flush();
+
+        startReading("age", "name");
+        assertEquals(1, in.readInt());
+        assertEquals(ColumnarOutput.INT, in.readByte());
+        assertEquals(0, in.readByte());
+        assertEquals(7, in.readInt());
+        assertEquals(ColumnarOutput.STRING, in.readByte());
+        assertEquals(1, in.readByte());
+        assertEquals(0, in.readInt());
+        assertEquals(0, in.readInt());
+        assertEnd(200, "");
+    }
+}
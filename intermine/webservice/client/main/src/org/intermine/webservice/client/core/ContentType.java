@@ -76,6 +76,13 @@ public final class ContentType
     public static final ContentType APPLICATION_JSON_ROW =
         new ContentType("application", "jsonrows", UTF8_CHARSET);
 
+    /**
+     * A Content type that describes the binary columnar content type. This has no character set,
+     * as the content is binary (the strings in it are always UTF-8).
+     */
+    public static final ContentType APPLICATION_COLUMNS =
+        new ContentType("application", "x-intermine-columns", null);
+
     private ContentType(String type, String subType, String charSet) {
         this.type = type;
         this.subType = subType;
@@ -84,6 +91,9 @@ public final class ContentType
 
     @Override
     public String toString() {
+        if (charSet == null) {
+            return type + "/" + subType;
+        }
         return type + "/" + subType + ";char-set:" + charSet;
     }
 
@@ -117,7 +127,7 @@ public final class ContentType
     }
 
     /**
-     * @return character set of this content type.
+     * @return character set of this content type, or null if the content is binary.
      */
     public String getCharSet() {
         return charSet;
@@ -201,6 +201,8 @@ public class Service
             return "json";
         } else if (contentType == ContentType.TEXT_XML) {
             return "xml";
+        } else if (contentType == ContentType.APPLICATION_COLUMNS) {
+            return "columns";
         }
         return null;
     }
@@ -0,0 +1,257 @@
+package org.intermine.webservice.client.results;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.client.util.HttpConnection;
+
+/**
+ * A streaming reader for results in the binary columnar format (format=columns). Rows are
+ * decoded one batch at a time, so only a single batch is held in memory however large the
+ * result set is, and values arrive with their types (Integer, Long, Double, Boolean, Date or
+ * String) without any text parsing.
+ *
+ * See ColumnarOutput in the web service for a description of the format.
+ */
+public class ColumnarResultSet implements Iterable<List<Object>>, Closeable
+{
+    /** The first int of the stream. **/
+    static final int MAGIC = 0x494d4353;
+    /** The version of the format this reader understands. **/
+    static final int VERSION = 1;
+
+    static final byte BOOLEAN = 1;
+    static final byte INT = 2;
+    static final byte LONG = 3;
+    static final byte DOUBLE = 4;
+    static final byte DATE = 5;
+    static final byte STRING = 6;
+
+    private final HttpConnection connection;
+    private final DataInputStream in;
+    private final List<String> columns;
+    private boolean used = false;
+
+    /**
+     * Construct a result set reading from a connection.
+     * @param connection The connection to receive results from.
+     */
+    public ColumnarResultSet(HttpConnection connection) {
+        this(connection, connection.getResponseBodyAsStream());
+    }
+
+    /**
+     * Construct a result set reading from a stream, for example a saved response.
+     * @param is The stream to read.
+     */
+    public ColumnarResultSet(InputStream is) {
+        this(null, is);
+    }
+
+    private ColumnarResultSet(HttpConnection connection, InputStream is) {
+        this.connection = connection;
+        this.in = new DataInputStream(new BufferedInputStream(is, 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new ServiceException("The response is not in the columnar format");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new ServiceException("Cannot read version " + version
+                        + " of the columnar format");
+            }
+            int columnCount = in.readInt();
+            List<String> names = new ArrayList<String>();
+            for (int i = 0; i < columnCount; i++) {
+                names.add(readString());
+            }
+            columns = Collections.unmodifiableList(names);
+        } catch (IOException e) {
+            close();
+            throw new ServiceException("Reading from response stream failed", e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The names of the columns of the results.
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Get an iterator over the rows. The rows can only be read once.
+     * @return An iterator over the rows, each of which is a list of values.
+     */
+    @Override
+    public Iterator<List<Object>> iterator() {
+        if (used) {
+            throw new IllegalStateException("The results have already been read");
+        }
+        used = true;
+        return new RowIterator();
+    }
+
+    /**
+     * Read all the rows into memory.
+     * @return A list of rows.
+     */
+    public List<List<Object>> getRowsAsLists() {
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        for (List<Object> row : this) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Stop reading and release the connection the results are read from. This happens
+     * automatically when all the rows have been read or reading fails, but must be done by
+     * callers that stop reading early. It may safely be called more than once.
+     */
+    @Override
+    public void close() {
+        if (connection != null) {
+            connection.close();
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing more we can do
+        }
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Reads a batch of rows, or returns null at the end of the results.
+     */
+    private Object[][] readBatch() throws IOException {
+        int rows = in.readInt();
+        if (rows == 0) {
+            int code = in.readInt();
+            String error = readString();
+            if (code >= 300 || error.length() > 0) {
+                throw new ServiceException(error.length() > 0 ? error : "Error code: " + code);
+            }
+            return null;
+        }
+        Object[][] batch = new Object[rows][columns.size()];
+        byte[] nulls = new byte[(rows + 7) / 8];
+        for (int col = 0; col < columns.size(); col++) {
+            byte type = in.readByte();
+            in.readFully(nulls);
+            String[] dictionary = null;
+            if (type == STRING) {
+                dictionary = new String[in.readInt()];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = readString();
+                }
+            }
+            for (int i = 0; i < rows; i++) {
+                Object value = readValue(type, dictionary);
+                if ((nulls[i / 8] & (1 << (i % 8))) == 0) {
+                    batch[i][col] = value;
+                }
+            }
+        }
+        return batch;
+    }
+
+    private Object readValue(byte type, String[] dictionary) throws IOException {
+        switch (type) {
+            case BOOLEAN:
+                return Boolean.valueOf(in.readByte() != 0);
+            case INT:
+                return Integer.valueOf(in.readInt());
+            case LONG:
+                return Long.valueOf(in.readLong());
+            case DOUBLE:
+                return Double.valueOf(in.readDouble());
+            case DATE:
+                return new Date(in.readLong());
+            case STRING:
+                int index = in.readInt();
+                return dictionary.length == 0 ? null : dictionary[index];
+            default:
+                throw new ServiceException("Unknown column type " + type);
+        }
+    }
+
+    private class RowIterator implements Iterator<List<Object>>
+    {
+        private Object[][] batch = new Object[0][];
+        private int index = 0;
+        private boolean finished = false;
+
+        @Override
+        public boolean hasNext() {
+            if (index < batch.length) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            try {
+                batch = readBatch();
+            } catch (IOException e) {
+                finished = true;
+                close();
+                throw new ServiceException("Reading from response stream failed", e);
+            } catch (ServiceException e) {
+                finished = true;
+                close();
+                throw e;
+            }
+            index = 0;
+            if (batch == null) {
+                batch = new Object[0][];
+                finished = true;
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public List<Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return Arrays.asList(batch[index++]);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -10,9 +10,11 @@ package org.intermine.webservice.client.results;
  *
  */
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.intermine.webservice.client.exceptions.ServiceException;
 import org.intermine.webservice.client.util.ErrorMessageParser;
@@ -21,6 +23,7 @@ import org.intermine.webservice.client.util.HttpConnection;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 /**
  * @author Alex Kalderimis
@@ -52,10 +55,14 @@ public class JSONResult extends ResultSet
      * @throws JSONException If there is an error parsing the content.
      */
     public List<JSONObject> getObjects() throws JSONException {
-        JSONArray results = getResults();
         List<JSONObject> objects = new ArrayList<JSONObject>();
-        for (int index = 0; index < results.length(); index++) {
-            objects.add(results.getJSONObject(index));
+        Iterator<JSONObject> it = getIterator();
+        try {
+            while (it.hasNext()) {
+                objects.add(it.next());
+            }
+        } finally {
+            close();
         }
         return objects;
     }
@@ -66,8 +73,12 @@ public class JSONResult extends ResultSet
     public JSONArray getResults() {
         StringBuilder sb = new StringBuilder();
         String line = null;
-        while ((line = getNextLine()) != null) {
-            sb.append(checkLineForErrors(line));
+        try {
+            while ((line = getNextLine()) != null) {
+                sb.append(checkLineForErrors(line));
+            }
+        } finally {
+            close();
         }
         try {
             JSONObject resultSet = new JSONObject(sb.toString());
@@ -85,38 +96,136 @@ public class JSONResult extends ResultSet
         return line;
     }
 
-    private class JSONIterator implements Iterator<JSONObject>
+    /**
+     * Reads the objects in the results array one at a time, straight from the response, so the
+     * whole result set is never held in memory. The other properties of the response (such as
+     * wasSuccessful and error) are collected as they go past and checked at the end.
+     */
+    private class JSONIterator implements Iterator<JSONObject>, Closeable
     {
 
-        private JSONArray results;
-        private int index = 0;
+        private final JSONTokener tokener = new JSONTokener(getReader());
+        private final JSONObject container = new JSONObject();
+        private JSONObject next = null;
+        private boolean finished = false;
+
+        public JSONIterator() throws JSONException {
+            try {
+                readStart();
+            } catch (JSONException e) {
+                close();
+                throw e;
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private void readStart() throws JSONException {
+            char c = tokener.nextClean();
+            if (c == '<') {
+                tokener.back();
+                throw new ServiceException(ErrorMessageParser.parseError(tokener.nextTo('\0')));
+            }
+            if (c != '{') {
+                throw tokener.syntaxError("A JSON result set must begin with '{'");
+            }
+            if (!readProperties()) {
+                // There were no results at all
+                finish();
+            }
+        }
+
+        /**
+         * Read the properties of the container up to the results array, or to the end.
+         * @return true if the results array has been reached.
+         */
+        private boolean readProperties() throws JSONException {
+            while (true) {
+                char c = tokener.nextClean();
+                if (c == '}') {
+                    return false;
+                }
+                if (c != ',') {
+                    tokener.back();
+                }
+                String key = tokener.nextValue().toString();
+                if (tokener.nextClean() != ':') {
+                    throw tokener.syntaxError("Expected a ':' after a key");
+                }
+                if ("results".equals(key)) {
+                    if (tokener.nextClean() == '[') {
+                        return true;
+                    }
+                    tokener.back();
+                }
+                container.put(key, tokener.nextValue());
+            }
+        }
 
-        public JSONIterator() {
-            results = getResults();
+        private JSONObject readNext() throws JSONException {
+            char c = tokener.nextClean();
+            if (c == ',') {
+                c = tokener.nextClean();
+            }
+            if (c == ']') {
+                readProperties();
+                finish();
+                return null;
+            }
+            tokener.back();
+            Object value = tokener.nextValue();
+            if (!(value instanceof JSONObject)) {
+                throw tokener.syntaxError("Expected a JSON object in the results");
+            }
+            return (JSONObject) value;
+        }
+
+        private void finish() {
+            finished = true;
+            closeConnection();
+            if (!container.optBoolean("wasSuccessful", true)) {
+                throw new ServiceException(container.optString("error"));
+            }
         }
 
         public boolean hasNext() {
-            return (index < results.length());
+            if (next == null && !finished) {
+                try {
+                    next = readNext();
+                } catch (JSONException e) {
+                    finished = true;
+                    closeConnection();
+                    throw new ServiceException("Problem parsing json object", e);
+                }
+            }
+            return next != null;
         }
 
         public JSONObject next() {
-            JSONObject next;
-            try {
-                next = results.getJSONObject(index);
-            } catch (JSONException e) {
-                throw new RuntimeException("Problem parsing json object", e);
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
-            index++;
-            return next;
+            JSONObject ret = next;
+            next = null;
+            return ret;
         }
 
         public void remove() {
             throw new UnsupportedOperationException();
         }
+
+        @Override
+        public void close() {
+            finished = true;
+            next = null;
+            JSONResult.this.close();
+        }
     }
 
     /**
-     * @return An iterator over each object in the result set.
+     * @return An iterator over each object in the result set. The iterator is also Closeable,
+     * and should be closed if it is abandoned before the end.
      * @throws JSONException if there is an error parsing the data in the JSON.
      */
     public Iterator<JSONObject> getIterator() throws JSONException {
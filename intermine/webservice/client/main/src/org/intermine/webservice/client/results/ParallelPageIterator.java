@@ -0,0 +1,162 @@
+package org.intermine.webservice.client.results;
+
+/*
+ * Copyright (C) 2002-2015 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.intermine.webservice.client.exceptions.ServiceException;
+
+/**
+ * An iterator over a large result set that is fetched as a series of pages, several of which
+ * are requested at once. Rows are returned in order, as if the whole result set had been read
+ * over one connection, but the server can be working on the following pages while the caller
+ * reads the current one.
+ *
+ * Only a fixed number of pages are fetched ahead of the one being read, so memory use is bounded
+ * by the page size times the parallelism, however large the result set.
+ *
+ * @param <E> The type of the rows.
+ */
+public abstract class ParallelPageIterator<E> implements Iterator<E>, Closeable
+{
+    private final Page lastPage;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final LinkedList<Future<List<E>>> pending = new LinkedList<Future<List<E>>>();
+    private Page nextPage;
+    private Iterator<E> current = null;
+    private boolean started = false;
+    private boolean finished = false;
+
+    /**
+     * Constructor.
+     *
+     * @param page The part of the result set to retrieve. It must have a size, which is used as
+     * the size of each page fetched.
+     * @param total The total number of rows in the result set, as returned by a count request.
+     * @param parallelism The number of pages to fetch at once.
+     */
+    public ParallelPageIterator(Page page, int total, int parallelism) {
+        if (page.getSize() == null) {
+            throw new IllegalArgumentException("page must have a size");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1, not " + parallelism);
+        }
+        this.nextPage = page;
+        this.lastPage = page.last(total);
+        this.parallelism = parallelism;
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "InterMine page fetcher");
+                // Don't keep the JVM alive if the caller abandons the iterator
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        if (total <= page.getStart()) {
+            close();
+        }
+    }
+
+    /**
+     * Fetch one page of the result set. This will be called from several threads at once.
+     *
+     * @param page The page to fetch.
+     * @return The rows of the page, in order.
+     */
+    protected abstract List<E> fetch(Page page);
+
+    private void fill() {
+        started = true;
+        while (nextPage != null && pending.size() < parallelism) {
+            final Page page = nextPage;
+            pending.add(executor.submit(new Callable<List<E>>() {
+                @Override
+                public List<E> call() {
+                    return fetch(page);
+                }
+            }));
+            nextPage = (page.getStart() >= lastPage.getStart()) ? null : page.next();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!started) {
+            // Not in the constructor, as subclasses must be constructed before fetch() is called
+            fill();
+        }
+        while (current == null || !current.hasNext()) {
+            if (pending.isEmpty()) {
+                close();
+                return false;
+            }
+            Future<List<E>> future = pending.removeFirst();
+            fill();
+            try {
+                current = future.get().iterator();
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new ServiceException("Interrupted while fetching results", e);
+            } catch (ExecutionException e) {
+                close();
+                if (e.getCause() instanceof ServiceException) {
+                    throw (ServiceException) e.getCause();
+                }
+                throw new ServiceException("Error fetching results", e.getCause());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop fetching pages. This happens automatically when all the rows have been read, but
+     * should be called if the caller stops reading early.
+     */
+    @Override
+    public void close() {
+        if (!finished) {
+            finished = true;
+            nextPage = null;
+            for (Future<List<E>> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -11,10 +11,12 @@ package org.intermine.webservice.client.results;
  */
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.List;
 
 import org.intermine.webservice.client.exceptions.ServiceException;
@@ -22,12 +24,20 @@ import org.intermine.webservice.client.util.HttpConnection;
 
 /**
  * Common behaviour and interface for result sets.
+ *
+ * A result set read from a connection holds one of the client's pooled connections until all
+ * of it has been read, or reading it fails. Callers that stop reading early must close the result
+ * set (or the iterator they read it with, which is also Closeable) to give the connection back,
+ * otherwise later requests to the same server may have to wait for one.
+ *
  * @author Alex Kalderimis
  *
  */
-public abstract class ResultSet
+public abstract class ResultSet implements Closeable
 {
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     private HttpConnection connection = null;
     private String stringResults = null;
     private InputStream streamResults = null;
@@ -92,9 +102,9 @@ public abstract class ResultSet
     private BufferedReader getNewReader() {
         if (connection != null) {
             return new BufferedReader(new InputStreamReader(connection
-                        .getResponseBodyAsStream()));
+                        .getResponseBodyAsStream(), UTF8));
         } else if (streamResults != null) {
-            return new BufferedReader(new InputStreamReader(streamResults));
+            return new BufferedReader(new InputStreamReader(streamResults, UTF8));
         } else {
             return new BufferedReader(new StringReader(stringResults));
         }
@@ -118,9 +128,22 @@ public abstract class ResultSet
         return nextLine;
     }
 
-    private void closeConnection() {
+    /**
+     * Release the connection the data is read from. This happens automatically when the last
+     * line has been read with getNextLine().
+     */
+    protected void closeConnection() {
         if (connection != null) {
             connection.close();
         }
     }
+
+    /**
+     * Stop reading and release the connection the data is read from. This happens automatically
+     * when all the data has been read or reading fails, and may safely be called again.
+     */
+    @Override
+    public void close() {
+        closeConnection();
+    }
 }
@@ -13,6 +13,7 @@ package org.intermine.webservice.client.results;
 import org.intermine.webservice.client.util.HttpConnection;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.InputStream;
 import java.util.List;
 import java.util.ArrayList;
@@ -99,13 +100,17 @@ public class RowResultSet extends ResultSet
     public List<List<String>> getData() {
         List<List<String>> ret = new ArrayList<List<String>>();
         String rowData = null;
-        while ((rowData = getNextRow()) != null) {
-            List<Object> r = new ResultRowList(rowData);
-            List<String> row = new ArrayList<String>();
-            for (Object o: r) {
-                row.add(o.toString());
+        try {
+            while ((rowData = getNextRow()) != null) {
+                List<Object> r = new ResultRowList(rowData);
+                List<String> row = new ArrayList<String>();
+                for (Object o: r) {
+                    row.add(o.toString());
+                }
+                ret.add(row);
             }
-            ret.add(row);
+        } finally {
+            close();
         }
         return ret;
     }
@@ -122,12 +127,16 @@ public class RowResultSet extends ResultSet
     public List<List<Object>> getRowsAsLists() {
         List<List<Object>> ret = new ArrayList<List<Object>>();
         String rowData = null;
-        while ((rowData = getNextRow()) != null) {
-            if (useNewAPI) {
-                ret.add(new JsonRow(rowData));
-            } else {
-                ret.add(new ResultRowList(rowData));
+        try {
+            while ((rowData = getNextRow()) != null) {
+                if (useNewAPI) {
+                    ret.add(new JsonRow(rowData));
+                } else {
+                    ret.add(new ResultRowList(rowData));
+                }
             }
+        } finally {
+            close();
         }
         return ret;
     }
@@ -144,12 +153,16 @@ public class RowResultSet extends ResultSet
     public List<Map<String, Object>> getRowsAsMaps() {
         List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
         String rowData = null;
-        while ((rowData = getNextRow()) != null) {
-            if (useNewAPI) {
-                ret.add(new JsonRowMap(rowData, views));
-            } else {
-                ret.add(new ResultRowMap(rowData, views));
+        try {
+            while ((rowData = getNextRow()) != null) {
+                if (useNewAPI) {
+                    ret.add(new JsonRowMap(rowData, views));
+                } else {
+                    ret.add(new ResultRowMap(rowData, views));
+                }
             }
+        } finally {
+            close();
         }
         return ret;
     }
@@ -183,7 +196,7 @@ public class RowResultSet extends ResultSet
         return nextLine;
     }
 
-    private class RowMapIterator implements Iterator<Map<String, Object>>
+    private class RowMapIterator implements Iterator<Map<String, Object>>, Closeable
     {
         private Map<String, Object> next;
 
@@ -192,15 +205,26 @@ public class RowResultSet extends ResultSet
         }
 
         private Map<String, Object> nextRowMap() {
-            String line = getNextRow();
-
-            if (line != null) {
-                return useNewAPI ? new JsonRowMap(line, views) : new ResultRowMap(line, views);
-            } else {
-                return null;
+            try {
+                String line = getNextRow();
+
+                if (line != null) {
+                    return useNewAPI ? new JsonRowMap(line, views) : new ResultRowMap(line, views);
+                } else {
+                    return null;
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
             }
         }
 
+        @Override
+        public void close() {
+            next = null;
+            RowResultSet.this.close();
+        }
+
         @Override
         public boolean hasNext() {
             return next != null;
@@ -222,7 +246,7 @@ public class RowResultSet extends ResultSet
         }
     }
 
-    private class RowListIterator implements Iterator<List<Object>>
+    private class RowListIterator implements Iterator<List<Object>>, Closeable
     {
         private List<Object> next;
 
@@ -231,15 +255,26 @@ public class RowResultSet extends ResultSet
         }
 
         private List<Object> nextRowList() {
-            String line = getNextRow();
-
-            if (line != null) {
-                return useNewAPI ? new JsonRow(line) : new ResultRowList(line);
-            } else {
-                return null;
+            try {
+                String line = getNextRow();
+
+                if (line != null) {
+                    return useNewAPI ? new JsonRow(line) : new ResultRowList(line);
+                } else {
+                    return null;
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
             }
         }
 
+        @Override
+        public void close() {
+            next = null;
+            RowResultSet.this.close();
+        }
+
         @Override
         public boolean hasNext() {
             return next != null;
@@ -262,7 +297,8 @@ public class RowResultSet extends ResultSet
     }
 
     /**
-     * Get a memory efficient iterator over the result rows as lists
+     * Get a memory efficient iterator over the result rows as lists. The iterator is also
+     * Closeable, and should be closed if it is abandoned before the end.
      * @return an iterator over the rows in this result set as lists of values
      */
     public Iterator<List<Object>> getListIterator() {
@@ -270,7 +306,8 @@ public class RowResultSet extends ResultSet
     }
 
     /**
-     * Get a memory efficient iterator over the result rows as lists
+     * Get a memory efficient iterator over the result rows as maps. The iterator is also
+     * Closeable, and should be closed if it is abandoned before the end.
      * @return an iterator over the rows in this result set as maps of column names to values
      */
     public Iterator<Map<String, Object>> getMapIterator() {
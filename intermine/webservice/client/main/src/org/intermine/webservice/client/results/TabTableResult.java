@@ -10,6 +10,7 @@ package org.intermine.webservice.client.results;
  *
  */
 
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -67,8 +68,12 @@ public class TabTableResult extends ResultSet
     public List<List<String>> getData() {
         List<List<String>> ret = new ArrayList<List<String>>();
         String line;
-        while ((line = getNextLine()) != null) {
-            ret.add(parseLine(line));
+        try {
+            while ((line = getNextLine()) != null) {
+                ret.add(parseLine(line));
+            }
+        } finally {
+            close();
         }
         return ret;
     }
@@ -86,7 +91,7 @@ public class TabTableResult extends ResultSet
         return ret;
     }
 
-    private class TableIterator implements Iterator<List<String>>
+    private class TableIterator implements Iterator<List<String>>, Closeable
     {
 
         private List<String> next;
@@ -96,15 +101,26 @@ public class TabTableResult extends ResultSet
         }
 
         private List<String> parseNext() {
-            String line = getNextLine();
-
-            if (line != null) {
-                return parseLine(line);
-            } else {
-                return null;
+            try {
+                String line = getNextLine();
+
+                if (line != null) {
+                    return parseLine(line);
+                } else {
+                    return null;
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
             }
         }
 
+        @Override
+        public void close() {
+            next = null;
+            TabTableResult.this.close();
+        }
+
         @Override
         public boolean hasNext() {
             return next != null;
@@ -127,7 +143,8 @@ public class TabTableResult extends ResultSet
     }
 
     /**
-     * Get a memory efficient iterator over the result rows as lists
+     * Get a memory efficient iterator over the result rows as lists. The iterator is also
+     * Closeable, and should be closed if it is abandoned before the end.
      * @return An iterator over rows as lists fo strings.
      */
     public Iterator<List<String>> getIterator() {
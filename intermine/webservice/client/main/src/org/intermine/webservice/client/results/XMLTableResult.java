@@ -11,6 +11,7 @@ package org.intermine.webservice.client.results;
  */
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -99,13 +100,30 @@ public class XMLTableResult extends ResultSet
     public List<List<String>> getData() {
         List<List<String>> ret = new ArrayList<List<String>>();
         List<String> row = null;
-        while ((row = getNextRow()) != null) {
-            ret.add(row);
+        try {
+            while ((row = getNextRow()) != null) {
+                ret.add(row);
+            }
+        } finally {
+            close();
         }
         return ret;
     }
 
     private List<String> getNextRow() {
+        try {
+            List<String> row = readRow();
+            if (row == null) {
+                close();
+            }
+            return row;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private List<String> readRow() {
         List<String> row = new ArrayList<String>();
         boolean hasGotWholeRow = false;
         boolean hasGotWholeResultSet = false;
@@ -180,7 +198,7 @@ public class XMLTableResult extends ResultSet
         }
     }
 
-    private class TableIterator implements Iterator<List<String>>
+    private class TableIterator implements Iterator<List<String>>, Closeable
     {
 
         private List<String> next;
@@ -204,6 +222,12 @@ public class XMLTableResult extends ResultSet
             return tmp;
         }
 
+        @Override
+        public void close() {
+            next = null;
+            XMLTableResult.this.close();
+        }
+
         @Override
         public void remove() {
             throw new UnsupportedOperationException();
@@ -211,7 +235,9 @@ public class XMLTableResult extends ResultSet
     }
 
     /**
-     * {@inheritDoc}
+     * Get a memory efficient iterator over the result rows as lists. The iterator is also
+     * Closeable, and should be closed if it is abandoned before the end.
+     * @return An iterator over rows as lists of strings.
      */
     public Iterator<List<String>> getIterator() {
         return new TableIterator();
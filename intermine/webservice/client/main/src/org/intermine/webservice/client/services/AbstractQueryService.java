@@ -16,8 +16,10 @@ import java.util.Map;
 
 import org.intermine.webservice.client.core.Request;
 import org.intermine.webservice.client.core.Service;
+import org.intermine.webservice.client.results.ColumnarResultSet;
 import org.intermine.webservice.client.results.JSONResult;
 import org.intermine.webservice.client.results.Page;
+import org.intermine.webservice.client.results.ParallelPageIterator;
 import org.intermine.webservice.client.results.RowResultSet;
 import org.intermine.webservice.client.results.XMLTableResult;
 import org.intermine.webservice.client.util.HttpConnection;
@@ -193,6 +195,50 @@ public abstract class AbstractQueryService<T> extends Service
         return getRows(query, page).getListIterator();
     }
 
+    /**
+     * Get an iterator over all the results of a query, fetched as a series of pages of which
+     * several are requested from the server at once. The rows are returned in the same order as
+     * getRowListIterator() would return them, but large result sets can be retrieved much faster.
+     * Only <code>parallelism</code> pages are held in memory at any time.
+     *
+     * @param query the query to run.
+     * @param pageSize the number of rows to fetch in each request.
+     * @param parallelism the number of requests to make at once.
+     * @return an iterator over the rows, where each row is a list of objects.
+     */
+    public ParallelPageIterator<List<Object>> getParallelRowListIterator(final T query,
+            int pageSize, int parallelism) {
+        return new ParallelPageIterator<List<Object>>(new Page(0, pageSize), getCount(query),
+                parallelism) {
+            @Override
+            protected List<List<Object>> fetch(Page page) {
+                return getRows(query, page).getRowsAsLists();
+            }
+        };
+    }
+
+    /**
+     * Get an iterator over all the results of a query, fetched as a series of pages of which
+     * several are requested from the server at once. The rows are returned in the same order as
+     * getRowMapIterator() would return them, but large result sets can be retrieved much faster.
+     * Only <code>parallelism</code> pages are held in memory at any time.
+     *
+     * @param query the query to run.
+     * @param pageSize the number of rows to fetch in each request.
+     * @param parallelism the number of requests to make at once.
+     * @return an iterator over the rows, where each row is a mapping from output column to value.
+     */
+    public ParallelPageIterator<Map<String, Object>> getParallelRowMapIterator(final T query,
+            int pageSize, int parallelism) {
+        return new ParallelPageIterator<Map<String, Object>>(new Page(0, pageSize),
+                getCount(query), parallelism) {
+            @Override
+            protected List<Map<String, Object>> fetch(Page page) {
+                return getRows(query, page).getRowsAsMaps();
+            }
+        };
+    }
+
     /**
      * Get results for a query as rows of objects. Get up to the
      * maximum result size of 10,000,000 rows from the beginning.
@@ -265,6 +311,17 @@ public abstract class AbstractQueryService<T> extends Service
         return new RowResultSet(connection, views, getAPIVersion());
     }
 
+    /**
+     * Performs the request and returns a streaming reader over the binary columnar response.
+     *
+     * @param request a Request object, asking for the columns format
+     * @return a ColumnarResultSet reading the response
+     */
+    protected ColumnarResultSet getColumnarResponse(Request request) {
+        HttpConnection connection = executeRequest(request);
+        return new ColumnarResultSet(connection);
+    }
+
     /**
      * Performs the request and returns a JSONResult containing the data.
      *
@@ -32,6 +32,7 @@ import org.intermine.webservice.client.core.Request.RequestType;
 import org.intermine.webservice.client.core.RequestImpl;
 import org.intermine.webservice.client.exceptions.ServiceException;
 import org.intermine.webservice.client.results.JSONResult;
+import org.intermine.webservice.client.results.ColumnarResultSet;
 import org.intermine.webservice.client.results.Page;
 import org.intermine.webservice.client.results.RowResultSet;
 import org.intermine.webservice.client.results.XMLTableResult;
@@ -402,6 +403,23 @@ public class QueryService extends AbstractQueryService<PathQuery>
         return getRows(request, views);
     }
 
+    /**
+     * Get the results of a query in the compact binary columnar format. This is the fastest way
+     * to retrieve large result sets. The rows are read a batch at a time as they are iterated
+     * over, and each value has the type of the attribute it comes from.
+     *
+     * @param query The query to run.
+     * @param page The subsection of the result set to retrieve.
+     * @return a result set that can be iterated over once.
+     */
+    public ColumnarResultSet getColumnarResults(PathQuery query, Page page) {
+        QueryRequest request =
+                new QueryRequest(RequestType.POST, getUrl(), ContentType.APPLICATION_COLUMNS);
+        request.setPage(page);
+        request.setQueryXml(query.toXml(PathQuery.USERPROFILE_VERSION));
+        return getColumnarResponse(request);
+    }
+
     /**
      * Get a summary for the values in column of a query.
      *
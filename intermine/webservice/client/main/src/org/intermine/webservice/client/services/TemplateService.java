@@ -36,6 +36,7 @@ import org.intermine.webservice.client.core.Request.RequestType;
 import org.intermine.webservice.client.core.Request;
 import org.intermine.webservice.client.core.RequestImpl;
 import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.client.results.ColumnarResultSet;
 import org.intermine.webservice.client.results.Page;
 import org.intermine.webservice.client.results.RowResultSet;
 import org.intermine.webservice.client.template.TemplateParameter;
@@ -561,22 +562,42 @@ public class TemplateService extends AbstractQueryService<TemplateQuery>
         return getRows(name, params).getMapIterator();
     }
 
+    /**
+     * Get the results of a template in the compact binary columnar format. This is the fastest
+     * way to retrieve large result sets. The rows are read a batch at a time as they are
+     * iterated over, and each value has the type of the attribute it comes from.
+     *
+     * @param name The name of the template to run.
+     * @param params The settings for the various template constraints.
+     * @param page The subsection of the result set to retrieve.
+     * @return a result set that can be iterated over once.
+     */
+    public ColumnarResultSet getColumnarResults(String name, List<TemplateParameter> params,
+            Page page) {
+        TemplateRequest request = new TemplateRequest(RequestType.POST, getUrl(),
+                ContentType.APPLICATION_COLUMNS);
+        request.setName(name);
+        request.setTemplateParameters(params);
+        request.setPage(page);
+        return getColumnarResponse(request);
+    }
+
     private RowResultSet getRows(String name, List<TemplateParameter> params) {
         TemplateQuery tq = getTemplate(name);
         if (tq == null) {
             throw new ServiceException("There is no template named " + name);
         }
-        return getRows(name, params, tq.getView());
+        return getRows(name, params, tq.getView(), Page.DEFAULT);
     }
 
     @Override
     protected RowResultSet getRows(TemplateQuery query, Page page) {
         List<TemplateParameter> parameters = getParametersFor(query);
-        return getRows(query.getName(), parameters, query.getView());
+        return getRows(query.getName(), parameters, query.getView(), page);
     }
 
     private RowResultSet getRows(String name, List<TemplateParameter> params,
-            List<String> views) {
+            List<String> views, Page page) {
         ContentType ct = (getAPIVersion() < 8)
                 ? ContentType.APPLICATION_JSON_ROW
                 : ContentType.APPLICATION_JSON;
@@ -584,6 +605,7 @@ public class TemplateService extends AbstractQueryService<TemplateQuery>
 
         request.setName(name);
         request.setTemplateParameters(params);
+        request.setPage(page);
         return getRows(request, views);
     }
 
@@ -10,17 +10,21 @@ package org.intermine.webservice.client.util;
  *
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.ProxyHost;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
@@ -48,11 +52,32 @@ import org.json.JSONObject;
  * The HttpConnection is class wrapping implementation details of http connection and the
  * implementation can change easily.
  *
+ * All connections share one pool of keep-alive connections, so that making many requests to the
+ * same server (for example fetching pages of results in parallel) does not open a new socket for
+ * each one. Responses are requested gzip-compressed, and decompressed transparently when the
+ * server (or a proxy in front of it) honours that.
+ *
  * @author Jakub Kulaviak
  **/
 public class HttpConnection
 {
 
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    private static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 32;
+    private static final long DEFAULT_CONNECTION_MANAGER_TIMEOUT = 60 * 1000;
+
+    // How long to wait for a pooled connection when the request has no timeout of its own
+    private static volatile long connectionManagerTimeout = DEFAULT_CONNECTION_MANAGER_TIMEOUT;
+
+    private static final MultiThreadedHttpConnectionManager CONNECTIONS =
+        new MultiThreadedHttpConnectionManager();
+
+    static {
+        CONNECTIONS.getParams().setDefaultMaxConnectionsPerHost(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        CONNECTIONS.getParams().setMaxTotalConnections(DEFAULT_MAX_TOTAL_CONNECTIONS);
+        CONNECTIONS.getParams().setStaleCheckingEnabled(true);
+    }
+
     private Request request;
 
     HttpMethodBase executedMethod;
@@ -70,14 +95,52 @@ public class HttpConnection
         this.request = request;
     }
 
+    /**
+     * Sets the number of connections to each server that may be open at once, shared by all
+     * requests made by this client. Requests beyond this number wait for a free connection.
+     *
+     * @param max The maximum number of connections per server (8 by default).
+     */
+    public static void setMaxConnectionsPerHost(int max) {
+        CONNECTIONS.getParams().setDefaultMaxConnectionsPerHost(max);
+        if (CONNECTIONS.getParams().getMaxTotalConnections() < max) {
+            CONNECTIONS.getParams().setMaxTotalConnections(max);
+        }
+    }
+
+    /**
+     * Sets the total number of connections that may be open at once, shared by all requests made
+     * by this client.
+     *
+     * @param max The maximum number of connections (32 by default).
+     */
+    public static void setMaxTotalConnections(int max) {
+        CONNECTIONS.getParams().setMaxTotalConnections(max);
+    }
+
+    /**
+     * Sets how long a request waits for one of the pooled connections to become free when no
+     * timeout has been set on the request. Connections are held until results have been read or
+     * closed, so result sets that are abandoned without being closed use the pool up.
+     *
+     * @param millis The time to wait in milliseconds (one minute by default). Must be positive.
+     */
+    public static void setConnectionManagerTimeout(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("The timeout must be positive, not " + millis);
+        }
+        connectionManagerTimeout = millis;
+    }
+
     /**
      * @return response stream
      */
     public InputStream getResponseStream() {
         connect();
         try {
-            return executedMethod.getResponseBodyAsStream();
+            return getDecodedStream();
         } catch (IOException e) {
+            close();
             throw new RuntimeException("Fatal transport error.", e);
         }
     }
@@ -116,8 +179,11 @@ public class HttpConnection
     }
 
     private void executeMethod() {
-        HttpClient client = new HttpClient();
-        client.getParams().setConnectionManagerTimeout(timeout);
+        // The client is cheap to make - the connections it uses come from the shared pool
+        HttpClient client = new HttpClient(CONNECTIONS);
+        // A timeout of 0 would mean waiting for ever for a free connection
+        client.getParams().setConnectionManagerTimeout(timeout > 0 ? timeout
+                : connectionManagerTimeout);
         setProxy(client);
         String url = request.getEncodedUrl();
         if (request.getType() == RequestType.GET) {
@@ -139,6 +205,7 @@ public class HttpConnection
         // Provide custom retry handler is necessary
         executedMethod.getParams().setParameter(HttpMethodParams.RETRY_HANDLER,
                 new DefaultHttpMethodRetryHandler(retryCount, false));
+        executedMethod.setRequestHeader("Accept-Encoding", "gzip");
         for (String name : request.getHeaders().keySet()) {
             executedMethod.setRequestHeader(name, request.getHeader(name));
         }
@@ -147,9 +214,15 @@ public class HttpConnection
             client.executeMethod(executedMethod);
             checkResponse();
         } catch (HttpException e) {
+            executedMethod.releaseConnection();
             throw new RuntimeException("Fatal protocol violation.", e);
         } catch (IOException e) {
+            executedMethod.releaseConnection();
             throw new RuntimeException("Fatal transport error connecting to " + url, e);
+        } catch (RuntimeException e) {
+            // Error responses are thrown from checkResponse() - nobody will read these
+            executedMethod.releaseConnection();
+            throw e;
         }
     }
 
@@ -241,7 +314,7 @@ public class HttpConnection
      */
     protected void handleErrorResponse() throws IOException {
 
-        String message = executedMethod.getResponseBodyAsString();
+        String message = readBody();
         try {
             JSONObject jo = new JSONObject(message);
             message = jo.getString("error");
@@ -298,7 +371,7 @@ public class HttpConnection
         }
         String res = null;
         try {
-            res = executedMethod.getResponseBodyAsString();
+            res = readBody();
         } catch (IOException e) {
             throw new ServiceException(e);
         } finally {
@@ -315,9 +388,36 @@ public class HttpConnection
             throwNotConnectedException();
         }
         try {
-            return executedMethod.getResponseBodyAsStream();
+            return getDecodedStream();
         } catch (IOException e) {
+            close();
             throw new ServiceException(e);
         }
     }
+
+    private InputStream getDecodedStream() throws IOException {
+        InputStream body = executedMethod.getResponseBodyAsStream();
+        if (body == null) {
+            return null;
+        }
+        Header encoding = executedMethod.getResponseHeader("Content-Encoding");
+        if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue().trim())) {
+            return new GZIPInputStream(body);
+        }
+        return body;
+    }
+
+    private String readBody() throws IOException {
+        InputStream body = getDecodedStream();
+        if (body == null) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), executedMethod.getResponseCharSet());
+    }
 }
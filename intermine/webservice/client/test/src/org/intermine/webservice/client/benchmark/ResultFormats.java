@@ -11,6 +11,7 @@ import java.util.List;
 import org.intermine.pathquery.Constraints;
 import org.intermine.pathquery.PathQuery;
 import org.intermine.webservice.client.core.ServiceFactory;
+import org.intermine.webservice.client.results.Page;
 import org.intermine.webservice.client.services.QueryService;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -77,6 +78,27 @@ public class ResultFormats {
         doBenchmark(counter);
     }
 
+    @Test
+    public void benchmarkColumns() throws Exception {
+        RowCounter counter = new RowCounter() {
+            @Override
+            public int count(PathQuery query) {
+                int c = 0, cells = query.getView().size();
+                for (List<Object> row: flymine.getColumnarResults(query, Page.DEFAULT)) {
+                    assertEquals(cells, row.size());
+                    c++;
+                }
+                return c;
+            }
+
+            @Override
+            public String getName() {
+                return "COLUMNS";
+            }
+        };
+        doBenchmark(counter);
+    }
+
     @Test
     public void benchmarkJsonObj() throws Exception {
         RowCounter counter = new RowCounter() {
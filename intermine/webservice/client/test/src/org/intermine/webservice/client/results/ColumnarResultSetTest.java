@@ -0,0 +1,188 @@
+package org.intermine.webservice.client.results;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.server.output.ColumnarOutput;
+import org.intermine.webservice.server.output.Output;
+
+public class ColumnarResultSetTest extends TestCase {
+
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream out;
+
+    public ColumnarResultSetTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws IOException {
+        bytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(bytes);
+        out.writeInt(ColumnarResultSet.MAGIC);
+        out.writeInt(ColumnarResultSet.VERSION);
+        out.writeInt(3);
+        writeString("Employee.name");
+        writeString("Employee.age");
+        writeString("Employee.start");
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] b = s.getBytes("UTF-8");
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private void writeEnd(int code, String error) throws IOException {
+        out.writeInt(0);
+        out.writeInt(code);
+        writeString(error);
+    }
+
+    private ColumnarResultSet read() {
+        return new ColumnarResultSet(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    public void testRead() throws IOException {
+        // A batch of three rows
+        out.writeInt(3);
+        out.writeByte(ColumnarResultSet.STRING);
+        out.writeByte(0);
+        out.writeInt(2);
+        writeString("EmployeeA1");
+        writeString("EmployeeB1");
+        out.writeInt(0);
+        out.writeInt(1);
+        out.writeInt(0);
+        out.writeByte(ColumnarResultSet.INT);
+        out.writeByte(2); // row 1 is null
+        out.writeInt(10);
+        out.writeInt(0);
+        out.writeInt(30);
+        out.writeByte(ColumnarResultSet.DATE);
+        out.writeByte(0);
+        out.writeLong(1000L);
+        out.writeLong(2000L);
+        out.writeLong(3000L);
+        // A batch of one row, where every value is null
+        out.writeInt(1);
+        out.writeByte(ColumnarResultSet.STRING);
+        out.writeByte(1);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(ColumnarResultSet.LONG);
+        out.writeByte(1);
+        out.writeLong(0);
+        out.writeByte(ColumnarResultSet.BOOLEAN);
+        out.writeByte(1);
+        out.writeByte(0);
+        writeEnd(200, "");
+
+        ColumnarResultSet results = read();
+        assertEquals(Arrays.asList("Employee.name", "Employee.age", "Employee.start"),
+                results.getColumns());
+        List<List<Object>> rows = results.getRowsAsLists();
+        assertEquals(4, rows.size());
+        assertEquals(Arrays.<Object>asList("EmployeeA1", 10, new Date(1000L)), rows.get(0));
+        assertEquals(Arrays.<Object>asList("EmployeeB1", null, new Date(2000L)), rows.get(1));
+        assertEquals(Arrays.<Object>asList("EmployeeA1", 30, new Date(3000L)), rows.get(2));
+        assertEquals(Arrays.<Object>asList(null, null, null), rows.get(3));
+    }
+
+    public void testError() throws IOException {
+        out.writeInt(1);
+        out.writeByte(ColumnarResultSet.DOUBLE);
+        out.writeByte(0);
+        out.writeDouble(1.5);
+        out.writeByte(ColumnarResultSet.DOUBLE);
+        out.writeByte(0);
+        out.writeDouble(2.5);
+        out.writeByte(ColumnarResultSet.DOUBLE);
+        out.writeByte(0);
+        out.writeDouble(3.5);
+        writeEnd(500, "Query failed");
+
+        Iterator<List<Object>> it = read().iterator();
+        assertEquals(Arrays.<Object>asList(1.5, 2.5, 3.5), it.next());
+        try {
+            it.hasNext();
+            fail("Expected an exception");
+        } catch (ServiceException e) {
+            assertEquals("Query failed", e.getMessage());
+        }
+    }
+
+    public void testReadServerOutput() {
+        // Write with the webservice's own output, in batches of two rows
+        bytes = new ByteArrayOutputStream();
+        ColumnarOutput output = new ColumnarOutput(bytes, 2);
+        output.setHeaderAttributes(Collections.<String, Object>singletonMap(
+                ColumnarOutput.KEY_COLUMNS, Arrays.asList("Employee.name", "Employee.age",
+                    "Employee.start", "Employee.fullTime", "Employee.salary")));
+        List<List<Object>> written = Arrays.asList(
+                Arrays.<Object>asList("EmployeeA1", 10, new Date(1000L), true, 1.5),
+                Arrays.<Object>asList("EmployeeB1", null, new Date(2000L), false, null),
+                Arrays.<Object>asList("EmployeeA1", 30, null, null, 3000000000L),
+                Arrays.<Object>asList("Employee\u00e9", 40L, new Date(4000L), true,
+                    new BigDecimal("1.10")),
+                Arrays.<Object>asList(null, null, null, null, null));
+        for (List<Object> row : written) {
+            output.addRow(row);
+        }
+        output.flush();
+
+        ColumnarResultSet results = read();
+        assertEquals(Arrays.asList("Employee.name", "Employee.age", "Employee.start",
+                    "Employee.fullTime", "Employee.salary"), results.getColumns());
+        List<List<Object>> rows = results.getRowsAsLists();
+        assertEquals(5, rows.size());
+        assertEquals(written.get(0), rows.get(0));
+        assertEquals(written.get(1), rows.get(1));
+        // Each batch is typed on its own: in the second, ints widen to longs, and values that no
+        // fixed-width type holds turn the column into strings
+        assertEquals(Arrays.<Object>asList("EmployeeA1", 30L, null, null, "3000000000"),
+                rows.get(2));
+        assertEquals(Arrays.<Object>asList("Employee\u00e9", 40L, new Date(4000L), true, "1.10"),
+                rows.get(3));
+        assertEquals(written.get(4), rows.get(4));
+    }
+
+    public void testReadServerError() {
+        bytes = new ByteArrayOutputStream();
+        ColumnarOutput output = new ColumnarOutput(bytes);
+        output.setHeaderAttributes(Collections.<String, Object>singletonMap(
+                ColumnarOutput.KEY_COLUMNS, Arrays.asList("Employee.name")));
+        output.addRow(Arrays.<Object>asList("EmployeeA1"));
+        output.setError("Query failed", Output.SC_INTERNAL_SERVER_ERROR);
+        output.flush();
+
+        Iterator<List<Object>> it = read().iterator();
+        assertEquals(Arrays.<Object>asList("EmployeeA1"), it.next());
+        try {
+            it.hasNext();
+            fail("Expected an exception");
+        } catch (ServiceException e) {
+            assertEquals("Query failed", e.getMessage());
+        }
+    }
+
+    public void testBadMagic() {
+        try {
+            new ColumnarResultSet(new ByteArrayInputStream("[{\"a\":1}]".getBytes()));
+            fail("Expected an exception");
+        } catch (ServiceException e) {
+            // Expected
+        }
+    }
+}
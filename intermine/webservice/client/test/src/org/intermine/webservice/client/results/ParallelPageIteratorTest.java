@@ -0,0 +1,81 @@
+package org.intermine.webservice.client.results;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.intermine.webservice.client.exceptions.ServiceException;
+import org.json.JSONObject;
+
+public class ParallelPageIteratorTest extends TestCase {
+
+    public ParallelPageIteratorTest(String name) {
+        super(name);
+    }
+
+    private static class Counter extends ParallelPageIterator<Integer> {
+        private final int total;
+        private final Random random = new Random(42);
+
+        Counter(Page page, int total, int parallelism) {
+            super(page, total, parallelism);
+            this.total = total;
+        }
+
+        @Override
+        protected List<Integer> fetch(Page page) {
+            // Finish out of order, as real requests would
+            try {
+                Thread.sleep(random.nextInt(5));
+            } catch (InterruptedException e) {
+                return Collections.emptyList();
+            }
+            List<Integer> rows = new ArrayList<Integer>();
+            for (int i = page.getStart(); i < Math.min(total, page.getStart() + page.getSize());
+                    i++) {
+                rows.add(i);
+            }
+            return rows;
+        }
+    }
+
+    public void testOrder() {
+        Iterator<Integer> it = new Counter(new Page(0, 7), 100, 4);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(it.hasNext());
+            assertEquals(i, it.next().intValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    public void testOffsetAndEmpty() {
+        Iterator<Integer> it = new Counter(new Page(95, 10), 100, 3);
+        for (int i = 95; i < 100; i++) {
+            assertEquals(i, it.next().intValue());
+        }
+        assertFalse(it.hasNext());
+        assertFalse(new Counter(new Page(0, 10), 0, 3).hasNext());
+    }
+
+    public void testStreamingJSONObjects() throws Exception {
+        String response = "{\"modelName\":\"testmodel\",\"results\":[\n"
+            + "{\"name\":\"a\"},\n{\"name\":\"b\",\"ages\":[1,2]}\n],\"wasSuccessful\":true}";
+        List<JSONObject> objects = new JSONResult(response).getObjects();
+        assertEquals(2, objects.size());
+        assertEquals("b", objects.get(1).getString("name"));
+
+        Iterator<JSONObject> it = new JSONResult("{\"results\":[{\"name\":\"a\"}],"
+                + "\"wasSuccessful\":false,\"error\":\"Query failed\"}").getIterator();
+        assertEquals("a", it.next().getString("name"));
+        try {
+            it.next();
+            fail("Expected a ServiceException");
+        } catch (ServiceException e) {
+            assertEquals("Query failed", e.getMessage());
+        }
+    }
+}
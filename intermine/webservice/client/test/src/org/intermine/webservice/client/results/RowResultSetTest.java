@@ -1,5 +1,7 @@
 package org.intermine.webservice.client.results;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -8,6 +10,8 @@ import java.util.Map;
 
 import junit.framework.TestCase;
 
+import org.intermine.webservice.client.util.HttpConnection;
+
 public class RowResultSetTest extends TestCase {
 
     private List<String> views = Arrays.asList(
@@ -89,9 +93,49 @@ public class RowResultSetTest extends TestCase {
         }
         assertEquals(i, 15);
     }
-}
 
+    public void testAbandonedIteratorReleasesConnection() throws Exception {
+        CountingConnection connection =
+            new CountingConnection(getClass().getResourceAsStream("resultrowset.json"));
+        RowResultSet rows = new RowResultSet(connection, views, 1);
+        Iterator<List<Object>> it = rows.getListIterator();
+        it.next();
+        assertEquals(0, connection.closed);
+        ((Closeable) it).close();
+        assertTrue(connection.closed > 0);
+    }
 
+    public void testFailedReadReleasesConnection() throws Exception {
+        CountingConnection connection = new CountingConnection(new ByteArrayInputStream(
+                    "{\"results\":[\n[1,\n[not json\n".getBytes("UTF-8")));
+        RowResultSet rows = new RowResultSet(connection, views, 1);
+        try {
+            rows.getRowsAsLists();
+            fail("Expected the bad row to be refused");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertTrue(connection.closed > 0);
+    }
 
+    private static class CountingConnection extends HttpConnection
+    {
+        private final InputStream body;
+        int closed = 0;
 
+        CountingConnection(InputStream body) {
+            super(null);
+            this.body = body;
+        }
 
+        @Override
+        public InputStream getResponseBodyAsStream() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+}